@@ -0,0 +1,94 @@
+package org.safehaus.penrose.control;
+
+import com.novell.ldap.asn1.*;
+
+/**
+ * @author Endi Sukma Dewata
+ */
+public class PersistentSearchControl extends Control {
+
+    public final static String OID = "2.16.840.1.113730.3.4.3";
+
+    public final static int ADD    = 1;
+    public final static int DELETE = 2;
+    public final static int MODIFY = 4;
+    public final static int MODDN  = 8;
+    public final static int ANY    = ADD | DELETE | MODIFY | MODDN;
+
+    protected int changeTypes;
+    protected boolean changesOnly;
+    protected boolean returnECs;
+
+    public PersistentSearchControl(Control control) throws Exception {
+        super(control);
+
+        decodeValue();
+    }
+
+    public PersistentSearchControl(
+            int changeTypes,
+            boolean changesOnly,
+            boolean returnECs,
+            boolean critical
+    ) throws Exception {
+        super(OID, null, critical);
+
+        this.changeTypes = changeTypes;
+        this.changesOnly = changesOnly;
+        this.returnECs = returnECs;
+
+        encodeValue();
+    }
+
+    public void encodeValue() throws Exception {
+
+        ASN1Sequence sequence = new ASN1Sequence();
+
+        sequence.add(new ASN1Integer(changeTypes));
+        sequence.add(new ASN1Boolean(changesOnly));
+        sequence.add(new ASN1Boolean(returnECs));
+
+        LBEREncoder encoder = new LBEREncoder();
+        value = sequence.getEncoding(encoder);
+    }
+
+    public void decodeValue() throws Exception {
+
+        LBERDecoder decoder = new LBERDecoder();
+
+        ASN1Sequence sequence = (ASN1Sequence)decoder.decode(value);
+
+        ASN1Integer changeTypes = (ASN1Integer)sequence.get(0);
+        this.changeTypes = changeTypes.intValue();
+
+        ASN1Boolean changesOnly = (ASN1Boolean)sequence.get(1);
+        this.changesOnly = changesOnly.booleanValue();
+
+        ASN1Boolean returnECs = (ASN1Boolean)sequence.get(2);
+        this.returnECs = returnECs.booleanValue();
+    }
+
+    public int getChangeTypes() {
+        return changeTypes;
+    }
+
+    public void setChangeTypes(int changeTypes) {
+        this.changeTypes = changeTypes;
+    }
+
+    public boolean isChangesOnly() {
+        return changesOnly;
+    }
+
+    public void setChangesOnly(boolean changesOnly) {
+        this.changesOnly = changesOnly;
+    }
+
+    public boolean isReturnECs() {
+        return returnECs;
+    }
+
+    public void setReturnECs(boolean returnECs) {
+        this.returnECs = returnECs;
+    }
+}
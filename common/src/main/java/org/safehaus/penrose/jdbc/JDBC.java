@@ -17,6 +17,14 @@ public class JDBC {
     public final static String FILTER       = "filter";
 
     public final static String SIZE_LIMIT   = "sizeLimit";
+    public final static String FETCH_SIZE   = "fetchSize";
+    public final static String SCAN_SIZE    = "scanSize";
+    public final static String SCAN_RETRIES = "scanRetries";
+    public final static String SCAN_THREADS = "scanThreads";
+
+    public final static String STATISTICS_INTERVAL = "statisticsInterval";
+
+    public final static String TEMPLATE_CACHE_SIZE = "templateCacheSize";
     public final static String CREATE       = "create";
 
     public final static String AUTHENTICATION          = "authentication";
@@ -49,6 +49,9 @@ public class LDAP {
     public final static String AUTHENTICATION_FULL     = "full";
     public final static String AUTHENTICATION_DISABLED = "disabled";
 
+    public final static String HEDGING                 = "hedging";
+    public final static String HEDGING_BUDGET          = "hedgingBudget"; // percent
+
     public final static DN ROOT_DSE_DN = new DN("");
     public final static DN SCHEMA_DN   = new DN("cn=Subschema");
 
@@ -20,7 +20,6 @@ package org.safehaus.penrose.ldap;
 import org.safehaus.penrose.filter.Filter;
 import org.safehaus.penrose.filter.FilterTool;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedHashSet;
@@ -192,7 +191,7 @@ public class SearchRequest extends Request implements Cloneable {
     	request.sizeLimit   = sizeLimit;
     	request.timeLimit   = timeLimit;
 
-        request.attributes = new ArrayList<String>();
+        request.attributes = new LinkedHashSet<String>();
         request.attributes.addAll(attributes);
 
         return request;
@@ -0,0 +1,16 @@
+package org.safehaus.penrose.ldap.connection;
+
+/**
+ * @author Endi Sukma Dewata
+ */
+public interface LDAPConnectionMBean {
+
+    public int getNumActive() throws Exception;
+    public int getNumIdle() throws Exception;
+    public int getMaxActive() throws Exception;
+
+    public int getNumBindActive() throws Exception;
+    public int getNumBindIdle() throws Exception;
+
+    public String[] getReplicaStatistics() throws Exception;
+}
@@ -37,6 +37,11 @@ public class FieldConfig implements Serializable, Comparable, Cloneable {
     public final static String TYPE_DOUBLE    = "DOUBLE";
     public final static String TYPE_DATETIME  = "DATETIME";
 
+    public final static String COMPARISON_LOWER     = "lower";
+    public final static String COMPARISON_COLLATION = "collation";
+    public final static String COMPARISON_CITEXT    = "citext";
+    public final static String COMPARISON_ILIKE     = "ilike";
+
     public final static String DEFAULT_TYPE   = TYPE_VARCHAR;
     public final static int DEFAULT_LENGTH    = 0;
     public final static int DEFAULT_PRECISION = 0;
@@ -58,6 +63,9 @@ public class FieldConfig implements Serializable, Comparable, Cloneable {
     private boolean caseSensitive;
     private boolean autoIncrement;
 
+    private String comparison;
+    private boolean prefixRange;
+
     private Object constant;
     private String variable;
 	private Expression expression;
@@ -229,6 +237,8 @@ public class FieldConfig implements Serializable, Comparable, Cloneable {
         if (index != fieldConfig.index) return false;
         if (autoIncrement != fieldConfig.autoIncrement) return false;
         if (caseSensitive != fieldConfig.caseSensitive) return false;
+        if (!equals(comparison, fieldConfig.comparison)) return false;
+        if (prefixRange != fieldConfig.prefixRange) return false;
         if (!equals(type, fieldConfig.type)) return false;
         if (!equals(originalType, fieldConfig.originalType)) return false;
         if (!equals(castType, fieldConfig.castType)) return false;
@@ -264,6 +274,8 @@ public class FieldConfig implements Serializable, Comparable, Cloneable {
         index         = fieldConfig.index;
         autoIncrement = fieldConfig.autoIncrement;
         caseSensitive = fieldConfig.caseSensitive;
+        comparison    = fieldConfig.comparison;
+        prefixRange   = fieldConfig.prefixRange;
         type          = fieldConfig.type;
         originalType  = fieldConfig.originalType;
         castType      = fieldConfig.castType;
@@ -309,4 +321,24 @@ public class FieldConfig implements Serializable, Comparable, Cloneable {
     public void setOriginalType(String originalType) {
         this.originalType = originalType;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns how case-insensitive text values are compared in SQL: lower (default),
+     * collation (the column collation is already case-insensitive), citext or ilike.
+     */
+    public String getComparison() {
+        return comparison;
+    }
+
+    public void setComparison(String comparison) {
+        this.comparison = comparison;
+    }
+
+    public boolean isPrefixRange() {
+        return prefixRange;
+    }
+
+    public void setPrefixRange(boolean prefixRange) {
+        this.prefixRange = prefixRange;
+    }
+}
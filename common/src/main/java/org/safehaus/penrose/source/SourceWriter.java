@@ -173,6 +173,16 @@ public class SourceWriter {
             element.addAttribute("caseSensitive", "true");
         }
 
+        if (fieldConfig.getComparison() != null) {
+            log.debug("   - comparison: "+fieldConfig.getComparison());
+            element.addAttribute("comparison", fieldConfig.getComparison());
+        }
+
+        if (fieldConfig.isPrefixRange()) {
+            log.debug("   - prefixRange: "+fieldConfig.isPrefixRange());
+            element.addAttribute("prefixRange", "true");
+        }
+
         if (fieldConfig.isAutoIncrement()) {
             log.debug("   - autoIncrement: "+fieldConfig.isAutoIncrement());
             element.addAttribute("autoIncrement", "true");
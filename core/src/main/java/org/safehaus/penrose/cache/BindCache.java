@@ -0,0 +1,184 @@
+package org.safehaus.penrose.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.safehaus.penrose.ldap.DN;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+
+/**
+ * Remembers the last password successfully verified for a bind DN so that
+ * repeated binds can be validated without contacting the sources. Only a
+ * salted PBKDF2 hash of the password is kept.
+ *
+ * @author Endi Sukma Dewata
+ */
+public class BindCache {
+
+    public Logger log = LoggerFactory.getLogger(getClass());
+
+    public final static String ALGORITHM = "PBKDF2WithHmacSHA1";
+
+    public final static int SALT_LENGTH = 16;
+    public final static int KEY_LENGTH  = 160;
+
+    private int size       = 1000;
+    private int expiration = 300; // seconds
+    private int maxUses    = 100;
+    private int iterations = 1000;
+
+    private SecureRandom random = new SecureRandom();
+
+    // bumped by every removal so a bind verified before it can't cache the old password
+    private long generation;
+
+    private LinkedHashMap<String,Credential> credentials = new LinkedHashMap<String,Credential>();
+
+    public static class Credential {
+
+        private byte[] salt;
+        private byte[] hash;
+        private long expirationTime;
+        private int uses;
+    }
+
+    public BindCache() {
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public int getExpiration() {
+        return expiration;
+    }
+
+    public void setExpiration(int expiration) {
+        this.expiration = expiration;
+    }
+
+    public int getMaxUses() {
+        return maxUses;
+    }
+
+    public void setMaxUses(int maxUses) {
+        this.maxUses = maxUses;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public void setIterations(int iterations) {
+        this.iterations = iterations;
+    }
+
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    public void add(DN dn, byte[] password) throws Exception {
+        add(dn, password, getGeneration());
+    }
+
+    /**
+     * Caches the password unless a credential has been removed since the given generation,
+     * in which case the password may have been verified against the old entry.
+     */
+    public void add(DN dn, byte[] password, long generation) throws Exception {
+
+        if (size == 0 || dn == null || password == null || password.length == 0) return;
+
+        boolean debug = log.isDebugEnabled();
+        if (debug) log.debug("Caching credential for "+dn+".");
+
+        Credential credential = new Credential();
+        credential.salt = new byte[SALT_LENGTH];
+        random.nextBytes(credential.salt);
+        credential.hash = hash(password, credential.salt);
+        credential.expirationTime = System.currentTimeMillis() + expiration * 1000L;
+
+        String key = dn.getNormalizedDn();
+
+        synchronized (this) {
+            if (generation != this.generation) {
+                if (debug) log.debug("Credential for "+dn+" has been removed, not caching.");
+                return;
+            }
+
+            credentials.remove(key);
+            credentials.put(key, credential);
+            purge();
+        }
+    }
+
+    public boolean validate(DN dn, byte[] password) throws Exception {
+
+        if (dn == null || password == null || password.length == 0) return false;
+
+        boolean debug = log.isDebugEnabled();
+        String key = dn.getNormalizedDn();
+
+        Credential credential;
+
+        synchronized (this) {
+            credential = credentials.get(key);
+            if (credential == null) return false;
+
+            if (credential.expirationTime <= System.currentTimeMillis() || maxUses > 0 && credential.uses >= maxUses) {
+                if (debug) log.debug("Cached credential for "+dn+" has expired.");
+                credentials.remove(key);
+                return false;
+            }
+        }
+
+        if (!MessageDigest.isEqual(credential.hash, hash(password, credential.salt))) {
+            if (debug) log.debug("Cached credential for "+dn+" does not match.");
+            return false;
+        }
+
+        synchronized (this) {
+            credential.uses++;
+        }
+
+        if (debug) log.debug("Cached credential for "+dn+" is valid.");
+        return true;
+    }
+
+    public synchronized void remove(DN dn) throws Exception {
+        if (dn == null) return;
+        generation++;
+        credentials.remove(dn.getNormalizedDn());
+    }
+
+    public synchronized void purge() {
+        int counter = credentials.size() - size;
+        for (int i=0; i<counter; i++) {
+            String key = credentials.keySet().iterator().next();
+            credentials.remove(key);
+        }
+    }
+
+    public synchronized void clear() {
+        credentials.clear();
+    }
+
+    public byte[] hash(byte[] password, byte[] salt) throws Exception {
+        char[] chars = new String(password, "UTF-8").toCharArray();
+        PBEKeySpec spec = new PBEKeySpec(chars, salt, iterations, KEY_LENGTH);
+        try {
+            SecretKeyFactory factory = SecretKeyFactory.getInstance(ALGORITHM);
+            return factory.generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -2,10 +2,10 @@ package org.safehaus.penrose.cache;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.safehaus.penrose.ldap.SearchRequest;
 import org.safehaus.penrose.ldap.SearchResponse;
 
-import java.util.LinkedHashMap;
-import java.util.Date;
+import java.util.*;
 
 /**
  * @author Endi Sukma Dewata
@@ -17,9 +17,20 @@ public class CacheManager {
     private int querySize  = 10;
     private int resultSize = 100;
     private int expiration = 5; // minutes
+    private int stalePeriod = 0; // minutes
 
     private LinkedHashMap<CacheKey,Cache> caches = new LinkedHashMap<CacheKey,Cache>();
 
+    private Map<CacheKey,Cache> loadingCaches = new HashMap<CacheKey,Cache>();
+
+    private int statisticsSize = 1000;
+    private LinkedHashMap<CacheKey,Long> counters = new LinkedHashMap<CacheKey,Long>();
+
+    private DiskCache diskCache;
+
+    // bumped by clear() so a response loaded from disk before it is not kept
+    private long generation;
+
     public CacheManager() {
     }
 
@@ -44,6 +55,10 @@ public class CacheManager {
         return cache;
     }
 
+    /**
+     * Adds the cache to memory. If there's a disk cache the response is queued to be written
+     * to disk in the background.
+     */
     public void add(Cache cache) {
 
         boolean debug = log.isDebugEnabled();
@@ -58,26 +73,146 @@ public class CacheManager {
             return;
         }
 
-        caches.put(key, cache);
-        purge();
+        synchronized (this) {
+            caches.put(key, cache);
+            purge();
+        }
+
+        if (diskCache == null) return;
+
+        diskCache.write(cache);
     }
 
-    public synchronized Cache get(CacheKey key) {
+    /**
+     * Returns the cache from memory, or from disk if it's not in memory. The disk is read
+     * without holding the lock so hits don't wait for it.
+     */
+    public Cache get(CacheKey key) {
         boolean debug = log.isDebugEnabled();
         if (debug) log.debug("Getting cache key "+key.getEntryId()+".");
+
+        long generation;
+
+        synchronized (this) {
+            Cache cache = caches.get(key);
+            if (cache != null) return isExpired(cache) ? null : cache;
+
+            generation = this.generation;
+        }
+
+        Cache cache = load(key);
+        if (cache == null || isExpired(cache)) return null;
+
+        synchronized (this) {
+            if (generation != this.generation) return null;
+
+            caches.put(key, cache);
+            purge();
+        }
+
+        return cache;
+    }
+
+    public boolean isExpired(Cache cache) {
+        Date expirationDate = cache.getExpirationDate();
+        return expirationDate != null && expirationDate.getTime() <= System.currentTimeMillis();
+    }
+
+    /**
+     * Returns an expired cache that can still be served while it's being refreshed.
+     */
+    public synchronized Cache getStale(CacheKey key) {
+        if (stalePeriod == 0) return null;
+
         Cache cache = caches.get(key);
         if (cache == null) return null;
 
         Date expirationDate = cache.getExpirationDate();
-        if (expirationDate != null && expirationDate.getTime() <= System.currentTimeMillis()) return null;
+        if (expirationDate == null) return null;
 
-        caches.put(key, cache);
-
-        purge();
+        long staleTime = expirationDate.getTime() + stalePeriod * 60 * 1000;
+        if (staleTime <= System.currentTimeMillis()) return null;
 
         return cache;
     }
 
+    /**
+     * Registers the cache as being loaded. If the same key is already being loaded, returns that cache instead.
+     */
+    public synchronized Cache startLoading(Cache cache) {
+        CacheKey key = cache.getKey();
+
+        Cache loadingCache = loadingCaches.get(key);
+        if (loadingCache != null) return loadingCache;
+
+        loadingCaches.put(key, cache);
+        return null;
+    }
+
+    public synchronized void finishLoading(Cache cache) {
+        CacheKey key = cache.getKey();
+        if (loadingCaches.get(key) == cache) loadingCaches.remove(key);
+    }
+
+    /**
+     * Counts how often a search is requested, so the most frequent ones can be preloaded.
+     */
+    public synchronized void incrementCounter(CacheKey key) throws Exception {
+        if (statisticsSize == 0) return;
+
+        Long counter = counters.remove(key);
+        if (counter == null) {
+            CacheKey newKey = new CacheKey();
+            newKey.setBindDn(key.getBindDn());
+            newKey.setRequest((SearchRequest)key.getRequest().clone());
+            newKey.setEntryId(key.getEntryId());
+            key = newKey;
+        }
+
+        counters.put(key, counter == null ? 1 : counter + 1);
+
+        while (counters.size() > statisticsSize) {
+            counters.remove(counters.keySet().iterator().next());
+        }
+    }
+
+    public synchronized List<CacheKey> getTopKeys(int n) {
+
+        List<Map.Entry<CacheKey,Long>> list = new ArrayList<Map.Entry<CacheKey,Long>>(counters.entrySet());
+
+        Collections.sort(list, new Comparator<Map.Entry<CacheKey,Long>>() {
+            public int compare(Map.Entry<CacheKey,Long> entry1, Map.Entry<CacheKey,Long> entry2) {
+                return entry2.getValue().compareTo(entry1.getValue());
+            }
+        });
+
+        List<CacheKey> keys = new ArrayList<CacheKey>();
+        for (Map.Entry<CacheKey,Long> entry : list) {
+            if (keys.size() >= n) break;
+            keys.add(entry.getKey());
+        }
+
+        return keys;
+    }
+
+    public Cache load(CacheKey key) {
+        if (diskCache == null) return null;
+
+        try {
+            Cache cache = diskCache.get(key);
+            if (cache == null) return null;
+
+            boolean debug = log.isDebugEnabled();
+            if (debug) log.debug("Loaded cache key "+key.getEntryId()+" from disk.");
+
+            return cache;
+
+        } catch (Exception e) {
+            log.error("Unable to load cache key "+key.getEntryId()+" from disk: "+e.getMessage(), e);
+            return null;
+        }
+    }
+
     public synchronized void purge() {
         boolean debug = log.isDebugEnabled();
         if (querySize == 0) return;
@@ -90,8 +225,29 @@ public class CacheManager {
         }
     }
 
-    public synchronized void clear() {
-        caches.clear();
+    public void clear() {
+
+        // the disk is cleared first so a response loaded before is discarded by get()
+        if (diskCache != null) {
+            try {
+                diskCache.clear();
+            } catch (Exception e) {
+                log.error("Unable to clear disk cache: "+e.getMessage(), e);
+            }
+        }
+
+        synchronized (this) {
+            caches.clear();
+            generation++;
+        }
+    }
+
+    public DiskCache getDiskCache() {
+        return diskCache;
+    }
+
+    public void setDiskCache(DiskCache diskCache) {
+        this.diskCache = diskCache;
     }
 
     public int getExpiration() {
@@ -102,6 +258,22 @@ public class CacheManager {
         this.expiration = expiration;
     }
 
+    public int getStalePeriod() {
+        return stalePeriod;
+    }
+
+    public void setStalePeriod(int stalePeriod) {
+        this.stalePeriod = stalePeriod;
+    }
+
+    public int getStatisticsSize() {
+        return statisticsSize;
+    }
+
+    public void setStatisticsSize(int statisticsSize) {
+        this.statisticsSize = statisticsSize;
+    }
+
     public int getResultSize() {
         return resultSize;
     }
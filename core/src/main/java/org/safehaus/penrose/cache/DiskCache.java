@@ -0,0 +1,508 @@
+package org.safehaus.penrose.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.safehaus.penrose.ldap.DN;
+import org.safehaus.penrose.ldap.SearchRequest;
+import org.safehaus.penrose.ldap.SearchResponse;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Second cache tier that keeps serialized search responses in an append-only
+ * segment file. Records are read back through a memory-mapped view of the
+ * file, so entries stay off the heap until they are requested.
+ *
+ * The file starts with a version stamp. If the stamp doesn't match the
+ * current configuration the file is discarded. The index is rebuilt from the
+ * record headers on first access after a restart.
+ *
+ * Responses passed to write() are serialized and stored by a background
+ * thread so the request thread doesn't wait for the disk; if the queue is
+ * full the response is simply not stored. Responses queued before the cache
+ * is cleared are dropped. The file is limited to 2 GB so it
+ * can be mapped as a whole, and it's only readable by the owner since the
+ * responses may contain password attributes.
+ *
+ * @author Endi Sukma Dewata
+ */
+public class DiskCache {
+
+    public Logger log = LoggerFactory.getLogger(getClass());
+
+    public final static int MAGIC = 0x50434331; // PCC1
+
+    public final static long MAX_FILE_SIZE = Integer.MAX_VALUE; // bytes
+
+    public final static Set<PosixFilePermission> PERMISSIONS = PosixFilePermissions.fromString("rw-------");
+
+    private File file;
+    private String stamp;
+    private long maxSize = 64 * 1024 * 1024; // bytes
+
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    private long headerSize;
+    private Map<String,Record> index;
+
+    private int writeQueueSize = 100;
+    private BlockingQueue<Write> writeQueue;
+    private int pendingWrites;
+
+    // bumped by clear() so responses queued before it are not stored
+    private long generation;
+
+    private Thread writer;
+
+    public static class Record {
+
+        private long offset;
+        private int length;
+        private long expirationTime;
+    }
+
+    public static class Write {
+
+        private Cache cache;
+        private long generation;
+    }
+
+    public DiskCache(File file, String stamp) {
+        this.file = file;
+        this.stamp = stamp;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize <= 0 || maxSize > MAX_FILE_SIZE ? MAX_FILE_SIZE : maxSize;
+    }
+
+    public int getWriteQueueSize() {
+        return writeQueueSize;
+    }
+
+    public void setWriteQueueSize(int writeQueueSize) {
+        this.writeQueueSize = writeQueueSize;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getStamp() {
+        return stamp;
+    }
+
+    public synchronized void open() throws Exception {
+
+        boolean debug = log.isDebugEnabled();
+        if (debug) log.debug("Opening disk cache "+file+".");
+
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists()) dir.mkdirs();
+
+        createFile();
+
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+
+        startWriter();
+
+        if (randomAccessFile.length() > 0) {
+            try {
+                randomAccessFile.seek(0);
+                int magic = randomAccessFile.readInt();
+                String fileStamp = randomAccessFile.readUTF();
+
+                if (magic == MAGIC && stamp.equals(fileStamp) && randomAccessFile.length() <= maxSize) {
+                    headerSize = randomAccessFile.getFilePointer();
+                    return;
+                }
+
+                if (debug) log.debug("Disk cache "+file+" is out of date.");
+
+            } catch (EOFException e) {
+                if (debug) log.debug("Disk cache "+file+" is incomplete.");
+            }
+        }
+
+        reset();
+    }
+
+    /**
+     * Creates the file if necessary and makes it readable and writable only by the owner.
+     */
+    public void createFile() throws Exception {
+
+        Path path = file.toPath();
+
+        try {
+            if (!Files.exists(path)) Files.createFile(path, PosixFilePermissions.asFileAttribute(PERMISSIONS));
+            Files.setPosixFilePermissions(path, PERMISSIONS);
+
+        } catch (UnsupportedOperationException e) {
+            if (!file.exists()) file.createNewFile();
+            file.setReadable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(false, false);
+            file.setWritable(true, true);
+        }
+    }
+
+    public void startWriter() {
+
+        writeQueue = new ArrayBlockingQueue<Write>(writeQueueSize);
+
+        writer = new Thread(new Runnable() {
+            public void run() {
+                runWriter();
+            }
+        }, "Disk Cache Writer");
+
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public void runWriter() {
+        while (true) {
+            Write write;
+            try {
+                write = writeQueue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            Cache cache = write.cache;
+
+            try {
+                put(cache.getKey(), cache, write.generation);
+
+            } catch (Exception e) {
+                log.error("Unable to store cache key "+cache.getKey().getEntryId()+" on disk: "+e.getMessage(), e);
+
+            } finally {
+                finishWrite();
+            }
+        }
+    }
+
+    /**
+     * Queues the response to be stored by the writer thread. Returns false if the queue is full.
+     */
+    public boolean write(Cache cache) {
+
+        BlockingQueue<Write> queue = writeQueue;
+        if (queue == null) return false;
+
+        Write write = new Write();
+        write.cache = cache;
+
+        synchronized (this) {
+            write.generation = generation;
+            pendingWrites++;
+        }
+
+        if (queue.offer(write)) return true;
+
+        log.debug("Disk cache write queue is full.");
+        finishWrite();
+
+        return false;
+    }
+
+    public synchronized void finishWrite() {
+        pendingWrites--;
+        notifyAll();
+    }
+
+    /**
+     * Waits until the queued responses have been stored.
+     */
+    public synchronized void flush() throws InterruptedException {
+        while (pendingWrites > 0) wait();
+    }
+
+    public synchronized void close() throws Exception {
+        if (writer != null) writer.interrupt();
+        writer = null;
+        writeQueue = null;
+
+        pendingWrites = 0;
+        notifyAll();
+
+        buffer = null;
+        index = null;
+        if (randomAccessFile != null) randomAccessFile.close();
+        randomAccessFile = null;
+        channel = null;
+    }
+
+    public synchronized void reset() throws Exception {
+
+        buffer = null;
+        index = new HashMap<String,Record>();
+
+        randomAccessFile.setLength(0);
+        randomAccessFile.seek(0);
+        randomAccessFile.writeInt(MAGIC);
+        randomAccessFile.writeUTF(stamp);
+
+        headerSize = randomAccessFile.getFilePointer();
+    }
+
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Removes all responses, including the ones that are still queued.
+     */
+    public synchronized void clear() throws Exception {
+
+        generation++;
+
+        BlockingQueue<Write> queue = writeQueue;
+        if (queue != null) {
+            pendingWrites -= queue.drainTo(new ArrayList<Write>());
+            notifyAll();
+        }
+
+        if (randomAccessFile == null) return;
+        reset();
+    }
+
+    /**
+     * Builds the index from the record headers without reading the responses.
+     */
+    public synchronized void load() throws Exception {
+
+        boolean debug = log.isDebugEnabled();
+        if (debug) log.debug("Loading disk cache index from "+file+".");
+
+        index = new HashMap<String,Record>();
+
+        long length = randomAccessFile.length();
+        long offset = headerSize;
+        long now = System.currentTimeMillis();
+
+        while (offset < length) {
+            try {
+                randomAccessFile.seek(offset);
+                String key = randomAccessFile.readUTF();
+                long expirationTime = randomAccessFile.readLong();
+                int dataLength = randomAccessFile.readInt();
+
+                Record record = new Record();
+                record.offset = randomAccessFile.getFilePointer();
+                record.length = dataLength;
+                record.expirationTime = expirationTime;
+
+                if (record.offset + dataLength > length || record.offset + dataLength > maxSize) break;
+
+                if (expirationTime == 0 || expirationTime > now) {
+                    index.put(key, record);
+                } else {
+                    index.remove(key);
+                }
+
+                offset = record.offset + dataLength;
+
+            } catch (EOFException e) {
+                break;
+            }
+        }
+
+        if (offset < length) {
+            if (debug) log.debug("Truncating incomplete record at "+offset+".");
+            randomAccessFile.setLength(offset);
+        }
+
+        if (debug) log.debug("Disk cache contains "+index.size()+" entries.");
+    }
+
+    public void put(CacheKey key, Cache cache) throws Exception {
+        put(key, cache, getGeneration());
+    }
+
+    /**
+     * Stores the response unless the cache has been cleared since the given generation.
+     * The response is serialized before the file is locked so readers don't wait for it.
+     */
+    public void put(CacheKey key, Cache cache, long generation) throws Exception {
+
+        String id = createId(key);
+        if (id == null) return;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(cache.getResponse());
+        out.close();
+
+        byte[] data = bytes.toByteArray();
+
+        synchronized (this) {
+            if (randomAccessFile == null) return;
+
+            if (generation != this.generation) {
+                log.debug("Disk cache "+file+" has been cleared, not storing cache key "+key.getEntryId()+".");
+                return;
+            }
+
+            if (index == null) load();
+
+            append(id, cache, data);
+        }
+    }
+
+    public synchronized void append(String id, Cache cache, byte[] data) throws Exception {
+
+        long length = randomAccessFile.length();
+        long recordSize = id.length() * 3 + 2 + 8 + 4 + data.length; // maximum UTF length, headers and data
+
+        if (headerSize + recordSize > maxSize) {
+            log.debug("Response is too big for disk cache "+file+".");
+            return;
+        }
+
+        if (length + recordSize > maxSize) {
+            log.debug("Disk cache "+file+" is full.");
+            reset();
+            length = randomAccessFile.length();
+        }
+
+        long expirationTime = cache.getExpirationDate() == null ? 0 : cache.getExpirationDate().getTime();
+
+        randomAccessFile.seek(length);
+        randomAccessFile.writeUTF(id);
+        randomAccessFile.writeLong(expirationTime);
+        randomAccessFile.writeInt(data.length);
+
+        Record record = new Record();
+        record.offset = randomAccessFile.getFilePointer();
+        record.length = data.length;
+        record.expirationTime = expirationTime;
+
+        randomAccessFile.write(data);
+
+        index.put(id, record);
+    }
+
+    /**
+     * Returns the stored response. The record is copied from the file under the lock and
+     * deserialized after it's been released.
+     */
+    public Cache get(CacheKey key) throws Exception {
+
+        String id = createId(key);
+        if (id == null) return null;
+
+        Record record;
+        byte[] data;
+
+        synchronized (this) {
+            if (randomAccessFile == null) return null;
+
+            if (index == null) load();
+
+            record = index.get(id);
+            if (record == null) return null;
+
+            if (record.expirationTime != 0 && record.expirationTime <= System.currentTimeMillis()) {
+                index.remove(id);
+                return null;
+            }
+
+            data = read(record);
+        }
+
+        SearchResponse response;
+        try {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+            response = (SearchResponse)in.readObject();
+
+        } catch (Exception e) {
+            log.debug("Unable to read disk cache record: "+e.getMessage());
+            synchronized (this) {
+                if (index != null && index.get(id) == record) index.remove(id);
+            }
+            return null;
+        }
+
+        Cache cache = new Cache();
+        cache.setKey(key);
+        cache.setCreationDate(new Date());
+        cache.setExpirationDate(record.expirationTime == 0 ? null : new Date(record.expirationTime));
+        cache.setResponse(response);
+
+        return cache;
+    }
+
+    public synchronized byte[] read(Record record) throws Exception {
+
+        if (buffer == null || buffer.capacity() < record.offset + record.length) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+        }
+
+        ByteBuffer bb = buffer.duplicate();
+        bb.position((int)record.offset);
+        byte[] data = new byte[record.length];
+        bb.get(data);
+
+        return data;
+    }
+
+    /**
+     * Returns a string identifying the cache key across restarts,
+     * or null if the request can't be persisted.
+     */
+    public String createId(CacheKey key) throws Exception {
+
+        SearchRequest request = key.getRequest();
+        if (!request.getControls().isEmpty()) return null;
+
+        DN bindDn = key.getBindDn();
+        DN dn = request.getDn();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(bindDn == null ? "" : bindDn.getNormalizedDn());
+        sb.append('|');
+        sb.append(key.getEntryId());
+        sb.append('|');
+        sb.append(dn == null ? "" : dn.getNormalizedDn());
+        sb.append('|');
+        sb.append(request.getScope());
+        sb.append('|');
+        sb.append(request.getFilter());
+        sb.append('|');
+        sb.append(request.getAttributes());
+        sb.append('|');
+        sb.append(request.isTypesOnly());
+        sb.append('|');
+        sb.append(request.getDereference());
+        sb.append('|');
+        sb.append(request.getSizeLimit());
+        sb.append('|');
+        sb.append(request.getTimeLimit());
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,117 @@
+package org.safehaus.penrose.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.safehaus.penrose.ldap.DN;
+
+import java.util.LinkedHashMap;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Caches searches that returned NO_SUCH_OBJECT or no entries at all.
+ *
+ * @author Endi Sukma Dewata
+ */
+public class NegativeCacheManager {
+
+    public Logger log = LoggerFactory.getLogger(getClass());
+
+    private int size       = 100;
+    private int expiration = 30; // seconds
+
+    private LinkedHashMap<CacheKey,Cache> caches = new LinkedHashMap<CacheKey,Cache>();
+
+    public NegativeCacheManager() {
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public int getExpiration() {
+        return expiration;
+    }
+
+    public void setExpiration(int expiration) {
+        this.expiration = expiration;
+    }
+
+    public Cache create(CacheKey key) {
+
+        Date creationDate = new Date();
+        Date expirationDate = expiration == 0 ? null : new Date(creationDate.getTime() + expiration * 1000);
+
+        Cache cache = new Cache();
+        cache.setKey(key);
+        cache.setCreationDate(creationDate);
+        cache.setExpirationDate(expirationDate);
+
+        return cache;
+    }
+
+    public synchronized void add(Cache cache) {
+
+        if (size == 0) return;
+
+        boolean debug = log.isDebugEnabled();
+        CacheKey key = cache.getKey();
+        if (debug) log.debug("Adding negative cache key "+key.getEntryId()+".");
+
+        caches.remove(key);
+        caches.put(key, cache);
+        purge();
+    }
+
+    public synchronized Cache get(CacheKey key) {
+        boolean debug = log.isDebugEnabled();
+        if (debug) log.debug("Getting negative cache key "+key.getEntryId()+".");
+        Cache cache = caches.get(key);
+        if (cache == null) return null;
+
+        Date expirationDate = cache.getExpirationDate();
+        if (expirationDate != null && expirationDate.getTime() <= System.currentTimeMillis()) {
+            caches.remove(key);
+            return null;
+        }
+
+        return cache;
+    }
+
+    /**
+     * Removes searches whose base DN is the given DN, one of its ancestors or one of its
+     * descendants, since an entry added or renamed there may now be found by them.
+     */
+    public synchronized void invalidate(DN dn) throws Exception {
+        boolean debug = log.isDebugEnabled();
+
+        for (Iterator<Map.Entry<CacheKey,Cache>> i = caches.entrySet().iterator(); i.hasNext(); ) {
+            CacheKey key = i.next().getKey();
+            DN baseDn = key.getRequest().getDn();
+            if (baseDn != null && !dn.endsWith(baseDn) && !baseDn.endsWith(dn)) continue;
+
+            if (debug) log.debug("Invalidating negative cache key "+key.getEntryId()+" "+baseDn+".");
+            i.remove();
+        }
+    }
+
+    public synchronized void purge() {
+        boolean debug = log.isDebugEnabled();
+
+        int counter = caches.size() - size;
+        for (int i=0; i<counter; i++) {
+            CacheKey key = caches.keySet().iterator().next();
+            if (debug) log.debug("Removing negative cache key "+key.getEntryId()+".");
+            caches.remove(key);
+        }
+    }
+
+    public synchronized void clear() {
+        caches.clear();
+    }
+}
@@ -5,23 +5,40 @@ import org.safehaus.penrose.cache.Cache;
 import org.safehaus.penrose.cache.CacheKey;
 import org.safehaus.penrose.cache.CacheManager;
 import org.safehaus.penrose.cache.CacheMBean;
+import org.safehaus.penrose.cache.DiskCache;
+import org.safehaus.penrose.cache.NegativeCacheManager;
 import org.safehaus.penrose.ldap.*;
 import org.safehaus.penrose.module.Module;
 import org.safehaus.penrose.module.ModuleChain;
 import org.safehaus.penrose.session.Session;
 import org.safehaus.penrose.operation.SearchOperation;
 import org.safehaus.penrose.operation.PipelineSearchOperation;
+import org.safehaus.penrose.partition.PartitionContext;
+import org.safehaus.penrose.thread.ThreadManager;
+import org.safehaus.penrose.Penrose;
+
+import java.io.File;
 
 /**
  * @author Endi Sukma Dewata
  */
 public class CacheModule extends Module implements CacheMBean {
 
-    public final static String QUERY_SIZE  = "querySize";
-    public final static String RESULT_SIZE = "resultSize";
-    public final static String EXPIRATION  = "expiration"; // minutes
+    public final static String QUERY_SIZE   = "querySize";
+    public final static String RESULT_SIZE  = "resultSize";
+    public final static String EXPIRATION   = "expiration"; // minutes
+    public final static String STALE_PERIOD = "stalePeriod"; // minutes
+
+    public final static String STATISTICS_SIZE = "statisticsSize";
+
+    public final static String NEGATIVE_SIZE       = "negativeSize";
+    public final static String NEGATIVE_EXPIRATION = "negativeExpiration"; // seconds
+
+    public final static String DISK_DIRECTORY      = "diskDirectory";
+    public final static String DISK_SIZE           = "diskSize"; // bytes
 
     protected CacheManager cacheManager;
+    protected NegativeCacheManager negativeCacheManager;
 
     public void init() throws Exception {
 
@@ -46,6 +63,95 @@ public class CacheModule extends Module implements CacheMBean {
             if (debug) log.debug("Expiration: "+s);
             cacheManager.setExpiration(Integer.parseInt(s));
         }
+
+        s = getParameter(STALE_PERIOD);
+        if (s != null) {
+            if (debug) log.debug("Stale period: "+s);
+            cacheManager.setStalePeriod(Integer.parseInt(s));
+        }
+
+        s = getParameter(STATISTICS_SIZE);
+        if (s != null) {
+            if (debug) log.debug("Statistics size: "+s);
+            cacheManager.setStatisticsSize(Integer.parseInt(s));
+        }
+
+        negativeCacheManager = new NegativeCacheManager();
+
+        s = getParameter(NEGATIVE_SIZE);
+        if (s != null) {
+            if (debug) log.debug("Negative size: "+s);
+            negativeCacheManager.setSize(Integer.parseInt(s));
+        }
+
+        s = getParameter(NEGATIVE_EXPIRATION);
+        if (s != null) {
+            if (debug) log.debug("Negative expiration: "+s);
+            negativeCacheManager.setExpiration(Integer.parseInt(s));
+        }
+
+        s = getParameter(DISK_DIRECTORY);
+        if (s != null) {
+            if (debug) log.debug("Disk directory: "+s);
+
+            PartitionContext partitionContext = partition.getPartitionContext();
+
+            File dir = new File(s);
+            if (!dir.isAbsolute()) dir = new File(partitionContext.getPenroseContext().getHome(), s);
+
+            File file = new File(dir, partition.getName()+"."+getName()+".cache");
+            DiskCache diskCache = new DiskCache(file, getStamp());
+
+            s = getParameter(DISK_SIZE);
+            if (s != null) {
+                if (debug) log.debug("Disk size: "+s);
+                diskCache.setMaxSize(Long.parseLong(s));
+            }
+
+            diskCache.open();
+            cacheManager.setDiskCache(diskCache);
+        }
+    }
+
+    public CacheManager getCacheManager() {
+        return cacheManager;
+    }
+
+    public void destroy() throws Exception {
+        DiskCache diskCache = cacheManager.getDiskCache();
+        if (diskCache != null) diskCache.close();
+    }
+
+    /**
+     * Returns a stamp that changes whenever the partition configuration or the schema files change,
+     * so that results stored on disk by a different configuration are discarded.
+     */
+    public String getStamp() throws Exception {
+
+        PartitionContext partitionContext = partition.getPartitionContext();
+        File home = partitionContext.getPenroseContext().getHome();
+        File path = partitionContext.getPath();
+
+        long lastModified = 0;
+        lastModified = Math.max(lastModified, getLastModified(new File(home, "schema")));
+        if (path != null) lastModified = Math.max(lastModified, getLastModified(new File(path, "DIR-INF")));
+
+        return partition.getName()+"."+getName()+":"+lastModified;
+    }
+
+    public long getLastModified(File file) {
+        if (!file.exists() || file.getName().endsWith(".cache")) return 0;
+
+        File[] children = file.listFiles();
+        if (children == null) return file.lastModified();
+
+        long lastModified = 0;
+
+        for (File child : children) {
+            lastModified = Math.max(lastModified, getLastModified(child));
+        }
+
+        return lastModified;
     }
 
     public void add(
@@ -55,8 +161,14 @@ public class CacheModule extends Module implements CacheMBean {
             ModuleChain chain
     ) throws Exception {
 
-        clear();
-        chain.add(session, request, response);
+        invalidate(request.getDn());
+
+        try {
+            chain.add(session, request, response);
+
+        } finally {
+            invalidate(request.getDn());
+        }
     }
 
     public void bind(
@@ -130,8 +242,14 @@ public class CacheModule extends Module implements CacheMBean {
             ModuleChain chain
     ) throws Exception {
 
-        clear();
-        chain.delete(session, request, response);
+        invalidate(null);
+
+        try {
+            chain.delete(session, request, response);
+
+        } finally {
+            invalidate(null);
+        }
     }
 
     public void modify(
@@ -141,8 +259,14 @@ public class CacheModule extends Module implements CacheMBean {
             ModuleChain chain
     ) throws Exception {
 
-        clear();
-        chain.modify(session, request, response);
+        invalidate(request.getDn());
+
+        try {
+            chain.modify(session, request, response);
+
+        } finally {
+            invalidate(request.getDn());
+        }
     }
 
     public void modrdn(
@@ -152,8 +276,16 @@ public class CacheModule extends Module implements CacheMBean {
             ModuleChain chain
     ) throws Exception {
 
-        clear();
-        chain.modrdn(session, request, response);
+        DN dn = request.getDn();
+        DN newDn = dn.getParentDn().prepend(request.getNewRdn());
+        invalidate(newDn);
+
+        try {
+            chain.modrdn(session, request, response);
+
+        } finally {
+            invalidate(newDn);
+        }
     }
 
     public void search(
@@ -162,7 +294,6 @@ public class CacheModule extends Module implements CacheMBean {
     ) throws Exception {
 
         boolean warn = log.isWarnEnabled();
-        final boolean debug = log.isDebugEnabled();
 
         String entryId = chain.getEntry().getName();
 
@@ -171,33 +302,88 @@ public class CacheModule extends Module implements CacheMBean {
         key.setRequest(operation.getSearchRequest());
         key.setEntryId(entryId);
 
+        cacheManager.incrementCounter(key);
+
         Cache c = cacheManager.get(key);
 
         if (c != null) {
             if (warn) log.warn("Cache found for "+entryId+" "+operation.getDn()+" "+operation.getFilter()+".");
+            send(operation, c);
+            return;
+        }
 
-            SearchResponse sr = (SearchResponse)c.getResponse().clone();
-            if (debug) log.debug("Cache contains "+sr.getTotalCount()+" entries.");
+        c = negativeCacheManager.get(key);
 
-            while (sr.hasNext()) {
-                try {
-                    SearchResult result = sr.next();
-                    operation.add(result);
+        if (c != null) {
+            if (warn) log.warn("Negative cache found for "+entryId+" "+operation.getDn()+" "+operation.getFilter()+".");
 
-                } catch (SearchReferenceException e) {
-                    SearchReference reference = e.getReference();
-                    operation.add(reference);
-                }
+            LDAPException exception = c.getResponse().getException();
+            if (exception.getResultCode() != LDAP.SUCCESS) throw exception;
+
+            return;
+        }
+
+        Cache stale = cacheManager.getStale(key);
+
+        final Cache cache = cacheManager.create(key);
+        Cache loading = cacheManager.startLoading(cache);
+
+        if (loading != null) {
+            if (stale != null) {
+                if (warn) log.warn("Stale cache found for "+entryId+" "+operation.getDn()+" "+operation.getFilter()+".");
+                send(operation, stale);
+
+            } else {
+                if (warn) log.warn("Waiting for cache "+entryId+" "+operation.getDn()+" "+operation.getFilter()+".");
+                send(operation, loading);
             }
+            return;
+        }
+
+        ThreadManager threadManager = partition.getThreadManager();
+
+        if (stale != null && threadManager != null) {
+            if (warn) log.warn("Refreshing stale cache for "+entryId+" "+operation.getDn()+" "+operation.getFilter()+".");
 
-            operation.setException(sr.getException());
+            final Session session = operation.getSession();
+            final SearchRequest request = (SearchRequest)operation.getSearchRequest().clone();
 
+            threadManager.execute(new Runnable() {
+                public void run() {
+                    try {
+                        SearchResponse response = new SearchResponse();
+                        SearchOperation op = session.createSearchOperation(request, response);
+                        response.setBufferSize(0);
+
+                        load(op, chain, key, cache);
+
+                    } catch (Throwable e) {
+                        Penrose.errorLog.error(e.getMessage(), e);
+                    }
+                }
+            });
+
+            send(operation, stale);
             return;
         }
 
         if (warn) log.warn("Cache not found for "+entryId+" "+operation.getDn()+" "+operation.getFilter()+".");
 
-        final Cache cache = cacheManager.create(key);
+        load(operation, chain, key, cache);
+    }
+
+    /**
+     * Runs the search through the rest of the chain and stores the response. Other searches with the same key
+     * wait for this response instead of running the search themselves.
+     */
+    public void load(
+            final SearchOperation operation,
+            final ModuleChain chain,
+            final CacheKey key,
+            final Cache cache
+    ) throws Exception {
+
+        final boolean debug = log.isDebugEnabled();
         final SearchResponse cacheResponse = new SearchResponse();
 
         SearchOperation op = new PipelineSearchOperation(operation) {
@@ -216,13 +402,67 @@ public class CacheModule extends Module implements CacheMBean {
             public void close() throws Exception {
                 if (debug) log.debug("Closing search response.");
                 cacheResponse.close();
-                cache.setResponse(cacheResponse);
-                cacheManager.add(cache);
                 super.close();
             }
         };
 
-        chain.search(op);
+        try {
+            chain.search(op);
+
+        } catch (LDAPException e) {
+            cacheResponse.setException(e);
+
+            if (e.getResultCode() == LDAP.NO_SUCH_OBJECT) {
+                Cache negativeCache = negativeCacheManager.create(key);
+                SearchResponse negativeResponse = new SearchResponse();
+                negativeResponse.setException(e);
+                negativeResponse.close();
+                negativeCache.setResponse(negativeResponse);
+                negativeCacheManager.add(negativeCache);
+            }
+            throw e;
+
+        } catch (Exception e) {
+            cacheResponse.setException(e);
+            throw e;
+
+        } finally {
+            if (!cacheResponse.isClosed()) cacheResponse.close();
+            cache.setResponse(cacheResponse);
+            cacheManager.finishLoading(cache);
+        }
+
+        if (cacheResponse.getReturnCode() != LDAP.SUCCESS || operation.getReturnCode() != LDAP.SUCCESS) return;
+
+        if (cacheResponse.getTotalCount() == 0 && cacheResponse.getReferences().isEmpty()) {
+            Cache negativeCache = negativeCacheManager.create(key);
+            negativeCache.setResponse(cacheResponse);
+            negativeCacheManager.add(negativeCache);
+            return;
+        }
+
+        cacheManager.add(cache);
+    }
+
+    public void send(SearchOperation operation, Cache cache) throws Exception {
+
+        boolean debug = log.isDebugEnabled();
+
+        SearchResponse sr = (SearchResponse)cache.getResponse().clone();
+        if (debug) log.debug("Cache contains "+sr.getTotalCount()+" entries.");
+
+        while (sr.hasNext()) {
+            try {
+                SearchResult result = sr.next();
+                operation.add(result);
+
+            } catch (SearchReferenceException e) {
+                SearchReference reference = e.getReference();
+                operation.add(reference);
+            }
+        }
+
+        operation.setException(sr.getException());
     }
 
     public void unbind(
@@ -238,6 +478,22 @@ public class CacheModule extends Module implements CacheMBean {
     public void clear() {
         boolean warn = log.isWarnEnabled();
         cacheManager.clear();
+        negativeCacheManager.clear();
         if (warn) log.warn("Cache cleared.");
     }
+
+    /**
+     * Clears the query cache and drops the negative results that an entry at the given DN could satisfy.
+     * Deleting an entry cannot turn a negative result into a positive one, so the DN can be null.
+     */
+    /**
+     * Called before and after each write, since a search that runs while the write is in
+     * progress may cache the old result again.
+     */
+    public void invalidate(DN dn) throws Exception {
+        boolean warn = log.isWarnEnabled();
+        cacheManager.clear();
+        if (dn != null) negativeCacheManager.invalidate(dn);
+        if (warn) log.warn("Cache invalidated.");
+    }
 }
@@ -0,0 +1,186 @@
+package org.safehaus.penrose.cache.scheduler;
+
+import org.ietf.ldap.LDAPUrl;
+import org.safehaus.penrose.Penrose;
+import org.safehaus.penrose.cache.CacheKey;
+import org.safehaus.penrose.cache.module.CacheModule;
+import org.safehaus.penrose.filter.FilterTool;
+import org.safehaus.penrose.ldap.*;
+import org.safehaus.penrose.module.Module;
+import org.safehaus.penrose.scheduler.Job;
+import org.safehaus.penrose.session.Session;
+import org.safehaus.penrose.session.SessionManager;
+import org.safehaus.penrose.thread.TaskGroup;
+import org.safehaus.penrose.thread.ThreadManager;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * Replays a list of searches so that the caches are warm before clients need them.
+ *
+ * The searches are configured as LDAP URLs in parameters whose names start with "search",
+ * e.g. search.users=ldap:///ou=Users,dc=Example,dc=com??sub?(objectClass=posixAccount).
+ * The most frequent searches recorded by a cache module can be added with the module and
+ * top parameters. The searches run on the partition thread manager, at most concurrency at
+ * a time.
+ *
+ * @author Endi Sukma Dewata
+ */
+public class CachePreloadJob extends Job {
+
+    public final static String SEARCH        = "search";
+    public final static String MODULE        = "module";
+    public final static String TOP           = "top";
+    public final static String BIND_DN       = "bindDn";
+    public final static String BIND_PASSWORD = "bindPassword";
+    public final static String CONCURRENCY   = "concurrency";
+
+    public final static int DEFAULT_CONCURRENCY = 4;
+
+    private Collection<SearchRequest> requests = new ArrayList<SearchRequest>();
+
+    private String moduleName;
+    private int top;
+
+    private DN bindDn;
+    private String bindPassword;
+
+    private int concurrency = DEFAULT_CONCURRENCY;
+
+    public void init() throws Exception {
+
+        boolean debug = log.isDebugEnabled();
+
+        for (String name : getParameterNames()) {
+            if (!name.startsWith(SEARCH)) continue;
+
+            String url = getParameter(name);
+            if (debug) log.debug("Search: "+url);
+
+            requests.add(createSearchRequest(new LDAPUrl(url)));
+        }
+
+        moduleName = getParameter(MODULE);
+
+        String s = getParameter(TOP);
+        if (s != null) top = Integer.parseInt(s);
+
+        s = getParameter(BIND_DN);
+        if (s != null) bindDn = new DN(s);
+
+        bindPassword = getParameter(BIND_PASSWORD);
+
+        s = getParameter(CONCURRENCY);
+        if (s != null) concurrency = Integer.parseInt(s);
+
+        if (debug) {
+            log.debug("Module: "+moduleName);
+            log.debug("Top: "+top);
+            log.debug("Bind DN: "+bindDn);
+            log.debug("Concurrency: "+concurrency);
+        }
+    }
+
+    public SearchRequest createSearchRequest(LDAPUrl url) throws Exception {
+
+        SearchRequest request = new SearchRequest();
+        request.setDn(url.getDN());
+        request.setScope(url.getScope());
+
+        String filter = url.getFilter();
+        if (filter != null) request.setFilter(FilterTool.parseFilter(filter));
+
+        String[] attributes = url.getAttributeArray();
+        if (attributes != null) request.setAttributes(attributes);
+
+        return request;
+    }
+
+    public Collection<SearchRequest> getTopRequests() throws Exception {
+
+        Collection<SearchRequest> list = new ArrayList<SearchRequest>();
+        if (moduleName == null || top == 0) return list;
+
+        Module module = partition.getModuleManager().getModule(moduleName);
+        if (!(module instanceof CacheModule)) {
+            log.warn("Module "+moduleName+" is not a cache module.");
+            return list;
+        }
+
+        CacheModule cacheModule = (CacheModule)module;
+        for (CacheKey key : cacheModule.getCacheManager().getTopKeys(top)) {
+
+            // results are cached per bind DN, only searches made with the same identity are useful
+            DN keyBindDn = key.getBindDn();
+            boolean anonymous = keyBindDn == null || keyBindDn.isEmpty();
+            if (anonymous ? bindDn != null : !keyBindDn.matches(bindDn)) continue;
+
+            SearchRequest request = (SearchRequest)key.getRequest().clone();
+            if (!list.contains(request)) list.add(request);
+        }
+
+        return list;
+    }
+
+    public void execute() throws Exception {
+
+        boolean debug = log.isDebugEnabled();
+
+        Collection<SearchRequest> list = new ArrayList<SearchRequest>(requests);
+        for (SearchRequest request : getTopRequests()) {
+            if (!list.contains(request)) list.add(request);
+        }
+
+        if (debug) log.debug("Preloading "+list.size()+" searches with "+concurrency+" threads.");
+
+        TaskGroup<Long> tasks = new TaskGroup<Long>(getThreadManager());
+        tasks.setParallelism(concurrency);
+        tasks.setFailFast(false);
+
+        for (final SearchRequest request : list) {
+            tasks.add(new Callable<Long>() {
+                public Long call() throws Exception {
+                    return preload(request);
+                }
+            });
+        }
+
+        tasks.run();
+
+        for (Exception e : tasks.getFailures()) {
+            Penrose.errorLog.error(e.getMessage(), e);
+        }
+
+        if (debug) log.debug("Preloading completed.");
+    }
+
+    public ThreadManager getThreadManager() {
+        return partition == null ? null : partition.getThreadManager();
+    }
+
+    public long preload(SearchRequest request) throws Exception {
+
+        boolean debug = log.isDebugEnabled();
+        if (debug) log.debug("Preloading "+request.getDn()+" "+request.getFilter()+".");
+
+        SessionManager sessionManager = partition.getPartitionContext().getSessionManager();
+        Session session = sessionManager.createSession();
+
+        try {
+            session.setBufferSize(0);
+            if (bindDn != null) session.bind(bindDn, bindPassword);
+
+            SearchResponse response = new SearchResponse();
+            session.search(request, response);
+
+            int rc = response.waitFor();
+            if (debug) log.debug("Preloaded "+response.getTotalCount()+" entries (rc: "+rc+").");
+
+            return response.getTotalCount();
+
+        } finally {
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.safehaus.penrose.connection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops requests to an upstream source that keeps failing. The breaker opens after
+ * failureThreshold consecutive failures and rejects every request for openTime. After that
+ * it's half open: up to probes requests are let through, and the breaker closes once they
+ * all succeed or opens again as soon as one of them fails.
+ *
+ * @author Endi S. Dewata
+ */
+public class CircuitBreaker {
+
+    public Logger log = LoggerFactory.getLogger(getClass());
+
+    public final static String CLOSED    = "closed";
+    public final static String OPEN      = "open";
+    public final static String HALF_OPEN = "half-open";
+
+    private String name;
+
+    private int failureThreshold = 5;
+    private long openTime = 30000; // milliseconds
+    private int probes = 1;
+
+    private String state = CLOSED;
+    private int failures;
+    private long openedAt;
+
+    private int probesStarted;
+    private int probesSucceeded;
+
+    private long trips;
+
+    public CircuitBreaker(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns true if a request may be sent to the source. In the half-open state each
+     * allowed request is a probe, so the caller must report its outcome.
+     */
+    public synchronized boolean allow() {
+
+        if (failureThreshold <= 0) return true;
+
+        if (OPEN.equals(state)) {
+            if (System.currentTimeMillis() - openedAt < openTime) return false;
+
+            log.warn("Probing "+name+".");
+            state = HALF_OPEN;
+            probesStarted = 0;
+            probesSucceeded = 0;
+        }
+
+        if (HALF_OPEN.equals(state)) {
+            if (probesStarted >= probes) return false;
+            probesStarted++;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns true if a request would be rejected now, without starting a probe.
+     */
+    public synchronized boolean isRejecting() {
+
+        if (failureThreshold <= 0) return false;
+
+        if (OPEN.equals(state)) return System.currentTimeMillis() - openedAt < openTime;
+
+        return HALF_OPEN.equals(state) && probesStarted >= probes;
+    }
+
+    public synchronized void succeeded() {
+
+        failures = 0;
+
+        if (!HALF_OPEN.equals(state)) return;
+
+        probesSucceeded++;
+        if (probesSucceeded < probes) return;
+
+        log.warn("Closing circuit breaker of "+name+".");
+        state = CLOSED;
+    }
+
+    public synchronized void failed() {
+
+        failures++;
+
+        if (HALF_OPEN.equals(state) || CLOSED.equals(state) && failureThreshold > 0 && failures >= failureThreshold) {
+            open();
+        }
+    }
+
+    public synchronized void open() {
+        log.warn("Opening circuit breaker of "+name+" for "+openTime+" ms after "+failures+" failure(s).");
+        state = OPEN;
+        openedAt = System.currentTimeMillis();
+        trips++;
+    }
+
+    public synchronized String getState() {
+        return state;
+    }
+
+    public synchronized int getFailures() {
+        return failures;
+    }
+
+    public synchronized long getTrips() {
+        return trips;
+    }
+
+    public synchronized long getOpenedAt() {
+        return openedAt;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    public long getOpenTime() {
+        return openTime;
+    }
+
+    public void setOpenTime(long openTime) {
+        this.openTime = openTime;
+    }
+
+    public int getProbes() {
+        return probes;
+    }
+
+    public void setProbes(int probes) {
+        this.probes = probes;
+    }
+}
@@ -25,6 +25,7 @@ import org.safehaus.penrose.session.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Map;
 
@@ -35,9 +36,32 @@ public class Connection {
 
     public Logger log = LoggerFactory.getLogger(getClass());
 
+    public final static String CONCURRENCY_LIMIT                    = "concurrencyLimit";
+    public final static String MIN_CONCURRENCY_LIMIT                = "minConcurrencyLimit";
+    public final static String MAX_CONCURRENCY_LIMIT                = "maxConcurrencyLimit";
+    public final static String CONCURRENCY_MAX_WAIT                 = "concurrencyMaxWait";
+    public final static String LATENCY_TOLERANCE                    = "latencyTolerance";
+
+    public final static String CIRCUIT_BREAKER_THRESHOLD            = "circuitBreakerThreshold";
+    public final static String CIRCUIT_BREAKER_OPEN_TIME            = "circuitBreakerOpenTime";
+    public final static String CIRCUIT_BREAKER_PROBES               = "circuitBreakerProbes";
+
+    public final static Collection<String> LIMITER_PARAMETERS = Arrays.asList(
+            CONCURRENCY_LIMIT,
+            MIN_CONCURRENCY_LIMIT,
+            MAX_CONCURRENCY_LIMIT,
+            CONCURRENCY_MAX_WAIT,
+            LATENCY_TOLERANCE,
+            CIRCUIT_BREAKER_THRESHOLD,
+            CIRCUIT_BREAKER_OPEN_TIME,
+            CIRCUIT_BREAKER_PROBES
+    );
+
     protected ConnectionConfig connectionConfig;
     protected ConnectionContext connectionContext;
 
+    protected ConnectionLimiter limiter;
+
     public Connection() {
     }
 
@@ -55,12 +79,74 @@ public class Connection {
         this.connectionConfig = connectionConfig;
         this.connectionContext = connectionContext;
 
+        limiter = createLimiter();
+
         init();
     }
 
     public void init() throws Exception {
     }
 
+    /**
+     * Creates the limiter of the requests to the source if a concurrency limit or a circuit
+     * breaker threshold is configured. Without a concurrency limit only the circuit breaker
+     * is used.
+     */
+    public ConnectionLimiter createLimiter() throws Exception {
+
+        String concurrencyLimit = getParameter(CONCURRENCY_LIMIT);
+        String threshold = getParameter(CIRCUIT_BREAKER_THRESHOLD);
+
+        if (concurrencyLimit == null && threshold == null) return null;
+
+        ConnectionLimiter limiter = new ConnectionLimiter(getPartition().getName()+"/"+getName());
+
+        if (concurrencyLimit == null) {
+            limiter.setMinLimit(ConnectionLimiter.UNLIMITED);
+
+        } else {
+            String s = getParameter(MIN_CONCURRENCY_LIMIT);
+            if (s != null) limiter.setMinLimit(Integer.parseInt(s));
+
+            s = getParameter(MAX_CONCURRENCY_LIMIT);
+            if (s != null) limiter.setMaxLimit(Integer.parseInt(s));
+
+            limiter.setLimit(Integer.parseInt(concurrencyLimit));
+        }
+
+        String s = getParameter(CONCURRENCY_MAX_WAIT);
+        if (s != null) limiter.setMaxWait(Long.parseLong(s));
+
+        s = getParameter(LATENCY_TOLERANCE);
+        if (s != null) limiter.setTolerance(Double.parseDouble(s));
+
+        CircuitBreaker circuitBreaker = limiter.getCircuitBreaker();
+
+        if (threshold != null) circuitBreaker.setFailureThreshold(Integer.parseInt(threshold));
+
+        s = getParameter(CIRCUIT_BREAKER_OPEN_TIME);
+        if (s != null) circuitBreaker.setOpenTime(Long.parseLong(s));
+
+        s = getParameter(CIRCUIT_BREAKER_PROBES);
+        if (s != null) circuitBreaker.setProbes(Integer.parseInt(s));
+
+        log.debug("Limiter: "+limiter);
+
+        return limiter;
+    }
+
+    /**
+     * Returns a permit for a request to the source, failing with BUSY or UNAVAILABLE if the
+     * source can't take more requests. The permit must be released when the request is done.
+     */
+    public ConnectionLimiter.Permit acquirePermit() throws Exception {
+        return limiter == null ? new ConnectionLimiter.Permit(null) : limiter.acquire();
+    }
+
+    public ConnectionLimiter getLimiter() {
+        return limiter;
+    }
+
     public void validate() throws Exception {
     }
 
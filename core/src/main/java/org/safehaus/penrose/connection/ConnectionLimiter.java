@@ -0,0 +1,277 @@
+package org.safehaus.penrose.connection;
+
+import org.ietf.ldap.LDAPException;
+import org.safehaus.penrose.ldap.LDAP;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of concurrent requests to an upstream source so a slow source doesn't
+ * pile up waiting requests. The limit adapts to the observed latency (AIMD): it grows by
+ * 1/limit for each request that completes within tolerance times the baseline latency while
+ * the limit is being used, and shrinks by the backoff factor for each slow or failed request.
+ * The baseline is a slowly moving average of the latency, the latency a faster one.
+ *
+ * A request that finds the limit reached waits up to maxWait and then fails with BUSY.
+ * Requests also go through a circuit breaker and fail with UNAVAILABLE while it's open. Only
+ * failures that indicate an unhealthy source count: timeouts, busy, unavailable or down
+ * servers and errors that aren't LDAP results, such as connection or pool failures.
+ *
+ * @author Endi S. Dewata
+ */
+public class ConnectionLimiter {
+
+    public Logger log = LoggerFactory.getLogger(getClass());
+
+    public final static double WEIGHT          = 0.2;
+    public final static double BASELINE_WEIGHT = 0.02;
+
+    public final static int UNLIMITED = Integer.MAX_VALUE;
+
+    private String name;
+
+    private int minLimit = 1;
+    private int maxLimit = UNLIMITED;
+    private double limit = UNLIMITED;
+
+    private double tolerance = 2.0;
+    private double backoff = 0.9;
+    private long maxWait; // milliseconds
+
+    private int inFlight;
+
+    private long operations;
+    private long failures;
+    private long rejections;
+
+    private double latency;
+    private double baseline;
+
+    private CircuitBreaker circuitBreaker;
+
+    /**
+     * Outcome of one request. The caller reports failures and must release the permit when
+     * the request is done. A request whose response is streamed calls answered() when the
+     * first response arrives, so the time the caller takes to consume the rest of it doesn't
+     * count against the limit or the latency.
+     */
+    public static class Permit {
+
+        private ConnectionLimiter limiter;
+        private long startTime;
+        private Exception exception;
+        private boolean answered;
+        private boolean released;
+
+        public Permit(ConnectionLimiter limiter) {
+            this.limiter = limiter;
+            this.startTime = System.currentTimeMillis();
+        }
+
+        public void failed(Exception e) {
+            exception = e;
+        }
+
+        public synchronized void answered() {
+            if (limiter == null || answered || released) return;
+            answered = true;
+            limiter.release(System.currentTimeMillis() - startTime, exception);
+        }
+
+        public synchronized void release() {
+            if (limiter == null || released) return;
+            released = true;
+
+            if (!answered) {
+                limiter.release(System.currentTimeMillis() - startTime, exception);
+
+            } else if (exception != null) {
+                limiter.failed(exception);
+            }
+        }
+    }
+
+    public ConnectionLimiter(String name) {
+        this.name = name;
+        circuitBreaker = new CircuitBreaker(name);
+    }
+
+    public Permit acquire() throws Exception {
+
+        long deadline = System.currentTimeMillis() + maxWait;
+
+        synchronized (this) {
+            if (circuitBreaker.isRejecting()) {
+                rejections++;
+                throw LDAP.createException(LDAP.UNAVAILABLE, name+" is unavailable.");
+            }
+
+            while (inFlight >= (int)limit) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    rejections++;
+                    log.warn("Too many concurrent requests to "+name+" (limit: "+(int)limit+").");
+                    throw LDAP.createException(LDAP.BUSY);
+                }
+                wait(wait);
+            }
+
+            if (!circuitBreaker.allow()) {
+                rejections++;
+                throw LDAP.createException(LDAP.UNAVAILABLE, name+" is unavailable.");
+            }
+
+            inFlight++;
+        }
+
+        return new Permit(this);
+    }
+
+    public synchronized void release(long elapsed, Exception exception) {
+
+        boolean used = inFlight >= limit / 2;
+
+        inFlight--;
+        operations++;
+
+        if (exception != null && isFailure(exception)) {
+            failures++;
+            circuitBreaker.failed();
+            decrease();
+
+        } else {
+            circuitBreaker.succeeded();
+
+            boolean slow = baseline > 0 && elapsed > baseline * tolerance;
+
+            latency = latency == 0 ? elapsed : WEIGHT * elapsed + (1 - WEIGHT) * latency;
+            baseline = baseline == 0 ? elapsed : BASELINE_WEIGHT * elapsed + (1 - BASELINE_WEIGHT) * baseline;
+
+            if (slow) {
+                decrease();
+
+            } else if (used) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Reports a failure of a request that has already been answered.
+     */
+    public synchronized void failed(Exception exception) {
+        if (!isFailure(exception)) return;
+
+        failures++;
+        circuitBreaker.failed();
+        decrease();
+    }
+
+    public void decrease() {
+        limit = Math.max(minLimit, limit * backoff);
+    }
+
+    public boolean isFailure(Exception e) {
+        if (!(e instanceof LDAPException)) return true;
+
+        switch (((LDAPException)e).getResultCode()) {
+            case LDAPException.BUSY:
+            case LDAPException.UNAVAILABLE:
+            case LDAPException.SERVER_DOWN:
+            case LDAPException.LDAP_TIMEOUT:
+            case LDAPException.CONNECT_ERROR:
+                return true;
+        }
+
+        return false;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public synchronized int getLimit() {
+        return (int)limit;
+    }
+
+    public synchronized void setLimit(int limit) {
+        this.limit = Math.max(minLimit, Math.min(maxLimit, limit));
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public void setMinLimit(int minLimit) {
+        this.minLimit = minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public void setMaxLimit(int maxLimit) {
+        this.maxLimit = maxLimit;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public double getBackoff() {
+        return backoff;
+    }
+
+    public void setBackoff(double backoff) {
+        this.backoff = backoff;
+    }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized long getOperations() {
+        return operations;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    public synchronized long getRejections() {
+        return rejections;
+    }
+
+    public synchronized double getLatency() {
+        return latency;
+    }
+
+    public synchronized double getBaseline() {
+        return baseline;
+    }
+
+    public synchronized String toString() {
+        return name+": limit="+(int)limit
+                +", inFlight="+inFlight
+                +", latency="+Math.round(latency)+" ms"
+                +", state="+circuitBreaker.getState();
+    }
+}
@@ -198,6 +198,39 @@ public class DynamicEntry extends Entry implements Cloneable {
             log.debug(TextUtil.displaySeparator(70));
         }
 
+        if (bindCache == null) {
+            bindSources(session, request, response);
+            return;
+        }
+
+        if (bindCache.validate(dn, password)) {
+            if (debug) log.debug("Bind validated by cache.");
+            return;
+        }
+
+        long generation = bindCache.getGeneration();
+
+        try {
+            bindSources(session, request, response);
+
+        } catch (Exception e) {
+            bindCache.remove(dn);
+            throw e;
+        }
+
+        bindCache.add(dn, password, generation);
+    }
+
+    public void bindSources(
+            Session session,
+            BindRequest request,
+            BindResponse response
+    ) throws Exception {
+
+        boolean debug = log.isDebugEnabled();
+        DN dn = request.getDn();
+        byte[] password = request.getPassword();
+
         SourceAttributes sourceValues = new SourceAttributes();
 
         if (fetch) {
@@ -280,6 +313,14 @@ public class DynamicEntry extends Entry implements Cloneable {
         }
     }
 
+    public boolean isBindCacheSupported() {
+        for (EntrySource source : getSources()) {
+            String authentication = source.getSource().getParameter(LDAP.AUTHENTICATION);
+            if (LDAP.AUTHENTICATION_FULL.equals(authentication)) return false;
+        }
+        return true;
+    }
+
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     // Compare
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -432,6 +473,8 @@ public class DynamicEntry extends Entry implements Cloneable {
 
         validatePermission(session, request);
 
+        if (bindCache != null) bindCache.remove(dn);
+
         SourceAttributes sourceValues = new SourceAttributes();
 
         if (fetch) {
@@ -458,8 +501,13 @@ public class DynamicEntry extends Entry implements Cloneable {
             interpreter.set(attributeName, attributeValue);
         }
 
-        for (EntrySource source : getSources()) {
-            delete(session, request, response, sourceValues, interpreter, source);
+        try {
+            for (EntrySource source : getSources()) {
+                delete(session, request, response, sourceValues, interpreter, source);
+            }
+
+        } finally {
+            if (bindCache != null) bindCache.remove(dn);
         }
     }
 
@@ -536,6 +584,8 @@ public class DynamicEntry extends Entry implements Cloneable {
         }
 
         validatePermission(session, request);
+
+        if (bindCache != null) bindCache.remove(dn);
         validateSchema(request);
 
         SourceAttributes sourceValues = new SourceAttributes();
@@ -564,8 +614,13 @@ public class DynamicEntry extends Entry implements Cloneable {
             interpreter.set(attributeName, attributeValue);
         }
 
-        for (EntrySource source : getSources()) {
-            modify(session, request, response, sourceValues, interpreter, source);
+        try {
+            for (EntrySource source : getSources()) {
+                modify(session, request, response, sourceValues, interpreter, source);
+            }
+
+        } finally {
+            if (bindCache != null) bindCache.remove(dn);
         }
     }
 
@@ -757,6 +812,8 @@ public class DynamicEntry extends Entry implements Cloneable {
         }
 
         validatePermission(session, request);
+
+        if (bindCache != null) bindCache.remove(dn);
         validateSchema(request);
 
         SourceAttributes sourceValues = new SourceAttributes();
@@ -786,8 +843,13 @@ public class DynamicEntry extends Entry implements Cloneable {
             interpreter.set(attributeName, attributeValue);
         }
 
-        for (EntrySource source : getSources()) {
-            modrdn(session, request, response, sourceValues, interpreter, source);
+        try {
+            for (EntrySource source : getSources()) {
+                modrdn(session, request, response, sourceValues, interpreter, source);
+            }
+
+        } finally {
+            if (bindCache != null) bindCache.remove(dn);
         }
     }
 
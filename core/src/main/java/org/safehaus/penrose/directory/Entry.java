@@ -18,6 +18,7 @@
 package org.safehaus.penrose.directory;
 
 import org.safehaus.penrose.acl.ACI;
+import org.safehaus.penrose.cache.BindCache;
 import org.safehaus.penrose.filter.Filter;
 import org.safehaus.penrose.filter.FilterEvaluator;
 import org.safehaus.penrose.interpreter.Interpreter;
@@ -51,6 +52,10 @@ public class Entry implements Cloneable {
 
     public final static List<Entry> EMPTY_ENTRIES = new ArrayList<Entry>();
 
+    public final static String BIND_CACHE_SIZE       = "bindCacheSize";
+    public final static String BIND_CACHE_EXPIRATION = "bindCacheExpiration"; // seconds
+    public final static String BIND_CACHE_MAX_USES   = "bindCacheMaxUses";
+
     protected EntryConfig entryConfig;
     protected EntryContext entryContext;
 
@@ -78,6 +83,8 @@ public class Entry implements Cloneable {
     protected List<String> modifyOrders;
     protected List<String> modrdnOrders;
 
+    protected BindCache bindCache;
+
     public void init(EntryConfig entryConfig, EntryContext entryContext) throws Exception {
         this.entryConfig = entryConfig;
         this.entryContext = entryContext;
@@ -175,6 +182,8 @@ public class Entry implements Cloneable {
 
     public void init() throws Exception {
 
+        initBindCache();
+
         String initScript = entryConfig.getInitScript();
 
         if (initScript != null) {
@@ -184,6 +193,46 @@ public class Entry implements Cloneable {
         }
     }
 
+    public void initBindCache() throws Exception {
+
+        boolean debug = log.isDebugEnabled();
+
+        String s = getParameter(BIND_CACHE_SIZE);
+        if (s == null) return;
+
+        if (!isBindCacheSupported()) {
+            log.warn("Bind cache is not supported by entry "+getDn()+".");
+            return;
+        }
+
+        bindCache = new BindCache();
+        bindCache.setSize(Integer.parseInt(s));
+        if (debug) log.debug("Bind cache size: "+s);
+
+        s = getParameter(BIND_CACHE_EXPIRATION);
+        if (s != null) {
+            if (debug) log.debug("Bind cache expiration: "+s);
+            bindCache.setExpiration(Integer.parseInt(s));
+        }
+
+        s = getParameter(BIND_CACHE_MAX_USES);
+        if (s != null) {
+            if (debug) log.debug("Bind cache max uses: "+s);
+            bindCache.setMaxUses(Integer.parseInt(s));
+        }
+    }
+
+    /**
+     * Binds can only be validated locally if they don't establish an identity on the sources.
+     */
+    public boolean isBindCacheSupported() {
+        return false;
+    }
+
+    public BindCache getBindCache() {
+        return bindCache;
+    }
+
     public void destroy() throws Exception {
 
         String destroyScript = entryConfig.getDestroyScript();
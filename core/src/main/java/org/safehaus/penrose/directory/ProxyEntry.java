@@ -7,6 +7,7 @@ import org.safehaus.penrose.filter.FilterTool;
 import org.safehaus.penrose.filter.SimpleFilter;
 import org.safehaus.penrose.interpreter.Interpreter;
 import org.safehaus.penrose.ldap.*;
+import org.safehaus.penrose.ldap.source.LDAPSource;
 import org.safehaus.penrose.pipeline.SOPipeline;
 import org.safehaus.penrose.session.Session;
 import org.safehaus.penrose.operation.SearchOperation;
@@ -28,6 +29,8 @@ public class ProxyEntry extends Entry {
     public final static String SIZE_LIMIT             = "sizeLimit";
     public final static String TIME_LIMIT             = "timeLimit";
 
+    public final static String PASSTHROUGH            = "passthrough";
+
     public final static String AUTHENTICATON          = "authentication";
     public final static String AUTHENTICATON_DEFAULT  = "default";
     public final static String AUTHENTICATON_FULL     = "full";
@@ -46,6 +49,8 @@ public class ProxyEntry extends Entry {
 
     String authentication;
 
+    boolean passthrough;
+
     public void init() throws Exception {
 
         boolean debug = log.isDebugEnabled();
@@ -117,6 +122,22 @@ public class ProxyEntry extends Entry {
         if (debug) log.debug("Authentication: "+authentication);
 
         super.init();
+
+        passthrough = Boolean.valueOf(entryConfig.getParameter(PASSTHROUGH));
+        if (passthrough && !isPassthroughSupported()) {
+            log.warn("Passthrough disabled for "+getDn()+": entry or source modifies the entries.");
+            passthrough = false;
+        }
+        if (debug) log.debug("Passthrough: "+passthrough);
+    }
+
+    /**
+     * Returns true if upstream entries would be returned unchanged apart from the DN suffix:
+     * no attribute mapping or DN-valued attributes on the entry and none on the source.
+     */
+    public boolean isPassthroughSupported() {
+        if (!attributeNames.isEmpty() || !getAttributeConfigs().isEmpty()) return false;
+        return source instanceof LDAPSource && ((LDAPSource)source).isPassthroughSupported();
     }
 
     public DN convertDn(DN dn, DN oldSuffix, DN newSuffix) throws Exception {
@@ -229,10 +250,33 @@ public class ProxyEntry extends Entry {
             log.debug(TextUtil.displaySeparator(70));
         }
 
+        DN dn = request.getDn();
+        byte[] password = request.getPassword();
+
+        if (bindCache != null && bindCache.validate(dn, password)) {
+            if (debug) log.debug("Bind validated by cache.");
+            return;
+        }
+
+        long generation = bindCache == null ? 0 : bindCache.getGeneration();
+
         BindRequest newRequest = (BindRequest)request.clone();
         newRequest.setDn(convertDn(newRequest.getDn(), getDn(), proxyBaseDn));
 
-        source.bind(session, newRequest, response);
+        try {
+            source.bind(session, newRequest, response);
+
+        } catch (Exception e) {
+            if (bindCache != null) bindCache.remove(dn);
+            throw e;
+        }
+
+        if (bindCache != null) bindCache.add(dn, password, generation);
+    }
+
+    public boolean isBindCacheSupported() {
+        if (AUTHENTICATON_FULL.equals(authentication)) return false;
+        return !LDAP.AUTHENTICATION_FULL.equals(source.getParameter(LDAP.AUTHENTICATION));
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -400,10 +444,17 @@ public class ProxyEntry extends Entry {
 
         validatePermission(session, request);
 
+        if (bindCache != null) bindCache.remove(dn);
+
         DeleteRequest newRequest = (DeleteRequest)request.clone();
         newRequest.setDn(convertDn(newRequest.getDn(), getDn(), proxyBaseDn));
 
-        source.delete(session, newRequest, response);
+        try {
+            source.delete(session, newRequest, response);
+
+        } finally {
+            if (bindCache != null) bindCache.remove(dn);
+        }
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -430,6 +481,8 @@ public class ProxyEntry extends Entry {
 
         validatePermission(session, request);
 
+        if (bindCache != null) bindCache.remove(dn);
+
         ModifyRequest newRequest = (ModifyRequest)request.clone();
         newRequest.setDn(convertDn(newRequest.getDn(), getDn(), proxyBaseDn));
 
@@ -447,7 +500,12 @@ public class ProxyEntry extends Entry {
             attribute.setValues(values);
         }
 
-        source.modify(session, newRequest, response);
+        try {
+            source.modify(session, newRequest, response);
+
+        } finally {
+            if (bindCache != null) bindCache.remove(dn);
+        }
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -474,10 +532,17 @@ public class ProxyEntry extends Entry {
 
         validatePermission(session, request);
 
+        if (bindCache != null) bindCache.remove(dn);
+
         ModRdnRequest newRequest = (ModRdnRequest)request.clone();
         newRequest.setDn(convertDn(newRequest.getDn(), getDn(), proxyBaseDn));
 
-        source.modrdn(session, newRequest, response);
+        try {
+            source.modrdn(session, newRequest, response);
+
+        } finally {
+            if (bindCache != null) bindCache.remove(dn);
+        }
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -591,6 +656,27 @@ public class ProxyEntry extends Entry {
                 newRequest.setTimeLimit(proxyTimeLimit);
             }
 */
+            if (passthrough && newRequest.getDn() != null && !newRequest.getDn().isEmpty()) {
+                SearchResponse newResponse = new SOPipeline(operation) {
+                    public void add(SearchResult result) throws Exception {
+                        result.setEntryName(getName());
+                        super.add(result);
+                    }
+
+                    public void add(SearchReference reference) throws Exception {
+                        SearchReference newReference = createSearchReference(reference);
+                        super.add(newReference);
+                    }
+                    public void setException(Exception e) {
+                        // ignore
+                    }
+                };
+
+                LDAPSource ldapSource = (LDAPSource)source;
+                ldapSource.searchPassthrough(session, newRequest, new LDAPPassthroughResponse(newResponse, proxyBaseDn, getDn()));
+                return;
+            }
+
             final Interpreter interpreter = partition.newInterpreter();
 
             SearchResponse newResponse = new SOPipeline(operation) {
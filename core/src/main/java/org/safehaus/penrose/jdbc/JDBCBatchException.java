@@ -0,0 +1,50 @@
+package org.safehaus.penrose.jdbc;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Thrown when some rows of a batch could not be written. The other rows of the batch
+ * have been committed.
+ *
+ * @author Endi S. Dewata
+ */
+public class JDBCBatchException extends SQLException {
+
+    public static class Failure {
+
+        private String sql;
+        private Collection<Object> parameters;
+        private SQLException exception;
+
+        public Failure(String sql, Collection<Object> parameters, SQLException exception) {
+            this.sql = sql;
+            this.parameters = parameters;
+            this.exception = exception;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public Collection<Object> getParameters() {
+            return parameters;
+        }
+
+        public SQLException getException() {
+            return exception;
+        }
+    }
+
+    private Collection<Failure> failures = new ArrayList<Failure>();
+
+    public JDBCBatchException(Collection<Failure> failures) {
+        super(failures.size()+" batched row(s) failed: "+failures.iterator().next().getException().getMessage());
+        this.failures.addAll(failures);
+    }
+
+    public Collection<Failure> getFailures() {
+        return failures;
+    }
+}
@@ -21,6 +21,7 @@ import java.sql.*;
 import java.util.*;
 
 import org.safehaus.penrose.source.*;
+import org.safehaus.penrose.connection.ConnectionLimiter;
 import org.safehaus.penrose.util.TextUtil;
 import org.safehaus.penrose.Penrose;
 
@@ -37,6 +38,25 @@ public class JDBCClient {
     public Integer queryTimeout;
     public String quote;
 
+    public JDBCStatementCache statementCache;
+
+    // permit for the requests made with this client, answered when the first query returns
+    // so reading its rows doesn't count against the limit, released when the client is closed
+    public ConnectionLimiter.Permit permit;
+
+    public int batchSize = 100;
+    public int commitInterval = 1000; // rows
+
+    protected boolean batching;
+    protected boolean batchAutoCommit;
+
+    protected String batchSql;
+    protected PreparedStatement batchStatement;
+    protected int batchCount;
+
+    // rows written since the last commit, replayed one by one if a batch fails
+    protected List<Object[]> uncommittedRows = new ArrayList<Object[]>();
+
     public JDBCClient(Map<String,String> parameters) throws Exception {
         this(new JDBCConnectionFactory(parameters));
     }
@@ -49,7 +69,13 @@ public class JDBCClient {
     }
 
     public Connection getConnection() throws Exception {
-        connect();
+        try {
+            connect();
+
+        } catch (Exception e) {
+            if (permit != null) permit.failed(e);
+            throw e;
+        }
         return connection;
     }
 
@@ -63,8 +89,20 @@ public class JDBCClient {
     }
 
     public synchronized void close() throws Exception {
-        if (connection != null) connection.close();
-        connection = null;
+        if (batching) {
+            try {
+                endBatch();
+            } catch (Exception e) {
+                Penrose.errorLog.error(e.getMessage(), e);
+            }
+        }
+        try {
+            if (connection != null) connection.close();
+            connection = null;
+
+        } finally {
+            if (permit != null) permit.release();
+        }
     }
 
     public String getTypeName(int type) throws Exception {
@@ -289,7 +327,7 @@ public class JDBCClient {
         PreparedStatement ps = null;
 
         try {
-            ps = connection.prepareStatement(sql);
+            ps = prepareStatement(connection, sql);
             if (queryTimeout != null) ps.setQueryTimeout(queryTimeout);
 
             if (parameters != null && !parameters.isEmpty()) {
@@ -308,6 +346,187 @@ public class JDBCClient {
         }
     }
 
+    /**
+     * Adds a row to the current batch. The batch is executed when it reaches batchSize rows or
+     * when a different statement is added, and committed every commitInterval rows. Call
+     * endBatch() to write the remaining rows. If the rows of the previous statement fail the
+     * row is still added before the failures are thrown.
+     */
+    public void addBatch(
+            String sql,
+            Collection<Object> parameters
+    ) throws Exception {
+
+        boolean debug = log.isDebugEnabled();
+        Connection connection = getConnection();
+
+        if (!batching) {
+            if (debug) log.debug("Starting batch.");
+            batchAutoCommit = connection.getAutoCommit();
+            if (batchAutoCommit) connection.setAutoCommit(false);
+            batching = true;
+        }
+
+        // failures of the previous statement are reported after the row has been queued
+        JDBCBatchException failure = null;
+
+        if (batchStatement != null && !sql.equals(batchSql)) {
+            try {
+                executeBatch();
+            } catch (JDBCBatchException e) {
+                failure = e;
+            }
+            closeBatchStatement();
+        }
+
+        if (batchStatement == null) {
+            if (debug) log.debug("Batch statement: "+sql);
+            batchSql = sql;
+            batchStatement = connection.prepareStatement(sql);
+            if (queryTimeout != null) batchStatement.setQueryTimeout(queryTimeout);
+        }
+
+        if (parameters != null && !parameters.isEmpty()) {
+            int counter = 1;
+            for (Object value : parameters) {
+                setParameter(batchStatement, counter, value);
+                counter++;
+            }
+        }
+
+        batchStatement.addBatch();
+        batchCount++;
+
+        uncommittedRows.add(new Object[] { sql, parameters });
+
+        try {
+            if (batchCount >= batchSize) executeBatch();
+
+        } catch (JDBCBatchException e) {
+            if (failure == null) throw e;
+
+            Collection<JDBCBatchException.Failure> failures = new ArrayList<JDBCBatchException.Failure>();
+            failures.addAll(failure.getFailures());
+            failures.addAll(e.getFailures());
+            throw new JDBCBatchException(failures);
+        }
+
+        if (failure != null) throw failure;
+    }
+
+    public void executeBatch() throws Exception {
+
+        if (batchCount == 0) return;
+
+        boolean debug = log.isDebugEnabled();
+        if (debug) log.debug("Executing batch of "+batchCount+" row(s).");
+
+        batchCount = 0;
+
+        try {
+            batchStatement.executeBatch();
+
+        } catch (SQLException e) {
+            log.warn("Batch failed, writing uncommitted rows one by one: "+e.getMessage());
+            replayUncommittedRows();
+            return;
+        }
+
+        if (uncommittedRows.size() >= commitInterval) commitBatch();
+    }
+
+    public void commitBatch() throws Exception {
+
+        boolean debug = log.isDebugEnabled();
+        if (debug) log.debug("Committing "+uncommittedRows.size()+" row(s).");
+
+        connection.commit();
+        uncommittedRows.clear();
+    }
+
+    /**
+     * Rolls back the current transaction and writes the uncommitted rows one at a time so the
+     * rows that fail can be reported individually.
+     */
+    public void replayUncommittedRows() throws Exception {
+
+        connection.rollback();
+
+        List<Object[]> rows = new ArrayList<Object[]>(uncommittedRows);
+        uncommittedRows.clear();
+
+        closeBatchStatement();
+
+        Collection<JDBCBatchException.Failure> failures = new ArrayList<JDBCBatchException.Failure>();
+
+        connection.setAutoCommit(true);
+
+        try {
+            for (Object[] row : rows) {
+                String sql = (String)row[0];
+                Collection<Object> parameters = (Collection<Object>)row[1];
+
+                try {
+                    executeUpdate(sql, parameters);
+
+                } catch (SQLException e) {
+                    failures.add(new JDBCBatchException.Failure(sql, parameters, e));
+                }
+            }
+
+        } finally {
+            connection.setAutoCommit(false);
+        }
+
+        if (!failures.isEmpty()) throw new JDBCBatchException(failures);
+    }
+
+    public void endBatch() throws Exception {
+
+        if (!batching) return;
+
+        boolean debug = log.isDebugEnabled();
+        if (debug) log.debug("Ending batch.");
+
+        try {
+            executeBatch();
+            if (!uncommittedRows.isEmpty()) commitBatch();
+
+        } finally {
+            closeBatchStatement();
+            batching = false;
+
+            if (batchAutoCommit) connection.setAutoCommit(true);
+        }
+    }
+
+    public void closeBatchStatement() {
+        if (batchStatement != null) try { batchStatement.close(); } catch (Exception e) { Penrose.errorLog.error(e.getMessage(), e); }
+        batchStatement = null;
+        batchSql = null;
+        batchCount = 0;
+    }
+
+    public boolean isBatching() {
+        return batching;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getCommitInterval() {
+        return commitInterval;
+    }
+
+    public void setCommitInterval(int commitInterval) {
+        this.commitInterval = commitInterval;
+    }
+
     public void executeQuery(String sql, QueryResponse response) throws Exception {
         executeQuery(sql, (Collection<Object>)null, response);
     }
@@ -359,10 +578,33 @@ public class JDBCClient {
         PreparedStatement ps = null;
         ResultSet rs = null;
 
+        int fetchSize = response.getFetchSize();
+
+        // PostgreSQL only uses a cursor when the query runs inside a transaction
+        boolean restoreAutoCommit = fetchSize > 0 && isPostgreSQL() && connection.getAutoCommit();
+
         try {
-            ps = connection.prepareStatement(sql);
+            if (restoreAutoCommit) connection.setAutoCommit(false);
+
+            ps = prepareStatement(connection, sql);
             if (queryTimeout != null) ps.setQueryTimeout(queryTimeout);
 
+            if (fetchSize > 0) {
+                setFetchSize(ps, fetchSize);
+
+            } else if (statementCache != null) {
+                ps.setFetchSize(0); // the statement might have been used for streaming
+            }
+
+            int maxRows = response.getMaxRows();
+
+            if (maxRows > 0) {
+                ps.setMaxRows(maxRows);
+
+            } else if (statementCache != null) {
+                ps.setMaxRows(0);
+            }
+
             if (parameters != null && !parameters.isEmpty()) {
                 int counter = 1;
                 for (Object value : parameters) {
@@ -377,6 +619,7 @@ public class JDBCClient {
 
             try {
                 rs = ps.executeQuery();
+                if (permit != null) permit.answered();
 
             } finally {
                 long t2 = System.currentTimeMillis();
@@ -392,10 +635,36 @@ public class JDBCClient {
             if (rs != null) try { rs.close(); } catch (Exception e) { Penrose.errorLog.error(e.getMessage(), e); }
             if (ps != null) try { ps.close(); } catch (Exception e) { Penrose.errorLog.error(e.getMessage(), e); }
 
+            if (restoreAutoCommit) try { connection.setAutoCommit(true); } catch (Exception e) { Penrose.errorLog.error(e.getMessage(), e); }
+
             response.close();
         }
     }
 
+    public PreparedStatement prepareStatement(Connection connection, String sql) throws Exception {
+        if (statementCache == null) return connection.prepareStatement(sql);
+        return statementCache.prepareStatement(connection, sql);
+    }
+
+    public void setFetchSize(PreparedStatement ps, int fetchSize) throws Exception {
+        if (isMySQL()) {
+            // MySQL streams the rows one at a time only with this value
+            ps.setFetchSize(Integer.MIN_VALUE);
+        } else {
+            ps.setFetchSize(fetchSize);
+        }
+    }
+
+    public boolean isMySQL() {
+        String url = connectionFactory.getUrl();
+        return url != null && url.startsWith("jdbc:mysql:");
+    }
+
+    public boolean isPostgreSQL() {
+        String url = connectionFactory.getUrl();
+        return url != null && url.startsWith("jdbc:postgresql:");
+    }
+
     public void setParameter(PreparedStatement ps, int paramIndex, Object object) throws Exception {
     	ps.setObject(paramIndex, object);
     }
@@ -407,4 +676,12 @@ public class JDBCClient {
     public String getQuote() {
         return quote;
     }
+
+    public JDBCStatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    public void setStatementCache(JDBCStatementCache statementCache) {
+        this.statementCache = statementCache;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,169 @@
+package org.safehaus.penrose.jdbc;
+
+import org.apache.commons.pool.KeyedObjectPool;
+import org.apache.commons.pool.KeyedObjectPoolFactory;
+import org.apache.commons.pool.KeyedPoolableObjectFactory;
+import org.apache.commons.pool.impl.GenericKeyedObjectPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Creates the prepared statement pools attached to each pooled physical connection.
+ * The statements stay open when the connection is returned to the connection pool,
+ * so the next client that gets the same connection can reuse them. Each pool keeps
+ * at most maxStatements idle statements, the oldest ones are closed first.
+ *
+ * The cache also records how often each SQL statement was found in the pool.
+ *
+ * @author Endi Sukma Dewata
+ */
+public class JDBCStatementCache implements KeyedObjectPoolFactory {
+
+    public Logger log = LoggerFactory.getLogger(getClass());
+
+    private int maxStatements = 100;
+    private int statisticsSize = 1000;
+
+    private final ThreadLocal<Boolean> created = new ThreadLocal<Boolean>();
+
+    private final Map<String,Statistic> statistics = new LinkedHashMap<String,Statistic>() {
+        protected boolean removeEldestEntry(Map.Entry<String,Statistic> eldest) {
+            return size() > statisticsSize;
+        }
+    };
+
+    public static class Statistic {
+
+        private String sql;
+        private long requests;
+        private long hits;
+
+        public Statistic(String sql) {
+            this.sql = sql;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public double getHitRate() {
+            return requests == 0 ? 0 : (double)hits / requests;
+        }
+    }
+
+    public JDBCStatementCache() {
+    }
+
+    public JDBCStatementCache(int maxStatements) {
+        this.maxStatements = maxStatements;
+    }
+
+    public KeyedObjectPool createPool() {
+
+        GenericKeyedObjectPool.Config config = new GenericKeyedObjectPool.Config();
+        config.maxActive = -1; // unlimited active statements per SQL
+        config.maxIdle = 1;
+        config.maxTotal = maxStatements;
+        config.whenExhaustedAction = GenericKeyedObjectPool.WHEN_EXHAUSTED_FAIL;
+
+        return new GenericKeyedObjectPool(null, config) {
+            public void setFactory(final KeyedPoolableObjectFactory factory) {
+                super.setFactory(new KeyedPoolableObjectFactory() {
+                    public Object makeObject(Object key) throws Exception {
+                        created.set(Boolean.TRUE);
+                        return factory.makeObject(key);
+                    }
+                    public void destroyObject(Object key, Object object) throws Exception {
+                        factory.destroyObject(key, object);
+                    }
+                    public boolean validateObject(Object key, Object object) {
+                        return factory.validateObject(key, object);
+                    }
+                    public void activateObject(Object key, Object object) throws Exception {
+                        factory.activateObject(key, object);
+                    }
+                    public void passivateObject(Object key, Object object) throws Exception {
+                        // clears the parameters before the statement goes back to the pool
+                        factory.passivateObject(key, object);
+                    }
+                });
+            }
+        };
+    }
+
+    public PreparedStatement prepareStatement(Connection connection, String sql) throws Exception {
+
+        created.set(Boolean.FALSE);
+
+        try {
+            PreparedStatement ps = connection.prepareStatement(sql);
+
+            boolean hit = !Boolean.TRUE.equals(created.get());
+            if (log.isDebugEnabled()) log.debug("Prepared statement "+(hit ? "found in" : "added to")+" cache.");
+
+            synchronized (statistics) {
+                Statistic statistic = statistics.remove(sql);
+                if (statistic == null) statistic = new Statistic(sql);
+
+                statistic.requests++;
+                if (hit) statistic.hits++;
+
+                statistics.put(sql, statistic);
+            }
+
+            return ps;
+
+        } finally {
+            created.remove();
+        }
+    }
+
+    public Statistic getStatistic(String sql) {
+        synchronized (statistics) {
+            return statistics.get(sql);
+        }
+    }
+
+    public Collection<Statistic> getStatistics() {
+        synchronized (statistics) {
+            return new ArrayList<Statistic>(statistics.values());
+        }
+    }
+
+    public void clearStatistics() {
+        synchronized (statistics) {
+            statistics.clear();
+        }
+    }
+
+    public int getMaxStatements() {
+        return maxStatements;
+    }
+
+    public void setMaxStatements(int maxStatements) {
+        this.maxStatements = maxStatements;
+    }
+
+    public int getStatisticsSize() {
+        return statisticsSize;
+    }
+
+    public void setStatisticsSize(int statisticsSize) {
+        this.statisticsSize = statisticsSize;
+    }
+}
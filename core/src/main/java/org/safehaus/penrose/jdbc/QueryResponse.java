@@ -9,6 +9,8 @@ public class QueryResponse extends Response {
 
     protected LinkedList<Object> results = new LinkedList<Object>();
     protected long sizeLimit;
+    protected int fetchSize;
+    protected int maxRows;
     protected long totalCount;
 
     protected boolean closed = false;
@@ -18,6 +20,8 @@ public class QueryResponse extends Response {
         results.addAll(response.results);
 
         sizeLimit = response.sizeLimit;
+        fetchSize = response.fetchSize;
+        maxRows = response.maxRows;
         totalCount = response.totalCount;
 
         closed = response.closed;
@@ -47,6 +51,22 @@ public class QueryResponse extends Response {
         this.sizeLimit = sizeLimit;
     }
 
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    public void setMaxRows(int maxRows) {
+        this.maxRows = maxRows;
+    }
+
     public long getTotalCount() {
         return totalCount;
     }
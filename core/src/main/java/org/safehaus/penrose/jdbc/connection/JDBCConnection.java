@@ -3,19 +3,19 @@ package org.safehaus.penrose.jdbc.connection;
 import org.apache.commons.dbcp.PoolableConnectionFactory;
 import org.apache.commons.pool.impl.GenericObjectPool;
 import org.safehaus.penrose.connection.Connection;
+import org.safehaus.penrose.connection.ConnectionLimiter;
 import org.safehaus.penrose.jdbc.*;
 import org.safehaus.penrose.session.Session;
 import org.safehaus.penrose.session.SessionListener;
+import org.safehaus.penrose.source.Source;
 import org.safehaus.penrose.source.SourceConfig;
 import org.safehaus.penrose.source.FieldConfig;
 import org.safehaus.penrose.util.TextUtil;
 
 import java.sql.Driver;
 import java.sql.DriverManager;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Endi S. Dewata
@@ -49,11 +49,34 @@ public class JDBCConnection extends Connection {
     public final static String WHEN_EXHAUSTED_BLOCK                 = "block";
     public final static String WHEN_EXHAUSTED_GROW                  = "grow";
 
+    public final static String POOL_PREPARED_STATEMENTS             = "poolPreparedStatements";
+    public final static String MAX_OPEN_PREPARED_STATEMENTS         = "maxOpenPreparedStatements";
+
+    public final static String CLIENT_SCOPE                         = "clientScope";
+    public final static String CLIENT_SCOPE_OPERATION               = "operation";
+    public final static String CLIENT_SCOPE_SESSION                 = "session";
+
+    public final static String READ_URLS                            = "readUrls";
+    public final static String READ_BALANCING                       = "readBalancing";
+    public final static String READ_BALANCING_ROUND_ROBIN           = "roundRobin";
+    public final static String READ_BALANCING_LEAST_OUTSTANDING     = "leastOutstanding";
+    public final static String READ_AFTER_WRITE_WINDOW              = "readAfterWriteWindow";
+    public final static String REPLICA_EJECTION_TIME                = "replicaEjectionTime";
+
     public GenericObjectPool.Config config = new GenericObjectPool.Config();
     public GenericObjectPool connectionPool;
 
     public JDBCConnectionFactory connectionFactory;
     public PoolableConnectionFactory poolableConnectionFactory;
+    public JDBCStatementCache statementCache;
+
+    public String clientScope = CLIENT_SCOPE_OPERATION;
+
+    public List<JDBCReplica> replicas = new ArrayList<JDBCReplica>();
+    public String readBalancing = READ_BALANCING_ROUND_ROBIN;
+    public long readAfterWriteWindow = 5000; // milliseconds
+
+    private final AtomicInteger counter = new AtomicInteger();
 
     public void init() throws Exception {
 
@@ -124,13 +147,38 @@ public class JDBCConnection extends Connection {
 
         String validationQuery = parameters.remove(VALIDATION_QUERY);
 
+        s = parameters.remove(CLIENT_SCOPE);
+        if (s != null) clientScope = s;
+
+        s = parameters.remove(POOL_PREPARED_STATEMENTS);
+        boolean poolPreparedStatements = s != null && Boolean.valueOf(s);
+
+        s = parameters.remove(MAX_OPEN_PREPARED_STATEMENTS);
+        if (poolPreparedStatements) {
+            statementCache = new JDBCStatementCache();
+            if (s != null) statementCache.setMaxStatements(Integer.parseInt(s));
+        }
+
+        String readUrls = parameters.remove(READ_URLS);
+
+        s = parameters.remove(READ_BALANCING);
+        if (s != null) readBalancing = s;
+
+        s = parameters.remove(READ_AFTER_WRITE_WINDOW);
+        if (s != null) readAfterWriteWindow = Long.parseLong(s);
+
+        s = parameters.remove(REPLICA_EJECTION_TIME);
+        long ejectionTime = s == null ? 30000 : Long.parseLong(s);
+
+        parameters.keySet().removeAll(LIMITER_PARAMETERS);
+
         connectionPool = new GenericObjectPool(null, config);
 
         connectionFactory = new JDBCConnectionFactory(driver, parameters);
         poolableConnectionFactory = new PoolableConnectionFactory(
                 connectionFactory,
                 connectionPool,
-                null, // statement pool factory
+                statementCache, // statement pool factory
                 validationQuery, // test query
                 false, // read only
                 true // auto commit
@@ -143,10 +191,27 @@ public class JDBCConnection extends Connection {
              connectionPool.addObject();
          }
 
+        if (readUrls != null) {
+            for (String url : readUrls.split("[,\\s]+")) {
+                if (url.length() == 0) continue;
+
+                JDBCReplica replica = new JDBCReplica(url);
+                replica.setEjectionTime(ejectionTime);
+                replica.init(driver, parameters, config, validationQuery, statementCache);
+
+                replicas.add(replica);
+            }
+        }
+
+        log.debug("Client scope: "+clientScope);
+        log.debug("Replicas: "+replicas.size());
         log.debug("Connection "+getName()+" initialized.");
     }
 
     public void destroy() throws Exception {
+        for (JDBCReplica replica : replicas) {
+            replica.destroy();
+        }
         connectionPool.close();
         log.debug("Connection "+getName()+" closed.");
     }
@@ -170,22 +235,142 @@ public class JDBCConnection extends Connection {
         boolean debug = log.isDebugEnabled();
         if (debug) log.debug("Creating new JDBC client.");
 
-        return new JDBCPoolableClient(connectionPool, connectionFactory);
+        JDBCClient client = new JDBCPoolableClient(connectionPool, connectionFactory);
+        client.setStatementCache(statementCache);
+
+        return client;
+    }
+
+    /**
+     * Returns a client for a single operation on the source. The database connection is taken from
+     * the pool when the first statement is executed and returned when the client is closed. Sources
+     * with full authentication keep using the client stored in the session.
+     */
+    public JDBCClient getClient(Session session, Source source) throws Exception {
+        return getPrimaryClient(session, source);
+    }
+
+    /**
+     * Returns a client for an operation that modifies the database. The time of the write is
+     * recorded in the session so the following reads stay on the primary database.
+     */
+    public JDBCClient getWriteClient(Session session, Source source) throws Exception {
+        if (!replicas.isEmpty() && session != null) {
+            session.setAttribute(getLastWriteAttributeName(), System.currentTimeMillis());
+        }
+        return getPrimaryClient(session, source);
+    }
+
+    /**
+     * Returns a client for a read-only operation on the source. If read replicas are configured
+     * the client is connected to one of them, unless the session has modified the database
+     * within the read-after-write window.
+     */
+    public JDBCClient getReadClient(Session session, Source source) throws Exception {
+
+        if (replicas.isEmpty() || isSessionScoped(session, source) || isSticky(session)) {
+            return getPrimaryClient(session, source);
+        }
+
+        JDBCReplica replica = selectReplica();
+        if (replica == null) return getPrimaryClient(session, source);
+
+        boolean debug = log.isDebugEnabled();
+        if (debug) log.debug("Creating JDBC client for replica "+replica.getUrl()+".");
+
+        // acquired first, the replica counts the client as outstanding until it's closed
+        ConnectionLimiter.Permit permit = acquirePermit();
+
+        JDBCClient client = replica.createClient(connectionPool);
+        client.setStatementCache(statementCache);
+        client.permit = permit;
+
+        return client;
     }
 
-    public synchronized JDBCClient getClient(final Session session) throws Exception {
+    /**
+     * Returns a client for the primary database. Clients for a single operation hold a permit
+     * from the limiter of the connection until they're closed; session clients are not limited.
+     */
+    public JDBCClient getPrimaryClient(Session session, Source source) throws Exception {
+        if (isSessionScoped(session, source)) return getClient(session);
+
+        JDBCClient client = createClient();
+        client.permit = acquirePermit();
+
+        return client;
+    }
+
+    public boolean isSticky(Session session) {
+        if (session == null) return false;
+
+        Long lastWrite = (Long)session.getAttribute(getLastWriteAttributeName());
+        if (lastWrite == null) return false;
+
+        return System.currentTimeMillis() - lastWrite < readAfterWriteWindow;
+    }
+
+    public String getLastWriteAttributeName() {
+        return getPartition().getName()+".connection."+getName()+".lastWrite";
+    }
+
+    public JDBCReplica selectReplica() {
+
+        int size = replicas.size();
+        int start = counter.getAndIncrement() & Integer.MAX_VALUE;
+
+        JDBCReplica selected = null;
+
+        for (int i = 0; i < size; i++) {
+            JDBCReplica replica = replicas.get((start + i) % size);
+            if (!replica.isAvailable()) continue;
+
+            if (!READ_BALANCING_LEAST_OUTSTANDING.equals(readBalancing)) return replica;
+
+            if (selected == null || replica.getOutstanding() < selected.getOutstanding()) {
+                selected = replica;
+            }
+        }
+
+        return selected;
+    }
+
+    public void closeClient(Session session, Source source, JDBCClient client) throws Exception {
+
+        if (isSessionScoped(session, source)) {
+            closeClient(session);
+            return;
+        }
+
+        boolean debug = log.isDebugEnabled();
+        if (debug) log.debug("Closing JDBC client.");
+
+        client.close();
+    }
+
+    public boolean isSessionScoped(Session session, Source source) {
+        if (session == null) return false;
+        if (CLIENT_SCOPE_SESSION.equals(clientScope)) return true;
+        return JDBC.AUTHENTICATION_FULL.equals(source.getParameter(JDBC.AUTHENTICATION));
+    }
+
+    public JDBCClient getClient(final Session session) throws Exception {
 
         final boolean debug = log.isDebugEnabled();
-        if (debug) log.debug("Getting LDAP client from session.");
+        if (debug) log.debug("Getting JDBC client from session.");
         final String attributeName = getPartition().getName()+".connection."+getName();
 
-        JDBCClient client = (JDBCClient)session.getAttribute(attributeName);
-        if (client != null) return client;
+        final JDBCClient newClient;
 
-        final JDBCClient newClient = createClient();
+        synchronized (session) {
+            JDBCClient client = (JDBCClient)session.getAttribute(attributeName);
+            if (client != null) return client;
 
-        if (debug) log.debug("Storing JDBC client in session.");
-        session.setAttribute(attributeName, newClient);
+            newClient = createClient();
+
+            if (debug) log.debug("Storing JDBC client in session.");
+            session.setAttribute(attributeName, newClient);
+        }
 
         session.addListener(new SessionListener() {
             public void sessionClosed() throws Exception {
@@ -243,6 +428,14 @@ public class JDBCConnection extends Connection {
         //client.close();
     }
 
+    public Collection<JDBCReplica> getReplicas() {
+        return replicas;
+    }
+
+    public JDBCStatementCache getStatementCache() {
+        return statementCache;
+    }
+
     public Collection<String> getCatalogs() throws Exception {
 
         boolean debug = log.isDebugEnabled();
@@ -10,7 +10,9 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -26,6 +28,11 @@ public class JDBCFilterBuilder {
     private String sql;
     private Collection<Object> parameters = new ArrayList<Object>();
 
+    // filter values in the order collected by Filter.toString(args)
+    private List<Object> args = new ArrayList<Object>();
+    private Collection<SQLTemplate.Parameter> templateParameters = new ArrayList<SQLTemplate.Parameter>();
+    private boolean cacheable = true;
+
     private String quote;
     private boolean extractValues = true;
     private boolean appendSourceAlias = true;
@@ -61,6 +68,10 @@ public class JDBCFilterBuilder {
 
         } else if (filter instanceof PresentFilter) {
             generate((PresentFilter)filter, sb);
+
+        } else if (filter != null) {
+            // keep the value indexes in sync with Filter.toString(args)
+            filter.toString(args);
         }
     }
 
@@ -116,61 +127,199 @@ public class JDBCFilterBuilder {
 
         String lhs = sb1.toString();
 
-        StringBuilder sb2 = new StringBuilder();
+        String comparison = getComparison(lField, "like");
+
+        if (!extractValues) {
+            StringBuilder sb2 = new StringBuilder();
+
+            for (Object o : substrings) {
+                if (o.equals(SubstringFilter.STAR)) {
+                    sb2.append('%');
+                } else {
+                    sb2.append(o);
+                }
+            }
+
+            generateComparison(lhs, "like", "\""+sb2+"\"", comparison, sb);
+            return;
+        }
+
+        List<Object> pattern = new ArrayList<Object>();
 
         for (Object o : substrings) {
             if (o.equals(SubstringFilter.STAR)) {
-                sb2.append('%');
+                pattern.add(o);
             } else {
-                sb2.append(o);
+                pattern.add(args.size());
+                args.add(o);
             }
         }
 
-        String value = sb2.toString();
+        if (lField.isPrefixRange() && lField.getCastType() == null
+                && !FieldConfig.COMPARISON_ILIKE.equals(comparison)) {
 
-        String rhs;
+            if (getPrefix(substrings) != null) {
+                generatePrefixRange(lhs, pattern, comparison, sb);
+                return;
+            }
 
-        if (extractValues) {
+            // the statement depends on the value, it can't be reused for other values
+            if (isPrefixPattern(substrings)) cacheable = false;
+        }
 
-            if (lField.getCastType() != null) {
-                StringBuilder sb3 = new StringBuilder();
-                sb3.append("cast(? as ");
-                sb3.append(lField.getCastType());
+        String rhs;
 
-                if (lField.getLength() > 0) {
-                    sb3.append("(");
-                    sb3.append(lField.getLength());
-                    sb3.append(")");
-                }
+        // GHH 20080707 - if the field isn't wrapped in a cast, and
+        // do know that we will need to have the value lowercased,
+        // do the lowercasing ourselves
+        boolean lowerCase = false;
 
-                sb3.append(")");
-                rhs = sb3.toString();
+        if (lField.getCastType() != null) {
+            StringBuilder sb3 = new StringBuilder();
+            sb3.append("cast(? as ");
+            sb3.append(lField.getCastType());
 
-            } else {
-                rhs = "?";
-                // GHH 20080707 - if the field isn't wrapped in a cast, and
-                // do know that we will need to have the value lowercased,
-                // do the lowercasing ourselves
-                if (allowCaseSensitive && lField.isText() && !lField.isCaseSensitive()) {
-                    value = value.toLowerCase();
-                }
-                // end GHH 20080707
+            if (lField.getLength() > 0) {
+                sb3.append("(");
+                sb3.append(lField.getLength());
+                sb3.append(")");
             }
 
-            parameters.add(value);
+            sb3.append(")");
+            rhs = sb3.toString();
 
         } else {
-            rhs = "\""+value+"\"";
+            rhs = "?";
+            lowerCase = FieldConfig.COMPARISON_LOWER.equals(comparison);
+        }
+        // end GHH 20080707
+
+        addParameter(new SQLTemplate.Parameter(SQLTemplate.Parameter.SUBSTRING, lowerCase, pattern));
+
+        generateComparison(lhs, "like", rhs, comparison, sb);
+    }
+
+    public boolean isPrefixPattern(Collection<Object> substrings) {
+
+        if (substrings.size() != 2) return false;
+
+        Iterator<Object> i = substrings.iterator();
+        Object initial = i.next();
+        Object any = i.next();
+
+        return !initial.equals(SubstringFilter.STAR) && any.equals(SubstringFilter.STAR);
+    }
+
+    /**
+     * Returns the prefix of a substring filter that only has an initial value, e.g. (uid=ali*),
+     * or null if the filter has a different form or the prefix has no upper bound.
+     */
+    public String getPrefix(Collection<Object> substrings) {
+
+        if (!isPrefixPattern(substrings)) return null;
+
+        String prefix = substrings.iterator().next().toString();
+        if (SQLTemplate.getUpperBound(prefix) == null) return null;
+
+        return prefix;
+    }
+
+    /**
+     * Generates a range predicate that lets an ordinary index scan find the values matching
+     * "like 'prefix%'". The range alone isn't equivalent under linguistic collations, e.g.
+     * 'a b' may sort between 'ab' and 'ac', so the like predicate is kept to filter the rows.
+     */
+    public void generatePrefixRange(
+            String lhs,
+            List<Object> pattern,
+            String comparison,
+            StringBuilder sb
+    ) throws Exception {
+
+        String column = lhs;
+        String rhs = "?";
+
+        boolean lowerCase = FieldConfig.COMPARISON_LOWER.equals(comparison);
+
+        if (lowerCase) {
+            column = "lower("+lhs+")";
+
+        } else if (FieldConfig.COMPARISON_CITEXT.equals(comparison)) {
+            rhs = "cast(? as citext)";
+        }
+
+        sb.append("(");
+        sb.append(column);
+        sb.append(" >= ");
+        sb.append(rhs);
+        sb.append(" and ");
+        sb.append(column);
+        sb.append(" < ");
+        sb.append(rhs);
+        sb.append(" and ");
+        generateComparison(lhs, "like", "?", comparison, sb);
+        sb.append(")");
+
+        addParameter(new SQLTemplate.Parameter(SQLTemplate.Parameter.LOWER_BOUND, lowerCase, pattern));
+        addParameter(new SQLTemplate.Parameter(SQLTemplate.Parameter.UPPER_BOUND, lowerCase, pattern));
+        addParameter(new SQLTemplate.Parameter(SQLTemplate.Parameter.SUBSTRING, lowerCase, pattern));
+    }
+
+    public void addParameter(SQLTemplate.Parameter parameter) {
+        templateParameters.add(parameter);
+        parameters.add(parameter.getValue(args));
+    }
+
+    /**
+     * Returns how the field should be compared, or null if the comparison is case-sensitive.
+     */
+    public String getComparison(FieldConfig field, String operator) {
+
+        if (!allowCaseSensitive || !field.isText() || field.isCaseSensitive()) return null;
+
+        String comparison = field.getComparison();
+        if (comparison == null) return FieldConfig.COMPARISON_LOWER;
+
+        if (FieldConfig.COMPARISON_ILIKE.equals(comparison) && !"=".equals(operator) && !"like".equals(operator)) {
+            return FieldConfig.COMPARISON_LOWER;
         }
 
-        if (allowCaseSensitive && lField.isText() && !lField.isCaseSensitive()) {
+        return comparison;
+    }
+
+    public void generateComparison(
+            String lhs,
+            String operator,
+            String rhs,
+            String comparison,
+            StringBuilder sb
+    ) throws Exception {
+
+        boolean parameter = rhs.equals("?");
+
+        if (FieldConfig.COMPARISON_ILIKE.equals(comparison) && parameter) {
+            sb.append(lhs);
+            sb.append(" ilike ");
+            sb.append(rhs);
+
+        } else if (FieldConfig.COMPARISON_CITEXT.equals(comparison)) {
+            sb.append(lhs);
+            sb.append(" ");
+            sb.append(operator);
+            sb.append(" cast(");
+            sb.append(rhs);
+            sb.append(" as citext)");
+
+        } else if (FieldConfig.COMPARISON_LOWER.equals(comparison) || FieldConfig.COMPARISON_ILIKE.equals(comparison)) {
             sb.append("lower(");
             sb.append(lhs);
-            sb.append(") like ");
+            sb.append(") ");
+            sb.append(operator);
+            sb.append(" ");
 
             // GHH 20080707 - if the rhs is just ? then we have already
             // lowercased the value
-            if (rhs.equals("?")) {
+            if (parameter) {
                 sb.append(rhs);
 
             } else {
@@ -182,7 +331,9 @@ public class JDBCFilterBuilder {
 
         } else {
             sb.append(lhs);
-            sb.append(" like ");
+            sb.append(" ");
+            sb.append(operator);
+            sb.append(" ");
             sb.append(rhs);
         }
     }
@@ -251,10 +402,18 @@ public class JDBCFilterBuilder {
 
         String lhs = sb1.toString();
 
+        String comparison = getComparison(lField, operator);
+
         String rhs;
 
         if (extractValues) {
 
+            int index = args.size();
+            args.add(value);
+
+            int type = SQLTemplate.Parameter.VALUE;
+            boolean lowerCase = false;
+
             if (lField.getCastType() != null) {
                 StringBuilder sb3 = new StringBuilder();
                 sb3.append("cast(? as ");
@@ -271,23 +430,18 @@ public class JDBCFilterBuilder {
 
             } else {
                 rhs = "?";
-		// GHH 20080707 - if the field isn't wrapped in a cast, and
-		// do know that we will need to have the value lowercased,
-		// do the lowercasing ourselves
-        	if (allowCaseSensitive && lField.isText() && !lField.isCaseSensitive()) {
-			// the assumption here is that one of these two cases
-			// for value type is sufficient for any possible
-			// "text" value
-			if (value instanceof byte[]) {
-				value = (new String((byte[])value)).toLowerCase().getBytes();
-			} else {
-				value = value.toString().toLowerCase();
-			}
-		}
-		// end GHH 20080707
+                // GHH 20080707 - if the field isn't wrapped in a cast, and
+                // do know that we will need to have the value lowercased,
+                // do the lowercasing ourselves
+                lowerCase = FieldConfig.COMPARISON_LOWER.equals(comparison);
+                // end GHH 20080707
+
+                if (FieldConfig.COMPARISON_ILIKE.equals(comparison)) {
+                    type = SQLTemplate.Parameter.ESCAPED;
+                }
             }
 
-            parameters.add(value);
+            addParameter(new SQLTemplate.Parameter(type, lowerCase, index));
 
         } else {
             rhs = value.toString();
@@ -320,32 +474,7 @@ public class JDBCFilterBuilder {
             rhs = sb2.toString();
         }
 
-        if (allowCaseSensitive && lField.isText() && !lField.isCaseSensitive()) {
-            sb.append("lower(");
-            sb.append(lhs);
-            sb.append(") ");
-            sb.append(operator);
-            sb.append(" ");
-
-            // GHH 20080707 - if the rhs is just ? then we have already
-            // lowercased the value
-            if (rhs.equals("?")) {
-                sb.append(rhs);
-
-            } else {
-                sb.append("lower(");
-                sb.append(rhs);
-                sb.append(")");
-            }
-            // end GHH 20080707
-
-        } else {
-            sb.append(lhs);
-            sb.append(" ");
-            sb.append(operator);
-            sb.append(" ");
-            sb.append(rhs);
-        }
+        generateComparison(lhs, operator, rhs, comparison, sb);
     }
 
     public void generate(
@@ -454,6 +583,14 @@ public class JDBCFilterBuilder {
         return parameters;
     }
 
+    public Collection<SQLTemplate.Parameter> getTemplateParameters() {
+        return templateParameters;
+    }
+
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
     public String getSql() {
         return sql;
     }
@@ -0,0 +1,186 @@
+package org.safehaus.penrose.jdbc.connection;
+
+import org.apache.commons.dbcp.PoolableConnectionFactory;
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.safehaus.penrose.jdbc.JDBCClient;
+import org.safehaus.penrose.jdbc.JDBCConnectionFactory;
+import org.safehaus.penrose.jdbc.JDBCStatementCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection pool for a read-only copy of the database. A replica that fails is ejected
+ * for a while, then it's checked again before it receives new requests.
+ *
+ * @author Endi S. Dewata
+ */
+public class JDBCReplica {
+
+    public Logger log = LoggerFactory.getLogger(getClass());
+
+    private String url;
+    private String validationQuery;
+    private long ejectionTime = 30000; // milliseconds
+
+    public GenericObjectPool connectionPool;
+    public JDBCConnectionFactory connectionFactory;
+    public PoolableConnectionFactory poolableConnectionFactory;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private volatile long ejectedUntil;
+    private boolean checking;
+
+    public JDBCReplica(String url) {
+        this.url = url;
+    }
+
+    public void init(
+            Driver driver,
+            Map<String,String> parameters,
+            GenericObjectPool.Config config,
+            String validationQuery,
+            JDBCStatementCache statementCache
+    ) throws Exception {
+
+        log.debug("Initializing replica "+url+".");
+
+        this.validationQuery = validationQuery;
+
+        Map<String,String> map = new HashMap<String,String>();
+        map.putAll(parameters);
+        map.put(JDBCConnection.URL, url);
+
+        connectionPool = new GenericObjectPool(null, config);
+        connectionFactory = new JDBCConnectionFactory(driver, map);
+
+        poolableConnectionFactory = new PoolableConnectionFactory(
+                connectionFactory,
+                connectionPool,
+                statementCache, // statement pool factory
+                validationQuery, // test query
+                true, // read only
+                true // auto commit
+        );
+
+        connectionPool.setFactory(poolableConnectionFactory);
+    }
+
+    public void destroy() throws Exception {
+        if (connectionPool != null) connectionPool.close();
+    }
+
+    public JDBCClient createClient(GenericObjectPool primaryPool) throws Exception {
+        return new JDBCReplicaClient(this, primaryPool);
+    }
+
+    /**
+     * Returns true if the replica can receive requests. An ejected replica is checked again
+     * by one caller once its ejection time has passed.
+     */
+    public boolean isAvailable() {
+
+        if (ejectedUntil == 0) return true;
+        if (System.currentTimeMillis() < ejectedUntil) return false;
+
+        synchronized (this) {
+            if (checking) return false;
+            checking = true;
+        }
+
+        try {
+            check();
+            reinstate();
+            return true;
+
+        } catch (Exception e) {
+            log.warn("Replica "+url+" is still unavailable: "+e.getMessage());
+            eject();
+            return false;
+
+        } finally {
+            synchronized (this) {
+                checking = false;
+            }
+        }
+    }
+
+    public void check() throws Exception {
+
+        Connection connection = (Connection)connectionPool.borrowObject();
+
+        try {
+            if (validationQuery == null) return;
+
+            Statement statement = connection.createStatement();
+            try {
+                statement.executeQuery(validationQuery).close();
+            } finally {
+                statement.close();
+            }
+
+        } finally {
+            connectionPool.returnObject(connection);
+        }
+    }
+
+    /**
+     * Returns true if the exception only means that all connections of the pool are in use,
+     * which says nothing about the health of the replica. A connection that can't be created
+     * or validated is reported differently.
+     */
+    public boolean isExhausted(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (!(t instanceof NoSuchElementException)) continue;
+
+            String message = t.getMessage();
+            return message == null || !message.startsWith("Could not create");
+        }
+        return false;
+    }
+
+    public void eject() {
+        log.warn("Ejecting replica "+url+" for "+ejectionTime+" ms.");
+        ejectedUntil = System.currentTimeMillis() + ejectionTime;
+    }
+
+    public void reinstate() {
+        log.warn("Replica "+url+" is available again.");
+        ejectedUntil = 0;
+    }
+
+    public boolean isEjected() {
+        return ejectedUntil != 0;
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public int incrementOutstanding() {
+        return outstanding.incrementAndGet();
+    }
+
+    public int decrementOutstanding() {
+        return outstanding.decrementAndGet();
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public long getEjectionTime() {
+        return ejectionTime;
+    }
+
+    public void setEjectionTime(long ejectionTime) {
+        this.ejectionTime = ejectionTime;
+    }
+}
@@ -0,0 +1,70 @@
+package org.safehaus.penrose.jdbc.connection;
+
+import org.apache.commons.dbcp.PoolingDataSource;
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.safehaus.penrose.jdbc.JDBCPoolableClient;
+
+/**
+ * Client that reads from a replica. If the replica can't provide a connection the client
+ * uses the primary database instead, and the replica is ejected unless its pool was only
+ * exhausted.
+ *
+ * @author Endi S. Dewata
+ */
+public class JDBCReplicaClient extends JDBCPoolableClient {
+
+    JDBCReplica replica;
+    GenericObjectPool primaryPool;
+
+    boolean released;
+
+    public JDBCReplicaClient(
+            JDBCReplica replica,
+            GenericObjectPool primaryPool
+    ) throws Exception {
+        super(replica.connectionPool, replica.connectionFactory);
+
+        this.replica = replica;
+        this.primaryPool = primaryPool;
+
+        replica.incrementOutstanding();
+    }
+
+    public synchronized void connect() throws Exception {
+
+        if (connection != null && !connection.isClosed()) return;
+
+        try {
+            super.connect();
+
+        } catch (Exception e) {
+            if (replica.isExhausted(e)) {
+                log.debug("Replica "+replica.getUrl()+" has no free connection.");
+
+            } else {
+                log.warn("Unable to connect to replica "+replica.getUrl()+": "+e.getMessage());
+                replica.eject();
+            }
+
+            log.debug("Getting JDBC connection from primary connection pool.");
+            ds = new PoolingDataSource(primaryPool);
+            connection = ds.getConnection();
+        }
+    }
+
+    public synchronized void close() throws Exception {
+        try {
+            super.close();
+
+        } finally {
+            if (!released) {
+                released = true;
+                replica.decrementOutstanding();
+            }
+        }
+    }
+
+    public JDBCReplica getReplica() {
+        return replica;
+    }
+}
@@ -23,6 +23,9 @@ public class JDBCStatementBuilder {
     protected String sql;
     protected Collection<Object> parameters = new ArrayList<Object>();
 
+    protected Collection<SQLTemplate.Parameter> templateParameters = new ArrayList<SQLTemplate.Parameter>();
+    protected boolean cacheable = true;
+
     private String quote;
 
     public JDBCStatementBuilder(Partition partition) {
@@ -75,6 +78,70 @@ public class JDBCStatementBuilder {
             if (quote != null) sb.append(quote);
         }
 
+        generateFromClause(statement, sb);
+
+        first = true;
+        for (String columnName : statement.getOrders()) {
+
+            if (first) {
+                sb.append("\norder by\n    ");
+                first = false;
+            } else {
+                sb.append(", ");
+            }
+
+            int p = columnName.indexOf('.');
+
+            if (p >= 0) {
+                String sn = columnName.substring(0, p);
+                String fn = columnName.substring(p+1);
+
+                sb.append(sn);
+                sb.append('.');
+
+                columnName = fn;
+            }
+
+            if (quote != null) sb.append(quote);
+            sb.append(columnName);
+            if (quote != null) sb.append(quote);
+        }
+/*
+        int totalCount = response.getTotalCount();
+        long sizeLimit = request.getSizeLimit();
+
+        if (sizeLimit == 0) {
+            log.debug("Retrieving all entries.");
+
+        } else {
+            int size = sizeLimit - totalCount + 1;
+            if (debug) log.debug("Retrieving "+size+" entries.");
+
+            sb.append(" limit ");
+            sb.append(size);
+        }
+*/
+
+        return sb.toString();
+    }
+
+    /**
+     * Generates a statement that counts the rows the select statement would return.
+     */
+    public String generateCount(SelectStatement statement) throws Exception {
+
+        log.debug("Generating count statement.");
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("select count(*)");
+
+        generateFromClause(statement, sb);
+
+        return sb.toString();
+    }
+
+    public void generateFromClause(SelectStatement statement, StringBuilder sb) throws Exception {
+
         sb.append("\nfrom\n    ");
 
         Collection<String> aliases = statement.getSourceAliases();
@@ -167,50 +234,8 @@ public class JDBCStatementBuilder {
 
         parameters.addAll(filterBuilder.getParameters());
 
-        first = true;
-        for (String columnName : statement.getOrders()) {
-
-            if (first) {
-                sb.append("\norder by\n    ");
-                first = false;
-            } else {
-                sb.append(", ");
-            }
-
-            int p = columnName.indexOf('.');
-
-            if (p >= 0) {
-                String sn = columnName.substring(0, p);
-                String fn = columnName.substring(p+1);
-
-                sb.append(sn);
-                sb.append('.');
-
-                columnName = fn;
-            }
-
-            if (quote != null) sb.append(quote);
-            sb.append(columnName);
-            if (quote != null) sb.append(quote);
-        }
-
-/*
-        int totalCount = response.getTotalCount();
-        long sizeLimit = request.getSizeLimit();
-
-        if (sizeLimit == 0) {
-            log.debug("Retrieving all entries.");
-
-        } else {
-            int size = sizeLimit - totalCount + 1;
-            if (debug) log.debug("Retrieving "+size+" entries.");
-
-            sb.append(" limit ");
-            sb.append(size);
-        }
-*/
-
-        return sb.toString();
+        templateParameters.addAll(filterBuilder.getTemplateParameters());
+        cacheable = filterBuilder.isCacheable();
     }
 
     public String generate(InsertStatement statement) throws Exception {
@@ -385,6 +410,14 @@ public class JDBCStatementBuilder {
         return parameters;
     }
 
+    public Collection<SQLTemplate.Parameter> getTemplateParameters() {
+        return templateParameters;
+    }
+
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
     public String getQuote() {
         return quote;
     }
@@ -0,0 +1,164 @@
+package org.safehaus.penrose.jdbc.connection;
+
+import org.safehaus.penrose.filter.SubstringFilter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Generated SQL statement together with the instructions to compute its parameters
+ * from the values of a filter. The values are collected with Filter.toString(args),
+ * so any filter with the same shape can reuse the statement.
+ *
+ * @author Endi S. Dewata
+ */
+public class SQLTemplate {
+
+    private String sql;
+    private List<Parameter> parameters = new ArrayList<Parameter>();
+
+    public static class Parameter {
+
+        public final static int VALUE       = 0;
+        public final static int ESCAPED     = 1;
+        public final static int SUBSTRING   = 2;
+        public final static int LOWER_BOUND = 3;
+        public final static int UPPER_BOUND = 4;
+
+        private int type;
+        private boolean lowerCase;
+
+        // contains SubstringFilter.STAR or indexes of the filter values
+        private List<Object> pattern;
+
+        public Parameter(int type, boolean lowerCase, List<Object> pattern) {
+            this.type = type;
+            this.lowerCase = lowerCase;
+            this.pattern = pattern;
+        }
+
+        public Parameter(int type, boolean lowerCase, int index) {
+            this.type = type;
+            this.lowerCase = lowerCase;
+            this.pattern = new ArrayList<Object>();
+            this.pattern.add(index);
+        }
+
+        public Object getValue(List<Object> args) {
+
+            switch (type) {
+                case ESCAPED:
+                    return escapeLike(toString(args.get((Integer)pattern.get(0))));
+
+                case SUBSTRING:
+                    StringBuilder sb = new StringBuilder();
+                    for (Object o : pattern) {
+                        if (o.equals(SubstringFilter.STAR)) {
+                            sb.append('%');
+                        } else {
+                            sb.append(args.get((Integer)o));
+                        }
+                    }
+                    String value = sb.toString();
+                    return lowerCase ? value.toLowerCase() : value;
+
+                case LOWER_BOUND:
+                    return getPrefix(args);
+
+                case UPPER_BOUND:
+                    return getUpperBound(getPrefix(args));
+
+                default:
+                    Object object = args.get((Integer)pattern.get(0));
+                    if (!lowerCase) return object;
+
+                    // the assumption here is that one of these two cases
+                    // for value type is sufficient for any possible
+                    // "text" value
+                    if (object instanceof byte[]) {
+                        return (new String((byte[])object)).toLowerCase().getBytes();
+                    } else {
+                        return object.toString().toLowerCase();
+                    }
+            }
+        }
+
+        public String getPrefix(List<Object> args) {
+            String prefix = args.get((Integer)pattern.get(0)).toString();
+            return lowerCase ? prefix.toLowerCase() : prefix;
+        }
+
+        public String toString(Object object) {
+            return object instanceof byte[] ? new String((byte[])object) : object.toString();
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public boolean isLowerCase() {
+            return lowerCase;
+        }
+
+        public List<Object> getPattern() {
+            return pattern;
+        }
+    }
+
+    public SQLTemplate(String sql, Collection<Parameter> parameters) {
+        this.sql = sql;
+        this.parameters.addAll(parameters);
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public Collection<Parameter> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Returns true if the statement can be used for the filter values, i.e. every prefix range
+     * has an upper bound.
+     */
+    public boolean matches(List<Object> args) {
+        for (Parameter parameter : parameters) {
+            if (parameter.getType() != Parameter.UPPER_BOUND) continue;
+            if (getUpperBound(parameter.getPrefix(args)) == null) return false;
+        }
+        return true;
+    }
+
+    public Collection<Object> getParameters(List<Object> args) {
+        Collection<Object> list = new ArrayList<Object>();
+        for (Parameter parameter : parameters) {
+            list.add(parameter.getValue(args));
+        }
+        return list;
+    }
+
+    /**
+     * Returns the smallest string that is greater than every string starting with the prefix,
+     * or null if there is none, i.e. the prefix is empty or only contains Character.MAX_VALUE.
+     */
+    public static String getUpperBound(String prefix) {
+
+        int length = prefix.length();
+        while (length > 0 && prefix.charAt(length-1) == Character.MAX_VALUE) length--;
+
+        if (length == 0) return null;
+
+        return prefix.substring(0, length-1)+(char)(prefix.charAt(length-1)+1);
+    }
+
+    public static String escapeLike(String value) {
+        StringBuilder sb = new StringBuilder();
+        for (char c : value.toCharArray()) {
+            if (c == '%' || c == '_' || c == '\\') sb.append('\\');
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,80 @@
+package org.safehaus.penrose.jdbc.connection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the most recently used SQL templates keyed by filter shape.
+ *
+ * @author Endi S. Dewata
+ */
+public class SQLTemplateCache {
+
+    public Logger log = LoggerFactory.getLogger(getClass());
+
+    public final static int DEFAULT_SIZE = 100;
+
+    private int size = DEFAULT_SIZE;
+
+    private long hits;
+    private long misses;
+
+    private final Map<String,SQLTemplate> templates = new LinkedHashMap<String,SQLTemplate>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String,SQLTemplate> eldest) {
+            return size() > SQLTemplateCache.this.size;
+        }
+    };
+
+    public SQLTemplateCache() {
+    }
+
+    public SQLTemplateCache(int size) {
+        this.size = size;
+    }
+
+    public synchronized SQLTemplate get(String shape) {
+
+        SQLTemplate template = templates.get(shape);
+
+        if (template == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+
+        if (log.isDebugEnabled()) log.debug("SQL template for "+shape+(template == null ? " not" : "")+" found in cache.");
+
+        return template;
+    }
+
+    public synchronized void put(String shape, SQLTemplate template) {
+        templates.put(shape, template);
+    }
+
+    public synchronized void clear() {
+        templates.clear();
+    }
+
+    public synchronized int getCount() {
+        return templates.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+}
@@ -7,6 +7,10 @@ import org.safehaus.penrose.directory.EntrySource;
 import org.safehaus.penrose.directory.Directory;
 import org.safehaus.penrose.directory.Entry;
 import org.safehaus.penrose.jdbc.JDBC;
+import org.safehaus.penrose.jdbc.JDBCBatchException;
+import org.safehaus.penrose.jdbc.JDBCClient;
+import org.safehaus.penrose.jdbc.connection.JDBCConnection;
+import org.safehaus.penrose.jdbc.source.JDBCSource;
 import org.safehaus.penrose.ldap.*;
 import org.safehaus.penrose.session.Session;
 import org.safehaus.penrose.operation.SearchOperation;
@@ -34,6 +38,11 @@ public class JDBCSyncJob extends Job {
 
     private Source changelog;
 
+    private int batchSize = 100;
+    private int commitInterval = 1000;
+
+    JDBCClient changelogClient;
+
     public void init() throws Exception {
 
         log.debug("Initializing "+this.getName()+" job...");
@@ -105,6 +114,12 @@ public class JDBCSyncJob extends Job {
 
         String changeLogName = jobConfig.getParameter("changelog");
         changelog = sourceManager.getSource(changeLogName);
+
+        s = jobConfig.getParameter("batchSize");
+        if (s != null) batchSize = Integer.parseInt(s);
+
+        s = jobConfig.getParameter("commitInterval");
+        if (s != null) commitInterval = Integer.parseInt(s);
     }
 
     public Source createTmpTarget(Source target) throws Exception {
@@ -334,6 +349,8 @@ public class JDBCSyncJob extends Job {
         Session session = createAdminSession();
 
         try {
+            startChangeLogBatch();
+
             for (Entry entry : entries.values()) {
                 Entry tmpEntry = tmpEntries.get(entry.getName());
 
@@ -351,6 +368,7 @@ public class JDBCSyncJob extends Job {
             }
 
         } finally {
+            endChangeLogBatch();
             session.close();
         }
     }
@@ -520,6 +538,60 @@ public class JDBCSyncJob extends Job {
         return modifications;
     }
 
+    public void startChangeLogBatch() throws Exception {
+
+        if (!(changelog instanceof JDBCSource) || batchSize <= 1) return;
+
+        log.debug("Recording changes in batches of "+batchSize+" rows.");
+
+        JDBCConnection connection = (JDBCConnection)changelog.getConnection();
+
+        changelogClient = connection.createClient();
+        changelogClient.setBatchSize(batchSize);
+        changelogClient.setCommitInterval(commitInterval);
+    }
+
+    public void endChangeLogBatch() throws Exception {
+
+        if (changelogClient == null) return;
+
+        try {
+            changelogClient.endBatch();
+
+        } catch (JDBCBatchException e) {
+            logFailures(e);
+
+        } finally {
+            changelogClient.close();
+            changelogClient = null;
+        }
+    }
+
+    public void record(Session session, DN dn, Attributes attributes) throws Exception {
+
+        if (changelogClient == null) {
+            changelog.add(session, dn, attributes);
+            return;
+        }
+
+        AddRequest request = new AddRequest();
+        request.setDn(dn);
+        request.setAttributes(attributes);
+
+        try {
+            ((JDBCSource)changelog).addBatch(changelogClient, request);
+
+        } catch (JDBCBatchException e) {
+            logFailures(e);
+        }
+    }
+
+    public void logFailures(JDBCBatchException e) {
+        for (JDBCBatchException.Failure failure : e.getFailures()) {
+            Penrose.errorLog.error("Failed to record change "+failure.getParameters()+": "+failure.getException().getMessage());
+        }
+    }
+
     public void recordAddOperation(Session session, AddRequest request) throws Exception {
 
         log.debug("Recording add operation "+request.getDn());
@@ -533,7 +605,7 @@ public class JDBCSyncJob extends Job {
         attributes.setValue("changeType", "add");
         attributes.setValue("changes", attrs.toString());
 
-        changelog.add(session, dn, attributes);
+        record(session, dn, attributes);
     }
 
     public void recordModifyOperation(Session session, ModifyRequest request) throws Exception {
@@ -563,7 +635,7 @@ public class JDBCSyncJob extends Job {
         attributes.setValue("changeType", "modify");
         attributes.setValue("changes", sb.toString());
 
-        changelog.add(session, dn, attributes);
+        record(session, dn, attributes);
     }
 
     public void recordModRdnOperation(Session session, ModRdnRequest request) throws Exception {
@@ -578,7 +650,7 @@ public class JDBCSyncJob extends Job {
         attributes.setValue("newRDN", request.getNewRdn().toString());
         attributes.setValue("deleteOldRDN", request.getDeleteOldRdn());
 
-        changelog.add(session, dn, attributes);
+        record(session, dn, attributes);
     }
 
     public void recordDeleteOperation(Session session, DeleteRequest request) throws Exception {
@@ -591,7 +663,7 @@ public class JDBCSyncJob extends Job {
         attributes.setValue("targetDN", request.getDn().toString());
         attributes.setValue("changeType", "delete");
 
-        changelog.add(session, dn, attributes);
+        record(session, dn, attributes);
     }
 
     public void switchSources() throws Exception {
@@ -150,7 +150,7 @@ public class JDBCJoinSource extends Source {
             log.debug(TextUtil.displaySeparator(70));
         }
 
-        JDBCClient client = connection.getClient(session);
+        JDBCClient client = connection.getWriteClient(session, this);
 
         try {
             RDN rdn = request.getDn().getRdn();
@@ -183,7 +183,7 @@ public class JDBCJoinSource extends Source {
             }
 
         } finally {
-            connection.closeClient(session);
+            connection.closeClient(session, this, client);
         }
 
         log.debug("Add operation completed.");
@@ -235,7 +235,7 @@ public class JDBCJoinSource extends Source {
             log.debug(TextUtil.displaySeparator(70));
         }
 
-        JDBCClient client = connection.getClient(session);
+        JDBCClient client = connection.getWriteClient(session, this);
 
         try {
             RDN rdn = request.getDn().getRdn();
@@ -270,7 +270,7 @@ public class JDBCJoinSource extends Source {
             log.debug("Delete operation completed.");
 
         } finally {
-            connection.closeClient(session);
+            connection.closeClient(session, this, client);
         }
     }
 
@@ -291,7 +291,7 @@ public class JDBCJoinSource extends Source {
             log.debug(TextUtil.displaySeparator(70));
         }
 
-        JDBCClient client = connection.getClient(session);
+        JDBCClient client = connection.getWriteClient(session, this);
 
         try {
             UpdateStatement statement = new UpdateStatement();
@@ -345,7 +345,7 @@ public class JDBCJoinSource extends Source {
             log.debug("Modify operation completed.");
 
         } finally {
-            connection.closeClient(session);
+            connection.closeClient(session, this, client);
         }
     }
 
@@ -366,7 +366,7 @@ public class JDBCJoinSource extends Source {
             log.debug(TextUtil.displaySeparator(70));
         }
 
-        JDBCClient client = connection.getClient(session);
+        JDBCClient client = connection.getWriteClient(session, this);
 
         try {
             UpdateStatement statement = new UpdateStatement();
@@ -405,7 +405,7 @@ public class JDBCJoinSource extends Source {
             log.debug("ModRdn operation completed.");
 
         } finally {
-            connection.closeClient(session);
+            connection.closeClient(session, this, client);
         }
     }
 
@@ -481,7 +481,12 @@ public class JDBCJoinSource extends Source {
             queryResponse.setSizeLimit(Long.parseLong(sizeLimit));
         }
 
-        JDBCClient client = connection.getClient(session);
+        String fetchSize = getParameter(JDBC.FETCH_SIZE);
+        if (fetchSize != null) {
+            queryResponse.setFetchSize(Integer.parseInt(fetchSize));
+        }
+
+        JDBCClient client = connection.getReadClient(session, this);
 
         try {
             JDBCStatementBuilder statementBuilder = new JDBCStatementBuilder(sourceContext.getPartition());
@@ -493,7 +498,7 @@ public class JDBCJoinSource extends Source {
             client.executeQuery(sql, parameters, queryResponse);
 
         } finally {
-            connection.closeClient(session);
+            connection.closeClient(session, this, client);
         }
 
         log.debug("Search operation completed.");
@@ -510,7 +515,7 @@ public class JDBCJoinSource extends Source {
 
         int column = 1;
 
-        log.debug("Fields:");
+        if (debug) log.debug("Fields:");
         for (Field field : getFields()) {
 
             Object value = rs.getObject(column++);
@@ -671,7 +676,7 @@ public class JDBCJoinSource extends Source {
             log.debug(TextUtil.displaySeparator(70));
         }
 
-        JDBCClient client = connection.getClient(session);
+        JDBCClient client = connection.getWriteClient(session, this);
 
         try {
             StringBuilder sb = new StringBuilder();
@@ -684,7 +689,7 @@ public class JDBCJoinSource extends Source {
             client.executeUpdate(sql);
 
         } finally {
-            connection.closeClient(session);
+            connection.closeClient(session, this, client);
         }
     }
 
@@ -818,7 +823,7 @@ public class JDBCJoinSource extends Source {
 
         return count;
 /*
-        JDBCClient client = connection.getClient(session);
+        JDBCClient client = connection.getClient(session, this);
 
         try {
             client.executeQuery(sql, response);
@@ -833,7 +838,7 @@ public class JDBCJoinSource extends Source {
             return count;
 
         } finally {
-            connection.closeClient(session);
+            connection.closeClient(session, this, client);
         }
 */
     }
@@ -844,13 +849,13 @@ public class JDBCJoinSource extends Source {
 
     public void executeQuery(Session session, String sql, QueryResponse response) throws Exception {
 
-        JDBCClient client = connection.getClient(session);
+        JDBCClient client = connection.getReadClient(session, this);
 
         try {
             client.executeQuery(sql, response);
 
         } finally {
-            connection.closeClient(session);
+            connection.closeClient(session, this, client);
         }
     }
 
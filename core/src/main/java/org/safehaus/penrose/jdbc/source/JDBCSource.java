@@ -13,9 +13,17 @@ import org.safehaus.penrose.filter.SimpleFilter;
 import org.safehaus.penrose.filter.Filter;
 import org.safehaus.penrose.filter.FilterTool;
 import org.safehaus.penrose.Penrose;
+import org.safehaus.penrose.connection.ConnectionLimiter;
+import org.safehaus.penrose.partition.Partition;
+import org.safehaus.penrose.thread.TaskGroup;
+import org.safehaus.penrose.thread.ThreadManager;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 
 /**
  * @author Endi S. Dewata
@@ -29,6 +37,14 @@ public class JDBCSource extends Source {
 
     String sourceBaseDn;
 
+    SQLTemplateCache templateCache;
+
+    int scanSize;
+    int scanRetries = 3;
+    int scanThreads = 1;
+
+    JDBCStatisticsCollector statisticsCollector;
+
     Map<String,Map<Collection<String>,SQLOperation>> operations = new LinkedHashMap<String,Map<Collection<String>,SQLOperation>>();
 
     public JDBCSource() {
@@ -44,6 +60,28 @@ public class JDBCSource extends Source {
         
         sourceBaseDn = getParameter(JDBC.BASE_DN);
 
+        String s = getParameter(JDBC.TEMPLATE_CACHE_SIZE);
+        int templateCacheSize = s == null ? SQLTemplateCache.DEFAULT_SIZE : Integer.parseInt(s);
+        if (templateCacheSize > 0) templateCache = new SQLTemplateCache(templateCacheSize);
+
+        s = getParameter(JDBC.SCAN_SIZE);
+        if (s != null) scanSize = Integer.parseInt(s);
+
+        s = getParameter(JDBC.SCAN_RETRIES);
+        if (s != null) scanRetries = Integer.parseInt(s);
+
+        s = getParameter(JDBC.SCAN_THREADS);
+        if (s != null) scanThreads = Integer.parseInt(s);
+
+        s = getParameter(JDBC.STATISTICS_INTERVAL);
+        long statisticsInterval = s == null ? 0 : Long.parseLong(s) * 1000;
+
+        ThreadManager threadManager = getThreadManager();
+        if (statisticsInterval > 0 && threadManager != null) {
+            statisticsCollector = new JDBCStatisticsCollector(this, threadManager, statisticsInterval);
+            statisticsCollector.start();
+        }
+
         for (String name : getParameterNames()) {
             int i = name.indexOf('(');
             if (i < 0) continue;
@@ -147,52 +185,78 @@ public class JDBCSource extends Source {
             log.debug(TextUtil.displaySeparator(70));
         }
 
-        JDBCClient client = connection.getClient(session);
+        JDBCClient client = connection.getWriteClient(session, this);
 
         try {
-            InsertStatement statement = new InsertStatement();
-            statement.setSource(partition.getName(), getName());
+            InsertStatement statement = createInsertStatement(request);
 
-            RDN rdn = request.getDn().getRdn();
+            JDBCStatementBuilder statementBuilder = new JDBCStatementBuilder(sourceContext.getPartition());
+            statementBuilder.setQuote(client.getQuote());
 
-            if (rdn != null) {
-                for (String name : rdn.getNames()) {
+            String sql = statementBuilder.generate(statement);
+            Collection<Object> parameters = statementBuilder.getParameters();
 
-                    Object value = rdn.get(name);
+            client.executeUpdate(sql, parameters);
 
-                    Field field = getField(name);
-                    if (field == null) throw new Exception("Unknown field: " + name);
+            log.debug("Add operation completed.");
 
-                    statement.addAssignment(new Assignment(field.getOriginalName(), value));
-                }
-            }
+        } finally {
+            connection.closeClient(session, this, client);
+        }
+    }
+
+    /**
+     * Adds the row to the client's current batch instead of inserting it right away.
+     */
+    public void addBatch(
+            JDBCClient client,
+            AddRequest request
+    ) throws Exception {
+
+        InsertStatement statement = createInsertStatement(request);
+
+        JDBCStatementBuilder statementBuilder = new JDBCStatementBuilder(sourceContext.getPartition());
+        statementBuilder.setQuote(client.getQuote());
+
+        String sql = statementBuilder.generate(statement);
+        Collection<Object> parameters = statementBuilder.getParameters();
 
-            Attributes attributes = request.getAttributes();
+        client.addBatch(sql, parameters);
+    }
+
+    public InsertStatement createInsertStatement(AddRequest request) throws Exception {
 
-            for (String name : attributes.getNames()) {
-                if (rdn != null && rdn.contains(name)) continue;
+        InsertStatement statement = new InsertStatement();
+        statement.setSource(partition.getName(), getName());
 
-                Object value = attributes.getValue(name); // get first value
+        RDN rdn = request.getDn().getRdn();
+
+        if (rdn != null) {
+            for (String name : rdn.getNames()) {
+
+                Object value = rdn.get(name);
 
                 Field field = getField(name);
                 if (field == null) throw new Exception("Unknown field: " + name);
 
                 statement.addAssignment(new Assignment(field.getOriginalName(), value));
             }
+        }
 
-            JDBCStatementBuilder statementBuilder = new JDBCStatementBuilder(sourceContext.getPartition());
-            statementBuilder.setQuote(client.getQuote());
+        Attributes attributes = request.getAttributes();
 
-            String sql = statementBuilder.generate(statement);
-            Collection<Object> parameters = statementBuilder.getParameters();
+        for (String name : attributes.getNames()) {
+            if (rdn != null && rdn.contains(name)) continue;
 
-            client.executeUpdate(sql, parameters);
+            Object value = attributes.getValue(name); // get first value
 
-            log.debug("Add operation completed.");
+            Field field = getField(name);
+            if (field == null) throw new Exception("Unknown field: " + name);
 
-        } finally {
-            connection.closeClient(session);
+            statement.addAssignment(new Assignment(field.getOriginalName(), value));
         }
+
+        return statement;
     }
 
     public void add(
@@ -225,7 +289,7 @@ public class JDBCSource extends Source {
 
         Collection<Statement> statements = builder.generate();
 
-        JDBCClient client = connection.getClient(session);
+        JDBCClient client = connection.getWriteClient(session, this);
 
         try {
             for (Statement statement : statements) {
@@ -240,7 +304,7 @@ public class JDBCSource extends Source {
             }
 
         } finally {
-            connection.closeClient(session);
+            connection.closeClient(session, this, client);
         }
 
         log.debug("Add operation completed.");
@@ -291,7 +355,7 @@ public class JDBCSource extends Source {
             log.debug(TextUtil.displaySeparator(70));
         }
 
-        JDBCClient client = connection.getClient(session);
+        JDBCClient client = connection.getWriteClient(session, this);
 
         try {
             DeleteStatement statement = new DeleteStatement();
@@ -323,7 +387,7 @@ public class JDBCSource extends Source {
             log.debug("Delete operation completed.");
 
         } finally {
-            connection.closeClient(session);
+            connection.closeClient(session, this, client);
         }
     }
 
@@ -357,7 +421,7 @@ public class JDBCSource extends Source {
 
         Collection<Statement> statements = builder.generate();
 
-        JDBCClient client = connection.getClient(session);
+        JDBCClient client = connection.getWriteClient(session, this);
 
         try {
             for (Statement statement : statements) {
@@ -372,7 +436,7 @@ public class JDBCSource extends Source {
             }
 
         } finally {
-            connection.closeClient(session);
+            connection.closeClient(session, this, client);
         }
 
         log.debug("Delete operation completed.");
@@ -395,7 +459,7 @@ public class JDBCSource extends Source {
             log.debug(TextUtil.displaySeparator(70));
         }
 
-        JDBCClient client = connection.getClient(session);
+        JDBCClient client = connection.getWriteClient(session, this);
 
         try {
             UpdateStatement statement = new UpdateStatement();
@@ -449,7 +513,7 @@ public class JDBCSource extends Source {
             log.debug("Modify operation completed.");
 
         } finally {
-            connection.closeClient(session);
+            connection.closeClient(session, this, client);
         }
     }
 
@@ -483,7 +547,7 @@ public class JDBCSource extends Source {
 
         Collection<Statement> statements = builder.generate();
 
-        JDBCClient client = connection.getClient(session);
+        JDBCClient client = connection.getWriteClient(session, this);
 
         try {
             for (Statement statement : statements) {
@@ -498,7 +562,7 @@ public class JDBCSource extends Source {
             }
 
         } finally {
-            connection.closeClient(session);
+            connection.closeClient(session, this, client);
         }
 
         log.debug("Modify operation completed.");
@@ -521,7 +585,7 @@ public class JDBCSource extends Source {
             log.debug(TextUtil.displaySeparator(70));
         }
 
-        JDBCClient client = connection.getClient(session);
+        JDBCClient client = connection.getWriteClient(session, this);
 
         try {
             UpdateStatement statement = new UpdateStatement();
@@ -560,7 +624,7 @@ public class JDBCSource extends Source {
             log.debug("ModRdn operation completed.");
 
         } finally {
-            connection.closeClient(session);
+            connection.closeClient(session, this, client);
         }
     }
 
@@ -594,7 +658,7 @@ public class JDBCSource extends Source {
 
         Collection<Statement> statements = builder.generate();
 
-        JDBCClient client = connection.getClient(session);
+        JDBCClient client = connection.getWriteClient(session, this);
 
         try {
             for (Statement statement : statements) {
@@ -609,7 +673,7 @@ public class JDBCSource extends Source {
             }
 
         } finally {
-            connection.closeClient(session);
+            connection.closeClient(session, this, client);
         }
 
         log.debug("ModRdn operation completed.");
@@ -637,10 +701,6 @@ public class JDBCSource extends Source {
 
         response.setSizeLimit(request.getSizeLimit());
 
-        SelectStatement statement = new SelectStatement();
-
-        //EntrySource entrySource = new EntrySource(this);
-
         Filter filter = null;
 
         DN dn = request.getDn();
@@ -658,28 +718,6 @@ public class JDBCSource extends Source {
 
         filter = FilterTool.appendAndFilter(filter, request.getFilter());
 
-        for (Field field : getFields()) {
-            statement.addColumn(getName()+"."+field.getOriginalName());
-        }
-        //for (EntryField field : entrySource.getFields()) {
-        //    statement.addColumn(field.getSourceName()+"."+field.getOriginalName());
-        //}
-        statement.addSource(getName(), getPartition().getName(), getName());
-        //statement.addSource(entrySource.getAlias(), entrySource.getSource().getPartition().getName(), entrySource.getSource().getName());
-        statement.setFilter(filter);
-
-        String where = getParameter(JDBC.FILTER);
-        if (where != null) {
-            statement.setWhereClause(where);
-        }
-
-        for (Field field : getPrimaryKeyFields()) {
-            statement.addColumn(getName()+"."+field.getOriginalName());
-        }
-        //for (EntryField field : entrySource.getPrimaryKeyFields()) {
-        //    statement.addOrder(field.getSourceName()+"."+field.getOriginalName());
-        //}
-
         QueryResponse queryResponse = new QueryResponse() {
             public void add(Object object) throws Exception {
                 ResultSet rs = (ResultSet)object;
@@ -700,13 +738,39 @@ public class JDBCSource extends Source {
             queryResponse.setSizeLimit(Long.parseLong(sizeLimit));
         }
 
-        JDBCClient client = connection.getClient(session);
+        String fetchSize = getParameter(JDBC.FETCH_SIZE);
+        if (fetchSize != null) {
+            queryResponse.setFetchSize(Integer.parseInt(fetchSize));
+        }
 
-        JDBCStatementBuilder statementBuilder = new JDBCStatementBuilder(sourceContext.getPartition());
-        statementBuilder.setQuote(client.getQuote());
+        JDBCClient client = connection.getReadClient(session, this);
 
-        String sql = statementBuilder.generate(statement);
-        Collection<Object> parameters = statementBuilder.getParameters();
+        List<Object> args = new ArrayList<Object>();
+        String shape = filter == null ? "" : filter.toString(args);
+
+        SQLTemplate template = templateCache == null ? null : templateCache.get(shape);
+        if (template != null && !template.matches(args)) template = null;
+
+        String sql;
+        Collection<Object> parameters;
+
+        if (template == null) {
+            SelectStatement statement = createSelectStatement(filter);
+
+            JDBCStatementBuilder statementBuilder = new JDBCStatementBuilder(sourceContext.getPartition());
+            statementBuilder.setQuote(client.getQuote());
+
+            sql = statementBuilder.generate(statement);
+            parameters = statementBuilder.getParameters();
+
+            if (templateCache != null && statementBuilder.isCacheable()) {
+                templateCache.put(shape, new SQLTemplate(sql, statementBuilder.getTemplateParameters()));
+            }
+
+        } else {
+            sql = template.getSql();
+            parameters = template.getParameters(args);
+        }
 
         try {
 
@@ -722,9 +786,14 @@ public class JDBCSource extends Source {
 
                 if (scope == SearchRequest.SCOPE_ONE || scope == SearchRequest.SCOPE_SUB) {
 
-                    if (debug) log.debug("Searching top entries.");
+                    if (isScanEnabled(filter)) {
+                        if (debug) log.debug("Scanning top entries.");
+                        scan(session, queryResponse);
 
-                    client.executeQuery(sql, parameters, queryResponse);
+                    } else {
+                        if (debug) log.debug("Searching top entries.");
+                        client.executeQuery(sql, parameters, queryResponse);
+                    }
                 }
 
             } else if (baseDn != null && (scope == SearchRequest.SCOPE_BASE || scope == SearchRequest.SCOPE_SUB)) {
@@ -735,19 +804,390 @@ public class JDBCSource extends Source {
 
             } else if (baseDn == null) {
 
-                if (debug) log.debug("Searching all entries.");
+                if (isScanEnabled(filter)) {
+                    if (debug) log.debug("Scanning all entries.");
+                    scan(session, queryResponse);
 
-                client.executeQuery(sql, parameters, queryResponse);
+                } else {
+                    if (debug) log.debug("Searching all entries.");
+                    client.executeQuery(sql, parameters, queryResponse);
+                }
             }
 
         } finally {
-            connection.closeClient(session);
+            connection.closeClient(session, this, client);
             response.close();
         }
 
         log.debug("Search operation completed.");
     }
 
+    public boolean isScanEnabled(Filter filter) throws Exception {
+        return filter == null && scanSize > 0 && !getPrimaryKeyFields().isEmpty();
+    }
+
+    /**
+     * Reads the whole table in primary key order, scanSize rows at a time. Each chunk continues
+     * after the last key of the previous one, so no cursor is kept open for the whole table and
+     * the scan can resume from the last key if a chunk fails. With scanThreads the key range is
+     * split and the ranges are scanned in parallel on the partition thread manager. If a range
+     * fails the ranges that haven't finished are cancelled.
+     * <p>
+     * Every chunk takes a permit from the concurrency limiter of the connection, so there are
+     * never more ranges than the current limit. With concurrencyMaxWait=0 a range can still be
+     * rejected with BUSY, failing the scan, if other requests hold the permits at that time.
+     */
+    public void scan(final Session session, final QueryResponse queryResponse) throws Exception {
+
+        boolean debug = log.isDebugEnabled();
+
+        try {
+            int ranges = scanThreads;
+
+            ConnectionLimiter limiter = connection.getLimiter();
+            if (limiter != null) ranges = Math.min(ranges, limiter.getLimit());
+
+            if (ranges <= 1 || getPrimaryKeyFields().size() != 1 || connection.isSessionScoped(session, this)) {
+                scan(session, queryResponse, null, null);
+                return;
+            }
+
+            List<Object> boundaries = getScanBoundaries(session, ranges);
+            if (debug) log.debug("Scanning "+getName()+" in "+(boundaries.size()+1)+" ranges: "+boundaries);
+
+            if (boundaries.isEmpty()) {
+                scan(session, queryResponse, null, null);
+                return;
+            }
+
+            scan(session, queryResponse, boundaries);
+
+        } finally {
+            queryResponse.close();
+        }
+    }
+
+    /**
+     * Scans the ranges between the boundaries in parallel and merges the rows into the response.
+     * The first failure cancels the other ranges and is thrown.
+     */
+    public void scan(
+            final Session session,
+            final QueryResponse queryResponse,
+            List<Object> boundaries
+    ) throws Exception {
+
+        // results from all ranges are merged into the same response
+        final QueryResponse mergedResponse = new QueryResponse() {
+            public void add(Object object) throws Exception {
+                synchronized (queryResponse) {
+                    queryResponse.add(object);
+                }
+            }
+            public boolean isClosed() {
+                return queryResponse.isClosed();
+            }
+        };
+
+        mergedResponse.setFetchSize(queryResponse.getFetchSize());
+
+        TaskGroup<Object> tasks = new TaskGroup<Object>(getThreadManager());
+
+        for (int i = 0; i <= boundaries.size(); i++) {
+            final Object lowerBound = i == 0 ? null : boundaries.get(i-1);
+            final Object upperBound = i == boundaries.size() ? null : boundaries.get(i);
+
+            tasks.add(new Callable<Object>() {
+                public Object call() throws Exception {
+                    scan(session, mergedResponse, lowerBound, upperBound);
+                    return null;
+                }
+            });
+        }
+
+        tasks.run();
+    }
+
+    public ThreadManager getThreadManager() {
+        Partition partition = getPartition();
+        return partition == null ? null : partition.getThreadManager();
+    }
+
+    /**
+     * Scans the rows whose primary key is within [lowerBound, upperBound). The bounds are only
+     * used with a single-column primary key, a null bound means the range is open. The scan
+     * stops when the response is closed and fails when the thread is interrupted.
+     */
+    public void scan(
+            Session session,
+            final QueryResponse queryResponse,
+            Object lowerBound,
+            Object upperBound
+    ) throws Exception {
+
+        final Collection<Field> primaryKeyFields = getPrimaryKeyFields();
+
+        // primary key columns are selected after the fields
+        final int offset = getFields().size();
+
+        final List<Object> lastKey = new ArrayList<Object>();
+        int failures = 0;
+
+        while (!queryResponse.isClosed()) {
+
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("Scan of "+getName()+" interrupted after key "+lastKey+".");
+            }
+
+            QueryResponse chunkResponse = new QueryResponse() {
+                public void add(Object object) throws Exception {
+                    ResultSet rs = (ResultSet)object;
+                    queryResponse.add(rs);
+
+                    lastKey.clear();
+                    for (int i = 1; i <= primaryKeyFields.size(); i++) {
+                        lastKey.add(rs.getObject(offset + i));
+                    }
+
+                    totalCount++;
+                }
+                public boolean isClosed() {
+                    return queryResponse.isClosed() || Thread.currentThread().isInterrupted();
+                }
+            };
+
+            chunkResponse.setFetchSize(queryResponse.getFetchSize());
+            chunkResponse.setMaxRows(scanSize);
+
+            JDBCClient client = connection.getReadClient(session, this);
+
+            try {
+                SelectStatement statement = createSelectStatement(null);
+                Collection<Object> parameters = new ArrayList<Object>();
+
+                for (Field field : primaryKeyFields) {
+                    statement.addOrder(getName()+"."+field.getOriginalName());
+                }
+
+                Collection<String> clauses = new ArrayList<String>();
+
+                String where = statement.getWhereClause();
+                if (where != null) clauses.add(where);
+
+                String column = getColumnName(client.getQuote(), primaryKeyFields.iterator().next());
+
+                if (!lastKey.isEmpty()) {
+                    clauses.add(createKeyClause(client.getQuote(), lastKey, parameters));
+
+                } else if (lowerBound != null) {
+                    clauses.add(column+" >= ?");
+                    parameters.add(lowerBound);
+                }
+
+                if (upperBound != null) {
+                    clauses.add(column+" < ?");
+                    parameters.add(upperBound);
+                }
+
+                if (!clauses.isEmpty()) {
+                    StringBuilder sb = new StringBuilder();
+                    for (String clause : clauses) {
+                        if (sb.length() > 0) sb.append(" and ");
+                        sb.append("(");
+                        sb.append(clause);
+                        sb.append(")");
+                    }
+                    statement.setWhereClause(sb.toString());
+                }
+
+                JDBCStatementBuilder statementBuilder = new JDBCStatementBuilder(sourceContext.getPartition());
+                statementBuilder.setQuote(client.getQuote());
+
+                String sql = statementBuilder.generate(statement);
+
+                client.executeQuery(sql, parameters, chunkResponse);
+                failures = 0;
+
+            } catch (SQLException e) {
+                if (Thread.currentThread().isInterrupted() || ++failures > scanRetries) throw e;
+                log.warn("Scan of "+getName()+" failed after key "+lastKey+", retrying: "+e.getMessage());
+                continue;
+
+            } finally {
+                connection.closeClient(session, this, client);
+            }
+
+            if (chunkResponse.getTotalCount() < scanSize) break;
+        }
+    }
+
+    /**
+     * Returns the primary key values that split the table into the given number of ranges.
+     * Integral keys are split evenly between MIN and MAX, other keys are sampled from the
+     * primary key index.
+     */
+    public List<Object> getScanBoundaries(Session session, final int ranges) throws Exception {
+
+        Field field = getPrimaryKeyFields().iterator().next();
+
+        // the source filter refers to the columns through the source alias
+        String column = getColumnName(connection.connectionFactory.getQuote(), field);
+        String table = connection.getTableName(sourceConfig)+" "+getName();
+        String where = filter == null ? "" : " where "+filter;
+
+        QueryResponse response = new QueryResponse() {
+            public void add(Object object) throws Exception {
+                ResultSet rs = (ResultSet)object;
+                super.add(rs.getObject(1));
+                super.add(rs.getObject(2));
+                super.add(rs.getLong(3));
+            }
+        };
+
+        executeQuery(session, "select min("+column+"), max("+column+"), count(*) from "+table+where, response);
+
+        Object min = response.next();
+        Object max = response.next();
+        long count = (Long)response.next();
+
+        final List<Object> boundaries = new ArrayList<Object>();
+        if (count == 0) return boundaries;
+
+        if (isIntegral(min) && isIntegral(max)) {
+            boundaries.addAll(getScanBoundaries(toBigInteger(min), toBigInteger(max), ranges));
+            return boundaries;
+        }
+
+        final long stride = count / ranges;
+        if (stride == 0) return boundaries;
+
+        QueryResponse keys = new QueryResponse() {
+            public void add(Object object) throws Exception {
+                ResultSet rs = (ResultSet)object;
+                totalCount++;
+                if (totalCount % stride != 0 || boundaries.size() >= ranges - 1) return;
+                boundaries.add(rs.getObject(1));
+            }
+        };
+
+        keys.setFetchSize(scanSize);
+
+        executeQuery(session, "select "+column+" from "+table+where+" order by "+column, keys);
+
+        return boundaries;
+    }
+
+    /**
+     * Splits [lower, upper] evenly. The values are computed with BigInteger so keys near the
+     * limits of long don't overflow. Boundaries that fit in a long are returned as Long, others
+     * as BigDecimal.
+     */
+    public List<Object> getScanBoundaries(BigInteger lower, BigInteger upper, int ranges) {
+
+        List<Object> boundaries = new ArrayList<Object>();
+
+        BigInteger step = upper.subtract(lower).divide(BigInteger.valueOf(ranges)).add(BigInteger.ONE);
+
+        for (int i = 1; i < ranges; i++) {
+            BigInteger boundary = lower.add(step.multiply(BigInteger.valueOf(i)));
+            if (boundary.compareTo(upper) > 0) break;
+
+            if (boundary.bitLength() < 64) {
+                boundaries.add(boundary.longValue());
+            } else {
+                boundaries.add(new BigDecimal(boundary));
+            }
+        }
+
+        return boundaries;
+    }
+
+    public BigInteger toBigInteger(Object object) {
+        if (object instanceof BigInteger) return (BigInteger)object;
+        if (object instanceof BigDecimal) return ((BigDecimal)object).toBigInteger();
+        return BigInteger.valueOf(((Number)object).longValue());
+    }
+
+    public boolean isIntegral(Object object) {
+        if (object instanceof Integer || object instanceof Long || object instanceof Short
+                || object instanceof Byte || object instanceof BigInteger) return true;
+        return object instanceof BigDecimal && ((BigDecimal)object).scale() <= 0;
+    }
+
+    public String getColumnName(String quote, Field field) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getName());
+        sb.append('.');
+        if (quote != null) sb.append(quote);
+        sb.append(field.getOriginalName());
+        if (quote != null) sb.append(quote);
+        return sb.toString();
+    }
+
+    /**
+     * Generates the condition for rows that come after the given key in primary key order,
+     * e.g. (a > ?) or (a = ? and b > ?).
+     */
+    public String createKeyClause(String quote, List<Object> key, Collection<Object> parameters) throws Exception {
+
+        List<String> columns = new ArrayList<String>();
+        for (Field field : getPrimaryKeyFields()) {
+            columns.add(getColumnName(quote, field));
+        }
+
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) sb.append(" or ");
+            sb.append("(");
+
+            for (int j = 0; j < i; j++) {
+                sb.append(columns.get(j));
+                sb.append(" = ? and ");
+                parameters.add(key.get(j));
+            }
+
+            sb.append(columns.get(i));
+            sb.append(" > ?");
+            parameters.add(key.get(i));
+
+            sb.append(")");
+        }
+
+        return sb.toString();
+    }
+
+    public SelectStatement createSelectStatement(Filter filter) throws Exception {
+
+        SelectStatement statement = new SelectStatement();
+
+        //EntrySource entrySource = new EntrySource(this);
+
+        for (Field field : getFields()) {
+            statement.addColumn(getName()+"."+field.getOriginalName());
+        }
+        //for (EntryField field : entrySource.getFields()) {
+        //    statement.addColumn(field.getSourceName()+"."+field.getOriginalName());
+        //}
+        statement.addSource(getName(), getPartition().getName(), getName());
+        //statement.addSource(entrySource.getAlias(), entrySource.getSource().getPartition().getName(), entrySource.getSource().getName());
+        statement.setFilter(filter);
+
+        String where = getParameter(JDBC.FILTER);
+        if (where != null) {
+            statement.setWhereClause(where);
+        }
+
+        for (Field field : getPrimaryKeyFields()) {
+            statement.addColumn(getName()+"."+field.getOriginalName());
+        }
+        //for (EntryField field : entrySource.getPrimaryKeyFields()) {
+        //    statement.addOrder(field.getSourceName()+"."+field.getOriginalName());
+        //}
+
+        return statement;
+    }
+
     public SearchResult createSearchResult(
             ResultSet rs
     ) throws Exception {
@@ -759,7 +1199,7 @@ public class JDBCSource extends Source {
 
         int column = 1;
 
-        log.debug("Fields:");
+        if (debug) log.debug("Fields:");
         for (Field field : getFields()) {
 
             Object value = rs.getObject(column++);
@@ -867,7 +1307,12 @@ public class JDBCSource extends Source {
             queryResponse.setSizeLimit(Long.parseLong(sizeLimit));
         }
 
-        JDBCClient client = connection.getClient(session);
+        String fetchSize = getParameter(JDBC.FETCH_SIZE);
+        if (fetchSize != null) {
+            queryResponse.setFetchSize(Integer.parseInt(fetchSize));
+        }
+
+        JDBCClient client = connection.getReadClient(session, this);
 
         try {
             JDBCStatementBuilder statementBuilder = new JDBCStatementBuilder(sourceContext.getPartition());
@@ -879,7 +1324,7 @@ public class JDBCSource extends Source {
             client.executeQuery(sql, parameters, queryResponse);
 
         } finally {
-            connection.closeClient(session);
+            connection.closeClient(session, this, client);
         }
 
         log.debug("Search operation completed.");
@@ -1067,7 +1512,7 @@ public class JDBCSource extends Source {
             log.debug(TextUtil.displaySeparator(70));
         }
 
-        JDBCClient client = connection.getClient(session);
+        JDBCClient client = connection.getWriteClient(session, this);
 
         try {
             StringBuilder sb = new StringBuilder();
@@ -1080,7 +1525,7 @@ public class JDBCSource extends Source {
             client.executeUpdate(sql);
 
         } finally {
-            connection.closeClient(session);
+            connection.closeClient(session, this, client);
         }
     }
 
@@ -1178,6 +1623,13 @@ public class JDBCSource extends Source {
     }
 
     public long getCount(Session session) throws Exception {
+        return getCount(session, null);
+    }
+
+    /**
+     * Counts the rows matching the filter and the source's own filter with SELECT COUNT(*).
+     */
+    public long getCount(Session session, Filter filter) throws Exception {
 
         boolean debug = log.isDebugEnabled();
         if (debug) {
@@ -1188,13 +1640,6 @@ public class JDBCSource extends Source {
 
         final String tableName = connection.getTableName(sourceConfig);
 
-        StringBuilder sb = new StringBuilder();
-
-        sb.append("select count(*) from ");
-        sb.append(tableName);
-
-        String sql = sb.toString();
-
         QueryResponse response = new QueryResponse() {
             public void add(Object object) throws Exception {
                 ResultSet rs = (ResultSet)object;
@@ -1203,7 +1648,22 @@ public class JDBCSource extends Source {
             }
         };
 
-        executeQuery(session, sql, response);
+        JDBCClient client = connection.getReadClient(session, this);
+
+        try {
+            SelectStatement statement = createSelectStatement(filter);
+
+            JDBCStatementBuilder statementBuilder = new JDBCStatementBuilder(sourceContext.getPartition());
+            statementBuilder.setQuote(client.getQuote());
+
+            String sql = statementBuilder.generateCount(statement);
+            Collection<Object> parameters = statementBuilder.getParameters();
+
+            client.executeQuery(sql, parameters, response);
+
+        } finally {
+            connection.closeClient(session, this, client);
+        }
 
         if (!response.hasNext()) {
             throw LDAP.createException(LDAP.OPERATIONS_ERROR);
@@ -1213,25 +1673,90 @@ public class JDBCSource extends Source {
         Penrose.errorLog.error("Table "+tableName+": "+count);
 
         return count;
-/*
-        JDBCClient client = connection.getClient(session);
+    }
+
+    public void destroy() throws Exception {
+        if (statisticsCollector != null) statisticsCollector.stop();
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    // Statistics
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns the statistics sampled every statisticsInterval seconds, or null if they are
+     * not collected or haven't been collected yet.
+     */
+    public JDBCStatistics getStatistics() {
+        return statisticsCollector == null ? null : statisticsCollector.getStatistics();
+    }
+
+    public JDBCStatisticsCollector getStatisticsCollector() {
+        return statisticsCollector;
+    }
+
+    /**
+     * Counts the rows and the distinct values of each field in one query.
+     */
+    public JDBCStatistics collectStatistics(Session session) throws Exception {
+
+        boolean debug = log.isDebugEnabled();
+        if (debug) log.debug("Collecting statistics of "+getName()+".");
+
+        final List<String> fieldNames = new ArrayList<String>();
+        final JDBCStatistics statistics = new JDBCStatistics();
+
+        JDBCClient client = connection.getReadClient(session, this);
 
         try {
-            client.executeQuery(sql, response);
+            String quote = client.getQuote();
+
+            StringBuilder sb = new StringBuilder();
+            sb.append("select count(*)");
+
+            for (Field field : getFields()) {
+                if (fieldNames.contains(field.getName())) continue;
+                fieldNames.add(field.getName());
 
-            if (!response.hasNext()) {
-                throw LDAP.createException(LDAP.OPERATIONS_ERROR);
+                sb.append(", count(distinct ");
+                sb.append(getColumnName(quote, field));
+                sb.append(")");
             }
 
-            Long count = (Long)response.next();
-            Penrose.errorLog.error("Table "+tableName+": "+count);
+            sb.append(" from ");
+            sb.append(connection.getTableName(sourceConfig));
+            sb.append(" ");
+            sb.append(getName());
 
-            return count;
+            if (filter != null) {
+                sb.append(" where ");
+                sb.append(filter);
+            }
+
+            QueryResponse response = new QueryResponse() {
+                public void add(Object object) throws Exception {
+                    ResultSet rs = (ResultSet)object;
+
+                    statistics.setCount(rs.getLong(1));
+
+                    int column = 2;
+                    for (String fieldName : fieldNames) {
+                        statistics.setDistinctCount(fieldName, rs.getLong(column++));
+                    }
+                }
+            };
+
+            client.executeQuery(sb.toString(), response);
 
         } finally {
-            connection.closeClient(session);
+            connection.closeClient(session, this, client);
         }
-*/
+
+        statistics.setTimestamp(System.currentTimeMillis());
+
+        if (debug) log.debug("Statistics of "+getName()+": "+statistics);
+
+        return statistics;
     }
 
     public String getTableName() throws Exception {
@@ -1240,13 +1765,13 @@ public class JDBCSource extends Source {
 
     public void executeQuery(Session session, String sql, QueryResponse response) throws Exception {
 
-        JDBCClient client = connection.getClient(session);
+        JDBCClient client = connection.getReadClient(session, this);
 
         try {
             client.executeQuery(sql, response);
 
         } finally {
-            connection.closeClient(session);
+            connection.closeClient(session, this, client);
         }
     }
 
@@ -0,0 +1,58 @@
+package org.safehaus.penrose.jdbc.source;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sampled cardinality of a JDBC source: the number of rows and the number of distinct
+ * values of each field.
+ *
+ * @author Endi S. Dewata
+ */
+public class JDBCStatistics {
+
+    private long count;
+    private Map<String,Long> distinctCounts = new LinkedHashMap<String,Long>();
+    private long timestamp;
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public Long getDistinctCount(String fieldName) {
+        return distinctCounts.get(fieldName);
+    }
+
+    public void setDistinctCount(String fieldName, long distinctCount) {
+        distinctCounts.put(fieldName, distinctCount);
+    }
+
+    public Map<String,Long> getDistinctCounts() {
+        return distinctCounts;
+    }
+
+    /**
+     * Returns the expected number of rows matching an equality filter on the field.
+     */
+    public long getEstimatedCount(String fieldName) {
+        Long distinctCount = distinctCounts.get(fieldName);
+        if (distinctCount == null || distinctCount == 0) return count;
+        return (count + distinctCount - 1) / distinctCount;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public String toString() {
+        return "count="+count+", distinct="+distinctCounts;
+    }
+}
@@ -0,0 +1,126 @@
+package org.safehaus.penrose.jdbc.source;
+
+import org.safehaus.penrose.Penrose;
+import org.safehaus.penrose.thread.ThreadManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Samples the statistics of a JDBC source every interval. A daemon thread keeps the schedule
+ * and hands each sample to the partition thread manager, so the query runs on the partition
+ * threads. A sample is skipped while the previous one is still running.
+ *
+ * @author Endi S. Dewata
+ */
+public class JDBCStatisticsCollector implements Runnable {
+
+    public Logger log = LoggerFactory.getLogger(getClass());
+
+    protected JDBCSource source;
+    protected ThreadManager threadManager;
+    protected long interval; // milliseconds
+
+    protected volatile JDBCStatistics statistics;
+
+    protected boolean collecting;
+    protected boolean stopped;
+
+    public JDBCStatisticsCollector(JDBCSource source, ThreadManager threadManager, long interval) {
+        this.source = source;
+        this.threadManager = threadManager;
+        this.interval = interval;
+    }
+
+    public Thread start() {
+        Thread thread = new Thread(this, source.getName()+" Statistics Collector");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    public synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    public void run() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    if (stopped) break;
+                }
+
+                schedule();
+
+                synchronized (this) {
+                    if (!stopped) wait(interval);
+                }
+            }
+
+        } catch (InterruptedException e) {
+            log.debug("Statistics collector of "+source.getName()+" interrupted.");
+        }
+
+        log.debug("Statistics collector of "+source.getName()+" stopped.");
+    }
+
+    /**
+     * Runs a sample on the thread manager. Returns false if the previous sample is still
+     * running or the thread manager is not running.
+     */
+    public boolean schedule() {
+
+        synchronized (this) {
+            if (collecting) return false;
+            collecting = true;
+        }
+
+        try {
+            if (!threadManager.isRunning()) {
+                finishCollecting();
+                return false;
+            }
+
+            threadManager.execute(new Runnable() {
+                public void run() {
+                    try {
+                        collect();
+
+                    } catch (Exception e) {
+                        Penrose.errorLog.error("Failed collecting statistics of "+source.getName()+".", e);
+
+                    } finally {
+                        finishCollecting();
+                    }
+                }
+            });
+
+            return true;
+
+        } catch (Exception e) {
+            Penrose.errorLog.error("Failed scheduling statistics of "+source.getName()+".", e);
+            finishCollecting();
+            return false;
+        }
+    }
+
+    public void collect() throws Exception {
+        statistics = source.collectStatistics(null);
+    }
+
+    public synchronized void finishCollecting() {
+        collecting = false;
+    }
+
+    public synchronized boolean isCollecting() {
+        return collecting;
+    }
+
+    public JDBCStatistics getStatistics() {
+        return statistics;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+}
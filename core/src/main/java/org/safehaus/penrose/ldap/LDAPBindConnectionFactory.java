@@ -0,0 +1,36 @@
+package org.safehaus.penrose.ldap;
+
+import org.ietf.ldap.LDAPConnection;
+
+/**
+ * Creates the connections of the bind pool. They are only used to check credentials,
+ * and are bound anonymously again before they go back to the pool.
+ *
+ * @author Endi Sukma Dewata
+ */
+public class LDAPBindConnectionFactory extends LDAPPoolableConnectionFactory {
+
+    public LDAPBindConnectionFactory(
+            LDAPConnectionFactory connectionFactory
+    ) {
+        super(connectionFactory);
+    }
+
+    public void activateObject(Object object) throws Exception {
+
+        LDAPConnection connection = (LDAPConnection)object;
+
+        if (!connectionFactory.isAvailable(connection)) {
+            log.debug("Discarding bind connection to ejected server.");
+            throw LDAP.createException(LDAP.UNAVAILABLE);
+        }
+    }
+
+    public void passivateObject(Object object) throws Exception {
+
+        LDAPConnection connection = (LDAPConnection)object;
+        if (connection.getAuthenticationDN() != null) {
+            connection.bind(3, null, null);
+        }
+    }
+}
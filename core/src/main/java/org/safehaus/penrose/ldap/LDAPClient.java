@@ -18,16 +18,26 @@
 package org.safehaus.penrose.ldap;
 
 import org.ietf.ldap.*;
+import org.safehaus.penrose.connection.ConnectionLimiter;
 import org.safehaus.penrose.control.Control;
 import org.safehaus.penrose.control.PagedResultsControl;
+import org.safehaus.penrose.control.PersistentSearchControl;
+import org.safehaus.penrose.ldap.connection.LDAPReplica;
+import org.safehaus.penrose.ldap.connection.LDAPSchemaCache;
 import org.safehaus.penrose.schema.Schema;
 import org.safehaus.penrose.schema.SchemaUtil;
+import org.safehaus.penrose.thread.ThreadManager;
 import org.safehaus.penrose.util.BinaryUtil;
 import org.safehaus.penrose.util.TextUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class LDAPClient implements Cloneable, LDAPAuthHandler {
 
@@ -45,6 +55,8 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
     public LDAPConnectionFactory connectionFactory;
     public LDAPConnection connection;
 
+    public ReentrantLock operationLock = new ReentrantLock();
+
     public SearchResult rootDSE;
     public Schema schema;
 
@@ -53,6 +65,7 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
 
     public String referral;
     public int pageSize;
+    public boolean prefetch;
 
 
     public LDAPClient(String url) throws Exception {
@@ -88,6 +101,7 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
 
         referral     = connectionFactory.referral;
         pageSize     = connectionFactory.pageSize;
+        prefetch     = connectionFactory.prefetch;
         
         binaryAttributes.addAll(connectionFactory.binaryAttributes);
     }
@@ -149,9 +163,49 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
         if (connection != null) connection.disconnect();
     }
 
-    public synchronized LDAPConnection getConnection() throws Exception {
-        connect();
-        return connection;
+    /**
+     * Returns the connection for one operation. The connection is re-bound with the identity
+     * of this client before each operation, so operations on this client run one at a time
+     * until releaseConnection() is called.
+     */
+    public LDAPConnection getConnection() throws Exception {
+
+        operationLock.lock();
+
+        try {
+            connect();
+            return connection;
+
+        } catch (Exception e) {
+            operationLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Called when an operation no longer needs the connection returned by getConnection().
+     */
+    public void releaseConnection(LDAPConnection connection) throws Exception {
+        operationLock.unlock();
+    }
+
+    /**
+     * Returns a permit for an operation from the limiter of the connection, if any. If the
+     * operation is rejected the connection is released.
+     */
+    public ConnectionLimiter.Permit acquirePermit(LDAPConnection connection) throws Exception {
+        try {
+            return acquirePermit();
+
+        } catch (Exception e) {
+            releaseConnection(connection);
+            throw e;
+        }
+    }
+
+    public ConnectionLimiter.Permit acquirePermit() throws Exception {
+        ConnectionLimiter limiter = connectionFactory.limiter;
+        return limiter == null ? new ConnectionLimiter.Permit(null) : limiter.acquire();
     }
 
     public void initConstraints(LDAPConstraints constraints) throws Exception {
@@ -163,7 +217,7 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
     // Add
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-    public synchronized void add(
+    public void add(
             AddRequest request,
             AddResponse response
     ) throws Exception {
@@ -190,7 +244,7 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
                 LDAPAttribute attribute = (LDAPAttribute) attr;
                 String name = attribute.getName();
 
-                if (binaryAttributes.contains(name)) {
+                if (isBinaryAttribute(name)) {
                     for (byte[] value : attribute.getByteValueArray()) {
                         log.debug(" - " + name + ": " + BinaryUtil.encode(BinaryUtil.BIG_INTEGER, value, 0, 10)+"...");
                     }
@@ -219,6 +273,10 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
         LDAPEntry entry = new LDAPEntry(dn, attributeSet);
 
         LDAPConnection connection = getConnection();
+        ConnectionLimiter.Permit permit = acquirePermit(connection);
+
+        LDAPReplica replica = connectionFactory.getReplica(connection);
+        replica.start();
 
         try {
             if (debug) log.debug("Executing LDAP add...");
@@ -231,10 +289,19 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
 
             if (debug) log.debug("Elapsed time: "+(endTime - startTime)+" ms");
 
+            replica.succeeded(endTime - startTime);
+
         } catch (Exception e) {
+            replica.failed(e);
+            permit.failed(e);
             log.info("LDAP Result: "+e.getMessage());
             //response.setException(e);
             throw e;
+
+        } finally {
+            replica.end();
+            permit.release();
+            releaseConnection(connection);
         }
 
         log.debug("Add operation completed.");
@@ -244,7 +311,7 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
     // Bind
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-    public synchronized void bind(
+    public void bind(
             BindRequest request,
             BindResponse response
     ) throws Exception {
@@ -277,6 +344,9 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
         try {
             connection.bind(3, bindDn, bindPassword);
 
+            this.bindDn       = bindDn;
+            this.bindPassword = bindPassword;
+
         } catch (Exception e) {
             if (info) log.info("LDAP Result: "+e.getMessage());
             //response.setException(e);
@@ -285,11 +355,9 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
         } finally {
             long endTime = System.currentTimeMillis();
             if (debug) log.debug("Elapsed time: "+(endTime - startTime)+" ms");
+            releaseConnection(connection);
         }
 
-        this.bindDn       = bindDn;
-        this.bindPassword = bindPassword;
-
         log.debug("Bind operation completed.");
     }
 
@@ -297,7 +365,7 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
     // Compare
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-    public synchronized void compare(
+    public void compare(
             CompareRequest request,
             CompareResponse response
     ) throws Exception {
@@ -318,7 +386,7 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
         if (warn) log.warn("Comparing entry "+dn+".");
 
         if (debug) {
-            if (binaryAttributes.contains(name.toLowerCase())) {
+            if (isBinaryAttribute(name)) {
                 log.debug(" - " + name + ": " + BinaryUtil.encode(BinaryUtil.BIG_INTEGER, (byte[]) value, 0, 10)+"...");
 
             } else {
@@ -348,6 +416,10 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
         constraints.setControls(convertControls(request.getControls()));
 
         LDAPConnection connection = getConnection();
+        ConnectionLimiter.Permit permit = acquirePermit(connection);
+
+        LDAPReplica replica = connectionFactory.getReplica(connection);
+        replica.start();
 
         try {
             if (debug) log.debug("Executing LDAP compare...");
@@ -360,12 +432,21 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
 
             if (debug) log.debug("Elapsed time: "+(endTime - startTime)+" ms");
 
+            replica.succeeded(endTime - startTime);
+
             response.setReturnCode(result ? LDAP.COMPARE_TRUE : LDAP.COMPARE_FALSE);
 
         } catch (Exception e) {
+            replica.failed(e);
+            permit.failed(e);
             log.info("LDAP Result: "+e.getMessage());
             //response.setException(e);
             throw e;
+
+        } finally {
+            replica.end();
+            permit.release();
+            releaseConnection(connection);
         }
 
         log.debug("Compare operation completed.");
@@ -375,7 +456,7 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
     // Delete
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-    public synchronized void delete(
+    public void delete(
             DeleteRequest request,
             DeleteResponse response
     ) throws Exception {
@@ -407,6 +488,10 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
         constraints.setControls(convertControls(request.getControls()));
 
         LDAPConnection connection = getConnection();
+        ConnectionLimiter.Permit permit = acquirePermit(connection);
+
+        LDAPReplica replica = connectionFactory.getReplica(connection);
+        replica.start();
 
         try {
             if (debug) log.debug("Executing LDAP delete...");
@@ -419,10 +504,19 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
 
             if (debug) log.debug("Elapsed time: "+(endTime - startTime)+" ms");
 
+            replica.succeeded(endTime - startTime);
+
         } catch (Exception e) {
+            replica.failed(e);
+            permit.failed(e);
             log.info("LDAP Result: "+e.getMessage());
             //response.setException(e);
             throw e;
+
+        } finally {
+            replica.end();
+            permit.release();
+            releaseConnection(connection);
         }
 
         log.debug("Delete operation completed.");
@@ -432,11 +526,11 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
     // Find
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-    public synchronized SearchResult find(String dn) throws Exception {
+    public SearchResult find(String dn) throws Exception {
         return find(new DN(dn));
     }
 
-    public synchronized SearchResult find(DN dn) throws Exception {
+    public SearchResult find(DN dn) throws Exception {
 
         SearchRequest request = new SearchRequest();
         request.setDn(dn);
@@ -455,7 +549,7 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
     // Modify
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-    public synchronized void modify(
+    public void modify(
             ModifyRequest request,
             ModifyResponse response
     ) throws Exception {
@@ -526,6 +620,10 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
         constraints.setControls(convertControls(request.getControls()));
 
         LDAPConnection connection = getConnection();
+        ConnectionLimiter.Permit permit = acquirePermit(connection);
+
+        LDAPReplica replica = connectionFactory.getReplica(connection);
+        replica.start();
 
         try {
             if (debug) log.debug("Executing LDAP modify...");
@@ -538,10 +636,19 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
 
             if (debug) log.debug("Elapsed time: "+(endTime - startTime)+" ms");
 
+            replica.succeeded(endTime - startTime);
+
         } catch (Exception e) {
+            replica.failed(e);
+            permit.failed(e);
             log.info("LDAP Result: "+e.getMessage());
             //response.setException(e);
             throw e;
+
+        } finally {
+            replica.end();
+            permit.release();
+            releaseConnection(connection);
         }
 
         log.debug("Modify operation completed.");
@@ -551,7 +658,7 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
     // ModRdn
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-    public synchronized void modrdn(
+    public void modrdn(
             ModRdnRequest request,
             ModRdnResponse response
     ) throws Exception {
@@ -585,6 +692,10 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
         constraints.setControls(convertControls(request.getControls()));
 
         LDAPConnection connection = getConnection();
+        ConnectionLimiter.Permit permit = acquirePermit(connection);
+
+        LDAPReplica replica = connectionFactory.getReplica(connection);
+        replica.start();
 
         try {
             if (debug) log.debug("Executing LDAP modrdn...");
@@ -597,10 +708,19 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
 
             if (debug) log.debug("Elapsed time: "+(endTime - startTime)+" ms");
 
+            replica.succeeded(endTime - startTime);
+
         } catch (Exception e) {
+            replica.failed(e);
+            permit.failed(e);
             log.info("LDAP Result: "+e.getMessage());
             //response.setException(e);
             throw e;
+
+        } finally {
+            replica.end();
+            permit.release();
+            releaseConnection(connection);
         }
 
         log.debug("Rename operation completed.");
@@ -610,12 +730,16 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
     // Search
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-    public synchronized void search(
+    public void search(
             SearchRequest request,
             SearchResponse response
     ) throws Exception {
 
         boolean debug = log.isDebugEnabled();
+        LDAPConnection connection = null;
+        ConnectionLimiter.Permit permit = null;
+        LDAPReplica replica = null;
+
         try {
             if (debug) {
                 log.debug(TextUtil.displaySeparator(70));
@@ -646,7 +770,7 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
             Collection<Control> requestControls = new ArrayList<Control>();
 
             PagedResultsControl pagedResultsRequestControl = null;
-            byte[] cookie = null;
+            byte[] cookie;
 
             Collection<Control> controls = request.getControls();
             if (!controls.isEmpty()) {
@@ -676,7 +800,12 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
                 }
             }
 
-            LDAPConnection connection = getConnection();
+            // a persistent search never completes, so it doesn't count against the limit
+            permit = isPersistent(requestControls) ? new ConnectionLimiter.Permit(null) : acquirePermit();
+            connection = getConnection();
+
+            replica = connectionFactory.getReplica(connection);
+            replica.start();
 
             LDAPSearchConstraints constraints = new LDAPSearchConstraints();
             initConstraints(constraints);
@@ -684,93 +813,283 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
             constraints.setMaxResults((int)sizeLimit);
             constraints.setTimeLimit((int)timeLimit);
 
-            do {
-                constraints.setControls(convertControls(requestControls));
-
-                if (debug) log.debug("Executing LDAP search...");
-
-                long startTime = System.currentTimeMillis();
+            if (prefetch && pagedResultsRequestControl != null) {
+                searchPages(
+                        connection,
+                        baseDn,
+                        scope,
+                        filter,
+                        attributeNames,
+                        typesOnly,
+                        constraints,
+                        requestControls,
+                        pagedResultsRequestControl,
+                        sizeLimit,
+                        response,
+                        permit
+                );
 
-                LDAPSearchResults rs = connection.search(baseDn, scope, filter, attributeNames, typesOnly, constraints);
-
-                long endTime = System.currentTimeMillis();
-
-                if (debug) log.debug("Elapsed time: "+(endTime - startTime)+" ms");
-                
-                while (rs.hasMore()) {
-                    if (response.isClosed()) {
-                        if (debug) log.debug("Search response has been closed.");
-                        return;
-                    }
+            } else {
+                do {
+                    constraints.setControls(convertControls(requestControls));
 
-                    try {
-                        LDAPEntry entry = rs.next();
-                        if (debug) log.debug("Entry: ["+entry.getDN()+"]");
+                    if (debug) log.debug("Executing LDAP search...");
 
-                        SearchResult result = createSearchResult(entry);
-                        response.add(result);
+                    long startTime = System.currentTimeMillis();
 
-                    } catch (LDAPReferralException e) {
-                        log.debug("Referrals:");
-                        for (String ref : e.getReferrals()) {
-                            log.debug(" - "+ref);
-                        }
+                    LDAPSearchResults rs = connection.search(baseDn, scope, filter, attributeNames, typesOnly, constraints);
 
-                        if ("throw".equals(referral)) {
-                            SearchReference reference = createReference(e);
-                            response.add(reference);
+                    long endTime = System.currentTimeMillis();
 
-                        } else { // ignore
+                    if (debug) log.debug("Elapsed time: "+(endTime - startTime)+" ms");
 
-                        }
-                    }
-                }
+                    replica.succeeded(endTime - startTime);
+                    permit.answered();
 
-                LDAPControl[] responseControls = rs.getResponseControls();
-                if (responseControls != null && responseControls.length != 0) {
-                    log.debug("Response Controls:");
-                    for (LDAPControl control : responseControls) {
-                        log.debug(" - "+control.getID());
-
-                        if (control.getID().equals(PagedResultsControl.OID)) {
-                            PagedResultsControl pagedResultsResponseControl = new PagedResultsControl(
-                                    control.getID(),
-                                    control.getValue(),
-                                    control.isCritical()
-                            );
-
-                            cookie = pagedResultsResponseControl.getCookie();
-                            pagedResultsRequestControl.setCookie(cookie);
-                            pagedResultsRequestControl.encodeValue();
-                        }
-
-                        response.addControl(new Control(control.getID(), control.getValue(), control.isCritical()));
-                    }
-                }
+                    if (!addResults(connection, rs, response)) return;
 
-                if (cookie != null) {
-                    log.debug("Cookie length: "+cookie.length);
-                }
+                    cookie = getCookie(rs, pagedResultsRequestControl, response);
 
-            } while (cookie != null && cookie.length > 0);
+                } while (cookie != null && cookie.length > 0);
+            }
 
         } catch (Exception e) {
+            if (replica != null) replica.failed(e);
+            if (permit != null) permit.failed(e);
             log.info("LDAP Result: "+e.getMessage());
             //response.setException(e);
             throw e;
 
         } finally {
+            if (replica != null) replica.end();
+            if (permit != null) permit.release();
+            if (connection != null) releaseConnection(connection);
             response.close();
         }
 
         log.debug("Search operation completed.");
     }
 
+    /**
+     * Walks the pages of a paged search with the request for the next page in flight while the
+     * current page is added to the response. Each page is read completely (batch size 0) before
+     * its entries are delivered, so its cookie is known by then; that's why this is only used if
+     * the prefetch parameter is enabled. The next page is requested on the thread manager of the
+     * partition, or by the caller if no thread has picked up the request by the time it's needed.
+     * Paging stops as soon as the response is closed or its size limit is reached. The permit
+     * is answered once the first page has arrived.
+     */
+    public void searchPages(
+            final LDAPConnection connection,
+            final String baseDn,
+            final int scope,
+            final String filter,
+            final String[] attributeNames,
+            final boolean typesOnly,
+            LDAPSearchConstraints constraints,
+            Collection<Control> requestControls,
+            PagedResultsControl pagedResultsRequestControl,
+            long sizeLimit,
+            SearchResponse response,
+            ConnectionLimiter.Permit permit
+    ) throws Exception {
+
+        boolean debug = log.isDebugEnabled();
+
+        constraints.setBatchSize(0);
+        constraints.setControls(convertControls(requestControls));
+
+        if (debug) log.debug("Executing LDAP search...");
+
+        long startTime = System.currentTimeMillis();
+
+        LDAPSearchResults rs = connection.search(baseDn, scope, filter, attributeNames, typesOnly, constraints);
+
+        long endTime = System.currentTimeMillis();
+
+        if (debug) log.debug("Elapsed time: "+(endTime - startTime)+" ms");
+
+        connectionFactory.getReplica(connection).succeeded(endTime - startTime);
+        permit.answered();
+
+        while (true) {
+            byte[] cookie = getCookie(rs, pagedResultsRequestControl, response);
+
+            final AtomicBoolean discarded = new AtomicBoolean();
+            FutureTask<LDAPSearchResults> nextPage = null;
+
+            if (cookie != null && cookie.length > 0 && !isComplete(response, sizeLimit)) {
+                if (debug) log.debug("Requesting next page...");
+
+                final LDAPSearchConstraints nextConstraints = (LDAPSearchConstraints)constraints.clone();
+                nextConstraints.setControls(convertControls(requestControls));
+
+                nextPage = new FutureTask<LDAPSearchResults>(new Callable<LDAPSearchResults>() {
+                    public LDAPSearchResults call() throws Exception {
+                        if (discarded.get()) return null;
+                        return connection.search(baseDn, scope, filter, attributeNames, typesOnly, nextConstraints);
+                    }
+                });
+
+                ThreadManager threadManager = connectionFactory.threadManager;
+                if (threadManager != null && threadManager.isRunning()) threadManager.execute(nextPage);
+            }
+
+            boolean complete = true;
+
+            try {
+                complete = !addResults(connection, rs, response) || isComplete(response, sizeLimit);
+
+            } finally {
+                // also reached if the results could not be added
+                if (complete && nextPage != null) discardPage(connection, nextPage, discarded);
+            }
+
+            if (complete || nextPage == null) return;
+
+            nextPage.run();
+
+            try {
+                rs = nextPage.get();
+
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) throw (Exception)cause;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Makes sure a prefetched page is not requested anymore, or abandons it if it has been.
+     */
+    public void discardPage(
+            LDAPConnection connection,
+            FutureTask<LDAPSearchResults> page,
+            AtomicBoolean discarded
+    ) {
+
+        if (log.isDebugEnabled()) log.debug("Discarding prefetched page.");
+
+        discarded.set(true);
+        page.run();
+
+        try {
+            LDAPSearchResults rs = page.get();
+            if (rs != null) connection.abandon(rs);
+
+        } catch (Exception e) {
+            log.debug(e.getMessage(), e);
+        }
+    }
+
+    public boolean isPersistent(Collection<Control> controls) {
+        for (Control control : controls) {
+            if (PersistentSearchControl.OID.equals(control.getOid())) return true;
+        }
+        return false;
+    }
+
+    public boolean isComplete(SearchResponse response, long sizeLimit) {
+        if (response.isClosed()) return true;
+        if (sizeLimit <= 0) sizeLimit = response.getSizeLimit();
+        return sizeLimit > 0 && response.getTotalCount() >= sizeLimit;
+    }
+
+    /**
+     * Adds the entries of a search result to the response. Returns false if the response
+     * has been closed, in which case the search is abandoned.
+     */
+    public boolean addResults(
+            LDAPConnection connection,
+            LDAPSearchResults rs,
+            SearchResponse response
+    ) throws Exception {
+
+        boolean debug = log.isDebugEnabled();
+
+        while (rs.hasMore()) {
+            if (response.isClosed()) {
+                if (debug) log.debug("Search response has been closed.");
+                connection.abandon(rs);
+                return false;
+            }
+
+            try {
+                LDAPEntry entry = rs.next();
+                if (debug) log.debug("Entry: ["+entry.getDN()+"]");
+
+                SearchResult result = response instanceof LDAPPassthroughResponse
+                        ? createPassthroughResult(entry)
+                        : createSearchResult(entry);
+
+                response.add(result);
+
+            } catch (LDAPReferralException e) {
+                log.debug("Referrals:");
+                for (String ref : e.getReferrals()) {
+                    log.debug(" - "+ref);
+                }
+
+                if ("throw".equals(referral)) {
+                    SearchReference reference = createReference(e);
+                    response.add(reference);
+
+                } else { // ignore
+
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Copies the response controls into the response and returns the paged results cookie
+     * for the next page, or null if there is none.
+     */
+    public byte[] getCookie(
+            LDAPSearchResults rs,
+            PagedResultsControl pagedResultsRequestControl,
+            SearchResponse response
+    ) throws Exception {
+
+        byte[] cookie = null;
+
+        LDAPControl[] responseControls = rs.getResponseControls();
+        if (responseControls != null && responseControls.length != 0) {
+            log.debug("Response Controls:");
+            for (LDAPControl control : responseControls) {
+                log.debug(" - "+control.getID());
+
+                if (control.getID().equals(PagedResultsControl.OID)) {
+                    PagedResultsControl pagedResultsResponseControl = new PagedResultsControl(
+                            control.getID(),
+                            control.getValue(),
+                            control.isCritical()
+                    );
+
+                    cookie = pagedResultsResponseControl.getCookie();
+                    pagedResultsRequestControl.setCookie(cookie);
+                    pagedResultsRequestControl.encodeValue();
+                }
+
+                response.addControl(new Control(control.getID(), control.getValue(), control.isCritical()));
+            }
+        }
+
+        if (cookie != null) {
+            log.debug("Cookie length: "+cookie.length);
+        }
+
+        return cookie;
+    }
+
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     // Unbind
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-    public synchronized void unbind(
+    public void unbind(
             UnbindRequest request,
             UnbindResponse response
     ) throws Exception {
@@ -803,6 +1122,9 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
             log.info("LDAP Result: "+e.getMessage());
             //response.setException(e);
             throw e;
+
+        } finally {
+            releaseConnection(connection);
         }
 
         log.debug("Unbind operation completed.");
@@ -812,6 +1134,27 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
     // Miscelleanous
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * Returns the entry with every value as the byte array received from the server.
+     */
+    public SearchResult createPassthroughResult(LDAPEntry entry) throws Exception {
+
+        Attributes attributes = new Attributes();
+
+        for (Object object : entry.getAttributeSet()) {
+            LDAPAttribute ldapAttribute = (LDAPAttribute)object;
+
+            Attribute attribute = new Attribute(ldapAttribute.getName());
+            for (byte[] value : ldapAttribute.getByteValueArray()) {
+                attribute.addValue(value);
+            }
+
+            attributes.add(attribute);
+        }
+
+        return new SearchResult(entry.getDN(), attributes);
+    }
+
     public SearchResult createSearchResult(
             LDAPEntry entry
     ) throws Exception {
@@ -827,7 +1170,7 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
 
             Attribute attribute = new Attribute(name);
 
-            if (binaryAttributes.contains(name.toLowerCase())) {
+            if (isBinaryAttribute(name)) {
                 for (byte[] value : ldapAttribute.getByteValueArray()) {
                     if (debug) log.debug(" - " + name + ": " + BinaryUtil.encode(BinaryUtil.BIG_INTEGER, value, 0, 10)+"...");
                     attribute.addValue(value);
@@ -884,6 +1227,9 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
         boolean debug = log.isDebugEnabled();
         if (rootDSE != null) return rootDSE;
 
+        LDAPSchemaCache schemaCache = connectionFactory.schemaCache;
+        if (schemaCache != null && schemaCache.getRootDSE() != null) return schemaCache.getRootDSE();
+
         if (debug) log.debug("Searching Root DSE ...");
 
         SearchRequest request = new SearchRequest();
@@ -908,6 +1254,9 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
         boolean debug = log.isDebugEnabled();
         if (schema != null) return schema;
 
+        LDAPSchemaCache schemaCache = connectionFactory.schemaCache;
+        if (schemaCache != null && schemaCache.isLoaded()) return schemaCache.getSchema();
+
         getRootDSE();
 
         if (debug) log.debug("Searching Schema ...");
@@ -943,6 +1292,17 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
         return schema;
     }
 
+    /**
+     * Returns true if the attribute is configured as binary or has a binary syntax in the
+     * cached schema of the server.
+     */
+    public boolean isBinaryAttribute(String name) {
+        if (binaryAttributes.contains(name.toLowerCase())) return true;
+
+        LDAPSchemaCache schemaCache = connectionFactory.schemaCache;
+        return schemaCache != null && schemaCache.isBinaryAttribute(name);
+    }
+
     public LDAPControl[] convertControls(Collection<org.safehaus.penrose.control.Control> controls) throws Exception {
         Collection<LDAPControl> list = new ArrayList<LDAPControl>();
         for (org.safehaus.penrose.control.Control control : controls) {
@@ -1115,6 +1475,9 @@ public class LDAPClient implements Cloneable, LDAPAuthHandler {
         client.schema = schema;
 
         client.pageSize = pageSize;
+        client.prefetch = prefetch;
+
+        client.operationLock = new ReentrantLock();
 
         try {
             if (connection != null) client.connection = (LDAPConnection)connection.clone();
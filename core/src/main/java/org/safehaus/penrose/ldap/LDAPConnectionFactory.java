@@ -4,6 +4,10 @@ import org.ietf.ldap.LDAPException;
 import com.novell.ldap.LDAPUrl;
 import org.safehaus.penrose.ldap.connection.LDAPSocketFactory;
 import org.safehaus.penrose.ldap.connection.LDAPConnection;
+import org.safehaus.penrose.ldap.connection.LDAPReplica;
+import org.safehaus.penrose.ldap.connection.LDAPSchemaCache;
+import org.safehaus.penrose.connection.ConnectionLimiter;
+import org.safehaus.penrose.thread.ThreadManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,8 +29,18 @@ public class LDAPConnectionFactory {
 
     public String referral = "follow";
     public int pageSize;
+    public boolean prefetch;
     public Integer timeout;
 
+    public Long ejectionTime;
+    public Long maxEjectionTime;
+
+    public List<LDAPReplica> replicas = new ArrayList<LDAPReplica>();
+
+    public LDAPSchemaCache schemaCache;
+    public ConnectionLimiter limiter;
+    public ThreadManager threadManager;
+
     LDAPSocketFactory socketFactory;
 
     public LDAPConnectionFactory(Map<String,String> parameters) throws Exception {
@@ -54,6 +68,13 @@ public class LDAPConnectionFactory {
             binaryAttributes.add(attribute.toLowerCase());
         }
 
+        for (LDAPUrl url : urls) {
+            LDAPReplica replica = new LDAPReplica(url);
+            if (ejectionTime != null) replica.setEjectionTime(ejectionTime);
+            if (maxEjectionTime != null) replica.setMaxEjectionTime(maxEjectionTime);
+            replicas.add(replica);
+        }
+
         socketFactory = new LDAPSocketFactory(urls);
         if (timeout != null) socketFactory.setTimeout(timeout);
     }
@@ -80,11 +101,26 @@ public class LDAPConnectionFactory {
             pageSize = Integer.parseInt(s);
         }
 
+        s = parameters.get(LDAPConnection.PREFETCH);
+        if (s != null) {
+            prefetch = Boolean.valueOf(s);
+        }
+
         s = parameters.get(LDAPConnection.TIMEOUT);
         if (s != null) {
             timeout = Integer.parseInt(s);
         }
 
+        s = parameters.get(LDAPConnection.REPLICA_EJECTION_TIME);
+        if (s != null) {
+            ejectionTime = Long.parseLong(s);
+        }
+
+        s = parameters.get(LDAPConnection.MAX_REPLICA_EJECTION_TIME);
+        if (s != null) {
+            maxEjectionTime = Long.parseLong(s);
+        }
+
         s = parameters.get("java.naming.ldap.attributes.binary");
         if (s != null) {
             StringTokenizer st = new StringTokenizer(s);
@@ -115,14 +151,17 @@ public class LDAPConnectionFactory {
 
     public void connect(org.ietf.ldap.LDAPConnection connection) throws Exception {
         LDAPException exception = null;
-        for (LDAPUrl url : urls) {
+        for (LDAPReplica replica : getOrderedReplicas()) {
+            LDAPUrl url = replica.getUrl();
             try {
                 connection.connect(url.getHost(), url.getPort());
                 log.debug("Connected to "+url+".");
+                replica.reinstate();
                 break;
 
             } catch (LDAPException e) {
                 log.debug("Failed connecting to "+url+".");
+                replica.eject();
                 if (exception == null) exception = e;
             }
         }
@@ -135,4 +174,102 @@ public class LDAPConnectionFactory {
             }
         }
     }
+
+    /**
+     * Returns the servers in the order new connections should try them: the available ones
+     * by expected wait, then the ejected ones by the time they become available again.
+     */
+    public List<LDAPReplica> getOrderedReplicas() {
+
+        List<LDAPReplica> available = new ArrayList<LDAPReplica>();
+        List<LDAPReplica> ejected = new ArrayList<LDAPReplica>();
+
+        for (LDAPReplica replica : replicas) {
+            if (replica.isAvailable()) {
+                available.add(replica);
+            } else {
+                ejected.add(replica);
+            }
+        }
+
+        Collections.sort(available, new Comparator<LDAPReplica>() {
+            public int compare(LDAPReplica r1, LDAPReplica r2) {
+                return Double.compare(r1.getScore(), r2.getScore());
+            }
+        });
+
+        Collections.sort(ejected, new Comparator<LDAPReplica>() {
+            public int compare(LDAPReplica r1, LDAPReplica r2) {
+                long t1 = r1.getEjectedUntil();
+                long t2 = r2.getEjectedUntil();
+                return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+
+        available.addAll(ejected);
+        return available;
+    }
+
+    /**
+     * Returns the server the connection is connected to. A connection to a server that is
+     * not configured gets statistics that aren't kept.
+     */
+    public LDAPReplica getReplica(org.ietf.ldap.LDAPConnection connection) {
+        String host = connection.getHost();
+        int port = connection.getPort();
+
+        for (LDAPReplica replica : replicas) {
+            if (replica.matches(host, port)) return replica;
+        }
+
+        return new LDAPReplica(new LDAPUrl(host, port, null));
+    }
+
+    /**
+     * Returns false if the connection goes to an ejected server while another server is
+     * available.
+     */
+    public boolean isAvailable(org.ietf.ldap.LDAPConnection connection) {
+
+        LDAPReplica replica = getReplica(connection);
+        if (replica.isAvailable()) return true;
+
+        for (LDAPReplica r : replicas) {
+            if (r.isAvailable()) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns a factory with the same settings that only connects to the given server.
+     */
+    public LDAPConnectionFactory createFactory(LDAPReplica replica) throws Exception {
+
+        LDAPConnectionFactory factory = new LDAPConnectionFactory(replica.getUrl());
+
+        factory.replicas.clear();
+        factory.replicas.add(replica);
+
+        factory.binaryAttributes.addAll(binaryAttributes);
+        factory.schemaCache = schemaCache;
+        factory.limiter = limiter;
+        factory.threadManager = threadManager;
+
+        factory.bindDn = bindDn;
+        factory.bindPassword = bindPassword;
+
+        factory.referral = referral;
+        factory.pageSize = pageSize;
+        factory.prefetch = prefetch;
+
+        factory.timeout = timeout;
+        if (timeout != null) factory.socketFactory.setTimeout(timeout);
+
+        return factory;
+    }
+
+    public List<LDAPReplica> getReplicas() {
+        return replicas;
+    }
 }
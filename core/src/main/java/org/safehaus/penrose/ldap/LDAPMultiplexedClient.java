@@ -0,0 +1,244 @@
+package org.safehaus.penrose.ldap;
+
+import org.ietf.ldap.LDAPConnection;
+import org.ietf.ldap.LDAPConstraints;
+import org.safehaus.penrose.util.TextUtil;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Client shared by all sessions of a connection. Operations are spread over a few upstream
+ * connections and run concurrently on each of them; the LDAP library matches the responses
+ * to the requests by message ID. Each upstream connection carries at most maxOutstanding
+ * operations. When all connections are full callers wait until any of them has room, for at
+ * most maxWait milliseconds if it's positive, then fail with BUSY. A connection is reconnected
+ * under its own lock, so a slow reconnect doesn't hold up the operations on the others.
+ *
+ * Operations always run with the identity configured for the connection. Binds are
+ * verified on a separate connection and don't change that identity.
+ *
+ * @author Endi S. Dewata
+ */
+public class LDAPMultiplexedClient extends LDAPClient {
+
+    public final static int DEFAULT_MAX_OUTSTANDING = 100;
+
+    protected int size;
+    protected int maxOutstanding;
+    protected long maxWait = -1; // milliseconds
+
+    protected LDAPConnection[] connections;
+    protected Semaphore[] permits;
+    protected Object[] locks;
+
+    // notified when an operation completes
+    protected final Object available = new Object();
+
+    protected Map<LDAPConnection,Integer> indexes = new IdentityHashMap<LDAPConnection,Integer>();
+
+    public LDAPMultiplexedClient(
+            LDAPConnectionFactory connectionFactory,
+            int size,
+            int maxOutstanding
+    ) throws Exception {
+        super(connectionFactory);
+
+        this.size = size;
+        this.maxOutstanding = maxOutstanding;
+
+        connections = new LDAPConnection[size];
+        permits = new Semaphore[size];
+        locks = new Object[size];
+
+        for (int i = 0; i < size; i++) {
+            permits[i] = new Semaphore(maxOutstanding, true);
+            locks[i] = new Object();
+        }
+    }
+
+    public void connect() throws Exception {
+        releaseConnection(getConnection());
+    }
+
+    public void close() throws Exception {
+        // shared by all sessions, closed by destroy()
+    }
+
+    public synchronized void destroy() throws Exception {
+        log.debug("Closing multiplexed LDAP connections.");
+
+        for (LDAPConnection connection : connections) {
+            if (connection == null) continue;
+            try {
+                connection.disconnect();
+            } catch (Exception e) {
+                log.debug(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Returns the upstream connection with the fewest outstanding operations. The caller
+     * must call releaseConnection() when the operation is complete.
+     */
+    public LDAPConnection getConnection() throws Exception {
+
+        int index = acquire();
+
+        try {
+            return getConnection(index);
+
+        } catch (Exception e) {
+            release(index);
+            throw e;
+        }
+    }
+
+    /**
+     * Takes a slot on the connection with the fewest outstanding operations and returns its
+     * index. If all connections are full, waits until an operation completes on any of them.
+     */
+    public int acquire() throws Exception {
+
+        long endTime = System.currentTimeMillis() + maxWait;
+
+        synchronized (available) {
+            while (true) {
+                int index = 0;
+                for (int i = 1; i < size; i++) {
+                    if (permits[i].availablePermits() > permits[index].availablePermits()) index = i;
+                }
+
+                if (permits[index].tryAcquire()) return index;
+
+                if (maxWait <= 0) {
+                    available.wait();
+                    continue;
+                }
+
+                long timeout = endTime - System.currentTimeMillis();
+                if (timeout <= 0) {
+                    log.debug("All multiplexed LDAP connections are busy.");
+                    throw LDAP.createException(LDAP.BUSY);
+                }
+
+                available.wait(timeout);
+            }
+        }
+    }
+
+    public void release(int index) {
+        permits[index].release();
+
+        synchronized (available) {
+            available.notifyAll();
+        }
+    }
+
+    public LDAPConnection getConnection(int index) throws Exception {
+
+        synchronized (locks[index]) {
+            LDAPConnection connection = connections[index];
+
+            if (connection == null) {
+                log.debug("Creating multiplexed LDAP connection "+index+".");
+                connection = connectionFactory.createConnection();
+
+                synchronized (this) {
+                    connections[index] = connection;
+                    indexes.put(connection, index);
+                }
+
+            } else if (connection.isConnected()) {
+                return connection;
+
+            } else {
+                log.debug("Reconnecting multiplexed LDAP connection "+index+".");
+                connectionFactory.connect(connection);
+            }
+
+            if (bindDn != null && bindPassword != null) {
+                connection.bind(3, bindDn, bindPassword);
+            } else {
+                connection.bind(3, null, null);
+            }
+
+            LDAPConstraints constraints = new LDAPConstraints();
+            constraints.setReferralHandler(this);
+
+            connection.setConstraints(constraints);
+
+            return connection;
+        }
+    }
+
+    public void releaseConnection(LDAPConnection connection) throws Exception {
+        Integer index;
+        synchronized (this) {
+            index = indexes.get(connection);
+        }
+        if (index != null) release(index);
+    }
+
+    public void bind(
+            BindRequest request,
+            BindResponse response
+    ) throws Exception {
+
+        boolean info  = log.isInfoEnabled();
+        boolean debug = log.isDebugEnabled();
+
+        if (debug) {
+            log.debug(TextUtil.displaySeparator(70));
+            log.debug(TextUtil.displayLine("LDAP BIND", 70));
+            log.debug(TextUtil.displaySeparator(70));
+        }
+
+        String bindDn = request.getDn().toString();
+        if (debug) log.debug("Verifying credentials of "+bindDn+".");
+
+        LDAPConnection connection = connectionFactory.createConnection();
+
+        try {
+            connection.bind(3, bindDn, request.getPassword());
+
+        } catch (Exception e) {
+            if (info) log.info("LDAP Result: "+e.getMessage());
+            throw e;
+
+        } finally {
+            connection.disconnect();
+        }
+
+        log.debug("Bind operation completed.");
+    }
+
+    public void unbind(
+            UnbindRequest request,
+            UnbindResponse response
+    ) throws Exception {
+        log.debug("Unbind operation completed.");
+    }
+
+    public int getOutstanding(int index) {
+        return maxOutstanding - permits[index].availablePermits();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getMaxOutstanding() {
+        return maxOutstanding;
+    }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+}
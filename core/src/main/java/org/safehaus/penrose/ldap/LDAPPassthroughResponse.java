@@ -0,0 +1,66 @@
+package org.safehaus.penrose.ldap;
+
+import org.safehaus.penrose.pipeline.Pipeline;
+
+/**
+ * Response for searches whose entries are passed to the client unchanged. LDAPClient adds
+ * the upstream entries with all values as byte arrays, and the only change made here is
+ * replacing the DN suffix. The DN is only parsed if the suffix can't be matched as a string.
+ *
+ * @author Endi S. Dewata
+ */
+public class LDAPPassthroughResponse extends Pipeline {
+
+    private DN oldSuffix;
+    private DN newSuffix;
+
+    private String oldSuffixString;
+    private String newSuffixString;
+
+    public LDAPPassthroughResponse(SearchResponse parent, DN oldSuffix, DN newSuffix) throws Exception {
+        super(parent);
+
+        this.oldSuffix = oldSuffix;
+        this.newSuffix = newSuffix;
+
+        if (oldSuffix != null && !oldSuffix.isEmpty() && newSuffix != null && !newSuffix.isEmpty()) {
+            oldSuffixString = oldSuffix.getOriginalDn();
+            newSuffixString = newSuffix.getOriginalDn();
+        }
+    }
+
+    public void add(SearchResult result) throws Exception {
+        if (oldSuffixString != null) {
+            result.setDn(convertDn(result.getDn()));
+        }
+        super.add(result);
+    }
+
+    public DN convertDn(DN dn) throws Exception {
+
+        String s = dn.getOriginalDn();
+
+        int length = s.length() - oldSuffixString.length();
+
+        if (length == 0 && s.equalsIgnoreCase(oldSuffixString)) {
+            return new DN(newSuffixString);
+        }
+
+        if (length > 1 && s.charAt(length - 1) == ',' && s.charAt(length - 2) != '\\'
+                && s.regionMatches(true, length, oldSuffixString, 0, oldSuffixString.length())) {
+            return new DN(s.substring(0, length) + newSuffixString);
+        }
+
+        if (!dn.endsWith(oldSuffix)) return dn;
+
+        return dn.getPrefix(oldSuffix).append(newSuffix);
+    }
+
+    public DN getOldSuffix() {
+        return oldSuffix;
+    }
+
+    public DN getNewSuffix() {
+        return newSuffix;
+    }
+}
@@ -21,6 +21,12 @@ public class LDAPPoolableClient extends LDAPClient {
 
     public synchronized void connect() throws Exception {
 
+        if (connection != null && !connectionFactory.isAvailable(connection)) {
+            log.debug("Server has been ejected, replacing LDAP connection.");
+            objectPool.invalidateObject(connection);
+            connection = null;
+        }
+
         if (connection == null) {
             log.debug("Getting LDAP connection from connection pool.");
             connection = (LDAPConnection)objectPool.borrowObject();
@@ -40,7 +40,7 @@ public class LDAPPoolableConnectionFactory extends BasePoolableObjectFactory {
         //log.debug("Validating pooled LDAP connection.");
 
         LDAPConnection connection = (LDAPConnection)object;
-        return connection.isConnected();
+        return connection.isConnected() && connectionFactory.isAvailable(connection);
     }
 
     public void activateObject(Object object) throws Exception {
@@ -48,6 +48,12 @@ public class LDAPPoolableConnectionFactory extends BasePoolableObjectFactory {
         //log.debug("Activating pooled LDAP connection.");
 
         LDAPConnection connection = (LDAPConnection)object;
+
+        if (!connectionFactory.isAvailable(connection)) {
+            log.debug("Discarding pooled LDAP connection to ejected server.");
+            throw LDAP.createException(LDAP.UNAVAILABLE);
+        }
+
         if (connection.isBound()) {
             connection.bind(3, null, null);
         }
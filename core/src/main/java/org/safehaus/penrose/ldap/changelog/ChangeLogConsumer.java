@@ -0,0 +1,257 @@
+package org.safehaus.penrose.ldap.changelog;
+
+import org.safehaus.penrose.Penrose;
+import org.safehaus.penrose.control.Control;
+import org.safehaus.penrose.control.PersistentSearchControl;
+import org.safehaus.penrose.ldap.*;
+import org.safehaus.penrose.ldap.connection.LDAPConnection;
+import org.safehaus.penrose.session.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Keeps a persistent search open on the change log and applies new change log entries as
+ * they arrive. Missing change numbers are searched in the change log. The tracker is
+ * updated after every batchSize changes and whenever there are no more changes waiting. When the search is disconnected the consumer falls back to
+ * searching the change log every interval seconds until the persistent search can be
+ * opened again.
+ *
+ * @author Endi Sukma Dewata
+ */
+public class ChangeLogConsumer implements Runnable {
+
+    public Logger log = LoggerFactory.getLogger(getClass());
+
+    public final static int DEFAULT_BATCH_SIZE = 100;
+    public final static int DEFAULT_INTERVAL   = 30; // second
+
+    protected ChangeLogHandler handler;
+    protected LDAPConnection connection;
+    protected SearchRequest request;
+
+    protected int batchSize = DEFAULT_BATCH_SIZE;
+    protected int interval = DEFAULT_INTERVAL;
+
+    protected LDAPClient client;
+    protected volatile boolean connected;
+    protected volatile boolean stopped;
+
+    public class ChangeLogResponse extends SearchResponse {
+        public synchronized boolean isEmpty() {
+            return results.isEmpty();
+        }
+    }
+
+    public ChangeLogConsumer(
+            ChangeLogHandler handler,
+            LDAPConnection connection,
+            SearchRequest request
+    ) throws Exception {
+
+        this.handler = handler;
+        this.connection = connection;
+        this.request = (SearchRequest)request.clone();
+
+        Collection<Control> controls = new ArrayList<Control>();
+        controls.addAll(request.getControls());
+        controls.add(new PersistentSearchControl(PersistentSearchControl.ADD, true, false, true));
+        this.request.setControls(controls);
+    }
+
+    public void run() {
+        while (!stopped) {
+            try {
+                consume();
+
+            } catch (Exception e) {
+                if (stopped) break;
+                Penrose.errorLog.error("Change log persistent search failed: "+e.getMessage());
+            }
+
+            if (stopped) break;
+
+            try {
+                log.debug("Polling change log.");
+
+                synchronized (this) {
+                    if (!stopped) wait(interval * 1000L);
+                }
+
+                if (!stopped) handler.synchronize();
+
+            } catch (Exception e) {
+                Penrose.errorLog.error(e.getMessage(), e);
+            }
+        }
+
+        log.debug("Change log consumer stopped.");
+    }
+
+    public void consume() throws Exception {
+
+        boolean debug = log.isDebugEnabled();
+
+        final LDAPClient client = createClient();
+        final ChangeLogResponse response = new ChangeLogResponse();
+
+        synchronized (this) {
+            if (stopped) return;
+            this.client = client;
+        }
+
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    client.search(request, response);
+
+                } catch (Exception e) {
+                    log.debug("Persistent search ended: "+e.getMessage());
+
+                } finally {
+                    try {
+                        response.close();
+                    } catch (Exception e) {
+                        log.debug(e.getMessage(), e);
+                    }
+                }
+            }
+        }, "Change Log Persistent Search");
+        thread.setDaemon(true);
+        thread.start();
+
+        connected = true;
+        log.debug("Change log persistent search started.");
+
+        Session session = handler.createAdminSession();
+
+        Long pending = null;
+        int count = 0;
+
+        try {
+            // apply the changes made before the persistent search started
+            handler.synchronize();
+
+            Long last = handler.getLastTrackedNumber(session);
+
+            while (!stopped && response.hasNext()) {
+                SearchResult result = response.next();
+                Attributes attributes = result.getAttributes();
+
+                Object value = attributes.getValue("changeNumber");
+                if (value == null) continue;
+
+                Long changeNumber = Long.parseLong(value.toString());
+                if (last != null && changeNumber <= last) continue;
+
+                if (last != null && changeNumber > last + 1) {
+                    // changes made while the persistent search was being opened
+                    if (debug) log.debug("Missing changes before "+changeNumber+", searching change log.");
+
+                    if (pending != null) {
+                        handler.checkpoint(session, pending);
+                        pending = null;
+                        count = 0;
+                    }
+
+                    handler.synchronize();
+
+                    last = handler.getLastTrackedNumber(session);
+                    if (last != null && changeNumber <= last) continue;
+                }
+
+                if (debug) log.debug("Processing change "+changeNumber+".");
+                handler.process(session, result);
+
+                last = changeNumber;
+                pending = changeNumber;
+                count++;
+
+                if (count >= batchSize || response.isEmpty()) {
+                    handler.checkpoint(session, pending);
+                    pending = null;
+                    count = 0;
+                }
+            }
+
+        } finally {
+            connected = false;
+
+            if (pending != null) handler.checkpoint(session, pending);
+            session.close();
+
+            synchronized (this) {
+                this.client = null;
+            }
+            client.close();
+        }
+
+        if (!stopped) throw new Exception("Persistent search has been closed.");
+    }
+
+    /**
+     * Creates a client with its own upstream connection, closing it ends the search.
+     */
+    public LDAPClient createClient() throws Exception {
+        LDAPClient client = new LDAPClient(connection.connectionFactory);
+        client.pageSize = 0;
+        client.connect();
+        return client;
+    }
+
+    /**
+     * Stops the consumer, ending the persistent search or the wait for the next poll.
+     */
+    public void stop() {
+        LDAPClient client;
+        synchronized (this) {
+            stopped = true;
+            client = this.client;
+            notifyAll();
+        }
+
+        if (client == null) return;
+
+        try {
+            client.close();
+        } catch (Exception e) {
+            log.debug(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Runs the consumer on a daemon thread.
+     */
+    public Thread start(String name) {
+        Thread thread = new Thread(this, name+" Change Log Consumer");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public void setInterval(int interval) {
+        this.interval = interval;
+    }
+}
@@ -0,0 +1,31 @@
+package org.safehaus.penrose.ldap.changelog;
+
+import org.safehaus.penrose.ldap.SearchResult;
+import org.safehaus.penrose.session.Session;
+
+/**
+ * Applies the entries of an upstream change log.
+ *
+ * @author Endi Sukma Dewata
+ */
+public interface ChangeLogHandler {
+
+    public Session createAdminSession() throws Exception;
+
+    /**
+     * Returns the number of the last change that has been applied, or null if none.
+     */
+    public Long getLastTrackedNumber(Session session) throws Exception;
+
+    /**
+     * Applies the changes since the last tracked change by searching the change log.
+     */
+    public void synchronize() throws Exception;
+
+    public void process(Session session, SearchResult result) throws Exception;
+
+    /**
+     * Records that the changes up to the given number have been applied.
+     */
+    public void checkpoint(Session session, Long changeNumber) throws Exception;
+}
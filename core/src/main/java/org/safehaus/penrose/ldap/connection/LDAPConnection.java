@@ -4,22 +4,27 @@ import org.safehaus.penrose.ldap.*;
 import org.safehaus.penrose.session.Session;
 import org.safehaus.penrose.session.SessionListener;
 import org.safehaus.penrose.connection.Connection;
+import org.safehaus.penrose.source.Source;
 import org.safehaus.penrose.schema.SchemaUtil;
 import org.safehaus.penrose.schema.Schema;
 import org.apache.commons.pool.impl.GenericObjectPool;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.util.*;
 
 /**
  * @author Endi S. Dewata
  */
-public class LDAPConnection extends Connection {
+public class LDAPConnection extends Connection implements LDAPConnectionMBean {
 
     public final static String URL       = "url";
     public final static String USER      = "user";
     public final static String PASSWORD  = "password";
     public final static String REFERRAL  = "referral";
     public final static String PAGE_SIZE = "pageSize";
+    public final static String PREFETCH  = "prefetch";
     public final static String TIMEOUT   = "timeout"; // millisecond
 
     public final static String INITIAL_SIZE                         = "initialSize";
@@ -42,11 +47,33 @@ public class LDAPConnection extends Connection {
     public final static String WHEN_EXHAUSTED_BLOCK                 = "block";
     public final static String WHEN_EXHAUSTED_GROW                  = "grow";
 
+    public final static String MULTIPLEX                            = "multiplex";
+    public final static String MAX_OUTSTANDING                      = "maxOutstanding";
+
+    public final static String BIND_POOL_SIZE                       = "bindPoolSize";
+    public final static int DEFAULT_BIND_POOL_SIZE                  = 8;
+
+    public final static String SCHEMA_CACHE                         = "schemaCache";
+    public final static String SCHEMA_REFRESH_INTERVAL              = "schemaRefreshInterval"; // second
+
+    public final static String REPLICA_EJECTION_TIME                = "replicaEjectionTime"; // millisecond
+    public final static String MAX_REPLICA_EJECTION_TIME            = "maxReplicaEjectionTime"; // millisecond
+
     public GenericObjectPool.Config config = new GenericObjectPool.Config();
     public GenericObjectPool connectionPool;
+    public GenericObjectPool bindPool;
 
     public LDAPConnectionFactory connectionFactory;
     public LDAPPoolableConnectionFactory poolableConnectionFactory;
+
+    public LDAPMultiplexedClient multiplexedClient;
+    public int maxOutstanding;
+
+    public LDAPSchemaCache schemaCache;
+
+    public Map<LDAPReplica,LDAPMultiplexedClient> replicaClients = new HashMap<LDAPReplica,LDAPMultiplexedClient>();
+
+    public ObjectName objectName;
     
     public void init() throws Exception {
 
@@ -105,21 +132,145 @@ public class LDAPConnection extends Connection {
             config.whenExhaustedAction = GenericObjectPool.DEFAULT_WHEN_EXHAUSTED_ACTION;
         }
 
+        s = parameters.remove(MULTIPLEX);
+        int multiplex = s == null ? 0 : Integer.parseInt(s);
+
+        s = parameters.remove(MAX_OUTSTANDING);
+        maxOutstanding = s == null ? LDAPMultiplexedClient.DEFAULT_MAX_OUTSTANDING : Integer.parseInt(s);
+
+        s = parameters.remove(BIND_POOL_SIZE);
+        int bindPoolSize = s == null ? DEFAULT_BIND_POOL_SIZE : Integer.parseInt(s);
+
+        s = parameters.remove(SCHEMA_CACHE);
+        boolean cacheSchema = s == null || Boolean.valueOf(s);
+
+        s = parameters.remove(SCHEMA_REFRESH_INTERVAL);
+        Integer schemaRefreshInterval = s == null ? null : Integer.parseInt(s);
+
+        parameters.keySet().removeAll(LIMITER_PARAMETERS);
+
         connectionPool = new GenericObjectPool(null, config);
 
         connectionFactory = new LDAPConnectionFactory(parameters);
+        connectionFactory.limiter = limiter;
+        connectionFactory.threadManager = getPartition().getThreadManager();
+
         poolableConnectionFactory = new LDAPPoolableConnectionFactory(connectionFactory);
 
         connectionPool.setFactory(poolableConnectionFactory);
 
+        if (cacheSchema) {
+            schemaCache = new LDAPSchemaCache(connectionFactory);
+            if (schemaRefreshInterval != null) schemaCache.setRefreshInterval(schemaRefreshInterval);
+
+            connectionFactory.schemaCache = schemaCache;
+            schemaCache.start();
+        }
+
+        if (bindPoolSize > 0) {
+            log.debug("Bind pool size: "+bindPoolSize);
+
+            GenericObjectPool.Config bindConfig = new GenericObjectPool.Config();
+            bindConfig.maxActive = bindPoolSize;
+            bindConfig.maxIdle = bindPoolSize;
+            bindConfig.maxWait = config.maxWait;
+            bindConfig.whenExhaustedAction = GenericObjectPool.WHEN_EXHAUSTED_BLOCK;
+
+            bindPool = new GenericObjectPool(new LDAPBindConnectionFactory(connectionFactory), bindConfig);
+        }
+
         //log.debug("Initializing "+initialSize+" connections.");
         for (int i = 0; i < initialSize; i++) {
              connectionPool.addObject();
          }
 
+        if (multiplex > 0) {
+            log.debug("Multiplexing over "+multiplex+" connections, "+maxOutstanding+" operations each.");
+            multiplexedClient = new LDAPMultiplexedClient(connectionFactory, multiplex, maxOutstanding);
+            multiplexedClient.setMaxWait(config.maxWait);
+        }
+
+        registerMBean();
+
         log.debug("Connection "+getName()+" initialized.");
     }
 
+    public void destroy() throws Exception {
+        unregisterMBean();
+        if (schemaCache != null) schemaCache.stop();
+        if (multiplexedClient != null) multiplexedClient.destroy();
+        synchronized (replicaClients) {
+            for (LDAPMultiplexedClient client : replicaClients.values()) client.destroy();
+            replicaClients.clear();
+        }
+        if (bindPool != null) bindPool.close();
+        connectionPool.close();
+        log.debug("Connection "+getName()+" closed.");
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    // Statistics
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    public void registerMBean() {
+        try {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            objectName = ObjectName.getInstance(
+                    "Penrose:type=LDAPConnection"
+                    +",partition="+ObjectName.quote(getPartition().getName())
+                    +",name="+ObjectName.quote(getName())
+            );
+            if (mbeanServer.isRegistered(objectName)) mbeanServer.unregisterMBean(objectName);
+            mbeanServer.registerMBean(this, objectName);
+
+        } catch (Exception e) {
+            log.debug("Unable to register connection "+getName()+": "+e.getMessage());
+            objectName = null;
+        }
+    }
+
+    public void unregisterMBean() {
+        if (objectName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (Exception e) {
+            log.debug("Unable to unregister connection "+getName()+": "+e.getMessage());
+        }
+        objectName = null;
+    }
+
+    public int getNumActive() throws Exception {
+        return connectionPool.getNumActive();
+    }
+
+    public int getNumIdle() throws Exception {
+        return connectionPool.getNumIdle();
+    }
+
+    public int getMaxActive() throws Exception {
+        return connectionPool.getMaxActive();
+    }
+
+    public int getNumBindActive() throws Exception {
+        return bindPool == null ? 0 : bindPool.getNumActive();
+    }
+
+    public int getNumBindIdle() throws Exception {
+        return bindPool == null ? 0 : bindPool.getNumIdle();
+    }
+
+    public String[] getReplicaStatistics() throws Exception {
+        Collection<LDAPReplica> replicas = connectionFactory.getReplicas();
+
+        String[] statistics = new String[replicas.size()];
+        int i = 0;
+        for (LDAPReplica replica : replicas) {
+            statistics[i++] = replica.toString();
+        }
+
+        return statistics;
+    }
+
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     // Client
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -136,6 +287,8 @@ public class LDAPConnection extends Connection {
     }
 
     public Schema getSchema() throws Exception {
+        if (schemaCache != null) return schemaCache.getSchema();
+
         LDAPClient client = createClient();
         try {
             client.connect();
@@ -158,6 +311,90 @@ public class LDAPConnection extends Connection {
         return new LDAPPoolableClient(connectionPool, connectionFactory);
     }
 
+    /**
+     * Returns the shared multiplexed client if it's enabled, unless the source passes the
+     * user's identity to the server with full authentication.
+     */
+    public LDAPClient getClient(Session session, Source source) throws Exception {
+        if (multiplexedClient == null) return getClient(session);
+        if (LDAP.AUTHENTICATION_FULL.equals(source.getParameter(LDAP.AUTHENTICATION))) return getClient(session);
+        return multiplexedClient;
+    }
+
+    /**
+     * Checks the credentials on a connection from the bind pool. The connection is bound
+     * anonymously again before it goes back to the pool, so the identity is never used by
+     * other operations. Without a bind pool the credentials are checked on a new connection.
+     */
+    public void bind(BindRequest request, BindResponse response) throws Exception {
+
+        boolean debug = log.isDebugEnabled();
+
+        String bindDn = request.getDn() == null ? null : request.getDn().toString();
+        byte[] password = request.getPassword();
+
+        if (bindPool == null) {
+            org.ietf.ldap.LDAPConnection connection = connectionFactory.createConnection();
+            try {
+                connection.bind(3, bindDn, password);
+            } finally {
+                connection.disconnect();
+            }
+            return;
+        }
+
+        org.ietf.ldap.LDAPConnection connection = (org.ietf.ldap.LDAPConnection)bindPool.borrowObject();
+
+        LDAPReplica replica = connectionFactory.getReplica(connection);
+        replica.start();
+
+        boolean valid = true;
+
+        try {
+            if (debug) log.debug("Checking credentials of "+bindDn+" on "+replica.getUrl()+".");
+
+            long startTime = System.currentTimeMillis();
+
+            connection.bind(3, bindDn, password);
+
+            long endTime = System.currentTimeMillis();
+
+            if (debug) log.debug("Elapsed time: "+(endTime - startTime)+" ms");
+
+            replica.succeeded(endTime - startTime);
+
+        } catch (Exception e) {
+            replica.failed(e);
+            valid = connection.isConnected() && !replica.isEjectable(e);
+            throw e;
+
+        } finally {
+            replica.end();
+            if (valid) {
+                bindPool.returnObject(connection);
+            } else {
+                bindPool.invalidateObject(connection);
+            }
+        }
+    }
+
+    /**
+     * Returns a shared client that only sends operations to the given server.
+     */
+    public LDAPClient getReplicaClient(LDAPReplica replica) throws Exception {
+        synchronized (replicaClients) {
+            LDAPMultiplexedClient client = replicaClients.get(replica);
+            if (client != null) return client;
+
+            log.debug("Creating client for "+replica.getUrl()+".");
+            client = new LDAPMultiplexedClient(connectionFactory.createFactory(replica), 1, maxOutstanding);
+            client.setMaxWait(config.maxWait);
+            replicaClients.put(replica, client);
+
+            return client;
+        }
+    }
+
     public synchronized LDAPClient getClient(final Session session) throws Exception {
 
         final boolean debug = log.isDebugEnabled();
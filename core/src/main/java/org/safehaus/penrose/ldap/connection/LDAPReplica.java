@@ -0,0 +1,163 @@
+package org.safehaus.penrose.ldap.connection;
+
+import com.novell.ldap.LDAPUrl;
+import org.ietf.ldap.LDAPException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load and health of one upstream LDAP server. The latency is an exponentially weighted
+ * moving average of the recent operations. A server that times out, is busy or unavailable
+ * is ejected; it's tried again once the ejection time has passed, and the ejection time
+ * doubles each time it fails again, up to maxEjectionTime.
+ *
+ * @author Endi S. Dewata
+ */
+public class LDAPReplica {
+
+    public Logger log = LoggerFactory.getLogger(getClass());
+
+    public final static double WEIGHT = 0.2;
+
+    private LDAPUrl url;
+
+    private long ejectionTime = 30000; // milliseconds
+    private long maxEjectionTime = 300000; // milliseconds
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong operations = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private volatile double latency;
+    private volatile long ejectedUntil;
+    private int ejections;
+
+    public LDAPReplica(LDAPUrl url) {
+        this.url = url;
+    }
+
+    /**
+     * Returns true if the replica can receive requests. An ejected replica becomes
+     * available again once its ejection time has passed.
+     */
+    public boolean isAvailable() {
+        return ejectedUntil == 0 || System.currentTimeMillis() >= ejectedUntil;
+    }
+
+    /**
+     * Returns the expected wait for a new request: the average latency multiplied by the
+     * number of requests ahead of it.
+     */
+    public double getScore() {
+        return (outstanding.get() + 1) * (latency + 1);
+    }
+
+    public void start() {
+        outstanding.incrementAndGet();
+    }
+
+    public void succeeded(long elapsed) {
+        latency = latency == 0 ? elapsed : WEIGHT * elapsed + (1 - WEIGHT) * latency;
+        if (ejectedUntil != 0) reinstate();
+    }
+
+    public void failed(Exception e) {
+        failures.incrementAndGet();
+        if (isEjectable(e)) eject();
+    }
+
+    public void end() {
+        outstanding.decrementAndGet();
+        operations.incrementAndGet();
+    }
+
+    public boolean isEjectable(Exception e) {
+        if (!(e instanceof LDAPException)) return false;
+
+        switch (((LDAPException)e).getResultCode()) {
+            case LDAPException.BUSY:
+            case LDAPException.UNAVAILABLE:
+            case LDAPException.SERVER_DOWN:
+            case LDAPException.LDAP_TIMEOUT:
+            case LDAPException.CONNECT_ERROR:
+                return true;
+        }
+
+        return false;
+    }
+
+    public synchronized void eject() {
+        long time = Math.min(ejectionTime << Math.min(ejections, 16), maxEjectionTime);
+        ejections++;
+
+        log.warn("Ejecting LDAP server "+url+" for "+time+" ms.");
+        ejectedUntil = System.currentTimeMillis() + time;
+    }
+
+    public synchronized void reinstate() {
+        if (ejectedUntil == 0) return;
+
+        log.warn("LDAP server "+url+" is available again.");
+        ejectedUntil = 0;
+        ejections = 0;
+    }
+
+    public boolean isEjected() {
+        return ejectedUntil != 0;
+    }
+
+    public boolean matches(String host, int port) {
+        return url.getHost().equalsIgnoreCase(host) && url.getPort() == port;
+    }
+
+    public LDAPUrl getUrl() {
+        return url;
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public long getOperations() {
+        return operations.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public double getLatency() {
+        return latency;
+    }
+
+    public long getEjectedUntil() {
+        return ejectedUntil;
+    }
+
+    public long getEjectionTime() {
+        return ejectionTime;
+    }
+
+    public void setEjectionTime(long ejectionTime) {
+        this.ejectionTime = ejectionTime;
+    }
+
+    public long getMaxEjectionTime() {
+        return maxEjectionTime;
+    }
+
+    public void setMaxEjectionTime(long maxEjectionTime) {
+        this.maxEjectionTime = maxEjectionTime;
+    }
+
+    public String toString() {
+        return url+": outstanding="+outstanding.get()
+                +", latency="+Math.round(latency)+" ms"
+                +", operations="+operations.get()
+                +", failures="+failures.get()
+                +", ejected="+isEjected();
+    }
+}
@@ -0,0 +1,220 @@
+package org.safehaus.penrose.ldap.connection;
+
+import org.safehaus.penrose.ldap.*;
+import org.safehaus.penrose.schema.AttributeType;
+import org.safehaus.penrose.schema.Schema;
+import org.safehaus.penrose.schema.SchemaUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Root DSE and schema of the upstream server, shared by all clients of a connection. It's
+ * loaded on a background thread when the connection is initialized. The thread then checks
+ * the modifyTimestamp of the subschema entry every refreshInterval and only reads and parses
+ * the schema again if it has changed.
+ *
+ * Attributes with a binary syntax in the schema are treated as binary in addition to the
+ * ones listed in java.naming.ldap.attributes.binary.
+ *
+ * @author Endi S. Dewata
+ */
+public class LDAPSchemaCache implements Runnable {
+
+    public Logger log = LoggerFactory.getLogger(getClass());
+
+    public final static String MODIFY_TIMESTAMP = "modifyTimestamp";
+
+    public final static Collection<String> BINARY_SYNTAXES = Arrays.asList(
+        "2.5.5.7",  // AD binary
+        "2.5.5.10", // AD octet string
+        "2.5.5.17", // AD sid
+        "1.3.6.1.4.1.1466.115.121.1.5",  // binary
+        "1.3.6.1.4.1.1466.115.121.1.8",  // certificate
+        "1.3.6.1.4.1.1466.115.121.1.9",  // certificate list
+        "1.3.6.1.4.1.1466.115.121.1.10", // certificate pair
+        "1.3.6.1.4.1.1466.115.121.1.28", // jpeg
+        "1.3.6.1.4.1.1466.115.121.1.40"  // octet string
+    );
+
+    private LDAPConnectionFactory connectionFactory;
+
+    private int refreshInterval = 300; // seconds
+
+    private volatile SearchResult rootDSE;
+    private volatile Schema schema;
+    private volatile Set<String> binaryAttributes = new HashSet<String>();
+
+    private String modifyTimestamp;
+
+    private Thread thread;
+    private volatile boolean running;
+
+    public LDAPSchemaCache(LDAPConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    public void start() {
+        running = true;
+
+        thread = new Thread(this, "LDAP Schema Cache");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null) thread.interrupt();
+    }
+
+    public void run() {
+        while (running) {
+            try {
+                refresh();
+
+            } catch (Exception e) {
+                log.warn("Unable to load LDAP schema: "+e.getMessage());
+            }
+
+            if (refreshInterval <= 0 && schema != null) break;
+
+            try {
+                Thread.sleep((refreshInterval > 0 ? refreshInterval : 60) * 1000L);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Reads the root DSE and the modifyTimestamp of the subschema entry. The schema is only
+     * read and parsed if it hasn't been loaded yet or if the timestamp has changed.
+     */
+    public synchronized void refresh() throws Exception {
+
+        boolean debug = log.isDebugEnabled();
+
+        LDAPClient client = createClient();
+
+        try {
+            client.connect();
+
+            SearchResult newRootDSE = find(client, "", new String[] { "*", "+" });
+            if (newRootDSE == null) return;
+
+            client.setRootDSE(newRootDSE);
+            rootDSE = newRootDSE;
+
+            String newModifyTimestamp = getModifyTimestamp(client, newRootDSE);
+
+            if (schema != null && newModifyTimestamp != null && newModifyTimestamp.equals(modifyTimestamp)) {
+                if (debug) log.debug("LDAP schema has not changed.");
+                return;
+            }
+
+            if (debug) log.debug("Loading LDAP schema (modifyTimestamp: "+newModifyTimestamp+").");
+
+            SchemaUtil schemaUtil = new SchemaUtil();
+            Schema newSchema = schemaUtil.getSchema(client);
+
+            binaryAttributes = getBinaryAttributes(newSchema);
+            schema = newSchema;
+            modifyTimestamp = newModifyTimestamp;
+
+            if (debug) log.debug("Binary attributes: "+binaryAttributes);
+
+        } finally {
+            client.close();
+        }
+    }
+
+    public LDAPClient createClient() throws Exception {
+        return new LDAPClient(connectionFactory);
+    }
+
+    public String getModifyTimestamp(LDAPClient client, SearchResult rootDSE) throws Exception {
+
+        Attribute subschemaSubentry = rootDSE.getAttributes().get("subschemaSubentry");
+        if (subschemaSubentry == null) return null;
+
+        SearchResult subschema = find(client, (String)subschemaSubentry.getValue(), new String[] { MODIFY_TIMESTAMP });
+        if (subschema == null) return null;
+
+        Object value = subschema.getAttributes().getValue(MODIFY_TIMESTAMP);
+        return value == null ? null : value.toString();
+    }
+
+    public SearchResult find(LDAPClient client, String dn, String[] attributes) throws Exception {
+
+        SearchRequest request = new SearchRequest();
+        request.setDn(dn);
+        request.setScope(SearchRequest.SCOPE_BASE);
+        request.setAttributes(attributes);
+
+        SearchResponse response = new SearchResponse();
+        client.search(request, response);
+
+        return response.hasNext() ? response.next() : null;
+    }
+
+    public Set<String> getBinaryAttributes(Schema schema) {
+
+        Set<String> binaryAttributes = new HashSet<String>();
+
+        for (AttributeType attributeType : schema.getAttributeTypes()) {
+            if (!isBinarySyntax(attributeType.getSyntax())) continue;
+
+            for (String name : attributeType.getNames()) {
+                binaryAttributes.add(name.toLowerCase());
+            }
+        }
+
+        return binaryAttributes;
+    }
+
+    public boolean isBinarySyntax(String syntax) {
+        if (syntax == null) return false;
+
+        int p = syntax.indexOf('{');
+        if (p >= 0) syntax = syntax.substring(0, p);
+
+        return BINARY_SYNTAXES.contains(syntax.trim());
+    }
+
+    public boolean isBinaryAttribute(String name) {
+        return binaryAttributes.contains(name.toLowerCase());
+    }
+
+    public Set<String> getBinaryAttributes() {
+        return binaryAttributes;
+    }
+
+    public SearchResult getRootDSE() {
+        return rootDSE;
+    }
+
+    /**
+     * Returns the schema, loading it now if the background thread hasn't loaded it yet.
+     */
+    public Schema getSchema() throws Exception {
+        if (schema == null) refresh();
+        return schema;
+    }
+
+    public boolean isLoaded() {
+        return schema != null;
+    }
+
+    public String getModifyTimestamp() {
+        return modifyTimestamp;
+    }
+
+    public int getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    public void setRefreshInterval(int refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+}
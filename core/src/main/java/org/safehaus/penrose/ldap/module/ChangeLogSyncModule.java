@@ -7,6 +7,9 @@ import org.safehaus.penrose.filter.SimpleFilter;
 import org.safehaus.penrose.jdbc.QueryResponse;
 import org.safehaus.penrose.jdbc.source.JDBCSource;
 import org.safehaus.penrose.ldap.*;
+import org.safehaus.penrose.ldap.changelog.ChangeLogConsumer;
+import org.safehaus.penrose.ldap.changelog.ChangeLogHandler;
+import org.safehaus.penrose.ldap.connection.LDAPConnection;
 import org.safehaus.penrose.ldap.source.LDAPSource;
 import org.safehaus.penrose.module.Module;
 import org.safehaus.penrose.schema.SchemaManager;
@@ -26,13 +29,15 @@ import java.util.TreeSet;
 /**
  * @author Endi Sukma Dewata
  */
-public class ChangeLogSyncModule extends Module {
+public class ChangeLogSyncModule extends Module implements ChangeLogHandler {
 
     LDAPSource source;
     LDAPSource target;
     LDAPSource changelog;
     JDBCSource tracker;
 
+    ChangeLogConsumer consumer;
+
     public void init() throws Exception {
 
         log.debug("Initializing "+this.getName()+" module...");
@@ -54,6 +59,30 @@ public class ChangeLogSyncModule extends Module {
         String trackerName = getParameter("tracker");
         log.debug("Tracker: "+trackerName);
         tracker = (JDBCSource)sourceManager.getSource(trackerName);
+
+        boolean persistentSearch = Boolean.valueOf(getParameter("persistentSearch"));
+        log.debug("Persistent search: "+persistentSearch);
+
+        if (persistentSearch) {
+            SearchRequest request = new SearchRequest();
+            request.setDn(changelog.getBaseDn());
+            request.setScope(changelog.getScope());
+            request.setFilter(changelog.getFilter());
+
+            consumer = new ChangeLogConsumer(this, (LDAPConnection)changelog.getConnection(), request);
+
+            String s = getParameter("batchSize");
+            if (s != null) consumer.setBatchSize(Integer.parseInt(s));
+
+            s = getParameter("interval");
+            if (s != null) consumer.setInterval(Integer.parseInt(s));
+
+            consumer.start(getName());
+        }
+    }
+
+    public void destroy() throws Exception {
+        if (consumer != null) consumer.stop();
     }
 
     public void load() throws Exception {
@@ -166,6 +195,10 @@ public class ChangeLogSyncModule extends Module {
         return (Long)response.next();
     }
 
+    public void checkpoint(Session session, Long changeNumber) throws Exception {
+        addTracker(session, changeNumber);
+    }
+
     public void addTracker(Session session, Number changeNumber) throws Exception {
 
         Attributes attributes = new Attributes();
@@ -197,6 +230,10 @@ public class ChangeLogSyncModule extends Module {
         return request;
     }
 
+    public void process(Session session, SearchResult result) throws Exception {
+        process(session, result.getAttributes());
+    }
+
     public void process(Session session, Attributes attributes) throws Exception {
 
         boolean debug = log.isDebugEnabled();
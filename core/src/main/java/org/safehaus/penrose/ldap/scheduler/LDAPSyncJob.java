@@ -10,6 +10,10 @@ import org.safehaus.penrose.interpreter.Interpreter;
 import org.safehaus.penrose.jdbc.QueryResponse;
 import org.safehaus.penrose.jdbc.source.JDBCSource;
 import org.safehaus.penrose.ldap.*;
+import org.safehaus.penrose.ldap.changelog.ChangeLogConsumer;
+import org.safehaus.penrose.ldap.changelog.ChangeLogHandler;
+import org.safehaus.penrose.ldap.connection.LDAPConnection;
+import org.safehaus.penrose.ldap.source.LDAPSource;
 import org.safehaus.penrose.partition.Partition;
 import org.safehaus.penrose.scheduler.Job;
 import org.safehaus.penrose.session.Session;
@@ -31,7 +35,7 @@ import java.util.TreeSet;
 /**
  * @author Endi Sukma Dewata
  */
-public class LDAPSyncJob extends Job {
+public class LDAPSyncJob extends Job implements ChangeLogHandler {
 
     Source source;
     Source target;
@@ -39,6 +43,8 @@ public class LDAPSyncJob extends Job {
     JDBCSource tracker;
     Source errors;
 
+    ChangeLogConsumer consumer;
+
     public void init() throws Exception {
         String sourceName    = getParameter("source");
         String targetName    = getParameter("target");
@@ -54,12 +60,42 @@ public class LDAPSyncJob extends Job {
         changelog = sourceManager.getSource(changeLogName);
         tracker   = (JDBCSource)sourceManager.getSource(trackerName);
         errors    = sourceManager.getSource(errorsName);
+
+        boolean persistentSearch = Boolean.valueOf(getParameter("persistentSearch"));
+        log.debug("Persistent search: "+persistentSearch);
+
+        if (persistentSearch) {
+            LDAPSource ldapSource = (LDAPSource)changelog;
+
+            SearchRequest request = new SearchRequest();
+            request.setDn(ldapSource.getBaseDn());
+            request.setScope(ldapSource.getScope());
+            request.setFilter(ldapSource.getFilter());
+
+            consumer = new ChangeLogConsumer(this, (LDAPConnection)ldapSource.getConnection(), request);
+
+            String s = getParameter("batchSize");
+            if (s != null) consumer.setBatchSize(Integer.parseInt(s));
+
+            s = getParameter("interval");
+            if (s != null) consumer.setInterval(Integer.parseInt(s));
+
+            consumer.start(getName());
+        }
     }
 
     public void execute() throws Exception {
+        if (consumer != null) {
+            log.debug("Changes are applied by the change log consumer.");
+            return;
+        }
          synchronize();
     }
 
+    public void destroy() throws Exception {
+        if (consumer != null) consumer.stop();
+    }
+
     public void create() throws Exception {
 
         Session session = createAdminSession();
@@ -467,50 +503,62 @@ public class LDAPSyncJob extends Job {
                     attributes.print();
                 }
 
-                try {
-                    process(session, attributes);
+                process(session, result);
 
-                } catch (Throwable e) {
+                Long newChangeNumber = Long.parseLong(attributes.getValue("changeNumber").toString());
 
-                    if (errors != null) {
+                addTracker(newChangeNumber);
 
-                        Attributes attrs = new Attributes();
-                        attrs.setValue("time", new Timestamp(System.currentTimeMillis()));
-                        attrs.setValue("title", "Error processing "+dn);
+            } while (response.hasNext());
 
-                        StringBuilder sb = new StringBuilder();
-                        sb.append("The following change log cannot be processed:\n\n");
+            log.debug("LDAP synchronization completed.");
 
-                        sb.append(dn);
-                        sb.append("\n\n");
+        } finally {
+            session.close();
+        }
+    }
 
-                        StringWriter sw = new StringWriter();
-                        e.printStackTrace(new PrintWriter(sw, true));
+    public void process(Session session, SearchResult result) throws Exception {
 
-                        sb.append("Exception:\n");
-                        sb.append(sw);
+        DN dn = result.getDn();
+        Attributes attributes = result.getAttributes();
 
-                        attrs.setValue("description", sb.toString());
+        try {
+            process(session, attributes);
 
-                        errors.add(session, new DN(), attrs);
-                    }
+        } catch (Throwable e) {
 
-                    throw new Exception(e);
-                }
+            if (errors != null) {
 
-                Long newChangeNumber = Long.parseLong(attributes.getValue("changeNumber").toString());
+                Attributes attrs = new Attributes();
+                attrs.setValue("time", new Timestamp(System.currentTimeMillis()));
+                attrs.setValue("title", "Error processing "+dn);
 
-                addTracker(newChangeNumber);
+                StringBuilder sb = new StringBuilder();
+                sb.append("The following change log cannot be processed:\n\n");
 
-            } while (response.hasNext());
+                sb.append(dn);
+                sb.append("\n\n");
 
-            log.debug("LDAP synchronization completed.");
+                StringWriter sw = new StringWriter();
+                e.printStackTrace(new PrintWriter(sw, true));
 
-        } finally {
-            session.close();
+                sb.append("Exception:\n");
+                sb.append(sw);
+
+                attrs.setValue("description", sb.toString());
+
+                errors.add(session, new DN(), attrs);
+            }
+
+            throw new Exception(e);
         }
     }
 
+    public Long getLastTrackedNumber(Session session) throws Exception {
+        return getLastChangeNumber(session);
+    }
+
     public Long getLastChangeNumber(Session session) throws Exception {
 
         QueryResponse response = new QueryResponse() {
@@ -533,17 +581,22 @@ public class LDAPSyncJob extends Job {
         Session session = createAdminSession();
 
         try {
-            Attributes attributes = new Attributes();
-            attributes.setValue("changeNumber", changeNumber);
-            attributes.setValue("changeTimestamp", new Timestamp(System.currentTimeMillis()));
-
-            tracker.add(session, new DN(), attributes);
+            checkpoint(session, changeNumber);
 
         } finally {
             session.close();
         }
     }
 
+    public void checkpoint(Session session, Long changeNumber) throws Exception {
+
+        Attributes attributes = new Attributes();
+        attributes.setValue("changeNumber", changeNumber);
+        attributes.setValue("changeTimestamp", new Timestamp(System.currentTimeMillis()));
+
+        tracker.add(session, new DN(), attributes);
+    }
+
     public void removeTracker(Long changeNumber) throws Exception {
 
         Session session = createAdminSession();
@@ -0,0 +1,289 @@
+package org.safehaus.penrose.ldap.source;
+
+import org.safehaus.penrose.filter.Filter;
+import org.safehaus.penrose.filter.FilterTool;
+import org.safehaus.penrose.filter.SimpleFilter;
+import org.safehaus.penrose.ldap.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Resolves the users of an Active Directory group including the members of nested groups.
+ *
+ * If the server supports LDAP_MATCHING_RULE_IN_CHAIN the whole hierarchy is resolved by the
+ * server in a single search. Otherwise the hierarchy is walked breadth-first, one level at a
+ * time, and the groups of a level are looked up together with OR filters of up to batchSize
+ * groups. Groups already visited are skipped, so membership cycles terminate.
+ *
+ * Expanded groups are cached until they expire; the cache is shared by all operations of the
+ * source and a cached nested group is not walked again.
+ *
+ * @author Endi S. Dewata
+ */
+public class ADGroupExpander {
+
+    public Logger log = LoggerFactory.getLogger(getClass());
+
+    public final static String MATCHING_RULE_IN_CHAIN = "1.2.840.113556.1.4.1941";
+
+    public final static String CAPABILITY_ACTIVE_DIRECTORY = "1.2.840.113556.1.4.800";
+    public final static String CAPABILITY_ADAM             = "1.2.840.113556.1.4.1851";
+
+    private int size       = 1000;
+    private int expiration = 300; // seconds
+    private int batchSize  = 50;
+
+    private Boolean inChain; // null = detect from root DSE
+
+    private LinkedHashMap<String,Members> cache = new LinkedHashMap<String,Members>();
+
+    public static class Members {
+
+        private Collection<Object> users;
+        private long expirationTime;
+    }
+
+    public ADGroupExpander() {
+    }
+
+    /**
+     * Returns the sAMAccountName of every user that is a direct or nested member of the group.
+     */
+    public Collection<Object> expand(LDAPClient client, DN baseDn, DN groupDn) throws Exception {
+
+        boolean debug = log.isDebugEnabled();
+        String key = groupDn.getNormalizedDn();
+
+        Collection<Object> users = get(key);
+        if (users != null) {
+            if (debug) log.debug("Getting members of group "+groupDn+" from cache.");
+            return new LinkedHashSet<Object>(users);
+        }
+
+        if (isInChain(client)) {
+            try {
+                users = expandInChain(client, baseDn, groupDn);
+
+            } catch (Exception e) {
+                log.warn("Unable to search nested members of "+groupDn+": "+e.getMessage());
+                inChain = false;
+            }
+        }
+
+        if (users == null) {
+            users = expandLevels(client, baseDn, groupDn);
+        }
+
+        put(key, users);
+
+        return new LinkedHashSet<Object>(users);
+    }
+
+    /**
+     * Lets the server resolve the nested membership with LDAP_MATCHING_RULE_IN_CHAIN.
+     */
+    public Collection<Object> expandInChain(LDAPClient client, DN baseDn, DN groupDn) throws Exception {
+
+        boolean debug = log.isDebugEnabled();
+        if (debug) log.debug("Searching nested members of group "+groupDn+".");
+
+        Filter filter = new SimpleFilter(ADGroupSource.MEMBER_OF+":"+MATCHING_RULE_IN_CHAIN+":", "=", groupDn.toString());
+
+        Collection<Object> users = new LinkedHashSet<Object>();
+        search(client, baseDn, filter, users, null);
+
+        return users;
+    }
+
+    /**
+     * Walks the group hierarchy breadth-first. Each level costs one search per batchSize groups.
+     */
+    public Collection<Object> expandLevels(LDAPClient client, DN baseDn, DN groupDn) throws Exception {
+
+        boolean debug = log.isDebugEnabled();
+
+        Collection<Object> users = new LinkedHashSet<Object>();
+
+        Set<String> visited = new HashSet<String>();
+        visited.add(groupDn.getNormalizedDn());
+
+        List<String> level = new ArrayList<String>();
+        level.add(groupDn.toString());
+
+        while (!level.isEmpty()) {
+
+            List<String> nextLevel = new ArrayList<String>();
+
+            for (int i = 0; i < level.size(); i += batchSize) {
+                List<String> batch = level.subList(i, Math.min(i + batchSize, level.size()));
+                if (debug) log.debug("Searching members of "+batch.size()+" group(s).");
+
+                Filter filter = null;
+                for (String dn : batch) {
+                    filter = FilterTool.appendOrFilter(filter, new SimpleFilter(ADGroupSource.MEMBER_OF, "=", dn));
+                }
+
+                Collection<SearchResult> groups = new ArrayList<SearchResult>();
+                search(client, baseDn, filter, users, groups);
+
+                for (SearchResult group : groups) {
+                    DN dn = group.getDn();
+                    String key = dn.getNormalizedDn();
+
+                    if (!visited.add(key)) continue;
+
+                    Collection<Object> list = get(key);
+                    if (list == null) {
+                        if (debug) log.debug(" - Found group "+dn);
+                        nextLevel.add(dn.toString());
+
+                    } else {
+                        if (debug) log.debug(" - Found group "+dn+" in cache");
+                        users.addAll(list);
+                    }
+                }
+            }
+
+            level = nextLevel;
+        }
+
+        return users;
+    }
+
+    public void search(
+            LDAPClient client,
+            DN baseDn,
+            Filter filter,
+            final Collection<Object> users,
+            final Collection<SearchResult> groups
+    ) throws Exception {
+
+        final boolean debug = log.isDebugEnabled();
+
+        SearchRequest request = new SearchRequest();
+        request.setDn(baseDn);
+        request.setFilter(filter);
+        request.setAttributes(new String[] { "objectClass", ADGroupSource.SAM_ACCOUNT_NAME });
+
+        if (debug) log.debug("Filter: "+filter);
+
+        SearchResponse response = new SearchResponse() {
+            public void add(SearchResult result) throws Exception {
+                Attributes attributes = result.getAttributes();
+                Attribute objectClass = attributes.get("objectClass");
+                if (objectClass == null) return;
+
+                if (objectClass.containsValue("user")) {
+                    Attribute sAMAccountName = attributes.get(ADGroupSource.SAM_ACCOUNT_NAME);
+                    if (sAMAccountName == null) return;
+
+                    Object userUid = sAMAccountName.getValue();
+                    users.add(userUid);
+                    if (debug) log.debug(" - Found user "+userUid);
+
+                } else if (groups != null && objectClass.containsValue("group")) {
+                    groups.add(result);
+                }
+            }
+        };
+
+        client.search(request, response);
+    }
+
+    /**
+     * Returns true if nested groups should be resolved by the server. Unless configured, it's
+     * enabled if the root DSE advertises Active Directory or ADAM.
+     */
+    public boolean isInChain(LDAPClient client) throws Exception {
+
+        if (inChain != null) return inChain;
+
+        boolean ad = false;
+
+        try {
+            SearchResult rootDse = client.getRootDSE();
+            Attribute capabilities = rootDse == null ? null : rootDse.getAttributes().get("supportedCapabilities");
+
+            ad = capabilities != null && (capabilities.containsValue(CAPABILITY_ACTIVE_DIRECTORY)
+                    || capabilities.containsValue(CAPABILITY_ADAM));
+
+        } catch (Exception e) {
+            log.debug("Unable to read root DSE: "+e.getMessage());
+        }
+
+        log.debug("Matching rule in chain: "+ad);
+        inChain = ad;
+
+        return ad;
+    }
+
+    public synchronized Collection<Object> get(String key) {
+        Members members = cache.get(key);
+        if (members == null) return null;
+
+        if (members.expirationTime <= System.currentTimeMillis()) {
+            cache.remove(key);
+            return null;
+        }
+
+        return members.users;
+    }
+
+    public synchronized void put(String key, Collection<Object> users) {
+        if (size == 0 || expiration == 0) return;
+
+        Members members = new Members();
+        members.users = users;
+        members.expirationTime = System.currentTimeMillis() + expiration * 1000L;
+
+        cache.remove(key);
+        cache.put(key, members);
+        purge();
+    }
+
+    public synchronized void purge() {
+        int counter = cache.size() - size;
+        for (int i=0; i<counter; i++) {
+            String key = cache.keySet().iterator().next();
+            cache.remove(key);
+        }
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public int getExpiration() {
+        return expiration;
+    }
+
+    public void setExpiration(int expiration) {
+        this.expiration = expiration;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public Boolean getInChain() {
+        return inChain;
+    }
+
+    public void setInChain(Boolean inChain) {
+        this.inChain = inChain;
+    }
+}
@@ -20,14 +20,66 @@ public class ADGroupSource extends LDAPSource {
     public final static String MEMBER           = "member";
     public final static String MEMBER_OF        = "memberOf";
 
+    public final static String GROUP_CACHE_SIZE       = "groupCacheSize";
+    public final static String GROUP_CACHE_EXPIRATION = "groupCacheExpiration"; // seconds
+    public final static String GROUP_BATCH_SIZE       = "groupBatchSize";
+    public final static String MATCHING_RULE_IN_CHAIN = "matchingRuleInChain";
+
     public Field cnField;
     public Field memberField;
 
+    public ADGroupExpander expander;
+
     public void init() throws Exception {
         super.init();
         
         cnField = getFieldByOriginalName(CN);
         memberField = getFieldByOriginalName(MEMBER);
+
+        expander = new ADGroupExpander();
+
+        String s = getParameter(GROUP_CACHE_SIZE);
+        if (s != null) expander.setSize(Integer.parseInt(s));
+
+        s = getParameter(GROUP_CACHE_EXPIRATION);
+        if (s != null) expander.setExpiration(Integer.parseInt(s));
+
+        s = getParameter(GROUP_BATCH_SIZE);
+        if (s != null) expander.setBatchSize(Integer.parseInt(s));
+
+        s = getParameter(MATCHING_RULE_IN_CHAIN);
+        if (s != null) expander.setInChain(Boolean.valueOf(s));
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    // Delete, Modify, ModRDN
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    public void delete(
+            Session session,
+            DeleteRequest request,
+            DeleteResponse response
+    ) throws Exception {
+        super.delete(session, request, response);
+        expander.clear();
+    }
+
+    public void modify(
+            Session session,
+            ModifyRequest request,
+            ModifyResponse response
+    ) throws Exception {
+        super.modify(session, request, response);
+        expander.clear();
+    }
+
+    public void modrdn(
+            Session session,
+            ModRdnRequest request,
+            ModRdnResponse response
+    ) throws Exception {
+        super.modrdn(session, request, response);
+        expander.clear();
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -47,7 +99,7 @@ public class ADGroupSource extends LDAPSource {
             log.debug(TextUtil.displaySeparator(70));
         }
 
-        LDAPClient client = connection.getClient(session);
+        LDAPClient client = connection.getClient(session, this);
 
         try {
             response.setSizeLimit(request.getSizeLimit());
@@ -209,7 +261,7 @@ public class ADGroupSource extends LDAPSource {
                 DN dn = newSearchResult.getDn().append(sourceBaseDn);
                 String groupDn = dn.getNormalizedDn();
 
-                Collection<Object> users = searchMembers(sourceBaseDn, searchResult, map, client);
+                Collection<Object> users = searchMembers(sourceBaseDn, searchResult, client);
 
                 Attributes attributes = newSearchResult.getAttributes();
                 attributes.setValues(memberField.getName(), users);
@@ -235,77 +287,10 @@ public class ADGroupSource extends LDAPSource {
     public Collection<Object> searchMembers(
             DN baseDn,
             SearchResult searchResult,
-            Map<String,SearchResult> results,
             LDAPClient client
     ) throws Exception {
 
-        Collection<Object> users = new LinkedHashSet<Object>();
-
-        List<String> groups = new ArrayList<String>();
-        groups.add(searchResult.getDn().getNormalizedDn());
-
-        for (int i = 0; i < groups.size(); i++) {
-            String dn = groups.get(i);
-
-            SearchResult sr = results.get(dn);
-            if (sr == null) {
-                log.debug("Searching for members of group "+dn+".");
-
-                Collection<Object> list = expandMembers(dn, baseDn, client, groups);
-                users.addAll(list);
-
-            } else {
-                log.debug("Getting members of group "+dn+" from cache.");
-
-                Attributes attributes = sr.getAttributes();
-                users.addAll(attributes.getValues(memberField.getName()));
-            }
-        }
-
-        return users;
-    }
-
-    public Collection<Object> expandMembers(
-            String dn,
-            DN baseDn,
-            LDAPClient client,
-            List<String> groups
-    ) throws Exception {
-
-        Collection<Object> users = new LinkedHashSet<Object>();
-
-        SearchRequest req1 = new SearchRequest();
-        req1.setDn(baseDn);
-        req1.setFilter(new SimpleFilter(MEMBER_OF, "=", dn));
-        req1.setAttributes(new String[] { "objectClass", SAM_ACCOUNT_NAME, MEMBER });
-
-        SearchResponse res1 = new SearchResponse();
-
-        log.debug("Filter: "+req1.getFilter());
-
-        client.search(req1, res1);
-
-        while (res1.hasNext()) {
-            SearchResult result = res1.next();
-            Attributes attributes = result.getAttributes();
-            Attribute objectClass = attributes.get("objectClass");
-
-            if (objectClass.containsValue("user")) {
-                Attribute sAMAccountName = attributes.get(SAM_ACCOUNT_NAME);
-                String userUid = (String)sAMAccountName.getValue();
-                users.add(userUid);
-                log.debug(" - Found user "+userUid);
-
-            } else if (objectClass.containsValue("group")) {
-                String groupDn = result.getDn().getNormalizedDn();
-                if (!groups.contains(groupDn)) {
-                    groups.add(groupDn);
-                    log.debug(" - Found group "+groupDn);
-                }
-            }
-        }
-
-        return users;
+        return expander.expand(client, baseDn, searchResult.getDn());
     }
 
     public SearchResult createSearchResult(
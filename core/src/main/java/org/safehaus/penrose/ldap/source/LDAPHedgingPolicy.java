@@ -0,0 +1,373 @@
+package org.safehaus.penrose.ldap.source;
+
+import org.safehaus.penrose.control.Control;
+import org.safehaus.penrose.ldap.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.safehaus.penrose.thread.ThreadManager;
+
+import java.util.Arrays;
+
+/**
+ * Decides when a search is sent to a second server. The delay is the 95th percentile of
+ * the recent latencies of the source until the first result. Each search earns a fraction
+ * of a hedge given by the budget, so the extra load stays below budget percent of the searches.
+ *
+ * @author Endi S. Dewata
+ */
+public class LDAPHedgingPolicy {
+
+    public Logger log = LoggerFactory.getLogger(getClass());
+
+    public final static int WINDOW      = 1000;
+    public final static int MIN_SAMPLES = 20;
+    public final static int MAX_TOKENS  = 10;
+
+    public final static long WAIT_INTERVAL = 100; // millisecond
+
+    public final static double DEFAULT_BUDGET = 5; // percent
+
+    private ThreadManager threadManager;
+
+    private double budget = DEFAULT_BUDGET;
+
+    private long[] samples = new long[WINDOW];
+    private int count;
+    private int next;
+
+    private long delay = -1;
+    private int updates;
+
+    private double tokens;
+
+    private long searches;
+    private long hedges;
+
+    public LDAPHedgingPolicy(ThreadManager threadManager) {
+        this.threadManager = threadManager;
+    }
+
+    /**
+     * A search sent to one server. While the attempt is streaming its results go straight
+     * to the target response, otherwise they are kept until the attempt is chosen. The
+     * attempt stops when the target response is closed.
+     */
+    public class Attempt implements Runnable {
+
+        private LDAPClient client;
+        private SearchRequest request;
+        private SearchResponse target;
+        private SearchResponse response;
+        private final Object lock;
+
+        private long startTime;
+
+        private boolean streaming;
+        private boolean started;
+        private boolean answered;
+        private boolean done;
+        private boolean abandoned;
+        private Exception exception;
+
+        public Attempt(LDAPClient client, SearchRequest request, SearchResponse target, boolean streaming, Object lock) {
+            this.client = client;
+            this.request = request;
+            this.target = target;
+            this.streaming = streaming;
+            this.lock = lock;
+
+            response = new SearchResponse() {
+                public void add(SearchResult result) throws Exception {
+                    if (answer()) {
+                        Attempt.this.target.add(result);
+                    } else {
+                        super.add(result);
+                    }
+                }
+                public void add(SearchReference reference) throws Exception {
+                    if (answer()) {
+                        Attempt.this.target.add(reference);
+                    } else {
+                        super.add(reference);
+                    }
+                }
+                public boolean isClosed() {
+                    return super.isClosed() || Attempt.this.target.isClosed();
+                }
+            };
+
+            response.setSizeLimit(target.getSizeLimit());
+        }
+
+        /**
+         * Runs the search unless it has been started or abandoned already.
+         */
+        public void run() {
+
+            synchronized (lock) {
+                if (started || abandoned) return;
+                started = true;
+            }
+
+            startTime = System.currentTimeMillis();
+
+            try {
+                client.search(request, response);
+
+            } catch (Exception e) {
+                exception = e;
+
+            } finally {
+                synchronized (lock) {
+                    if (exception == null) answer();
+                    done = true;
+                    lock.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Marks the attempt answered when the first result arrives and returns true if the
+         * result goes to the target response.
+         */
+        public boolean answer() {
+            synchronized (lock) {
+                if (!answered) {
+                    answered = true;
+                    if (!abandoned) record(System.currentTimeMillis() - startTime);
+                    lock.notifyAll();
+                }
+                return streaming;
+            }
+        }
+
+        /**
+         * Keeps the results from now on, called with the lock held before the search is
+         * hedged, i.e. before the attempt has answered.
+         */
+        public void stopStreaming() {
+            streaming = false;
+        }
+
+        public boolean isStarted() {
+            return started;
+        }
+
+        public boolean isAnswered() {
+            return answered;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        public boolean isSucceeded() {
+            return done && exception == null;
+        }
+
+        public Exception getException() {
+            return exception;
+        }
+
+        /**
+         * Closes the response, the client abandons the search on the next result. An attempt
+         * that hasn't started will not run.
+         */
+        public void abandon() {
+            synchronized (lock) {
+                abandoned = true;
+            }
+            try {
+                response.close();
+            } catch (Exception e) {
+                log.debug(e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Copies the results kept by the attempt and the response controls to the target.
+         */
+        public void copy() throws Exception {
+            for (SearchResult result : response.getResults()) {
+                target.add(result);
+            }
+            for (SearchReference reference : response.getReferences()) {
+                target.add(reference);
+            }
+            for (Control control : response.getControls()) {
+                target.addControl(control);
+            }
+        }
+    }
+
+    /**
+     * Runs the search with the first client. If it hasn't returned a result within the delay
+     * and the budget allows, the search is also sent with the second client. The first
+     * attempt that completes wins and the other one is abandoned; the results of the first
+     * client are streamed unless the search has been hedged. Attempts that no thread has
+     * picked up are run by the caller.
+     */
+    public void search(
+            LDAPClient first,
+            LDAPClient second,
+            SearchRequest request,
+            SearchResponse response
+    ) throws Exception {
+
+        boolean debug = log.isDebugEnabled();
+
+        addSearch();
+        long delay = getDelay();
+
+        Object lock = new Object();
+
+        Attempt attempt1 = new Attempt(first, request, response, true, lock);
+        Attempt attempt2 = null;
+
+        if (delay < 0 || !execute(attempt1)) {
+            attempt1.run();
+            complete(attempt1);
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        long timeLimit = request.getTimeLimit() * 1000;
+
+        synchronized (lock) {
+            long endTime = startTime + delay;
+            long wait;
+            while (!attempt1.isAnswered() && (wait = endTime - System.currentTimeMillis()) > 0) {
+                lock.wait(wait);
+            }
+
+            if (!attempt1.isAnswered() && acquire()) {
+                if (debug) log.debug("Hedging search after "+delay+" ms.");
+                attempt1.stopStreaming();
+                attempt2 = new Attempt(second, request, response, false, lock);
+            }
+        }
+
+        if (attempt2 != null) execute(attempt2);
+
+        while (true) {
+            Attempt pending = null;
+
+            synchronized (lock) {
+                if (attempt1.isSucceeded() || attempt2 != null && attempt2.isSucceeded()) break;
+                if (attempt1.isDone() && (attempt2 == null || attempt2.isDone())) break;
+
+                if (response.isClosed()) {
+                    if (debug) log.debug("Search response has been closed.");
+                    attempt1.abandon();
+                    if (attempt2 != null) attempt2.abandon();
+                    return;
+                }
+
+                long elapsed = System.currentTimeMillis() - startTime;
+                if (timeLimit > 0 && elapsed >= timeLimit) {
+                    attempt1.abandon();
+                    if (attempt2 != null) attempt2.abandon();
+                    throw LDAP.createException(LDAP.TIME_LIMIT_EXCEEDED);
+                }
+
+                if (!attempt1.isStarted()) {
+                    pending = attempt1;
+
+                } else if (attempt2 != null && !attempt2.isStarted()) {
+                    pending = attempt2;
+
+                } else {
+                    lock.wait(timeLimit > 0 ? Math.min(WAIT_INTERVAL, timeLimit - elapsed) : WAIT_INTERVAL);
+                }
+            }
+
+            if (pending != null) pending.run();
+        }
+
+        Attempt winner;
+        if (attempt1.isSucceeded() || attempt2 == null || !attempt2.isSucceeded()) {
+            winner = attempt1;
+            if (attempt2 != null) attempt2.abandon();
+        } else {
+            if (debug) log.debug("Hedged search completed first.");
+            winner = attempt2;
+            attempt1.abandon();
+        }
+
+        complete(winner);
+    }
+
+    public void complete(Attempt attempt) throws Exception {
+        if (!attempt.isSucceeded()) throw attempt.getException();
+        attempt.copy();
+    }
+
+    /**
+     * Runs the attempt on the thread manager, returns false if there is none running.
+     */
+    public boolean execute(Attempt attempt) throws Exception {
+        if (threadManager == null || !threadManager.isRunning()) return false;
+        threadManager.execute(attempt);
+        return true;
+    }
+
+    public synchronized void record(long elapsed) {
+        samples[next] = elapsed;
+        next = (next + 1) % WINDOW;
+        if (count < WINDOW) count++;
+        updates++;
+    }
+
+    /**
+     * Returns how long to wait for the first server before hedging, or -1 if there
+     * are not enough samples yet. The percentile is recomputed after a tenth of the
+     * samples have been replaced.
+     */
+    public synchronized long getDelay() {
+        if (count < MIN_SAMPLES) return -1;
+
+        if (delay < 0 || updates >= count / 10) {
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            delay = sorted[(int)Math.ceil(count * 0.95) - 1];
+            updates = 0;
+        }
+
+        return delay;
+    }
+
+    /**
+     * Called once for each search, adds its share to the hedging budget.
+     */
+    public synchronized void addSearch() {
+        searches++;
+        tokens = Math.min(tokens + budget / 100, MAX_TOKENS);
+    }
+
+    /**
+     * Returns true and takes a hedge out of the budget if there is one left.
+     */
+    public synchronized boolean acquire() {
+        if (tokens < 1) return false;
+        tokens -= 1;
+        hedges++;
+        return true;
+    }
+
+    public double getBudget() {
+        return budget;
+    }
+
+    public void setBudget(double budget) {
+        this.budget = budget;
+    }
+
+    public synchronized long getSearches() {
+        return searches;
+    }
+
+    public synchronized long getHedges() {
+        return hedges;
+    }
+}
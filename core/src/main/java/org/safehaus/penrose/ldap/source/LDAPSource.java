@@ -6,6 +6,7 @@ import org.safehaus.penrose.filter.FilterProcessor;
 import org.safehaus.penrose.filter.SimpleFilter;
 import org.safehaus.penrose.ldap.*;
 import org.safehaus.penrose.ldap.connection.LDAPConnection;
+import org.safehaus.penrose.ldap.connection.LDAPReplica;
 import org.safehaus.penrose.session.Session;
 import org.safehaus.penrose.session.SessionManager;
 import org.safehaus.penrose.source.Field;
@@ -36,6 +37,8 @@ public class LDAPSource extends Source {
 
     Collection<String> attributeNames = new HashSet<String>();
 
+    LDAPHedgingPolicy hedgingPolicy;
+
     public LDAPSource() {
     }
 
@@ -84,6 +87,15 @@ public class LDAPSource extends Source {
             if (debug) log.debug("Attributes: "+attributeNames);
         }
 
+        boolean hedging = Boolean.valueOf(getParameter(LDAP.HEDGING));
+        if (hedging && !LDAP.AUTHENTICATION_FULL.equals(getParameter(LDAP.AUTHENTICATION))) {
+            hedgingPolicy = new LDAPHedgingPolicy(partition.getThreadManager());
+
+            s = getParameter(LDAP.HEDGING_BUDGET);
+            if (s != null) hedgingPolicy.setBudget(Double.parseDouble(s));
+
+            if (debug) log.debug("Hedging budget: "+hedgingPolicy.getBudget()+"%");
+        }
     }
 
     public int getScope(String scope) {
@@ -160,7 +172,7 @@ public class LDAPSource extends Source {
 
         if (debug) log.debug("Adding entry "+dn+".");
 
-        LDAPClient client = connection.getClient(session);
+        LDAPClient client = connection.getClient(session, this);
 
         try {
             client.add(newRequest, response);
@@ -231,7 +243,13 @@ public class LDAPSource extends Source {
             throw LDAP.createException(LDAP.INVALID_CREDENTIALS);
         }
 
-        LDAPClient client = connection.getClient(session);
+        if (!LDAP.AUTHENTICATION_FULL.equals(authentication)) {
+            connection.bind(newRequest, response);
+            log.debug("Bind operation completed.");
+            return;
+        }
+
+        LDAPClient client = connection.getClient(session, this);
 
         try {
             client.bind(newRequest, response);
@@ -293,7 +311,7 @@ public class LDAPSource extends Source {
 
         if (debug) log.debug("Comparing entry "+dn);
 
-        LDAPClient client = connection.getClient(session);
+        LDAPClient client = connection.getClient(session, this);
 
         try {
             client.compare(newRequest, response);
@@ -341,7 +359,7 @@ public class LDAPSource extends Source {
 
         if (debug) log.debug("Deleting entry "+dn);
 
-        LDAPClient client = connection.getClient(session);
+        LDAPClient client = connection.getClient(session, this);
 
         try {
             client.delete(newRequest, response);
@@ -405,7 +423,7 @@ public class LDAPSource extends Source {
 
         if (debug) log.debug("Modifying entry "+dn);
 
-        LDAPClient client = connection.getClient(session);
+        LDAPClient client = connection.getClient(session, this);
 
         try {
             client.modify(newRequest, response);
@@ -453,7 +471,7 @@ public class LDAPSource extends Source {
 
         if (debug) log.debug("Renaming entry "+dn);
 
-        LDAPClient client = connection.getClient(session);
+        LDAPClient client = connection.getClient(session, this);
 
         try {
             client.modrdn(newRequest, response);
@@ -498,6 +516,36 @@ public class LDAPSource extends Source {
         log.debug("Search operation completed.");
     }
 
+    /**
+     * Sends the search to the upstream server. With hedging enabled the search goes to the
+     * best server, and if it hasn't returned a result within the delay of the hedging policy,
+     * to the next best server as well.
+     */
+    public void search(
+            LDAPClient client,
+            SearchRequest request,
+            SearchResponse response
+    ) throws Exception {
+
+        if (hedgingPolicy == null) {
+            client.search(request, response);
+            return;
+        }
+
+        List<LDAPReplica> replicas = connection.connectionFactory.getOrderedReplicas();
+        if (replicas.size() < 2) {
+            client.search(request, response);
+            return;
+        }
+
+        hedgingPolicy.search(
+                connection.getReplicaClient(replicas.get(0)),
+                connection.getReplicaClient(replicas.get(1)),
+                request,
+                response
+        );
+    }
+
     public void searchFullTree(
             final Session session,
             final SearchRequest request,
@@ -517,7 +565,7 @@ public class LDAPSource extends Source {
             Collection<String> attributes = createAttributes(request);
             Collection<Control> controls = createControls(request);
 
-            LDAPClient client = connection.getClient(session);
+            LDAPClient client = connection.getClient(session, this);
 
             if (baseDn != null && baseDn.isEmpty()) {
 
@@ -575,7 +623,7 @@ public class LDAPSource extends Source {
                             }
                         };
 
-                        client.search(newRequest, newResponse);
+                        search(client, newRequest, newResponse);
                     }
                 }
 
@@ -620,13 +668,72 @@ public class LDAPSource extends Source {
                     }
                 };
 
-                client.search(newRequest, newResponse);
+                search(client, newRequest, newResponse);
+            }
+
+        } finally {
+            connection.closeClient(session);
+            response.close();
+        }
+    }
+
+    /**
+     * Returns true if the upstream entries can be returned without any conversion, i.e. the
+     * source has no field mapping and doesn't rewrite the base DN.
+     */
+    public boolean isPassthroughSupported() {
+        if (!getFields().isEmpty() || newSourceBaseDn != null || !attributeNames.isEmpty()) return false;
+        return sourceBaseDn == null || sourceBaseDn.isEmpty() || sourceScope != SearchRequest.SCOPE_ONE;
+    }
+
+    /**
+     * Streams the upstream entries straight into the response. The values are kept as byte
+     * arrays and the response is responsible for rewriting the DNs.
+     */
+    public void searchPassthrough(
+            final Session session,
+            final SearchRequest request,
+            final LDAPPassthroughResponse response
+    ) throws Exception {
+
+        boolean debug = log.isDebugEnabled();
+        if (debug) {
+            log.debug(TextUtil.displaySeparator(70));
+            log.debug(TextUtil.displayLine("PASSTHROUGH SEARCH "+partition.getName()+"."+getName(), 70));
+            log.debug(TextUtil.displayLine(" - Base DN : "+request.getDn(), 70));
+            log.debug(TextUtil.displayLine(" - Scope   : "+LDAP.getScope(request.getScope()), 70));
+            log.debug(TextUtil.displayLine(" - Filter  : "+request.getFilter(), 70));
+            log.debug(TextUtil.displaySeparator(70));
+        }
+
+        try {
+            int scope = request.getScope();
+
+            if (sourceScope == SearchRequest.SCOPE_BASE) {
+                if (scope == SearchRequest.SCOPE_ONE) return;
+                scope = SearchRequest.SCOPE_BASE;
             }
 
+            SearchRequest newRequest = new SearchRequest();
+            newRequest.setDn(request.getDn());
+            newRequest.setScope(scope);
+
+            newRequest.setFilter(createFilter(request));
+            newRequest.setSizeLimit(createSizeLimit(request));
+            newRequest.setTimeLimit(createTimeLimit(request));
+            newRequest.setAttributes(request.getAttributes());
+            newRequest.setTypesOnly(request.isTypesOnly());
+            newRequest.setControls(createControls(request));
+
+            LDAPClient client = connection.getClient(session, this);
+            client.search(newRequest, response);
+
         } finally {
             connection.closeClient(session);
             response.close();
         }
+
+        log.debug("Search operation completed.");
     }
 
     public void searchSubTree(
@@ -679,7 +786,7 @@ public class LDAPSource extends Source {
             Collection<String> attributes = createAttributes(request);
             Collection<Control> controls = createControls(request);
 
-            LDAPClient client = connection.getClient(session);
+            LDAPClient client = connection.getClient(session, this);
 
             if (baseDn != null && baseDn.isEmpty()) {
 
@@ -742,7 +849,7 @@ public class LDAPSource extends Source {
                         }
                     };
 
-                    client.search(newRequest, newResponse);
+                    search(client, newRequest, newResponse);
                 }
 
             } else {
@@ -788,7 +895,7 @@ public class LDAPSource extends Source {
                     }
                 };
 
-                client.search(newRequest, newResponse);
+                search(client, newRequest, newResponse);
             }
 
         } finally {
@@ -818,7 +925,7 @@ public class LDAPSource extends Source {
             Collection<String> attributes = createAttributes(request);
             Collection<Control> controls = createControls(request);
 
-            LDAPClient client = connection.getClient(session);
+            LDAPClient client = connection.getClient(session, this);
 
             if (baseDn != null && baseDn.isEmpty()) {
 
@@ -867,7 +974,7 @@ public class LDAPSource extends Source {
                         }
                     };
 
-                    client.search(newRequest, newResponse);
+                    search(client, newRequest, newResponse);
                 }
 
             } else if (baseDn != null && (scope == SearchRequest.SCOPE_BASE || scope == SearchRequest.SCOPE_SUB)) {
@@ -916,7 +1023,7 @@ public class LDAPSource extends Source {
                     }
                 };
 
-                client.search(newRequest, newResponse);
+                search(client, newRequest, newResponse);
 
             } else if (baseDn == null) {
 
@@ -955,7 +1062,7 @@ public class LDAPSource extends Source {
                     }
                 };
 
-                client.search(newRequest, newResponse);
+                search(client, newRequest, newResponse);
             }
 
         } finally {
@@ -996,7 +1103,7 @@ public class LDAPSource extends Source {
 
         if (debug) log.debug("Unbinding as "+dn);
 
-        LDAPClient client = connection.getClient(session);
+        LDAPClient client = connection.getClient(session, this);
 
         try {
             client.unbind(request, response);
@@ -1205,7 +1312,7 @@ public class LDAPSource extends Source {
             }
         };
 
-        LDAPClient client = connection.getClient(session);
+        LDAPClient client = connection.getClient(session, this);
 
         try {
             client.search(request, response);
@@ -94,6 +94,23 @@ public class MonitorEntry extends Entry {
 
         addChild(sessionsEntry);
 
+        DN connectionsDn = new RDN("cn=Connections").append(entryDn);
+
+        EntryConfig connectionsEntryConfig = new EntryConfig();
+        connectionsEntryConfig.setName(getName()+"_connections");
+        connectionsEntryConfig.setDn(connectionsDn);
+        connectionsEntryConfig.addObjectClass("monitoredObject");
+        connectionsEntryConfig.addAttributesFromRdn();
+
+        EntryContext connectionsEntryContext = new EntryContext();
+        connectionsEntryContext.setDirectory(directory);
+        connectionsEntryContext.setParent(this);
+
+        ConnectionsEntry connectionsEntry = new ConnectionsEntry();
+        connectionsEntry.init(connectionsEntryConfig, connectionsEntryContext);
+
+        addChild(connectionsEntry);
+
         super.init();
     }
 
@@ -1,5 +1,6 @@
 package org.safehaus.penrose.scheduler;
 
+import org.safehaus.penrose.Penrose;
 import org.safehaus.penrose.partition.Partition;
 import org.safehaus.penrose.partition.PartitionContext;
 import org.slf4j.Logger;
@@ -54,6 +55,14 @@ public class Scheduler {
     }
     
     public void destroy() throws Exception {
+
+        for (Job job : jobs.values()) {
+            try {
+                job.destroy();
+            } catch (Exception e) {
+                Penrose.errorLog.error("Failed destroying job "+job.getName()+" in partition "+partition.getName()+".", e);
+            }
+        }
     }
 
     public Job createJob(JobConfig jobConfig) throws Exception {
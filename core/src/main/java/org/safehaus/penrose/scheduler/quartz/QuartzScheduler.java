@@ -25,6 +25,7 @@ public class QuartzScheduler extends Scheduler implements org.quartz.spi.JobFact
 
     public void destroy() throws Exception {
         scheduler.shutdown();
+        super.destroy();
     }
 
     public void schedule(Trigger trigger) throws Exception {
@@ -563,6 +563,33 @@ public class Source implements Cloneable {
         throw LDAP.createException(LDAP.OPERATIONS_ERROR);
     }
 
+    /**
+     * Returns the number of entries matching the filter. This implementation counts the search
+     * results, sources that can count on the server should override it.
+     */
+    public long getCount(Session session, Filter filter) throws Exception {
+
+        if (filter == null) return getCount(session);
+
+        SearchRequest request = new SearchRequest();
+        request.setFilter(filter);
+        request.setAttributes(new String[] { "dn" });
+        request.setTypesOnly(true);
+
+        SearchResponse response = new SearchResponse() {
+            public void add(SearchResult result) throws Exception {
+                totalCount++;
+            }
+        };
+
+        search(session, request, response);
+
+        int rc = response.waitFor();
+        if (rc != LDAP.SUCCESS) throw response.getException();
+
+        return response.getTotalCount();
+    }
+
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     // Clone
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
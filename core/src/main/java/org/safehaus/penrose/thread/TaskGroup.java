@@ -0,0 +1,176 @@
+package org.safehaus.penrose.thread;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs a group of tasks on a thread manager with at most parallelism tasks at a time. The
+ * calling thread takes part in running the tasks and only waits for tasks that other threads
+ * have already started, so the group completes even if the thread manager has no free thread,
+ * e.g. when it's called from one of its own threads. Without a thread manager the tasks are run
+ * one after another by the calling thread.
+ *
+ * With failFast the first failure stops the group: tasks that haven't started are skipped,
+ * running tasks are interrupted, and the failure is thrown by run(). Otherwise all tasks are
+ * run and the failures are returned by getFailures().
+ *
+ * @author Endi S. Dewata
+ */
+public class TaskGroup<T> {
+
+    public Logger log = LoggerFactory.getLogger(getClass());
+
+    private ThreadManager threadManager;
+    private int parallelism = Integer.MAX_VALUE;
+    private boolean failFast = true;
+
+    private List<Callable<T>> tasks = new ArrayList<Callable<T>>();
+
+    private Queue<Integer> queue = new LinkedList<Integer>();
+    private List<T> results = new ArrayList<T>();
+
+    private Exception failure;
+    private Collection<Exception> failures = new ArrayList<Exception>();
+
+    private Set<Thread> running = new HashSet<Thread>();
+    private Set<Thread> interrupted = new HashSet<Thread>();
+    private int active;
+
+    public TaskGroup(ThreadManager threadManager) {
+        this.threadManager = threadManager;
+    }
+
+    public void add(Callable<T> task) {
+        tasks.add(task);
+    }
+
+    /**
+     * Runs the tasks and returns their results in the order they were added.
+     */
+    public List<T> run() throws Exception {
+
+        synchronized (this) {
+            for (int i = 0; i < tasks.size(); i++) {
+                queue.add(i);
+                results.add(null);
+            }
+        }
+
+        int workers = Math.min(parallelism, tasks.size());
+
+        if (threadManager != null && threadManager.isRunning()) {
+            for (int i = 1; i < workers; i++) {
+                try {
+                    threadManager.execute(new Runnable() {
+                        public void run() {
+                            work();
+                        }
+                    });
+
+                } catch (RejectedExecutionException e) {
+                    break;
+                }
+            }
+        }
+
+        work();
+
+        synchronized (this) {
+            while (active > 0) wait();
+            if (failure != null) throw failure;
+            return results;
+        }
+    }
+
+    public void work() {
+
+        Thread thread = Thread.currentThread();
+
+        synchronized (this) {
+            active++;
+        }
+
+        try {
+            while (true) {
+                int index;
+
+                synchronized (this) {
+                    if (failFast && failure != null) break;
+
+                    Integer next = queue.poll();
+                    if (next == null) break;
+
+                    index = next;
+                    running.add(thread);
+                }
+
+                try {
+                    T result = tasks.get(index).call();
+
+                    synchronized (this) {
+                        results.set(index, result);
+                    }
+
+                } catch (Throwable e) {
+                    failed(e instanceof Exception ? (Exception)e : new Exception(e));
+
+                } finally {
+                    synchronized (this) {
+                        running.remove(thread);
+                        if (interrupted.remove(thread)) Thread.interrupted();
+                    }
+                }
+            }
+
+        } finally {
+            synchronized (this) {
+                active--;
+                notifyAll();
+            }
+        }
+    }
+
+    public synchronized void failed(Exception e) {
+
+        if (!failFast) {
+            log.debug("Task failed: "+e.getMessage());
+            failures.add(e);
+            return;
+        }
+
+        if (failure != null) return;
+
+        failure = e;
+
+        Thread current = Thread.currentThread();
+        for (Thread thread : running) {
+            if (thread == current) continue;
+            thread.interrupt();
+            interrupted.add(thread);
+        }
+    }
+
+    public synchronized Collection<Exception> getFailures() {
+        return new ArrayList<Exception>(failures);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    public void setFailFast(boolean failFast) {
+        this.failFast = failFast;
+    }
+}
@@ -0,0 +1,70 @@
+package org.safehaus.penrose.test.cache;
+
+import junit.framework.TestCase;
+import org.safehaus.penrose.cache.BindCache;
+import org.safehaus.penrose.ldap.DN;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class BindCacheTest extends TestCase {
+
+    DN dn = new DN("uid=jbond,ou=Users,dc=Example,dc=com");
+
+    public void testValidate() throws Exception {
+        BindCache bindCache = new BindCache();
+
+        assertFalse(bindCache.validate(dn, "secret".getBytes()));
+
+        bindCache.add(dn, "secret".getBytes());
+
+        assertTrue(bindCache.validate(dn, "secret".getBytes()));
+        assertTrue(bindCache.validate(new DN("UID=jbond, OU=Users, DC=example, DC=com"), "secret".getBytes()));
+        assertFalse(bindCache.validate(dn, "wrong".getBytes()));
+        assertFalse(bindCache.validate(dn, new byte[0]));
+    }
+
+    public void testRemove() throws Exception {
+        BindCache bindCache = new BindCache();
+
+        bindCache.add(dn, "secret".getBytes());
+        bindCache.remove(dn);
+
+        assertFalse(bindCache.validate(dn, "secret".getBytes()));
+    }
+
+    public void testRemovedDuringBind() throws Exception {
+        BindCache bindCache = new BindCache();
+
+        // the bind verifies the old password while the password is being changed
+        long generation = bindCache.getGeneration();
+        bindCache.remove(dn);
+        bindCache.add(dn, "old".getBytes(), generation);
+
+        assertFalse(bindCache.validate(dn, "old".getBytes()));
+
+        bindCache.add(dn, "new".getBytes(), bindCache.getGeneration());
+
+        assertTrue(bindCache.validate(dn, "new".getBytes()));
+    }
+
+    public void testMaxUses() throws Exception {
+        BindCache bindCache = new BindCache();
+        bindCache.setMaxUses(2);
+
+        bindCache.add(dn, "secret".getBytes());
+
+        assertTrue(bindCache.validate(dn, "secret".getBytes()));
+        assertTrue(bindCache.validate(dn, "secret".getBytes()));
+        assertFalse(bindCache.validate(dn, "secret".getBytes()));
+    }
+
+    public void testExpiration() throws Exception {
+        BindCache bindCache = new BindCache();
+        bindCache.setExpiration(0);
+
+        bindCache.add(dn, "secret".getBytes());
+
+        assertFalse(bindCache.validate(dn, "secret".getBytes()));
+    }
+}
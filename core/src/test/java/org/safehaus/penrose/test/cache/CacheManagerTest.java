@@ -0,0 +1,116 @@
+package org.safehaus.penrose.test.cache;
+
+import junit.framework.TestCase;
+import org.safehaus.penrose.cache.Cache;
+import org.safehaus.penrose.cache.CacheKey;
+import org.safehaus.penrose.cache.CacheManager;
+import org.safehaus.penrose.filter.FilterTool;
+import org.safehaus.penrose.ldap.SearchRequest;
+import org.safehaus.penrose.ldap.SearchResponse;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class CacheManagerTest extends TestCase {
+
+    public CacheKey createKey() throws Exception {
+        return createKey("(objectClass=*)");
+    }
+
+    public CacheKey createKey(String filter) throws Exception {
+        SearchRequest request = new SearchRequest();
+        request.setDn("cn=Administrators,ou=Groups,dc=Example,dc=com");
+        request.setFilter(FilterTool.parseFilter(filter));
+        request.setScope(SearchRequest.SCOPE_BASE);
+
+        CacheKey key = new CacheKey();
+        key.setRequest(request);
+        key.setEntryId("groups");
+        return key;
+    }
+
+    public void testSingleFlight() throws Exception {
+        CacheManager cacheManager = new CacheManager();
+
+        Cache cache1 = cacheManager.create(createKey());
+        Cache cache2 = cacheManager.create(createKey());
+
+        assertNull(cacheManager.startLoading(cache1));
+        assertSame(cache1, cacheManager.startLoading(cache2));
+
+        cacheManager.finishLoading(cache1);
+
+        assertNull(cacheManager.startLoading(cache2));
+    }
+
+    public void testStale() throws Exception {
+        CacheManager cacheManager = new CacheManager();
+        cacheManager.setStalePeriod(1);
+
+        CacheKey key = createKey();
+        Cache cache = cacheManager.create(key);
+        cache.setExpirationDate(new Date(System.currentTimeMillis() - 1000));
+
+        SearchResponse response = new SearchResponse();
+        response.close();
+        cache.setResponse(response);
+
+        cacheManager.add(cache);
+
+        assertNull(cacheManager.get(key));
+        assertSame(cache, cacheManager.getStale(key));
+
+        cacheManager.setStalePeriod(0);
+        assertNull(cacheManager.getStale(key));
+    }
+
+    public void testTopKeys() throws Exception {
+        CacheManager cacheManager = new CacheManager();
+
+        for (int i = 0; i < 3; i++) cacheManager.incrementCounter(createKey("(cn=a)"));
+        for (int i = 0; i < 5; i++) cacheManager.incrementCounter(createKey("(cn=b)"));
+        cacheManager.incrementCounter(createKey("(cn=c)"));
+
+        List<CacheKey> keys = cacheManager.getTopKeys(2);
+        assertEquals(2, keys.size());
+        assertEquals(createKey("(cn=b)"), keys.get(0));
+        assertEquals(createKey("(cn=a)"), keys.get(1));
+
+        assertEquals(3, cacheManager.getTopKeys(10).size());
+    }
+
+    public void testCounterCopiesKey() throws Exception {
+        CacheManager cacheManager = new CacheManager();
+
+        CacheKey key = createKey("(cn=a)");
+        cacheManager.incrementCounter(key);
+
+        // the request of the operation may be changed after it has been counted
+        key.getRequest().setFilter(FilterTool.parseFilter("(cn=changed)"));
+
+        assertEquals(createKey("(cn=a)"), cacheManager.getTopKeys(1).get(0));
+    }
+
+    public void testStatisticsSize() throws Exception {
+        CacheManager cacheManager = new CacheManager();
+        cacheManager.setStatisticsSize(2);
+
+        cacheManager.incrementCounter(createKey("(cn=a)"));
+        cacheManager.incrementCounter(createKey("(cn=b)"));
+        cacheManager.incrementCounter(createKey("(cn=a)"));
+        cacheManager.incrementCounter(createKey("(cn=c)"));
+
+        // the least recently counted key is dropped
+        List<CacheKey> keys = cacheManager.getTopKeys(10);
+        assertEquals(2, keys.size());
+        assertEquals(createKey("(cn=a)"), keys.get(0));
+        assertFalse(keys.contains(createKey("(cn=b)")));
+
+        cacheManager.setStatisticsSize(0);
+        cacheManager.incrementCounter(createKey("(cn=d)"));
+        assertFalse(cacheManager.getTopKeys(10).contains(createKey("(cn=d)")));
+    }
+}
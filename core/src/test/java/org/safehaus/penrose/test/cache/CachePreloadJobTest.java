@@ -0,0 +1,94 @@
+package org.safehaus.penrose.test.cache;
+
+import junit.framework.TestCase;
+import org.safehaus.penrose.cache.scheduler.CachePreloadJob;
+import org.safehaus.penrose.ldap.SearchRequest;
+import org.safehaus.penrose.scheduler.JobConfig;
+import org.safehaus.penrose.scheduler.JobContext;
+import org.safehaus.penrose.thread.ThreadManager;
+import org.safehaus.penrose.thread.ThreadManagerConfig;
+
+import java.util.*;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class CachePreloadJobTest extends TestCase {
+
+    ThreadManager threadManager;
+
+    List<String> preloaded = Collections.synchronizedList(new ArrayList<String>());
+    int running;
+    int maxRunning;
+
+    public void setUp() throws Exception {
+        ThreadManagerConfig threadManagerConfig = new ThreadManagerConfig();
+        threadManager = new ThreadManager("test");
+        threadManager.init(threadManagerConfig);
+    }
+
+    public void tearDown() throws Exception {
+        threadManager.destroy();
+    }
+
+    public CachePreloadJob createJob(Map<String,String> parameters) throws Exception {
+
+        JobConfig jobConfig = new JobConfig();
+        jobConfig.setName("preload");
+        for (Map.Entry<String,String> entry : parameters.entrySet()) {
+            jobConfig.setParameter(entry.getKey(), entry.getValue());
+        }
+
+        CachePreloadJob job = new CachePreloadJob() {
+            public ThreadManager getThreadManager() {
+                return threadManager;
+            }
+
+            public long preload(SearchRequest request) throws Exception {
+                synchronized (CachePreloadJobTest.this) {
+                    running++;
+                    if (running > maxRunning) maxRunning = running;
+                }
+
+                try {
+                    Thread.sleep(20);
+
+                    String filter = request.getFilter().toString();
+                    if (filter.contains("fail")) throw new Exception("Failed.");
+
+                    preloaded.add(filter);
+                    return 1;
+
+                } finally {
+                    synchronized (CachePreloadJobTest.this) {
+                        running--;
+                    }
+                }
+            }
+        };
+
+        job.init(jobConfig, new JobContext());
+
+        return job;
+    }
+
+    public void testPreload() throws Exception {
+
+        Map<String,String> parameters = new HashMap<String,String>();
+        parameters.put(CachePreloadJob.CONCURRENCY, "2");
+
+        for (int i = 0; i < 5; i++) {
+            parameters.put(CachePreloadJob.SEARCH+"."+i, "ldap:///ou=Users,dc=Example,dc=com??sub?(uid=user"+i+")");
+        }
+
+        parameters.put(CachePreloadJob.SEARCH+".bad", "ldap:///ou=Users,dc=Example,dc=com??sub?(uid=fail)");
+
+        CachePreloadJob job = createJob(parameters);
+        job.execute();
+
+        // a failed search doesn't stop the others
+        assertEquals(5, preloaded.size());
+        assertTrue(preloaded.contains("(uid=user0)"));
+        assertTrue(maxRunning <= 2);
+    }
+}
@@ -0,0 +1,201 @@
+package org.safehaus.penrose.test.cache;
+
+import junit.framework.TestCase;
+import org.safehaus.penrose.cache.Cache;
+import org.safehaus.penrose.cache.CacheKey;
+import org.safehaus.penrose.cache.CacheManager;
+import org.safehaus.penrose.cache.DiskCache;
+import org.safehaus.penrose.filter.FilterTool;
+import org.safehaus.penrose.ldap.Attributes;
+import org.safehaus.penrose.ldap.SearchRequest;
+import org.safehaus.penrose.ldap.SearchResponse;
+import org.safehaus.penrose.ldap.SearchResult;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Date;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class DiskCacheTest extends TestCase {
+
+    File file;
+
+    public void setUp() throws Exception {
+        file = File.createTempFile("penrose", ".cache");
+    }
+
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public CacheKey createKey(String filter) throws Exception {
+        SearchRequest request = new SearchRequest();
+        request.setDn("ou=Users,dc=Example,dc=com");
+        request.setFilter(FilterTool.parseFilter(filter));
+        request.setScope(SearchRequest.SCOPE_SUB);
+
+        CacheKey key = new CacheKey();
+        key.setRequest(request);
+        key.setEntryId("users");
+        return key;
+    }
+
+    public Cache createCache(CacheKey key, long expiration) throws Exception {
+        Attributes attributes = new Attributes();
+        attributes.setValue("uid", "jbond");
+
+        SearchResponse response = new SearchResponse();
+        response.add(new SearchResult("uid=jbond,ou=Users,dc=Example,dc=com", attributes));
+        response.close();
+
+        Cache cache = new Cache();
+        cache.setKey(key);
+        cache.setCreationDate(new Date());
+        cache.setExpirationDate(new Date(System.currentTimeMillis() + expiration));
+        cache.setResponse(response);
+        return cache;
+    }
+
+    public void testReload() throws Exception {
+        CacheKey key = createKey("(uid=jbond)");
+
+        DiskCache diskCache = new DiskCache(file, "1");
+        diskCache.open();
+        diskCache.put(key, createCache(key, 60000));
+        diskCache.close();
+
+        diskCache = new DiskCache(file, "1");
+        diskCache.open();
+
+        Cache cache = diskCache.get(createKey("(uid=jbond)"));
+        assertNotNull(cache);
+
+        SearchResponse response = cache.getResponse();
+        assertEquals(1, response.getTotalCount());
+        assertEquals("jbond", response.next().getAttributes().getValue("uid"));
+
+        assertNull(diskCache.get(createKey("(uid=nobody)")));
+        diskCache.close();
+    }
+
+    public void testStamp() throws Exception {
+        CacheKey key = createKey("(uid=jbond)");
+
+        DiskCache diskCache = new DiskCache(file, "1");
+        diskCache.open();
+        diskCache.put(key, createCache(key, 60000));
+        diskCache.close();
+
+        diskCache = new DiskCache(file, "2");
+        diskCache.open();
+        assertNull(diskCache.get(key));
+        diskCache.close();
+    }
+
+    public void testExpiration() throws Exception {
+        CacheKey key = createKey("(uid=jbond)");
+
+        DiskCache diskCache = new DiskCache(file, "1");
+        diskCache.open();
+        diskCache.put(key, createCache(key, -1000));
+        assertNull(diskCache.get(key));
+        diskCache.close();
+    }
+
+    public void testWrite() throws Exception {
+        CacheKey key = createKey("(uid=jbond)");
+
+        DiskCache diskCache = new DiskCache(file, "1");
+        diskCache.open();
+
+        CacheManager cacheManager = new CacheManager();
+        cacheManager.setDiskCache(diskCache);
+        cacheManager.add(createCache(key, 60000));
+
+        diskCache.flush();
+
+        assertNotNull(diskCache.get(createKey("(uid=jbond)")));
+        diskCache.close();
+    }
+
+    public void testClear() throws Exception {
+        CacheKey key = createKey("(uid=jbond)");
+
+        DiskCache diskCache = new DiskCache(file, "1");
+        diskCache.open();
+
+        // the writer can't store the response until the cache has been cleared
+        synchronized (diskCache) {
+            diskCache.write(createCache(key, 60000));
+            diskCache.clear();
+        }
+
+        diskCache.flush();
+        assertNull(diskCache.get(key));
+
+        diskCache.write(createCache(key, 60000));
+        diskCache.flush();
+        assertNotNull(diskCache.get(key));
+
+        diskCache.close();
+    }
+
+    public void testClearWhileLoading() throws Exception {
+        final CacheKey key = createKey("(uid=jbond)");
+
+        final CacheManager cacheManager = new CacheManager();
+
+        DiskCache diskCache = new DiskCache(file, "1") {
+            public Cache get(CacheKey key) throws Exception {
+                Cache cache = super.get(key);
+                cacheManager.clear();
+                return cache;
+            }
+        };
+        diskCache.open();
+        diskCache.put(key, createCache(key, 60000));
+
+        cacheManager.setDiskCache(diskCache);
+
+        // the response loaded before the cache was cleared is not kept
+        assertNull(cacheManager.get(key));
+        assertNull(cacheManager.getStale(key));
+
+        diskCache.close();
+    }
+
+    public void testPermissions() throws Exception {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) return;
+
+        Files.setPosixFilePermissions(file.toPath(), PosixFilePermissions.fromString("rw-r--r--"));
+
+        DiskCache diskCache = new DiskCache(file, "1");
+        diskCache.open();
+        diskCache.close();
+
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file.toPath())));
+    }
+
+    public void testMaxSize() throws Exception {
+        DiskCache diskCache = new DiskCache(file, "1");
+
+        diskCache.setMaxSize(0);
+        assertEquals(DiskCache.MAX_FILE_SIZE, diskCache.getMaxSize());
+
+        diskCache.setMaxSize(3L * 1024 * 1024 * 1024);
+        assertEquals(DiskCache.MAX_FILE_SIZE, diskCache.getMaxSize());
+
+        CacheKey key = createKey("(uid=jbond)");
+
+        diskCache.setMaxSize(100);
+        diskCache.open();
+        diskCache.put(key, createCache(key, 60000));
+        assertNull(diskCache.get(key));
+        assertTrue(file.length() <= 100);
+        diskCache.close();
+    }
+}
@@ -0,0 +1,94 @@
+package org.safehaus.penrose.test.cache;
+
+import junit.framework.TestCase;
+import org.safehaus.penrose.cache.Cache;
+import org.safehaus.penrose.cache.CacheKey;
+import org.safehaus.penrose.cache.NegativeCacheManager;
+import org.safehaus.penrose.filter.FilterTool;
+import org.safehaus.penrose.ldap.DN;
+import org.safehaus.penrose.ldap.SearchRequest;
+import org.safehaus.penrose.ldap.SearchResponse;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class NegativeCacheManagerTest extends TestCase {
+
+    public CacheKey createKey(String dn, String filter) throws Exception {
+        SearchRequest request = new SearchRequest();
+        request.setDn(dn);
+        request.setFilter(FilterTool.parseFilter(filter));
+        request.setScope(SearchRequest.SCOPE_SUB);
+
+        CacheKey key = new CacheKey();
+        key.setRequest(request);
+        key.setEntryId("users");
+        return key;
+    }
+
+    public void add(NegativeCacheManager cacheManager, CacheKey key) throws Exception {
+        Cache cache = cacheManager.create(key);
+        SearchResponse response = new SearchResponse();
+        response.close();
+        cache.setResponse(response);
+        cacheManager.add(cache);
+    }
+
+    public void testInvalidate() throws Exception {
+        NegativeCacheManager cacheManager = new NegativeCacheManager();
+
+        CacheKey users = createKey("ou=Users,dc=Example,dc=com", "(uid=nonexistent)");
+        CacheKey groups = createKey("ou=Groups,dc=Example,dc=com", "(cn=nonexistent)");
+
+        add(cacheManager, users);
+        add(cacheManager, groups);
+
+        assertNotNull(cacheManager.get(users));
+        assertNotNull(cacheManager.get(groups));
+
+        cacheManager.invalidate(new DN("uid=nonexistent,ou=Users,dc=Example,dc=com"));
+
+        assertNull(cacheManager.get(users));
+        assertNotNull(cacheManager.get(groups));
+    }
+
+    public void testInvalidateSubtree() throws Exception {
+        NegativeCacheManager cacheManager = new NegativeCacheManager();
+
+        CacheKey renamed = createKey("uid=jbond,ou=Agents,dc=Example,dc=com", "(objectClass=*)");
+        CacheKey groups = createKey("ou=Groups,dc=Example,dc=com", "(cn=nonexistent)");
+
+        add(cacheManager, renamed);
+        add(cacheManager, groups);
+
+        // ou=Users renamed to ou=Agents
+        cacheManager.invalidate(new DN("ou=Agents,dc=Example,dc=com"));
+
+        assertNull(cacheManager.get(renamed));
+        assertNotNull(cacheManager.get(groups));
+    }
+
+    public void testExpiration() throws Exception {
+        NegativeCacheManager cacheManager = new NegativeCacheManager();
+        cacheManager.setExpiration(-1);
+
+        CacheKey users = createKey("ou=Users,dc=Example,dc=com", "(uid=nonexistent)");
+        add(cacheManager, users);
+
+        assertNull(cacheManager.get(users));
+    }
+
+    public void testSize() throws Exception {
+        NegativeCacheManager cacheManager = new NegativeCacheManager();
+        cacheManager.setSize(1);
+
+        CacheKey users = createKey("ou=Users,dc=Example,dc=com", "(uid=nonexistent)");
+        CacheKey groups = createKey("ou=Groups,dc=Example,dc=com", "(cn=nonexistent)");
+
+        add(cacheManager, users);
+        add(cacheManager, groups);
+
+        assertNull(cacheManager.get(users));
+        assertNotNull(cacheManager.get(groups));
+    }
+}
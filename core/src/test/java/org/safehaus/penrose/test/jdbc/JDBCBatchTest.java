@@ -0,0 +1,171 @@
+package org.safehaus.penrose.test.jdbc;
+
+import junit.framework.TestCase;
+import org.safehaus.penrose.jdbc.JDBCBatchException;
+import org.safehaus.penrose.jdbc.JDBCClient;
+import org.safehaus.penrose.jdbc.JDBCConnectionFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class JDBCBatchTest extends TestCase {
+
+    boolean autoCommit = true;
+    int batches;
+    int commits;
+    int rollbacks;
+    List<Object> rows = new ArrayList<Object>();
+
+    public Object getDefaultValue(Method method) {
+        Class type = method.getReturnType();
+        if (type == Boolean.TYPE) return false;
+        if (type == Integer.TYPE) return 0;
+        if (type == Long.TYPE) return 0L;
+        return null;
+    }
+
+    public Connection createConnection() {
+        return (Connection)Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] { Connection.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if ("prepareStatement".equals(name)) return createStatement();
+                        if ("getAutoCommit".equals(name)) return autoCommit;
+                        if ("setAutoCommit".equals(name)) autoCommit = (Boolean)args[0];
+                        if ("commit".equals(name)) commits++;
+                        if ("rollback".equals(name)) rollbacks++;
+                        return getDefaultValue(method);
+                    }
+                }
+        );
+    }
+
+    public PreparedStatement createStatement() {
+        return (PreparedStatement)Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] { PreparedStatement.class },
+                new InvocationHandler() {
+                    Object value;
+                    List<Object> batch = new ArrayList<Object>();
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if ("setObject".equals(name)) value = args[1];
+                        if ("addBatch".equals(name)) batch.add(value);
+                        if ("executeBatch".equals(name)) {
+                            batches++;
+                            List<Object> list = new ArrayList<Object>(batch);
+                            batch.clear();
+                            if (list.contains("bad")) throw new BatchUpdateException("Batch failed.", new int[0]);
+                            rows.addAll(list);
+                            return new int[list.size()];
+                        }
+                        if ("executeUpdate".equals(name)) {
+                            if ("bad".equals(value)) throw new SQLException("Bad value.");
+                            rows.add(value);
+                            return 1;
+                        }
+                        return getDefaultValue(method);
+                    }
+                }
+        );
+    }
+
+    public JDBCClient createClient() throws Exception {
+        JDBCClient client = new JDBCClient(new JDBCConnectionFactory((Driver)null, new HashMap<String,String>()));
+        client.connection = createConnection();
+        return client;
+    }
+
+    public Collection<Object> parameters(Object value) {
+        Collection<Object> parameters = new ArrayList<Object>();
+        parameters.add(value);
+        return parameters;
+    }
+
+    public void testBatch() throws Exception {
+
+        JDBCClient client = createClient();
+        client.setBatchSize(2);
+        client.setCommitInterval(4);
+
+        for (int i = 0; i < 5; i++) {
+            client.addBatch("insert into users values (?)", parameters("user"+i));
+        }
+
+        assertEquals(2, batches);
+        assertEquals(1, commits);
+        assertFalse(autoCommit);
+
+        client.endBatch();
+
+        assertEquals(3, batches);
+        assertEquals(2, commits);
+        assertEquals(5, rows.size());
+        assertTrue(autoCommit);
+    }
+
+    public void testFailure() throws Exception {
+
+        JDBCClient client = createClient();
+        client.setBatchSize(3);
+
+        client.addBatch("insert into users values (?)", parameters("user1"));
+        client.addBatch("insert into users values (?)", parameters("bad"));
+
+        try {
+            client.addBatch("insert into users values (?)", parameters("user2"));
+            fail();
+
+        } catch (JDBCBatchException e) {
+            assertEquals(1, e.getFailures().size());
+            assertEquals(parameters("bad"), e.getFailures().iterator().next().getParameters());
+        }
+
+        assertEquals(1, rollbacks);
+        assertEquals(Arrays.asList(new Object[] { "user1", "user2" }), rows);
+
+        client.addBatch("insert into users values (?)", parameters("user3"));
+        client.endBatch();
+
+        assertEquals(Arrays.asList(new Object[] { "user1", "user2", "user3" }), rows);
+        assertTrue(autoCommit);
+    }
+
+    public void testFailureBeforeDifferentStatement() throws Exception {
+
+        JDBCClient client = createClient();
+        client.setBatchSize(3);
+
+        client.addBatch("insert into users values (?)", parameters("user1"));
+        client.addBatch("insert into users values (?)", parameters("bad"));
+
+        try {
+            // flushes the failing batch of the previous statement
+            client.addBatch("insert into groups values (?)", parameters("group1"));
+            fail();
+
+        } catch (JDBCBatchException e) {
+            assertEquals(1, e.getFailures().size());
+            assertEquals(parameters("bad"), e.getFailures().iterator().next().getParameters());
+        }
+
+        assertEquals(Arrays.asList(new Object[] { "user1" }), rows);
+
+        client.endBatch();
+
+        assertEquals(Arrays.asList(new Object[] { "user1", "group1" }), rows);
+        assertTrue(autoCommit);
+    }
+}
@@ -0,0 +1,127 @@
+package org.safehaus.penrose.test.jdbc;
+
+import junit.framework.TestCase;
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.safehaus.penrose.jdbc.JDBC;
+import org.safehaus.penrose.jdbc.JDBCClient;
+import org.safehaus.penrose.jdbc.JDBCConnectionFactory;
+import org.safehaus.penrose.jdbc.connection.JDBCConnection;
+import org.safehaus.penrose.partition.Partition;
+import org.safehaus.penrose.partition.PartitionConfig;
+import org.safehaus.penrose.session.Session;
+import org.safehaus.penrose.session.SessionListener;
+import org.safehaus.penrose.source.Source;
+import org.safehaus.penrose.source.SourceConfig;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.util.HashMap;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class JDBCClientScopeTest extends TestCase {
+
+    JDBCConnection connection;
+    Session session;
+    Source source;
+    int closed;
+
+    public void setUp() throws Exception {
+
+        PartitionConfig partitionConfig = new PartitionConfig();
+        partitionConfig.setName("test");
+
+        final Partition partition = new Partition();
+        partition.setPartitionConfig(partitionConfig);
+
+        connection = new JDBCConnection() {
+            public String getName() {
+                return "test";
+            }
+            public Partition getPartition() {
+                return partition;
+            }
+        };
+
+        connection.connectionPool = new GenericObjectPool(null);
+        connection.connectionFactory = new JDBCConnectionFactory((Driver)null, new HashMap<String,String>());
+
+        session = new Session(null);
+
+        source = new Source();
+        source.setSourceConfig(new SourceConfig());
+    }
+
+    public Connection createConnection() {
+        return (Connection)Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] { Connection.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("close".equals(method.getName())) closed++;
+                        if (method.getReturnType() == Boolean.TYPE) return false;
+                        return null;
+                    }
+                }
+        );
+    }
+
+    public void closeSession() throws Exception {
+        for (SessionListener listener : session.getListeners()) {
+            listener.sessionClosed();
+        }
+    }
+
+    public void testSessionScoped() throws Exception {
+
+        assertFalse(connection.isSessionScoped(null, source));
+        assertFalse(connection.isSessionScoped(session, source));
+
+        source.getSourceConfig().setParameter(JDBC.AUTHENTICATION, JDBC.AUTHENTICATION_FULL);
+        assertTrue(connection.isSessionScoped(session, source));
+        assertFalse(connection.isSessionScoped(null, source));
+
+        source.getSourceConfig().setParameter(JDBC.AUTHENTICATION, JDBC.AUTHENTICATION_DEFAULT);
+        connection.clientScope = JDBCConnection.CLIENT_SCOPE_SESSION;
+        assertTrue(connection.isSessionScoped(session, source));
+    }
+
+    public void testOperationClient() throws Exception {
+
+        JDBCClient client1 = connection.getClient(session, source);
+        JDBCClient client2 = connection.getClient(session, source);
+
+        assertNotSame(client1, client2);
+        assertTrue(session.getListeners().isEmpty());
+
+        client1.connection = createConnection();
+        connection.closeClient(session, source, client1);
+
+        assertEquals(1, closed);
+        assertNull(client1.connection);
+    }
+
+    public void testSessionClient() throws Exception {
+
+        connection.clientScope = JDBCConnection.CLIENT_SCOPE_SESSION;
+
+        JDBCClient client = connection.getClient(session, source);
+        assertSame(client, connection.getClient(session, source));
+        assertSame(client, connection.getReadClient(session, source));
+
+        client.connection = createConnection();
+
+        // the session keeps the client after the operation
+        connection.closeClient(session, source, client);
+        assertEquals(0, closed);
+        assertSame(client, connection.getClient(session, source));
+
+        closeSession();
+        assertEquals(1, closed);
+        assertNotSame(client, connection.getClient(session, source));
+    }
+}
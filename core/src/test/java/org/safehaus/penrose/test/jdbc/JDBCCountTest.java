@@ -0,0 +1,199 @@
+package org.safehaus.penrose.test.jdbc;
+
+import junit.framework.TestCase;
+import org.safehaus.penrose.filter.FilterTool;
+import org.safehaus.penrose.jdbc.JDBC;
+import org.safehaus.penrose.jdbc.JDBCClient;
+import org.safehaus.penrose.jdbc.JDBCConnectionFactory;
+import org.safehaus.penrose.jdbc.SelectStatement;
+import org.safehaus.penrose.jdbc.connection.JDBCConnection;
+import org.safehaus.penrose.jdbc.connection.JDBCStatementBuilder;
+import org.safehaus.penrose.jdbc.source.JDBCSource;
+import org.safehaus.penrose.partition.Partition;
+import org.safehaus.penrose.partition.PartitionConfig;
+import org.safehaus.penrose.partition.PartitionContext;
+import org.safehaus.penrose.session.Session;
+import org.safehaus.penrose.source.FieldConfig;
+import org.safehaus.penrose.source.Source;
+import org.safehaus.penrose.source.SourceConfig;
+import org.safehaus.penrose.source.SourceContext;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.*;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class JDBCCountTest extends TestCase {
+
+    Partition partition;
+    SourceConfig sourceConfig;
+    JDBCConnection connection;
+
+    String sql;
+    List<Object> parameters = new ArrayList<Object>();
+
+    public void setUp() throws Exception {
+
+        sourceConfig = new SourceConfig();
+        sourceConfig.setName("users");
+        sourceConfig.setParameter(JDBC.TABLE, "users");
+        sourceConfig.addFieldConfig(new FieldConfig("uid", true));
+        sourceConfig.addFieldConfig(new FieldConfig("cn"));
+
+        PartitionConfig partitionConfig = new PartitionConfig();
+        partitionConfig.setName("test");
+        partitionConfig.getSourceConfigManager().addSourceConfig(sourceConfig);
+
+        partition = new Partition();
+        partition.setPartitionConfig(partitionConfig);
+        partition.setPartitionContext(new PartitionContext() {
+            public Partition getPartition(String name) {
+                return partition;
+            }
+        });
+
+        connection = new JDBCConnection() {
+            public JDBCClient getReadClient(Session session, Source source) throws Exception {
+                JDBCClient client = new JDBCClient(connectionFactory);
+                client.connection = createConnection();
+                return client;
+            }
+            public void closeClient(Session session, Source source, JDBCClient client) throws Exception {
+            }
+        };
+
+        connection.connectionFactory = new JDBCConnectionFactory((Driver)null, new HashMap<String,String>());
+    }
+
+    public Object getDefaultValue(Method method) {
+        Class type = method.getReturnType();
+        if (type == Boolean.TYPE) return false;
+        if (type == Integer.TYPE) return 0;
+        if (type == Long.TYPE) return 0L;
+        return null;
+    }
+
+    public Connection createConnection() {
+        return (Connection)Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] { Connection.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("prepareStatement".equals(method.getName())) {
+                            sql = (String)args[0];
+                            return createStatement();
+                        }
+                        return getDefaultValue(method);
+                    }
+                }
+        );
+    }
+
+    public PreparedStatement createStatement() {
+        return (PreparedStatement)Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] { PreparedStatement.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if ("setObject".equals(name)) parameters.add(args[1]);
+                        if ("executeQuery".equals(name)) return createResultSet();
+                        return getDefaultValue(method);
+                    }
+                }
+        );
+    }
+
+    public ResultSet createResultSet() {
+        return (ResultSet)Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] { ResultSet.class },
+                new InvocationHandler() {
+                    boolean next = true;
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if ("next".equals(name)) {
+                            boolean b = next;
+                            next = false;
+                            return b;
+                        }
+                        if ("getLong".equals(name)) return 42L;
+                        return getDefaultValue(method);
+                    }
+                }
+        );
+    }
+
+    public JDBCSource createSource() throws Exception {
+
+        SourceContext sourceContext = new SourceContext();
+        sourceContext.setPartition(partition);
+        sourceContext.setConnection(connection);
+
+        JDBCSource source = new JDBCSource();
+        source.init(sourceConfig, sourceContext);
+
+        return source;
+    }
+
+    public String normalize(String sql) {
+        return sql.replaceAll("\\s+", " ").trim();
+    }
+
+    public void testGenerateCount() throws Exception {
+
+        SelectStatement statement = new SelectStatement();
+        statement.addColumn("users.uid");
+        statement.addSource("users", "test", "users");
+        statement.setFilter(FilterTool.parseFilter("(uid=JBond)"));
+        statement.addOrder("users.uid");
+
+        JDBCStatementBuilder statementBuilder = new JDBCStatementBuilder(partition);
+
+        assertEquals(
+                "select count(*) from users users where lower(users.uid) = ?",
+                normalize(statementBuilder.generateCount(statement))
+        );
+        assertEquals(Arrays.asList(new Object[] { "jbond" }), statementBuilder.getParameters());
+    }
+
+    public void testCount() throws Exception {
+
+        JDBCSource source = createSource();
+
+        assertEquals(42, source.getCount(null));
+        assertEquals("select count(*) from users users", normalize(sql));
+        assertTrue(parameters.isEmpty());
+    }
+
+    public void testCountWithFilter() throws Exception {
+
+        JDBCSource source = createSource();
+
+        assertEquals(42, source.getCount(null, FilterTool.parseFilter("(cn=James*)")));
+        assertEquals("select count(*) from users users where lower(users.cn) like ?", normalize(sql));
+        assertEquals(Arrays.asList(new Object[] { "james%" }), parameters);
+    }
+
+    public void testCountWithSourceFilter() throws Exception {
+
+        sourceConfig.setParameter(JDBC.FILTER, "users.active = 1");
+        JDBCSource source = createSource();
+
+        assertEquals(42, source.getCount(null, FilterTool.parseFilter("(cn=James*)")));
+        assertEquals(
+                "select count(*) from users users where (lower(users.cn) like ?) and (users.active = 1)",
+                normalize(sql)
+        );
+
+        source.getCount(null);
+        assertEquals("select count(*) from users users where users.active = 1", normalize(sql));
+    }
+}
@@ -0,0 +1,181 @@
+package org.safehaus.penrose.test.jdbc;
+
+import junit.framework.TestCase;
+import org.safehaus.penrose.jdbc.JDBCClient;
+import org.safehaus.penrose.jdbc.JDBCConnectionFactory;
+import org.safehaus.penrose.jdbc.QueryResponse;
+import org.safehaus.penrose.jdbc.connection.JDBCConnection;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class JDBCFetchSizeTest extends TestCase {
+
+    boolean autoCommit = true;
+    int rows = 3;
+    boolean failQuery;
+    List<String> calls = new ArrayList<String>();
+
+    public Object getDefaultValue(Method method) {
+        Class type = method.getReturnType();
+        if (type == Boolean.TYPE) return false;
+        if (type == Integer.TYPE) return 0;
+        if (type == Long.TYPE) return 0L;
+        return null;
+    }
+
+    public Connection createConnection() {
+        return (Connection)Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] { Connection.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if ("prepareStatement".equals(name)) return createStatement();
+                        if ("getAutoCommit".equals(name)) return autoCommit;
+                        if ("setAutoCommit".equals(name)) {
+                            autoCommit = (Boolean)args[0];
+                            calls.add(name+"("+autoCommit+")");
+                        }
+                        return getDefaultValue(method);
+                    }
+                }
+        );
+    }
+
+    public PreparedStatement createStatement() {
+        return (PreparedStatement)Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] { PreparedStatement.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if ("setFetchSize".equals(name)) calls.add(name+"("+args[0]+")");
+                        if ("executeQuery".equals(name)) {
+                            calls.add(name);
+                            if (failQuery) throw new SQLException("Query failed.");
+                            return createResultSet();
+                        }
+                        return getDefaultValue(method);
+                    }
+                }
+        );
+    }
+
+    public ResultSet createResultSet() {
+        return (ResultSet)Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] { ResultSet.class },
+                new InvocationHandler() {
+                    int row;
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("next".equals(method.getName())) return row++ < rows;
+                        return getDefaultValue(method);
+                    }
+                }
+        );
+    }
+
+    public JDBCClient createClient(String url) throws Exception {
+        Map<String,String> parameters = new HashMap<String,String>();
+        parameters.put(JDBCConnection.URL, url);
+
+        JDBCClient client = new JDBCClient(new JDBCConnectionFactory((Driver)null, parameters));
+        client.connection = createConnection();
+        return client;
+    }
+
+    public QueryResponse createResponse(int fetchSize) {
+        QueryResponse response = new QueryResponse();
+        response.setFetchSize(fetchSize);
+        return response;
+    }
+
+    public void testMySQL() throws Exception {
+
+        JDBCClient client = createClient("jdbc:mysql://localhost/test");
+        QueryResponse response = createResponse(100);
+
+        client.executeQuery("select * from users", response);
+
+        assertEquals(Arrays.asList("setFetchSize("+Integer.MIN_VALUE+")", "executeQuery"), calls);
+        assertEquals(rows, count(response));
+        assertTrue(autoCommit);
+    }
+
+    public void testPostgreSQL() throws Exception {
+
+        JDBCClient client = createClient("jdbc:postgresql://localhost/test");
+        QueryResponse response = createResponse(100);
+
+        client.executeQuery("select * from users", response);
+
+        assertEquals(Arrays.asList(
+                "setAutoCommit(false)",
+                "setFetchSize(100)",
+                "executeQuery",
+                "setAutoCommit(true)"
+        ), calls);
+        assertEquals(rows, count(response));
+        assertTrue(autoCommit);
+    }
+
+    public void testPostgreSQLFailure() throws Exception {
+
+        JDBCClient client = createClient("jdbc:postgresql://localhost/test");
+        QueryResponse response = createResponse(100);
+
+        failQuery = true;
+
+        try {
+            client.executeQuery("select * from users", response);
+            fail();
+        } catch (SQLException e) {
+            // expected
+        }
+
+        assertEquals("setAutoCommit(true)", calls.get(calls.size()-1));
+        assertTrue(autoCommit);
+        assertTrue(response.isClosed());
+    }
+
+    public void testPostgreSQLTransaction() throws Exception {
+
+        JDBCClient client = createClient("jdbc:postgresql://localhost/test");
+        QueryResponse response = createResponse(100);
+
+        // already in a transaction, the auto commit mode is left alone
+        autoCommit = false;
+
+        client.executeQuery("select * from users", response);
+
+        assertEquals(Arrays.asList("setFetchSize(100)", "executeQuery"), calls);
+        assertFalse(autoCommit);
+    }
+
+    public void testNoFetchSize() throws Exception {
+
+        JDBCClient client = createClient("jdbc:postgresql://localhost/test");
+        QueryResponse response = createResponse(0);
+
+        client.executeQuery("select * from users", response);
+
+        assertEquals(Arrays.asList("executeQuery"), calls);
+        assertEquals(rows, count(response));
+    }
+
+    public int count(QueryResponse response) {
+        int count = 0;
+        while (response.hasNext()) {
+            response.next();
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,173 @@
+package org.safehaus.penrose.test.jdbc;
+
+import junit.framework.TestCase;
+import org.safehaus.penrose.filter.FilterTool;
+import org.safehaus.penrose.jdbc.StatementSource;
+import org.safehaus.penrose.jdbc.connection.JDBCFilterBuilder;
+import org.safehaus.penrose.jdbc.connection.SQLTemplate;
+import org.safehaus.penrose.partition.Partition;
+import org.safehaus.penrose.partition.PartitionConfig;
+import org.safehaus.penrose.source.FieldConfig;
+import org.safehaus.penrose.source.SourceConfig;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class JDBCFilterBuilderTest extends TestCase {
+
+    Partition partition;
+    FieldConfig uid;
+
+    public void setUp() throws Exception {
+
+        uid = new FieldConfig("uid");
+        uid.setType(FieldConfig.TYPE_VARCHAR);
+
+        SourceConfig sourceConfig = new SourceConfig();
+        sourceConfig.setName("users");
+        sourceConfig.addFieldConfig(uid);
+
+        PartitionConfig partitionConfig = new PartitionConfig();
+        partitionConfig.setName("test");
+        partitionConfig.getSourceConfigManager().addSourceConfig(sourceConfig);
+
+        partition = new Partition();
+        partition.setPartitionConfig(partitionConfig);
+    }
+
+    public JDBCFilterBuilder generate(String filter) throws Exception {
+
+        JDBCFilterBuilder filterBuilder = new JDBCFilterBuilder(partition) {
+            public Partition getPartition(String name) {
+                return partition;
+            }
+        };
+
+        StatementSource source = new StatementSource();
+        source.setPartitionName("test");
+        source.setSourceName("users");
+        filterBuilder.addSource("u", source);
+
+        filterBuilder.generate(FilterTool.parseFilter(filter));
+
+        return filterBuilder;
+    }
+
+    public String getSql(String filter) throws Exception {
+        return generate(filter).getSql();
+    }
+
+    public void testLower() throws Exception {
+        assertEquals("lower(u.uid) = ?", getSql("(uid=JBond)"));
+        assertEquals("lower(u.uid) >= ?", getSql("(uid>=JBond)"));
+        assertEquals("lower(u.uid) like ?", getSql("(uid=*Bond)"));
+        assertEquals(Arrays.asList(new Object[] { "jbond" }), generate("(uid=JBond)").getParameters());
+    }
+
+    public void testCaseSensitive() throws Exception {
+        uid.setCaseSensitive(true);
+        assertEquals("u.uid = ?", getSql("(uid=JBond)"));
+        assertEquals(Arrays.asList(new Object[] { "JBond" }), generate("(uid=JBond)").getParameters());
+    }
+
+    public void testCollation() throws Exception {
+        uid.setComparison(FieldConfig.COMPARISON_COLLATION);
+        assertEquals("u.uid = ?", getSql("(uid=JBond)"));
+        assertEquals("u.uid like ?", getSql("(uid=*Bond)"));
+    }
+
+    public void testCitext() throws Exception {
+        uid.setComparison(FieldConfig.COMPARISON_CITEXT);
+        assertEquals("u.uid = cast(? as citext)", getSql("(uid=JBond)"));
+        assertEquals("u.uid like cast(? as citext)", getSql("(uid=*Bond)"));
+        assertEquals(Arrays.asList(new Object[] { "JBond" }), generate("(uid=JBond)").getParameters());
+    }
+
+    public void testCitextWithCastType() throws Exception {
+        uid.setComparison(FieldConfig.COMPARISON_CITEXT);
+        uid.setCastType("varchar");
+        uid.setLength(20);
+        assertEquals("u.uid = cast(cast(? as varchar(20)) as citext)", getSql("(uid=JBond)"));
+        assertEquals("u.uid like cast(cast(? as varchar(20)) as citext)", getSql("(uid=*Bond)"));
+    }
+
+    public void testLowerWithCastType() throws Exception {
+        uid.setCastType("varchar");
+        assertEquals("lower(u.uid) = lower(cast(? as varchar(50)))", getSql("(uid=JBond)"));
+    }
+
+    public void testIlike() throws Exception {
+        uid.setComparison(FieldConfig.COMPARISON_ILIKE);
+        assertEquals("u.uid ilike ?", getSql("(uid=J_Bond)"));
+        assertEquals("u.uid ilike ?", getSql("(uid=*Bond)"));
+        assertEquals("lower(u.uid) >= ?", getSql("(uid>=JBond)"));
+        assertEquals(Arrays.asList(new Object[] { "J\\_Bond" }), generate("(uid=J_Bond)").getParameters());
+    }
+
+    public void testPrefixRange() throws Exception {
+        uid.setPrefixRange(true);
+
+        JDBCFilterBuilder filterBuilder = generate("(uid=Ali*)");
+        assertEquals("(lower(u.uid) >= ? and lower(u.uid) < ? and lower(u.uid) like ?)", filterBuilder.getSql());
+        assertEquals(Arrays.asList(new Object[] { "ali", "alj", "ali%" }), filterBuilder.getParameters());
+        assertTrue(filterBuilder.isCacheable());
+
+        uid.setComparison(FieldConfig.COMPARISON_CITEXT);
+        assertEquals(
+                "(u.uid >= cast(? as citext) and u.uid < cast(? as citext) and u.uid like cast(? as citext))",
+                getSql("(uid=Ali*)")
+        );
+
+        uid.setComparison(FieldConfig.COMPARISON_ILIKE);
+        assertEquals("u.uid ilike ?", getSql("(uid=Ali*)"));
+    }
+
+    public void testPrefixRangeCollation() throws Exception {
+        uid.setPrefixRange(true);
+        uid.setCaseSensitive(true);
+
+        // 'a b' may sort between 'ab' and 'ac' under a collation that ignores spaces,
+        // the like predicate keeps it out
+        JDBCFilterBuilder filterBuilder = generate("(uid=ab*)");
+        assertEquals("(u.uid >= ? and u.uid < ? and u.uid like ?)", filterBuilder.getSql());
+        assertEquals(Arrays.asList(new Object[] { "ab", "ac", "ab%" }), filterBuilder.getParameters());
+    }
+
+    public void testPrefixRangeOverflow() throws Exception {
+        uid.setPrefixRange(true);
+        uid.setCaseSensitive(true);
+
+        JDBCFilterBuilder filterBuilder = generate("(uid=a\uffff*)");
+        assertEquals("(u.uid >= ? and u.uid < ? and u.uid like ?)", filterBuilder.getSql());
+        assertEquals(Arrays.asList(new Object[] { "a\uffff", "b", "a\uffff%" }), filterBuilder.getParameters());
+
+        filterBuilder = generate("(uid=\uffff*)");
+        assertEquals("u.uid like ?", filterBuilder.getSql());
+        assertFalse(filterBuilder.isCacheable());
+
+        assertNull(SQLTemplate.getUpperBound(""));
+        assertEquals("ab", SQLTemplate.getUpperBound("aa\uffff\uffff"));
+    }
+
+    public void testPrefixRangeTemplate() throws Exception {
+        uid.setPrefixRange(true);
+        uid.setCaseSensitive(true);
+
+        JDBCFilterBuilder filterBuilder = generate("(uid=Ali*)");
+        SQLTemplate template = new SQLTemplate(filterBuilder.getSql(), filterBuilder.getTemplateParameters());
+
+        List<Object> args = new ArrayList<Object>();
+        FilterTool.parseFilter("(uid=Bo*)").toString(args);
+        assertTrue(template.matches(args));
+        assertEquals(Arrays.asList(new Object[] { "Bo", "Bp", "Bo%" }), template.getParameters(args));
+
+        // a value without an upper bound needs a different statement
+        args = new ArrayList<Object>();
+        FilterTool.parseFilter("(uid=\uffff*)").toString(args);
+        assertFalse(template.matches(args));
+    }
+}
@@ -0,0 +1,189 @@
+package org.safehaus.penrose.test.jdbc;
+
+import junit.framework.TestCase;
+import org.apache.commons.pool.BasePoolableObjectFactory;
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.safehaus.penrose.jdbc.JDBCClient;
+import org.safehaus.penrose.jdbc.JDBCConnectionFactory;
+import org.safehaus.penrose.jdbc.connection.JDBCConnection;
+import org.safehaus.penrose.jdbc.connection.JDBCReplica;
+import org.safehaus.penrose.jdbc.connection.JDBCReplicaClient;
+import org.safehaus.penrose.partition.Partition;
+import org.safehaus.penrose.partition.PartitionConfig;
+import org.safehaus.penrose.session.Session;
+import org.safehaus.penrose.source.Source;
+import org.safehaus.penrose.source.SourceConfig;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.util.HashMap;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class JDBCReplicaTest extends TestCase {
+
+    JDBCConnection connection;
+    JDBCReplica replica1;
+    JDBCReplica replica2;
+
+    boolean replicaDown;
+
+    public void setUp() throws Exception {
+
+        PartitionConfig partitionConfig = new PartitionConfig();
+        partitionConfig.setName("test");
+
+        final Partition partition = new Partition();
+        partition.setPartitionConfig(partitionConfig);
+
+        connection = new JDBCConnection() {
+            public String getName() {
+                return "test";
+            }
+            public Partition getPartition() {
+                return partition;
+            }
+        };
+
+        connection.connectionPool = createPool(false);
+        connection.connectionFactory = new JDBCConnectionFactory((Driver)null, new HashMap<String,String>());
+
+        replica1 = new JDBCReplica("jdbc:test://replica1");
+        replica2 = new JDBCReplica("jdbc:test://replica2");
+
+        connection.replicas.add(replica1);
+        connection.replicas.add(replica2);
+    }
+
+    public GenericObjectPool createPool(final boolean replica) {
+
+        GenericObjectPool pool = new GenericObjectPool(new BasePoolableObjectFactory() {
+            public Object makeObject() throws Exception {
+                if (replica && replicaDown) throw new SQLException("Connection refused.");
+                return createConnection();
+            }
+        });
+
+        pool.setMaxActive(1);
+        pool.setWhenExhaustedAction(GenericObjectPool.WHEN_EXHAUSTED_FAIL);
+
+        return pool;
+    }
+
+    public Connection createConnection() {
+        return (Connection)Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] { Connection.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getReturnType() == Boolean.TYPE) return false;
+                        return null;
+                    }
+                }
+        );
+    }
+
+    public void initReplica(JDBCReplica replica) {
+        replica.connectionPool = createPool(true);
+        replica.connectionFactory = connection.connectionFactory;
+    }
+
+    public JDBCReplicaClient createReplicaClient() throws Exception {
+        initReplica(replica1);
+        return (JDBCReplicaClient)replica1.createClient(connection.connectionPool);
+    }
+
+    public void testRoundRobin() throws Exception {
+        JDBCReplica first = connection.selectReplica();
+        JDBCReplica second = connection.selectReplica();
+
+        assertNotSame(first, second);
+        assertSame(first, connection.selectReplica());
+    }
+
+    public void testLeastOutstanding() throws Exception {
+        connection.readBalancing = JDBCConnection.READ_BALANCING_LEAST_OUTSTANDING;
+
+        replica1.incrementOutstanding();
+        replica1.incrementOutstanding();
+        replica2.incrementOutstanding();
+
+        assertSame(replica2, connection.selectReplica());
+        assertSame(replica2, connection.selectReplica());
+    }
+
+    public void testEjection() throws Exception {
+        replica1.eject();
+
+        assertSame(replica2, connection.selectReplica());
+        assertSame(replica2, connection.selectReplica());
+
+        replica2.eject();
+
+        assertNull(connection.selectReplica());
+    }
+
+    public void testExhausted() throws Exception {
+
+        JDBCReplicaClient client1 = createReplicaClient();
+        client1.connect();
+
+        // the only replica connection is in use, the second client uses the primary
+        JDBCReplicaClient client2 = (JDBCReplicaClient)replica1.createClient(connection.connectionPool);
+        client2.connect();
+
+        assertFalse(replica1.isEjected());
+        assertEquals(1, replica1.connectionPool.getNumActive());
+        assertEquals(1, connection.connectionPool.getNumActive());
+
+        client2.close();
+        client1.close();
+
+        assertEquals(0, replica1.getOutstanding());
+    }
+
+    public void testConnectFailure() throws Exception {
+
+        JDBCReplicaClient client = createReplicaClient();
+        replicaDown = true;
+
+        client.connect();
+
+        assertTrue(replica1.isEjected());
+        assertEquals(1, connection.connectionPool.getNumActive());
+
+        client.close();
+    }
+
+    public void testLastWrite() throws Exception {
+
+        initReplica(replica1);
+        initReplica(replica2);
+
+        Session session = new Session(null);
+        Source source = new Source();
+        source.setSourceConfig(new SourceConfig());
+
+        connection.closeClient(session, source, connection.getClient(session, source));
+        assertFalse(connection.isSticky(session));
+
+        JDBCClient client = connection.getWriteClient(session, source);
+        connection.closeClient(session, source, client);
+        assertTrue(connection.isSticky(session));
+
+        client = connection.getReadClient(session, source);
+        assertFalse(client instanceof JDBCReplicaClient);
+        connection.closeClient(session, source, client);
+
+        connection.readAfterWriteWindow = 0;
+
+        client = connection.getReadClient(session, source);
+        assertTrue(client instanceof JDBCReplicaClient);
+        connection.closeClient(session, source, client);
+    }
+}
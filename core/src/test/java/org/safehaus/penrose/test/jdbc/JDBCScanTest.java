@@ -0,0 +1,195 @@
+package org.safehaus.penrose.test.jdbc;
+
+import junit.framework.TestCase;
+import org.safehaus.penrose.jdbc.QueryResponse;
+import org.safehaus.penrose.jdbc.source.JDBCSource;
+import org.safehaus.penrose.session.Session;
+import org.safehaus.penrose.source.Field;
+import org.safehaus.penrose.source.FieldConfig;
+import org.safehaus.penrose.thread.ThreadManager;
+import org.safehaus.penrose.thread.ThreadManagerConfig;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class JDBCScanTest extends TestCase {
+
+    List<Field> keyFields = new ArrayList<Field>();
+
+    public JDBCSource createSource(String... columns) {
+
+        for (String column : columns) {
+            keyFields.add(new Field(null, new FieldConfig(column, true)));
+        }
+
+        return new JDBCSource() {
+            public String getName() {
+                return "users";
+            }
+            public Collection<Field> getPrimaryKeyFields() {
+                return keyFields;
+            }
+        };
+    }
+
+    public void testKeyClause() throws Exception {
+
+        JDBCSource source = createSource("uid");
+        Collection<Object> parameters = new ArrayList<Object>();
+
+        assertEquals("(users.uid > ?)", source.createKeyClause(null, Arrays.asList(new Object[] { "jbond" }), parameters));
+        assertEquals(Arrays.asList(new Object[] { "jbond" }), parameters);
+    }
+
+    public void testCompositeKeyClause() throws Exception {
+
+        JDBCSource source = createSource("ou", "uid");
+        Collection<Object> parameters = new ArrayList<Object>();
+
+        assertEquals(
+                "(users.ou > ?) or (users.ou = ? and users.uid > ?)",
+                source.createKeyClause(null, Arrays.asList(new Object[] { "sales", "jbond" }), parameters)
+        );
+        assertEquals(Arrays.asList(new Object[] { "sales", "sales", "jbond" }), parameters);
+    }
+
+    public void testThreeColumnKeyClause() throws Exception {
+
+        JDBCSource source = createSource("o", "ou", "uid");
+        Collection<Object> parameters = new ArrayList<Object>();
+
+        assertEquals(
+                "(users.`o` > ?)"
+                        +" or (users.`o` = ? and users.`ou` > ?)"
+                        +" or (users.`o` = ? and users.`ou` = ? and users.`uid` > ?)",
+                source.createKeyClause("`", Arrays.asList(new Object[] { 1, 2, 3 }), parameters)
+        );
+        assertEquals(Arrays.asList(new Object[] { 1, 1, 2, 1, 2, 3 }), parameters);
+    }
+
+    public void testBoundaries() throws Exception {
+
+        JDBCSource source = createSource("id");
+
+        assertEquals(
+                Arrays.asList(new Object[] { 25L, 50L, 75L }),
+                source.getScanBoundaries(BigInteger.ZERO, BigInteger.valueOf(99), 4)
+        );
+
+        // fewer keys than ranges
+        assertEquals(
+                Arrays.asList(new Object[] { 1L, 2L }),
+                source.getScanBoundaries(BigInteger.ZERO, BigInteger.valueOf(2), 4)
+        );
+    }
+
+    public void testBoundariesOverflow() throws Exception {
+
+        JDBCSource source = createSource("id");
+
+        List<Object> boundaries = source.getScanBoundaries(
+                BigInteger.valueOf(Long.MIN_VALUE),
+                BigInteger.valueOf(Long.MAX_VALUE),
+                4
+        );
+
+        assertEquals(Arrays.asList(new Object[] { -4611686018427387904L, 0L, 4611686018427387904L }), boundaries);
+
+        BigInteger max = BigInteger.valueOf(Long.MAX_VALUE).multiply(BigInteger.valueOf(4));
+        boundaries = source.getScanBoundaries(BigInteger.ZERO, max, 2);
+
+        assertEquals(Arrays.asList(new Object[] { new BigDecimal(max.divide(BigInteger.valueOf(2)).add(BigInteger.ONE)) }), boundaries);
+    }
+
+    public void testParallelScan() throws Exception {
+
+        ThreadManagerConfig threadManagerConfig = new ThreadManagerConfig();
+        threadManagerConfig.setParameter(ThreadManagerConfig.CORE_POOL_SIZE, "2");
+        threadManagerConfig.setParameter(ThreadManagerConfig.MAXIMUM_POOL_SIZE, "2");
+
+        final ThreadManager threadManager = new ThreadManager("test");
+        threadManager.init(threadManagerConfig);
+
+        final List<Object> ranges = Collections.synchronizedList(new ArrayList<Object>());
+
+        JDBCSource source = new JDBCSource() {
+            public ThreadManager getThreadManager() {
+                return threadManager;
+            }
+            public void scan(Session session, QueryResponse response, Object lowerBound, Object upperBound) throws Exception {
+                ranges.add(lowerBound+"-"+upperBound);
+                response.add(lowerBound);
+            }
+        };
+
+        try {
+            QueryResponse response = new QueryResponse();
+            source.scan(null, response, Arrays.asList(new Object[] { 10L, 20L }));
+
+            assertEquals(3, ranges.size());
+            assertTrue(ranges.containsAll(Arrays.asList("null-10", "10-20", "20-null")));
+
+            Set<Object> results = new HashSet<Object>();
+            while (response.hasNext()) results.add(response.next());
+            assertEquals(new HashSet<Object>(Arrays.asList(null, 10L, 20L)), results);
+
+        } finally {
+            threadManager.destroy();
+        }
+    }
+
+    public void testParallelScanFailure() throws Exception {
+
+        ThreadManagerConfig threadManagerConfig = new ThreadManagerConfig();
+        threadManagerConfig.setParameter(ThreadManagerConfig.CORE_POOL_SIZE, "2");
+        threadManagerConfig.setParameter(ThreadManagerConfig.MAXIMUM_POOL_SIZE, "2");
+
+        final ThreadManager threadManager = new ThreadManager("test");
+        threadManager.init(threadManagerConfig);
+
+        final List<Object> started = Collections.synchronizedList(new ArrayList<Object>());
+        final List<Object> cancelled = Collections.synchronizedList(new ArrayList<Object>());
+
+        JDBCSource source = new JDBCSource() {
+            public ThreadManager getThreadManager() {
+                return threadManager;
+            }
+            public void scan(Session session, QueryResponse response, Object lowerBound, Object upperBound) throws Exception {
+                started.add(lowerBound);
+                if (lowerBound == null) {
+                    Thread.sleep(100);
+                    throw new SQLException("Range failed.");
+                }
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    cancelled.add(lowerBound);
+                    throw e;
+                }
+            }
+        };
+
+        long start = System.currentTimeMillis();
+
+        try {
+            source.scan(null, new QueryResponse(), Arrays.asList(new Object[] { 10L, 20L, 30L }));
+            fail();
+
+        } catch (SQLException e) {
+            assertEquals("Range failed.", e.getMessage());
+
+        } finally {
+            threadManager.destroy();
+        }
+
+        // the running ranges are interrupted, the last one is never started
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertTrue(started.size() < 4);
+        assertEquals(started.size() - 1, cancelled.size());
+    }
+}
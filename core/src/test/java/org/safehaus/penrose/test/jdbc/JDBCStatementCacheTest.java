@@ -0,0 +1,132 @@
+package org.safehaus.penrose.test.jdbc;
+
+import junit.framework.TestCase;
+import org.apache.commons.dbcp.ConnectionFactory;
+import org.apache.commons.dbcp.PoolableConnectionFactory;
+import org.apache.commons.dbcp.PoolingDataSource;
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.safehaus.penrose.jdbc.JDBCStatementCache;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class JDBCStatementCacheTest extends TestCase {
+
+    int prepared;
+    int cleared;
+
+    public Object getDefaultValue(Method method) {
+        Class type = method.getReturnType();
+        if (type == Boolean.TYPE) return false;
+        if (type == Integer.TYPE) return 0;
+        if (type == Long.TYPE) return 0L;
+        return null;
+    }
+
+    public Connection createConnection() {
+        return (Connection)Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] { Connection.class },
+                new InvocationHandler() {
+                    boolean closed;
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if ("prepareStatement".equals(name)) {
+                            prepared++;
+                            return createStatement();
+                        }
+                        if ("close".equals(name)) closed = true;
+                        if ("isClosed".equals(name)) return closed;
+                        if ("getAutoCommit".equals(name)) return true;
+                        return getDefaultValue(method);
+                    }
+                }
+        );
+    }
+
+    public PreparedStatement createStatement() {
+        return (PreparedStatement)Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] { PreparedStatement.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("clearParameters".equals(method.getName())) cleared++;
+                        return getDefaultValue(method);
+                    }
+                }
+        );
+    }
+
+    public PoolingDataSource createDataSource(JDBCStatementCache statementCache) {
+
+        GenericObjectPool connectionPool = new GenericObjectPool(null);
+        connectionPool.setMaxActive(1);
+
+        new PoolableConnectionFactory(
+                new ConnectionFactory() {
+                    public Connection createConnection() throws SQLException {
+                        return JDBCStatementCacheTest.this.createConnection();
+                    }
+                },
+                connectionPool,
+                statementCache,
+                null,
+                false,
+                true
+        );
+
+        return new PoolingDataSource(connectionPool);
+    }
+
+    public void testReuse() throws Exception {
+
+        JDBCStatementCache statementCache = new JDBCStatementCache();
+        PoolingDataSource ds = createDataSource(statementCache);
+
+        String sql = "select * from users where uid = ?";
+
+        for (int i = 0; i < 3; i++) {
+            Connection connection = ds.getConnection();
+            PreparedStatement ps = statementCache.prepareStatement(connection, sql);
+            ps.setObject(1, "jbond");
+            ps.close();
+            connection.close();
+        }
+
+        assertEquals(1, prepared);
+        assertEquals(3, cleared);
+
+        JDBCStatementCache.Statistic statistic = statementCache.getStatistic(sql);
+        assertEquals(3, statistic.getRequests());
+        assertEquals(2, statistic.getHits());
+    }
+
+    public void testMaxStatements() throws Exception {
+
+        JDBCStatementCache statementCache = new JDBCStatementCache(2);
+        PoolingDataSource ds = createDataSource(statementCache);
+
+        Connection connection = ds.getConnection();
+
+        for (int i = 0; i < 2; i++) {
+            for (String table : new String[] { "users", "groups", "hosts" }) {
+                statementCache.prepareStatement(connection, "select * from "+table).close();
+            }
+        }
+
+        connection.close();
+
+        // only two statements fit in the cache, the others had to be prepared again
+        assertTrue(prepared > 3);
+        assertEquals(6, prepared + statementCache.getStatistic("select * from users").getHits()
+                + statementCache.getStatistic("select * from groups").getHits()
+                + statementCache.getStatistic("select * from hosts").getHits());
+    }
+}
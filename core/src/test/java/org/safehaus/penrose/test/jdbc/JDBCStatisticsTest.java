@@ -0,0 +1,243 @@
+package org.safehaus.penrose.test.jdbc;
+
+import junit.framework.TestCase;
+import org.safehaus.penrose.jdbc.JDBC;
+import org.safehaus.penrose.jdbc.JDBCClient;
+import org.safehaus.penrose.jdbc.JDBCConnectionFactory;
+import org.safehaus.penrose.jdbc.connection.JDBCConnection;
+import org.safehaus.penrose.jdbc.source.JDBCSource;
+import org.safehaus.penrose.jdbc.source.JDBCStatistics;
+import org.safehaus.penrose.jdbc.source.JDBCStatisticsCollector;
+import org.safehaus.penrose.partition.Partition;
+import org.safehaus.penrose.partition.PartitionConfig;
+import org.safehaus.penrose.partition.PartitionContext;
+import org.safehaus.penrose.session.Session;
+import org.safehaus.penrose.source.FieldConfig;
+import org.safehaus.penrose.source.Source;
+import org.safehaus.penrose.source.SourceConfig;
+import org.safehaus.penrose.source.SourceContext;
+import org.safehaus.penrose.thread.ThreadManager;
+import org.safehaus.penrose.thread.ThreadManagerConfig;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class JDBCStatisticsTest extends TestCase {
+
+    Partition partition;
+    SourceConfig sourceConfig;
+    JDBCConnection connection;
+    ThreadManager threadManager;
+
+    String sql;
+    List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+
+    public void setUp() throws Exception {
+
+        sourceConfig = new SourceConfig();
+        sourceConfig.setName("users");
+        sourceConfig.setParameter(JDBC.TABLE, "users");
+        sourceConfig.addFieldConfig(new FieldConfig("uid", true));
+        sourceConfig.addFieldConfig(new FieldConfig("cn"));
+
+        PartitionConfig partitionConfig = new PartitionConfig();
+        partitionConfig.setName("test");
+        partitionConfig.getSourceConfigManager().addSourceConfig(sourceConfig);
+
+        ThreadManagerConfig threadManagerConfig = new ThreadManagerConfig();
+        threadManagerConfig.setParameter(ThreadManagerConfig.CORE_POOL_SIZE, "2");
+        threadManagerConfig.setParameter(ThreadManagerConfig.MAXIMUM_POOL_SIZE, "2");
+
+        threadManager = new ThreadManager("test");
+        threadManager.init(threadManagerConfig);
+
+        partition = new Partition();
+        partition.setPartitionConfig(partitionConfig);
+        partition.setThreadManager(threadManager);
+        partition.setPartitionContext(new PartitionContext() {
+            public Partition getPartition(String name) {
+                return partition;
+            }
+        });
+
+        connection = new JDBCConnection() {
+            public JDBCClient getReadClient(Session session, Source source) throws Exception {
+                threads.add(Thread.currentThread().getName());
+                JDBCClient client = new JDBCClient(connectionFactory);
+                client.connection = createConnection();
+                return client;
+            }
+            public void closeClient(Session session, Source source, JDBCClient client) throws Exception {
+            }
+        };
+
+        connection.connectionFactory = new JDBCConnectionFactory((Driver)null, new HashMap<String,String>());
+    }
+
+    public void tearDown() throws Exception {
+        threadManager.destroy();
+    }
+
+    public Object getDefaultValue(Method method) {
+        Class type = method.getReturnType();
+        if (type == Boolean.TYPE) return false;
+        if (type == Integer.TYPE) return 0;
+        if (type == Long.TYPE) return 0L;
+        return null;
+    }
+
+    public Connection createConnection() {
+        return (Connection)Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] { Connection.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("prepareStatement".equals(method.getName())) {
+                            sql = (String)args[0];
+                            return createStatement();
+                        }
+                        return getDefaultValue(method);
+                    }
+                }
+        );
+    }
+
+    public PreparedStatement createStatement() {
+        return (PreparedStatement)Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] { PreparedStatement.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("executeQuery".equals(method.getName())) return createResultSet();
+                        return getDefaultValue(method);
+                    }
+                }
+        );
+    }
+
+    /**
+     * Returns 100 rows with 100 distinct uids and 20 distinct cns.
+     */
+    public ResultSet createResultSet() {
+        return (ResultSet)Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] { ResultSet.class },
+                new InvocationHandler() {
+                    boolean next = true;
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if ("next".equals(name)) {
+                            boolean b = next;
+                            next = false;
+                            return b;
+                        }
+                        if ("getLong".equals(name)) return (Integer)args[0] == 3 ? 20L : 100L;
+                        return getDefaultValue(method);
+                    }
+                }
+        );
+    }
+
+    public JDBCSource createSource() throws Exception {
+
+        SourceContext sourceContext = new SourceContext();
+        sourceContext.setPartition(partition);
+        sourceContext.setConnection(connection);
+
+        JDBCSource source = new JDBCSource();
+        source.init(sourceConfig, sourceContext);
+
+        return source;
+    }
+
+    public void testCollect() throws Exception {
+
+        JDBCSource source = createSource();
+        assertNull(source.getStatisticsCollector());
+        assertNull(source.getStatistics());
+
+        JDBCStatistics statistics = source.collectStatistics(null);
+
+        assertEquals(
+                "select count(*), count(distinct users.uid), count(distinct users.cn) from users users",
+                sql.replaceAll("\\s+", " ").trim()
+        );
+
+        assertEquals(100, statistics.getCount());
+        assertEquals(Long.valueOf(100), statistics.getDistinctCount("uid"));
+        assertEquals(Long.valueOf(20), statistics.getDistinctCount("cn"));
+
+        assertEquals(1, statistics.getEstimatedCount("uid"));
+        assertEquals(5, statistics.getEstimatedCount("cn"));
+    }
+
+    public void testSchedule() throws Exception {
+
+        JDBCSource source = createSource();
+
+        JDBCStatisticsCollector collector = new JDBCStatisticsCollector(source, threadManager, 50);
+        Thread thread = collector.start();
+
+        for (int i = 0; i < 500 && threads.size() < 2; i++) Thread.sleep(10);
+
+        collector.stop();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+
+        assertTrue(threads.size() >= 2);
+        for (String name : threads) assertTrue(name, name.startsWith("test-"));
+
+        assertNotNull(collector.getStatistics());
+        assertEquals(100, collector.getStatistics().getCount());
+    }
+
+    public void testSkipWhileCollecting() throws Exception {
+
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        JDBCStatisticsCollector collector = new JDBCStatisticsCollector(createSource(), threadManager, 60000) {
+            public void collect() throws Exception {
+                latch.await(5, TimeUnit.SECONDS);
+            }
+        };
+
+        assertTrue(collector.schedule());
+        assertFalse(collector.schedule());
+
+        latch.countDown();
+
+        for (int i = 0; i < 500 && collector.isCollecting(); i++) Thread.sleep(10);
+        assertFalse(collector.isCollecting());
+
+        threadManager.destroy();
+        assertFalse(collector.schedule());
+        assertFalse(collector.isCollecting());
+    }
+
+    public void testInterval() throws Exception {
+
+        sourceConfig.setParameter(JDBC.STATISTICS_INTERVAL, "60");
+        JDBCSource source = createSource();
+
+        JDBCStatisticsCollector collector = source.getStatisticsCollector();
+        assertNotNull(collector);
+        assertEquals(60000, collector.getInterval());
+
+        // the first sample is taken right away
+        for (int i = 0; i < 500 && source.getStatistics() == null; i++) Thread.sleep(10);
+        assertNotNull(source.getStatistics());
+
+        source.destroy();
+    }
+}
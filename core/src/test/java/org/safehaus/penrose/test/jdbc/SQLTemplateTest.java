@@ -0,0 +1,70 @@
+package org.safehaus.penrose.test.jdbc;
+
+import junit.framework.TestCase;
+import org.safehaus.penrose.filter.Filter;
+import org.safehaus.penrose.filter.FilterTool;
+import org.safehaus.penrose.filter.SubstringFilter;
+import org.safehaus.penrose.jdbc.connection.SQLTemplate;
+import org.safehaus.penrose.jdbc.connection.SQLTemplateCache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class SQLTemplateTest extends TestCase {
+
+    public void testShape() throws Exception {
+
+        Filter filter1 = FilterTool.parseFilter("(&(uid=jbond)(cn=James*))");
+        Filter filter2 = FilterTool.parseFilter("(&(uid=jstockton)(cn=Jim*))");
+
+        List<Object> args1 = new ArrayList<Object>();
+        List<Object> args2 = new ArrayList<Object>();
+
+        assertEquals(filter1.toString(args1), filter2.toString(args2));
+        assertFalse(filter1.toString(new ArrayList<Object>()).equals(
+                FilterTool.parseFilter("(&(uid=jbond)(cn=*James))").toString(new ArrayList<Object>())));
+    }
+
+    public void testParameters() throws Exception {
+
+        List<Object> pattern = new ArrayList<Object>();
+        pattern.add(1);
+        pattern.add(SubstringFilter.STAR);
+
+        Collection<SQLTemplate.Parameter> parameters = new ArrayList<SQLTemplate.Parameter>();
+        parameters.add(new SQLTemplate.Parameter(SQLTemplate.Parameter.VALUE, true, 0));
+        parameters.add(new SQLTemplate.Parameter(SQLTemplate.Parameter.SUBSTRING, true, pattern));
+        parameters.add(new SQLTemplate.Parameter(SQLTemplate.Parameter.LOWER_BOUND, true, pattern));
+        parameters.add(new SQLTemplate.Parameter(SQLTemplate.Parameter.UPPER_BOUND, true, pattern));
+        parameters.add(new SQLTemplate.Parameter(SQLTemplate.Parameter.ESCAPED, false, 2));
+
+        SQLTemplate template = new SQLTemplate("select ...", parameters);
+
+        List<Object> args = new ArrayList<Object>();
+        FilterTool.parseFilter("(&(uid=JBond)(cn=James*)(mail=j_bond))").toString(args);
+
+        assertEquals(
+                Arrays.asList(new Object[] { "jbond", "james%", "james", "jamet", "j\\_bond" }),
+                template.getParameters(args)
+        );
+    }
+
+    public void testCache() throws Exception {
+
+        SQLTemplateCache cache = new SQLTemplateCache(1);
+
+        cache.put("(uid={0})", new SQLTemplate("select 1", new ArrayList<SQLTemplate.Parameter>()));
+        assertNotNull(cache.get("(uid={0})"));
+
+        cache.put("(cn={0})", new SQLTemplate("select 2", new ArrayList<SQLTemplate.Parameter>()));
+        assertNull(cache.get("(uid={0})"));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+}
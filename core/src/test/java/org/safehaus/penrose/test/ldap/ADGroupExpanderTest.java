@@ -0,0 +1,172 @@
+package org.safehaus.penrose.test.ldap;
+
+import junit.framework.TestCase;
+import org.safehaus.penrose.filter.Filter;
+import org.safehaus.penrose.filter.OrFilter;
+import org.safehaus.penrose.filter.SimpleFilter;
+import org.safehaus.penrose.ldap.*;
+import org.safehaus.penrose.ldap.source.ADGroupExpander;
+
+import java.util.*;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class ADGroupExpanderTest extends TestCase {
+
+    /**
+     * Stands in for Active Directory: answers memberOf searches from a fixed membership table.
+     */
+    public class ADClient extends LDAPClient {
+
+        Map<String,Collection<SearchResult>> members = new HashMap<String,Collection<SearchResult>>();
+        List<Filter> filters = new ArrayList<Filter>();
+
+        public ADClient() throws Exception {
+            super(new LDAPConnectionFactory("ldap://localhost:389"));
+        }
+
+        public void addUser(String groupDn, String uid) throws Exception {
+            Attributes attributes = new Attributes();
+            attributes.addValue("objectClass", "user");
+            attributes.addValue("sAMAccountName", uid);
+            add(groupDn, new SearchResult("cn="+uid+",dc=example,dc=com", attributes));
+        }
+
+        public void addGroup(String groupDn, String cn) throws Exception {
+            Attributes attributes = new Attributes();
+            attributes.addValue("objectClass", "group");
+            add(groupDn, new SearchResult("cn="+cn+",dc=example,dc=com", attributes));
+        }
+
+        public void add(String groupDn, SearchResult result) throws Exception {
+            String key = new DN(groupDn).getNormalizedDn();
+            Collection<SearchResult> list = members.get(key);
+            if (list == null) {
+                list = new ArrayList<SearchResult>();
+                members.put(key, list);
+            }
+            list.add(result);
+        }
+
+        public SearchResult getRootDSE() throws Exception {
+            return null;
+        }
+
+        public void search(SearchRequest request, SearchResponse response) throws Exception {
+            Filter filter = request.getFilter();
+            filters.add(filter);
+
+            Collection<Filter> list = filter instanceof OrFilter ? ((OrFilter)filter).getFilters() : Collections.singleton(filter);
+
+            for (Filter f : list) {
+                String groupDn = ((SimpleFilter)f).getValue().toString();
+                Collection<SearchResult> results = members.get(new DN(groupDn).getNormalizedDn());
+                if (results == null) continue;
+                for (SearchResult result : results) response.add(result);
+            }
+
+            response.close();
+        }
+
+        public void close() throws Exception {
+        }
+    }
+
+    public void testExpandLevels() throws Exception {
+
+        ADClient client = new ADClient();
+
+        client.addUser("cn=all,dc=example,dc=com", "alice");
+        client.addGroup("cn=all,dc=example,dc=com", "staff");
+        client.addGroup("cn=all,dc=example,dc=com", "admins");
+
+        client.addUser("cn=staff,dc=example,dc=com", "bob");
+        client.addGroup("cn=staff,dc=example,dc=com", "all"); // cycle
+
+        client.addUser("cn=admins,dc=example,dc=com", "carol");
+        client.addUser("cn=admins,dc=example,dc=com", "bob");
+        client.addGroup("cn=admins,dc=example,dc=com", "ops");
+
+        client.addUser("cn=ops,dc=example,dc=com", "dave");
+
+        ADGroupExpander expander = new ADGroupExpander();
+
+        Collection<Object> users = expander.expand(client, new DN("dc=example,dc=com"), new DN("cn=all,dc=example,dc=com"));
+
+        assertEquals(new HashSet<Object>(Arrays.asList("alice", "bob", "carol", "dave")), new HashSet<Object>(users));
+
+        // one search per level, the second level is batched into a single OR filter
+        assertEquals(3, client.filters.size());
+        assertTrue(client.filters.get(1) instanceof OrFilter);
+    }
+
+    public void testCache() throws Exception {
+
+        ADClient client = new ADClient();
+
+        client.addUser("cn=all,dc=example,dc=com", "alice");
+        client.addGroup("cn=all,dc=example,dc=com", "staff");
+        client.addUser("cn=staff,dc=example,dc=com", "bob");
+
+        ADGroupExpander expander = new ADGroupExpander();
+        DN baseDn = new DN("dc=example,dc=com");
+
+        expander.expand(client, baseDn, new DN("cn=staff,dc=example,dc=com"));
+        assertEquals(1, client.filters.size());
+
+        // the nested group is taken from the cache
+        Collection<Object> users = expander.expand(client, baseDn, new DN("cn=all,dc=example,dc=com"));
+        assertEquals(new HashSet<Object>(Arrays.asList("alice", "bob")), new HashSet<Object>(users));
+        assertEquals(2, client.filters.size());
+
+        expander.expand(client, baseDn, new DN("cn=all,dc=example,dc=com"));
+        assertEquals(2, client.filters.size());
+
+        expander.clear();
+
+        expander.expand(client, baseDn, new DN("cn=all,dc=example,dc=com"));
+        assertEquals(4, client.filters.size());
+    }
+
+    public void testBatchSize() throws Exception {
+
+        ADClient client = new ADClient();
+
+        for (int i = 0; i < 5; i++) {
+            client.addGroup("cn=all,dc=example,dc=com", "group"+i);
+            client.addUser("cn=group"+i+",dc=example,dc=com", "user"+i);
+        }
+
+        ADGroupExpander expander = new ADGroupExpander();
+        expander.setBatchSize(2);
+
+        Collection<Object> users = expander.expand(client, new DN("dc=example,dc=com"), new DN("cn=all,dc=example,dc=com"));
+
+        assertEquals(5, users.size());
+        assertEquals(1 + 3, client.filters.size());
+    }
+
+    public void testInChain() throws Exception {
+
+        ADClient client = new ADClient() {
+            public void search(SearchRequest request, SearchResponse response) throws Exception {
+                filters.add(request.getFilter());
+                Attributes attributes = new Attributes();
+                attributes.addValue("objectClass", "user");
+                attributes.addValue("sAMAccountName", "alice");
+                response.add(new SearchResult("cn=alice,dc=example,dc=com", attributes));
+                response.close();
+            }
+        };
+
+        ADGroupExpander expander = new ADGroupExpander();
+        expander.setInChain(true);
+
+        Collection<Object> users = expander.expand(client, new DN("dc=example,dc=com"), new DN("cn=all,dc=example,dc=com"));
+
+        assertEquals(1, users.size());
+        assertEquals(1, client.filters.size());
+        assertEquals("(memberOf:1.2.840.113556.1.4.1941:=cn=all,dc=example,dc=com)", client.filters.get(0).toString());
+    }
+}
@@ -0,0 +1,134 @@
+package org.safehaus.penrose.test.ldap;
+
+import junit.framework.TestCase;
+import org.safehaus.penrose.control.Control;
+import org.safehaus.penrose.control.PersistentSearchControl;
+import org.safehaus.penrose.ldap.*;
+import org.safehaus.penrose.ldap.changelog.ChangeLogConsumer;
+import org.safehaus.penrose.ldap.changelog.ChangeLogHandler;
+import org.safehaus.penrose.session.Session;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class ChangeLogConsumerTest extends TestCase {
+
+    List<Long> processed = new ArrayList<Long>();
+    List<Long> checkpoints = new ArrayList<Long>();
+    int synchronizations;
+    Long tracked = 5L;
+
+    ChangeLogHandler handler = new ChangeLogHandler() {
+
+        public Session createAdminSession() throws Exception {
+            return new Session(null) {
+                public void close() throws Exception {
+                }
+            };
+        }
+
+        public Long getLastTrackedNumber(Session session) throws Exception {
+            return tracked;
+        }
+
+        public void synchronize() throws Exception {
+            synchronizations++;
+            tracked = synchronizations == 1 ? 7L : 10L;
+        }
+
+        public void process(Session session, SearchResult result) throws Exception {
+            processed.add(Long.parseLong(result.getAttributes().getValue("changeNumber").toString()));
+        }
+
+        public void checkpoint(Session session, Long changeNumber) throws Exception {
+            checkpoints.add(changeNumber);
+            tracked = changeNumber;
+        }
+    };
+
+    /**
+     * Stands in for the upstream server: returns a few change log entries to the persistent
+     * search, then disconnects.
+     */
+    public class ChangeLogClient extends LDAPClient {
+
+        SearchRequest request;
+
+        public ChangeLogClient() throws Exception {
+            super(new LDAPConnectionFactory("ldap://localhost:389"));
+        }
+
+        public void search(SearchRequest request, SearchResponse response) throws Exception {
+            this.request = request;
+            for (long changeNumber : new long[] { 7, 8, 9, 11 }) {
+                Attributes attributes = new Attributes();
+                attributes.setValue("changeNumber", ""+changeNumber);
+                response.add(new SearchResult("changeNumber="+changeNumber+",cn=changelog", attributes));
+            }
+            response.close();
+        }
+
+        public void close() throws Exception {
+        }
+    }
+
+    public void testConsume() throws Exception {
+
+        final ChangeLogClient upstream = new ChangeLogClient();
+
+        SearchRequest request = new SearchRequest();
+        request.setDn("cn=changelog");
+
+        ChangeLogConsumer consumer = new ChangeLogConsumer(handler, null, request) {
+            public LDAPClient createClient() throws Exception {
+                return upstream;
+            }
+        };
+        consumer.setBatchSize(2);
+
+        try {
+            consumer.consume();
+            fail();
+
+        } catch (Exception e) {
+            // disconnected
+        }
+
+        assertEquals(2, synchronizations);
+        assertEquals("[8, 9, 11]", processed.toString());
+        assertEquals(11L, (long)checkpoints.get(checkpoints.size() - 1));
+
+        boolean persistentSearch = false;
+        for (Control control : upstream.request.getControls()) {
+            if (PersistentSearchControl.OID.equals(control.getOid())) persistentSearch = true;
+        }
+        assertTrue(persistentSearch);
+    }
+
+    public void testStop() throws Exception {
+
+        SearchRequest request = new SearchRequest();
+        request.setDn("cn=changelog");
+
+        ChangeLogConsumer consumer = new ChangeLogConsumer(handler, null, request) {
+            public LDAPClient createClient() throws Exception {
+                throw LDAP.createException(LDAP.UNAVAILABLE);
+            }
+        };
+        consumer.setInterval(60);
+
+        Thread thread = consumer.start("test");
+        assertTrue(thread.isDaemon());
+
+        Thread.sleep(100);
+        consumer.stop();
+
+        // the consumer doesn't wait for the next poll
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+        assertEquals(0, synchronizations);
+    }
+}
@@ -0,0 +1,159 @@
+package org.safehaus.penrose.test.ldap;
+
+import junit.framework.TestCase;
+import org.ietf.ldap.LDAPException;
+import org.safehaus.penrose.connection.CircuitBreaker;
+import org.safehaus.penrose.connection.ConnectionLimiter;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class ConnectionLimiterTest extends TestCase {
+
+    ConnectionLimiter limiter;
+    CircuitBreaker circuitBreaker;
+
+    public void setUp() throws Exception {
+        limiter = new ConnectionLimiter("test");
+        limiter.setMaxLimit(10);
+        limiter.setLimit(2);
+
+        circuitBreaker = limiter.getCircuitBreaker();
+        circuitBreaker.setFailureThreshold(3);
+        circuitBreaker.setOpenTime(100);
+    }
+
+    public void testBusy() throws Exception {
+        ConnectionLimiter.Permit permit1 = limiter.acquire();
+        limiter.acquire();
+
+        try {
+            limiter.acquire();
+            fail();
+        } catch (LDAPException e) {
+            assertEquals(LDAPException.BUSY, e.getResultCode());
+        }
+
+        permit1.release();
+        permit1.release();
+
+        assertEquals(1, limiter.getInFlight());
+        assertEquals(1, limiter.getRejections());
+
+        limiter.acquire();
+    }
+
+    public void testIncrease() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire();
+            limiter.acquire();
+            limiter.release(10, null);
+            limiter.release(10, null);
+        }
+
+        assertTrue(limiter.getLimit() > 2);
+        assertTrue(limiter.getLimit() <= 10);
+    }
+
+    public void testDecrease() throws Exception {
+        limiter.setLimit(10);
+
+        limiter.acquire();
+        limiter.release(10, null);
+
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire();
+            limiter.release(100, null); // slow
+        }
+
+        assertTrue(limiter.getLimit() < 10);
+        assertEquals(CircuitBreaker.CLOSED, circuitBreaker.getState());
+    }
+
+    public void testCircuitBreaker() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            ConnectionLimiter.Permit permit = limiter.acquire();
+            permit.failed(new LDAPException("Busy", LDAPException.BUSY, null));
+            permit.release();
+        }
+
+        assertEquals(CircuitBreaker.OPEN, circuitBreaker.getState());
+
+        try {
+            limiter.acquire();
+            fail();
+        } catch (LDAPException e) {
+            assertEquals(LDAPException.UNAVAILABLE, e.getResultCode());
+        }
+
+        Thread.sleep(150);
+
+        // one probe at a time
+        ConnectionLimiter.Permit probe = limiter.acquire();
+        assertEquals(CircuitBreaker.HALF_OPEN, circuitBreaker.getState());
+
+        try {
+            limiter.acquire();
+            fail();
+        } catch (LDAPException e) {
+            assertEquals(LDAPException.UNAVAILABLE, e.getResultCode());
+        }
+
+        probe.failed(new LDAPException("Timeout", LDAPException.LDAP_TIMEOUT, null));
+        probe.release();
+        assertEquals(CircuitBreaker.OPEN, circuitBreaker.getState());
+
+        Thread.sleep(150);
+
+        probe = limiter.acquire();
+        probe.release();
+
+        assertEquals(CircuitBreaker.CLOSED, circuitBreaker.getState());
+        assertEquals(2, circuitBreaker.getTrips());
+    }
+
+    public void testResultErrors() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            ConnectionLimiter.Permit permit = limiter.acquire();
+            permit.failed(new LDAPException("No such object", LDAPException.NO_SUCH_OBJECT, null));
+            permit.release();
+        }
+
+        assertEquals(CircuitBreaker.CLOSED, circuitBreaker.getState());
+        assertEquals(0, limiter.getFailures());
+
+        ConnectionLimiter.Permit permit = limiter.acquire();
+        permit.failed(new Exception("Connection refused"));
+        permit.release();
+
+        assertEquals(1, limiter.getFailures());
+    }
+
+    public void testAnswered() throws Exception {
+        ConnectionLimiter.Permit permit = limiter.acquire();
+        limiter.acquire();
+
+        // the response is still being streamed but no longer takes a slot
+        permit.answered();
+        assertEquals(1, limiter.getInFlight());
+
+        limiter.acquire();
+
+        permit.release();
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    public void testFailureAfterAnswered() throws Exception {
+        limiter.setLimit(10);
+
+        ConnectionLimiter.Permit permit = limiter.acquire();
+        permit.answered();
+
+        permit.failed(new Exception("Connection reset"));
+        permit.release();
+
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(1, limiter.getFailures());
+        assertTrue(limiter.getLimit() < 10);
+    }
+}
@@ -0,0 +1,135 @@
+package org.safehaus.penrose.test.ldap;
+
+import junit.framework.TestCase;
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.ietf.ldap.LDAPException;
+import org.safehaus.penrose.ldap.*;
+import org.safehaus.penrose.ldap.connection.LDAPConnection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class LDAPBindPoolTest extends TestCase {
+
+    LDAPConnection connection;
+
+    int created;
+    List<String> binds = new ArrayList<String>();
+    List<org.ietf.ldap.LDAPConnection> disconnected = new ArrayList<org.ietf.ldap.LDAPConnection>();
+
+    int resultCode;
+
+    public void setUp() throws Exception {
+
+        connection = new LDAPConnection();
+
+        connection.connectionFactory = new LDAPConnectionFactory("ldap://localhost:389") {
+            public org.ietf.ldap.LDAPConnection createConnection() {
+                created++;
+                return createUpstreamConnection();
+            }
+        };
+
+        GenericObjectPool.Config config = new GenericObjectPool.Config();
+        config.maxActive = 1;
+        config.maxIdle = 1;
+
+        connection.bindPool = new GenericObjectPool(new LDAPBindConnectionFactory(connection.connectionFactory), config);
+    }
+
+    public void tearDown() throws Exception {
+        connection.bindPool.close();
+    }
+
+    public org.ietf.ldap.LDAPConnection createUpstreamConnection() {
+        return new org.ietf.ldap.LDAPConnection() {
+
+            String authenticationDn;
+
+            public void bind(int version, String dn, byte[] password) throws LDAPException {
+                binds.add(dn);
+                if (dn != null && resultCode != LDAP.SUCCESS) {
+                    throw new LDAPException(LDAP.getMessage(resultCode), resultCode, null);
+                }
+                authenticationDn = dn;
+            }
+            public String getAuthenticationDN() {
+                return authenticationDn;
+            }
+            public boolean isConnected() {
+                return true;
+            }
+            public void disconnect() {
+                disconnected.add(this);
+            }
+        };
+    }
+
+    public void bind(String dn) throws Exception {
+        BindRequest request = new BindRequest();
+        request.setDn(dn);
+        request.setPassword("secret");
+        connection.bind(request, new BindResponse());
+    }
+
+    public void testReuse() throws Exception {
+
+        bind("uid=jbond");
+        bind("uid=jstockton");
+
+        assertEquals(1, created);
+        assertEquals(Arrays.asList("uid=jbond", null, "uid=jstockton", null), binds);
+    }
+
+    public void testAnonymousOnReturn() throws Exception {
+
+        bind("uid=jbond");
+
+        assertEquals(0, connection.bindPool.getNumActive());
+        assertEquals(1, connection.bindPool.getNumIdle());
+
+        org.ietf.ldap.LDAPConnection upstream = (org.ietf.ldap.LDAPConnection)connection.bindPool.borrowObject();
+        assertNull(upstream.getAuthenticationDN());
+        connection.bindPool.returnObject(upstream);
+    }
+
+    public void testInvalidCredentials() throws Exception {
+
+        resultCode = LDAP.INVALID_CREDENTIALS;
+
+        try {
+            bind("uid=jbond");
+            fail();
+        } catch (LDAPException e) {
+            assertEquals(LDAP.INVALID_CREDENTIALS, e.getResultCode());
+        }
+
+        // the connection is still good
+        assertEquals(1, connection.bindPool.getNumIdle());
+        assertTrue(disconnected.isEmpty());
+    }
+
+    public void testEjectableError() throws Exception {
+
+        resultCode = LDAP.BUSY;
+
+        try {
+            bind("uid=jbond");
+            fail();
+        } catch (LDAPException e) {
+            assertEquals(LDAP.BUSY, e.getResultCode());
+        }
+
+        assertEquals(0, connection.bindPool.getNumIdle());
+        assertEquals(1, disconnected.size());
+
+        resultCode = LDAP.SUCCESS;
+        bind("uid=jbond");
+
+        assertEquals(2, created);
+    }
+}
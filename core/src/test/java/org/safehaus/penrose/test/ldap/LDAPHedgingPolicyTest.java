@@ -0,0 +1,166 @@
+package org.safehaus.penrose.test.ldap;
+
+import junit.framework.TestCase;
+import org.ietf.ldap.LDAPException;
+import org.safehaus.penrose.ldap.*;
+import org.safehaus.penrose.ldap.source.LDAPHedgingPolicy;
+import org.safehaus.penrose.thread.ThreadManager;
+import org.safehaus.penrose.thread.ThreadManagerConfig;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class LDAPHedgingPolicyTest extends TestCase {
+
+    ThreadManager threadManager;
+    LDAPConnectionFactory connectionFactory;
+    LDAPHedgingPolicy policy;
+
+    long streamed = -1;
+
+    public void setUp() throws Exception {
+
+        ThreadManagerConfig threadManagerConfig = new ThreadManagerConfig();
+        threadManagerConfig.setParameter(ThreadManagerConfig.CORE_POOL_SIZE, "2");
+        threadManagerConfig.setParameter(ThreadManagerConfig.MAXIMUM_POOL_SIZE, "2");
+
+        threadManager = new ThreadManager("test");
+        threadManager.init(threadManagerConfig);
+
+        connectionFactory = new LDAPConnectionFactory("ldap://localhost:389");
+
+        policy = new LDAPHedgingPolicy(threadManager);
+    }
+
+    public void tearDown() throws Exception {
+        threadManager.destroy();
+    }
+
+    /**
+     * Returns a client that returns the given entry, or doesn't answer until its search is
+     * abandoned if there is none.
+     */
+    public LDAPClient createClient(final String dn, final SearchResponse target) throws Exception {
+        return new LDAPClient(connectionFactory) {
+            public void search(SearchRequest request, SearchResponse response) throws Exception {
+                try {
+                    if (dn == null) {
+                        long endTime = System.currentTimeMillis() + 5000;
+                        while (!response.isClosed() && System.currentTimeMillis() < endTime) {
+                            Thread.sleep(10);
+                        }
+                        return;
+                    }
+
+                    response.add(new SearchResult(dn, new Attributes()));
+
+                    // streamed results reach the target before the search completes
+                    if (target != null) streamed = target.getTotalCount();
+
+                } finally {
+                    response.close();
+                }
+            }
+        };
+    }
+
+    public void record(long elapsed) {
+        for (int i = 0; i < LDAPHedgingPolicy.MIN_SAMPLES; i++) {
+            policy.record(elapsed);
+        }
+    }
+
+    public void testDelay() throws Exception {
+        assertEquals(-1, policy.getDelay());
+
+        for (int i = 1; i <= 100; i++) {
+            policy.record(i);
+        }
+
+        assertEquals(95, policy.getDelay());
+    }
+
+    public void testBudget() throws Exception {
+        policy.setBudget(10);
+
+        int hedges = 0;
+        for (int i = 0; i < 100; i++) {
+            policy.addSearch();
+            if (policy.acquire()) hedges++;
+        }
+
+        assertTrue(hedges >= 9 && hedges <= 10);
+        assertEquals(100, policy.getSearches());
+        assertEquals(hedges, policy.getHedges());
+    }
+
+    public void testStreaming() throws Exception {
+
+        record(1000);
+
+        SearchResponse response = new SearchResponse();
+        policy.search(createClient("uid=first", response), createClient("uid=second", null), new SearchRequest(), response);
+
+        assertEquals(1, response.getTotalCount());
+        assertEquals("uid=first", response.next().getDn().toString());
+        assertEquals(1, streamed);
+        assertEquals(0, policy.getHedges());
+    }
+
+    public void testHedge() throws Exception {
+
+        record(10);
+        policy.setBudget(100);
+
+        SearchResponse response = new SearchResponse();
+        policy.search(createClient(null, null), createClient("uid=second", null), new SearchRequest(), response);
+
+        assertEquals(1, response.getTotalCount());
+        assertEquals("uid=second", response.next().getDn().toString());
+        assertEquals(1, policy.getHedges());
+    }
+
+    public void testClosed() throws Exception {
+
+        record(10);
+
+        final SearchResponse response = new SearchResponse();
+
+        new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                    response.close();
+                } catch (Exception e) {
+                    // fails the test below
+                }
+            }
+        }.start();
+
+        long startTime = System.currentTimeMillis();
+        policy.search(createClient(null, null), createClient(null, null), new SearchRequest(), response);
+
+        assertTrue(System.currentTimeMillis() - startTime < 2000);
+        assertEquals(0, response.getTotalCount());
+    }
+
+    public void testTimeLimit() throws Exception {
+
+        record(10);
+
+        SearchRequest request = new SearchRequest();
+        request.setTimeLimit(1);
+
+        long startTime = System.currentTimeMillis();
+
+        try {
+            policy.search(createClient(null, null), createClient(null, null), request, new SearchResponse());
+            fail();
+
+        } catch (LDAPException e) {
+            assertEquals(LDAP.TIME_LIMIT_EXCEEDED, e.getResultCode());
+        }
+
+        assertTrue(System.currentTimeMillis() - startTime < 3000);
+    }
+}
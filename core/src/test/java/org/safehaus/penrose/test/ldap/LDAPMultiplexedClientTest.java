@@ -0,0 +1,238 @@
+package org.safehaus.penrose.test.ldap;
+
+import junit.framework.TestCase;
+import org.ietf.ldap.LDAPConnection;
+import org.ietf.ldap.LDAPConstraints;
+import org.ietf.ldap.LDAPException;
+import org.safehaus.penrose.ldap.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class LDAPMultiplexedClientTest extends TestCase {
+
+    LDAPConnectionFactory connectionFactory;
+
+    public void setUp() throws Exception {
+        connectionFactory = new LDAPConnectionFactory("ldap://localhost:389");
+    }
+
+    public LDAPConnection createConnection() {
+        return new LDAPConnection() {
+            public void delete(String dn, LDAPConstraints constraints) throws LDAPException {
+                throw new LDAPException("Busy", LDAPException.BUSY, null);
+            }
+        };
+    }
+
+    public LDAPMultiplexedClient createClient(int size, int maxOutstanding) throws Exception {
+        return new LDAPMultiplexedClient(connectionFactory, size, maxOutstanding) {
+            public synchronized LDAPConnection getConnection(int index) throws Exception {
+                if (connections[index] == null) {
+                    connections[index] = createConnection();
+                    indexes.put(connections[index], index);
+                }
+                return connections[index];
+            }
+        };
+    }
+
+    public DeleteRequest createDeleteRequest() throws Exception {
+        DeleteRequest request = new DeleteRequest();
+        request.setDn("uid=jbond,ou=Users,dc=example,dc=com");
+        return request;
+    }
+
+    public void testLeastLoaded() throws Exception {
+
+        LDAPMultiplexedClient client = createClient(2, 2);
+
+        LDAPConnection connection1 = client.getConnection();
+        LDAPConnection connection2 = client.getConnection();
+        assertNotSame(connection1, connection2);
+
+        assertEquals(1, client.getOutstanding(0));
+        assertEquals(1, client.getOutstanding(1));
+
+        client.releaseConnection(connection1);
+
+        assertSame(connection1, client.getConnection());
+        assertEquals(1, client.getOutstanding(0));
+
+        client.getConnection();
+        client.getConnection();
+
+        assertEquals(2, client.getOutstanding(0));
+        assertEquals(2, client.getOutstanding(1));
+    }
+
+    public void testMaxOutstanding() throws Exception {
+
+        final LDAPMultiplexedClient client = createClient(1, 1);
+
+        LDAPConnection connection = client.getConnection();
+
+        final boolean[] acquired = new boolean[1];
+
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    client.releaseConnection(client.getConnection());
+                    acquired[0] = true;
+                } catch (Exception e) {
+                    // fails the test below
+                }
+            }
+        };
+        thread.start();
+
+        thread.join(200);
+        assertTrue(thread.isAlive());
+        assertFalse(acquired[0]);
+
+        client.releaseConnection(connection);
+
+        thread.join(5000);
+        assertTrue(acquired[0]);
+        assertEquals(0, client.getOutstanding(0));
+    }
+
+    public void testMaxWait() throws Exception {
+
+        LDAPMultiplexedClient client = createClient(1, 1);
+        client.setMaxWait(100);
+
+        client.getConnection();
+
+        long startTime = System.currentTimeMillis();
+
+        try {
+            client.getConnection();
+            fail();
+
+        } catch (LDAPException e) {
+            assertEquals(LDAPException.BUSY, e.getResultCode());
+        }
+
+        assertTrue(System.currentTimeMillis() - startTime >= 100);
+        assertEquals(1, client.getOutstanding(0));
+    }
+
+    public void testWaitForAnyConnection() throws Exception {
+
+        final LDAPMultiplexedClient client = createClient(2, 1);
+        client.setMaxWait(5000);
+
+        client.getConnection();
+        LDAPConnection connection2 = client.getConnection();
+
+        final LDAPConnection[] acquired = new LDAPConnection[1];
+
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    acquired[0] = client.getConnection();
+                } catch (Exception e) {
+                    // fails the test below
+                }
+            }
+        };
+        thread.start();
+
+        Thread.sleep(100);
+
+        // the waiting caller takes whichever connection frees up first
+        client.releaseConnection(connection2);
+
+        thread.join(1000);
+        assertSame(connection2, acquired[0]);
+    }
+
+    public void testReconnect() throws Exception {
+
+        final CountDownLatch connecting = new CountDownLatch(1);
+        final CountDownLatch connected = new CountDownLatch(1);
+
+        LDAPConnectionFactory connectionFactory = new LDAPConnectionFactory("ldap://localhost:389") {
+            int created;
+            public LDAPConnection createConnection() throws Exception {
+                synchronized (this) {
+                    created++;
+                    if (created > 1) return createBindableConnection();
+                }
+                connecting.countDown();
+                connected.await(5, TimeUnit.SECONDS);
+                return createBindableConnection();
+            }
+        };
+
+        final LDAPMultiplexedClient client = new LDAPMultiplexedClient(connectionFactory, 2, 1);
+
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    client.getConnection(0);
+                } catch (Exception e) {
+                    // the connection is not used
+                }
+            }
+        };
+        thread.start();
+
+        assertTrue(connecting.await(5, TimeUnit.SECONDS));
+
+        // connection 1 doesn't wait for connection 0
+        long startTime = System.currentTimeMillis();
+        assertNotNull(client.getConnection(1));
+        assertTrue(System.currentTimeMillis() - startTime < 1000);
+
+        connected.countDown();
+        thread.join(5000);
+    }
+
+    public LDAPConnection createBindableConnection() {
+        return new LDAPConnection() {
+            public void bind(int version, String dn, byte[] password) {
+            }
+        };
+    }
+
+    public void testReleaseOnError() throws Exception {
+
+        LDAPMultiplexedClient client = createClient(1, 1);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                client.delete(createDeleteRequest(), new DeleteResponse());
+                fail();
+
+            } catch (LDAPException e) {
+                assertEquals(LDAPException.BUSY, e.getResultCode());
+            }
+
+            assertEquals(0, client.getOutstanding(0));
+        }
+    }
+
+    public void testClientReleaseOnError() throws Exception {
+
+        LDAPClient client = new LDAPClient(connectionFactory) {
+            public synchronized void connect() throws Exception {
+                if (connection == null) connection = createConnection();
+            }
+        };
+
+        try {
+            client.delete(createDeleteRequest(), new DeleteResponse());
+            fail();
+
+        } catch (LDAPException e) {
+            assertEquals(LDAPException.BUSY, e.getResultCode());
+        }
+
+        assertFalse(client.operationLock.isLocked());
+    }
+}
@@ -0,0 +1,64 @@
+package org.safehaus.penrose.test.ldap;
+
+import junit.framework.TestCase;
+import org.ietf.ldap.LDAPAttribute;
+import org.ietf.ldap.LDAPAttributeSet;
+import org.ietf.ldap.LDAPEntry;
+import org.safehaus.penrose.ldap.*;
+
+import java.util.Arrays;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class LDAPPassthroughResponseTest extends TestCase {
+
+    public LDAPPassthroughResponse createResponse(SearchResponse response) throws Exception {
+        return new LDAPPassthroughResponse(response, new DN("dc=example,dc=com"), new DN("ou=proxy,dc=penrose"));
+    }
+
+    public void testConvertDn() throws Exception {
+
+        LDAPPassthroughResponse response = createResponse(new SearchResponse());
+
+        assertEquals("uid=test,ou=Users,ou=proxy,dc=penrose", response.convertDn(new DN("uid=test,ou=Users,dc=example,dc=com")).toString());
+        assertEquals("uid=test,ou=proxy,dc=penrose", response.convertDn(new DN("uid=test,DC=Example,DC=Com")).toString());
+        assertEquals("ou=proxy,dc=penrose", response.convertDn(new DN("dc=example,dc=com")).toString());
+        assertEquals("uid=test,dc=other,dc=com", response.convertDn(new DN("uid=test,dc=other,dc=com")).toString());
+    }
+
+    public void testConvertEscapedDn() throws Exception {
+
+        LDAPPassthroughResponse response = createResponse(new SearchResponse());
+
+        // the comma before the suffix is part of the RDN value
+        DN dn = new DN("cn=a\\,dc=example,dc=com");
+        assertEquals(dn.toString(), response.convertDn(dn).toString());
+    }
+
+    public void testPassthroughResult() throws Exception {
+
+        byte[] photo = new byte[] { (byte)0xff, (byte)0xd8, 0x00, 0x10 };
+
+        LDAPAttributeSet attributeSet = new LDAPAttributeSet();
+        attributeSet.add(new LDAPAttribute("cn", "Test User"));
+        attributeSet.add(new LDAPAttribute("jpegPhoto", photo));
+
+        LDAPEntry entry = new LDAPEntry("cn=Test User,dc=example,dc=com", attributeSet);
+
+        SearchResponse results = new SearchResponse();
+        LDAPPassthroughResponse response = createResponse(results);
+
+        LDAPClient client = new LDAPClient("ldap://localhost:389");
+        response.add(client.createPassthroughResult(entry));
+
+        SearchResult result = results.next();
+        assertEquals("cn=Test User,ou=proxy,dc=penrose", result.getDn().toString());
+
+        Object cn = result.getAttributes().getValue("cn");
+        assertTrue(cn instanceof byte[]);
+        assertEquals("Test User", new String((byte[])cn, "UTF-8"));
+
+        assertTrue(Arrays.equals(photo, (byte[])result.getAttributes().getValue("jpegPhoto")));
+    }
+}
@@ -0,0 +1,77 @@
+package org.safehaus.penrose.test.ldap;
+
+import junit.framework.TestCase;
+import org.ietf.ldap.LDAPException;
+import org.safehaus.penrose.ldap.LDAPConnectionFactory;
+import org.safehaus.penrose.ldap.connection.LDAPReplica;
+
+import java.util.List;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class LDAPReplicaTest extends TestCase {
+
+    LDAPConnectionFactory connectionFactory;
+    LDAPReplica replica1;
+    LDAPReplica replica2;
+
+    public void setUp() throws Exception {
+        connectionFactory = new LDAPConnectionFactory("ldap://replica1:389 ldap://replica2:389");
+
+        replica1 = connectionFactory.getReplicas().get(0);
+        replica2 = connectionFactory.getReplicas().get(1);
+    }
+
+    public void testLatency() throws Exception {
+        replica1.start();
+        replica1.succeeded(50);
+        replica1.end();
+
+        replica2.start();
+        replica2.succeeded(10);
+        replica2.end();
+
+        List<LDAPReplica> replicas = connectionFactory.getOrderedReplicas();
+        assertSame(replica2, replicas.get(0));
+        assertSame(replica1, replicas.get(1));
+    }
+
+    public void testOutstanding() throws Exception {
+        replica1.start();
+        replica1.start();
+        replica2.start();
+
+        assertSame(replica2, connectionFactory.getOrderedReplicas().get(0));
+    }
+
+    public void testEjection() throws Exception {
+        replica1.failed(new LDAPException("Busy", LDAPException.BUSY, null));
+
+        assertTrue(replica1.isEjected());
+        assertFalse(replica1.isAvailable());
+        assertSame(replica1, connectionFactory.getOrderedReplicas().get(1));
+
+        replica2.failed(new LDAPException("No such object", LDAPException.NO_SUCH_OBJECT, null));
+        assertFalse(replica2.isEjected());
+
+        replica1.succeeded(10);
+        assertFalse(replica1.isEjected());
+    }
+
+    public void testBackoff() throws Exception {
+        replica1.setEjectionTime(1000);
+        replica1.setMaxEjectionTime(3000);
+
+        long start = System.currentTimeMillis();
+
+        replica1.eject();
+        assertTrue(replica1.getEjectedUntil() - start < 2000);
+
+        replica1.eject();
+        assertTrue(replica1.getEjectedUntil() - start >= 2000);
+
+        replica1.eject();
+        assertTrue(replica1.getEjectedUntil() - System.currentTimeMillis() <= 3000);
+    }
+}
@@ -0,0 +1,120 @@
+package org.safehaus.penrose.test.ldap;
+
+import junit.framework.TestCase;
+import org.safehaus.penrose.ldap.*;
+import org.safehaus.penrose.ldap.connection.LDAPSchemaCache;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class LDAPSchemaCacheTest extends TestCase {
+
+    String modifyTimestamp = "20080101000000Z";
+    int schemaSearches;
+
+    /**
+     * Stands in for the upstream server: returns the root DSE, the subschema timestamp and
+     * a small schema.
+     */
+    public class SchemaClient extends LDAPClient {
+
+        public SchemaClient(LDAPConnectionFactory connectionFactory) throws Exception {
+            super(connectionFactory);
+        }
+
+        public void connect() throws Exception {
+        }
+
+        public void search(SearchRequest request, SearchResponse response) throws Exception {
+
+            String dn = request.getDn() == null ? "" : request.getDn().toString();
+            String[] attributeNames = request.getAttributes().toArray(new String[request.getAttributes().size()]);
+
+            Attributes attributes = new Attributes();
+
+            if ("".equals(dn)) {
+                attributes.setValue("subschemaSubentry", "cn=Subschema");
+                attributes.setValue("supportedLDAPVersion", "3");
+
+            } else if (attributeNames.length == 1 && LDAPSchemaCache.MODIFY_TIMESTAMP.equals(attributeNames[0])) {
+                attributes.setValue(LDAPSchemaCache.MODIFY_TIMESTAMP, modifyTimestamp);
+
+            } else {
+                schemaSearches++;
+                attributes.addValue("attributeTypes", "( 2.5.4.3 NAME 'cn' SYNTAX 1.3.6.1.4.1.1466.115.121.1.15 )");
+                attributes.addValue("attributeTypes", "( 2.5.4.35 NAME 'userPassword' SYNTAX 1.3.6.1.4.1.1466.115.121.1.40{128} )");
+                attributes.addValue("attributeTypes", "( 0.9.2342.19200300.100.1.60 NAME 'jpegPhoto' SYNTAX 1.3.6.1.4.1.1466.115.121.1.28 )");
+                attributes.addValue("attributeTypes", "( 1.2.3.4 NAME ( 'secretKey' 'key' ) SYNTAX 1.3.6.1.4.1.1466.115.121.1.5 )");
+            }
+
+            response.add(new SearchResult(dn, attributes));
+            response.close();
+        }
+
+        public void close() throws Exception {
+        }
+    }
+
+    public LDAPSchemaCache createSchemaCache() throws Exception {
+
+        final LDAPConnectionFactory connectionFactory = new LDAPConnectionFactory("ldap://localhost:389");
+
+        LDAPSchemaCache schemaCache = new LDAPSchemaCache(connectionFactory) {
+            public LDAPClient createClient() throws Exception {
+                return new SchemaClient(connectionFactory);
+            }
+        };
+
+        connectionFactory.schemaCache = schemaCache;
+
+        return schemaCache;
+    }
+
+    public void testRefresh() throws Exception {
+
+        LDAPSchemaCache schemaCache = createSchemaCache();
+
+        assertFalse(schemaCache.isLoaded());
+
+        schemaCache.refresh();
+
+        assertTrue(schemaCache.isLoaded());
+        assertEquals(1, schemaSearches);
+        assertEquals("3", schemaCache.getRootDSE().getAttributes().getValue("supportedLDAPVersion"));
+
+        schemaCache.refresh();
+        assertEquals(1, schemaSearches);
+
+        modifyTimestamp = "20090101000000Z";
+
+        schemaCache.refresh();
+        assertEquals(2, schemaSearches);
+        assertEquals(modifyTimestamp, schemaCache.getModifyTimestamp());
+    }
+
+    public void testBinaryAttributes() throws Exception {
+
+        LDAPSchemaCache schemaCache = createSchemaCache();
+        schemaCache.refresh();
+
+        assertTrue(schemaCache.isBinaryAttribute("userPassword"));
+        assertTrue(schemaCache.isBinaryAttribute("JPEGPHOTO"));
+        assertTrue(schemaCache.isBinaryAttribute("secretKey"));
+        assertTrue(schemaCache.isBinaryAttribute("key"));
+        assertFalse(schemaCache.isBinaryAttribute("cn"));
+    }
+
+    public void testSharedByClients() throws Exception {
+
+        LDAPSchemaCache schemaCache = createSchemaCache();
+        schemaCache.refresh();
+
+        LDAPClient client = new LDAPClient(schemaCache.createClient().connectionFactory);
+
+        assertTrue(client.isBinaryAttribute("secretKey"));
+        assertFalse(client.isBinaryAttribute("cn"));
+
+        assertSame(schemaCache.getRootDSE(), client.getRootDSE());
+        assertSame(schemaCache.getSchema(), client.getSchema());
+    }
+}
@@ -0,0 +1,216 @@
+package org.safehaus.penrose.test.ldap;
+
+import junit.framework.TestCase;
+import org.ietf.ldap.LDAPConnection;
+import org.ietf.ldap.LDAPException;
+import org.ietf.ldap.LDAPSearchConstraints;
+import org.ietf.ldap.LDAPSearchResults;
+import org.safehaus.penrose.connection.ConnectionLimiter;
+import org.safehaus.penrose.control.Control;
+import org.safehaus.penrose.control.PagedResultsControl;
+import org.safehaus.penrose.ldap.*;
+import org.safehaus.penrose.thread.ThreadManager;
+import org.safehaus.penrose.thread.ThreadManagerConfig;
+
+import java.lang.reflect.Constructor;
+import java.util.*;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class LDAPSearchPagesTest extends TestCase {
+
+    int pages = 3;
+
+    ThreadManager threadManager;
+    LDAPConnectionFactory connectionFactory;
+
+    List<LDAPSearchResults> requested = Collections.synchronizedList(new ArrayList<LDAPSearchResults>());
+    List<LDAPSearchResults> abandoned = Collections.synchronizedList(new ArrayList<LDAPSearchResults>());
+    List<Integer> added = new ArrayList<Integer>();
+
+    public void setUp() throws Exception {
+
+        ThreadManagerConfig threadManagerConfig = new ThreadManagerConfig();
+        threadManagerConfig.setParameter(ThreadManagerConfig.CORE_POOL_SIZE, "2");
+        threadManagerConfig.setParameter(ThreadManagerConfig.MAXIMUM_POOL_SIZE, "2");
+
+        threadManager = new ThreadManager("test");
+        threadManager.init(threadManagerConfig);
+
+        connectionFactory = new LDAPConnectionFactory("ldap://localhost:389");
+        connectionFactory.threadManager = threadManager;
+    }
+
+    public void tearDown() throws Exception {
+        threadManager.destroy();
+    }
+
+    public LDAPSearchResults createResults() throws Exception {
+        Constructor<LDAPSearchResults> constructor = LDAPSearchResults.class.getDeclaredConstructor(
+                com.novell.ldap.LDAPSearchResults.class
+        );
+        constructor.setAccessible(true);
+        return constructor.newInstance(new Object[] { null });
+    }
+
+    public LDAPConnection createConnection() {
+        return new LDAPConnection() {
+            public LDAPSearchResults search(
+                    String base,
+                    int scope,
+                    String filter,
+                    String attrs[],
+                    boolean typesOnly,
+                    LDAPSearchConstraints constraints
+            ) {
+                try {
+                    LDAPSearchResults rs = createResults();
+                    requested.add(rs);
+                    return rs;
+
+                } catch (Exception e) {
+                    throw new RuntimeException(e.getMessage(), e);
+                }
+            }
+            public void abandon(LDAPSearchResults rs) {
+                abandoned.add(rs);
+            }
+        };
+    }
+
+    /**
+     * Returns the number of the page after waiting for the request of the next page.
+     */
+    public int waitForNextPage(LDAPSearchResults rs) throws Exception {
+
+        int page = requested.indexOf(rs);
+        if (page == pages - 1) return page;
+
+        for (int i = 0; i < 500 && requested.size() <= page + 1; i++) Thread.sleep(10);
+        assertTrue(requested.size() > page + 1);
+
+        return page;
+    }
+
+    public LDAPClient createClient() throws Exception {
+        return new LDAPClient(connectionFactory) {
+            public byte[] getCookie(
+                    LDAPSearchResults rs,
+                    PagedResultsControl pagedResultsRequestControl,
+                    SearchResponse response
+            ) {
+                int page = requested.indexOf(rs);
+                return page < pages - 1 ? new byte[] { (byte)page } : null;
+            }
+            public boolean addResults(
+                    LDAPConnection connection,
+                    LDAPSearchResults rs,
+                    SearchResponse response
+            ) throws Exception {
+                int page = waitForNextPage(rs);
+                added.add(page);
+                response.add(new SearchResult());
+                return true;
+            }
+        };
+    }
+
+    public void searchPages(LDAPClient client, long sizeLimit, SearchResponse response) throws Exception {
+        client.searchPages(
+                createConnection(),
+                "dc=example,dc=com",
+                SearchRequest.SCOPE_SUB,
+                "(objectClass=*)",
+                new String[0],
+                false,
+                new LDAPSearchConstraints(),
+                new ArrayList<Control>(),
+                new PagedResultsControl(10, false),
+                sizeLimit,
+                response,
+                new ConnectionLimiter.Permit(null)
+        );
+    }
+
+    public void testPrefetch() throws Exception {
+
+        SearchResponse response = new SearchResponse();
+        searchPages(createClient(), 0, response);
+
+        assertEquals(Arrays.asList(0, 1, 2), added);
+        assertEquals(3, requested.size());
+        assertTrue(abandoned.isEmpty());
+    }
+
+    public void testWithoutThreadManager() throws Exception {
+
+        connectionFactory.threadManager = null;
+
+        LDAPClient client = new LDAPClient(connectionFactory) {
+            public byte[] getCookie(
+                    LDAPSearchResults rs,
+                    PagedResultsControl pagedResultsRequestControl,
+                    SearchResponse response
+            ) {
+                int page = requested.indexOf(rs);
+                return page < pages - 1 ? new byte[] { (byte)page } : null;
+            }
+            public boolean addResults(
+                    LDAPConnection connection,
+                    LDAPSearchResults rs,
+                    SearchResponse response
+            ) throws Exception {
+                added.add(requested.indexOf(rs));
+                return true;
+            }
+        };
+
+        searchPages(client, 0, new SearchResponse());
+
+        assertEquals(Arrays.asList(0, 1, 2), added);
+    }
+
+    public void testSizeLimit() throws Exception {
+
+        SearchResponse response = new SearchResponse();
+        searchPages(createClient(), 1, response);
+
+        // the second page was prefetched and is abandoned, the third is never requested
+        assertEquals(Arrays.asList(0), added);
+        assertEquals(2, requested.size());
+        assertEquals(Arrays.asList(requested.get(1)), abandoned);
+    }
+
+    public void testFailure() throws Exception {
+
+        LDAPClient client = new LDAPClient(connectionFactory) {
+            public byte[] getCookie(
+                    LDAPSearchResults rs,
+                    PagedResultsControl pagedResultsRequestControl,
+                    SearchResponse response
+            ) {
+                return new byte[] { 1 };
+            }
+            public boolean addResults(
+                    LDAPConnection connection,
+                    LDAPSearchResults rs,
+                    SearchResponse response
+            ) throws Exception {
+                waitForNextPage(rs);
+                throw LDAP.createException(LDAP.OPERATIONS_ERROR);
+            }
+        };
+
+        try {
+            searchPages(client, 0, new SearchResponse());
+            fail();
+
+        } catch (LDAPException e) {
+            assertEquals(LDAP.OPERATIONS_ERROR, e.getResultCode());
+        }
+
+        assertEquals(2, requested.size());
+        assertEquals(Arrays.asList(requested.get(1)), abandoned);
+    }
+}
@@ -0,0 +1,150 @@
+package org.safehaus.penrose.test.thread;
+
+import junit.framework.TestCase;
+import org.safehaus.penrose.thread.TaskGroup;
+import org.safehaus.penrose.thread.ThreadManager;
+import org.safehaus.penrose.thread.ThreadManagerConfig;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Endi S. Dewata
+ */
+public class TaskGroupTest extends TestCase {
+
+    ThreadManager threadManager;
+
+    public void setUp() throws Exception {
+        ThreadManagerConfig threadManagerConfig = new ThreadManagerConfig();
+        threadManagerConfig.setParameter(ThreadManagerConfig.CORE_POOL_SIZE, "1");
+        threadManagerConfig.setParameter(ThreadManagerConfig.MAXIMUM_POOL_SIZE, "1");
+
+        threadManager = new ThreadManager("test");
+        threadManager.init(threadManagerConfig);
+    }
+
+    public void tearDown() throws Exception {
+        threadManager.destroy();
+    }
+
+    public Callable<Integer> createTask(final int value) {
+        return new Callable<Integer>() {
+            public Integer call() throws Exception {
+                return value;
+            }
+        };
+    }
+
+    public void testResults() throws Exception {
+        TaskGroup<Integer> tasks = new TaskGroup<Integer>(threadManager);
+        for (int i = 0; i < 5; i++) tasks.add(createTask(i));
+
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), tasks.run());
+    }
+
+    public void testWithoutThreadManager() throws Exception {
+        TaskGroup<Integer> tasks = new TaskGroup<Integer>(null);
+        for (int i = 0; i < 3; i++) tasks.add(createTask(i));
+
+        assertEquals(Arrays.asList(0, 1, 2), tasks.run());
+    }
+
+    public void testBusyThreadManager() throws Exception {
+
+        // the only thread of the thread manager runs a group that needs more threads
+        final TaskGroup<Integer> tasks = new TaskGroup<Integer>(threadManager);
+        for (int i = 0; i < 3; i++) tasks.add(createTask(i));
+
+        final Object[] result = new Object[1];
+        final CountDownLatch done = new CountDownLatch(1);
+
+        threadManager.execute(new Runnable() {
+            public void run() {
+                try {
+                    result[0] = tasks.run();
+                } catch (Exception e) {
+                    result[0] = e;
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+
+        done.await();
+        assertEquals(Arrays.asList(0, 1, 2), result[0]);
+    }
+
+    public void testFailFast() throws Exception {
+
+        final AtomicInteger started = new AtomicInteger();
+
+        TaskGroup<Integer> tasks = new TaskGroup<Integer>(null);
+
+        tasks.add(new Callable<Integer>() {
+            public Integer call() throws Exception {
+                started.incrementAndGet();
+                throw new Exception("Failed.");
+            }
+        });
+
+        tasks.add(new Callable<Integer>() {
+            public Integer call() throws Exception {
+                started.incrementAndGet();
+                return 1;
+            }
+        });
+
+        try {
+            tasks.run();
+            fail();
+        } catch (Exception e) {
+            assertEquals("Failed.", e.getMessage());
+        }
+
+        assertEquals(1, started.get());
+    }
+
+    public void testParallelism() throws Exception {
+
+        ThreadManagerConfig threadManagerConfig = new ThreadManagerConfig();
+        threadManagerConfig.setParameter(ThreadManagerConfig.CORE_POOL_SIZE, "5");
+        threadManagerConfig.setParameter(ThreadManagerConfig.MAXIMUM_POOL_SIZE, "5");
+
+        ThreadManager threadManager = new ThreadManager("test");
+        threadManager.init(threadManagerConfig);
+
+        final AtomicInteger current = new AtomicInteger();
+        final AtomicInteger max = new AtomicInteger();
+
+        TaskGroup<Integer> tasks = new TaskGroup<Integer>(threadManager);
+        tasks.setParallelism(2);
+        tasks.setFailFast(false);
+
+        for (int i = 0; i < 6; i++) {
+            final int n = i;
+            tasks.add(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    int c = current.incrementAndGet();
+                    synchronized (max) {
+                        if (c > max.get()) max.set(c);
+                    }
+                    Thread.sleep(20);
+                    current.decrementAndGet();
+                    if (n == 3) throw new Exception("Failed.");
+                    return n;
+                }
+            });
+        }
+
+        List<Integer> results = tasks.run();
+        threadManager.destroy();
+
+        assertTrue(max.get() <= 2);
+        assertEquals(1, tasks.getFailures().size());
+        assertEquals(Arrays.asList(0, 1, 2, null, 4, 5), results);
+    }
+}